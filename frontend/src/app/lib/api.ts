@@ -1,4 +1,4 @@
-import { apiFetch } from "./http";
+import { apiFetch, apiStream } from "./http";
 
 export type AuthLoginRequest = {
   username: string;
@@ -61,11 +61,14 @@ export type DeviceChannel = {
   updatedAt: string;
 };
 
+export type PreviewStreamProfile = "MAIN" | "SUB";
+
 export type PreviewStartRequest = {
   devicePk: number;
   channelId?: string;
   protocol?: "WEBRTC" | "HLS" | "HTTP_FLV";
   browserSupportsH265: boolean;
+  streamProfile?: PreviewStreamProfile;
 };
 
 export type PreviewStartResponse = {
@@ -87,6 +90,34 @@ export type PreviewStartResponse = {
   rtpPort?: number | null;
   created: boolean;
   message: string;
+  viewerId: string;
+  leaseTtlSeconds: number;
+  streamProfile: PreviewStreamProfile;
+};
+
+export type PreviewBatchTile = {
+  devicePk: number;
+  channelId: string;
+  protocol?: "WEBRTC" | "HLS" | "HTTP_FLV";
+  streamProfile?: PreviewStreamProfile;
+};
+
+export type PreviewBatchStartItem = {
+  index: number;
+  devicePk: number;
+  channelId: string;
+  success: boolean;
+  status: number;
+  message: string;
+  result: PreviewStartResponse | null;
+};
+
+export type PreviewHeartbeatResponse = {
+  sessionId: string;
+  viewerId: string;
+  expiresAt: string;
+  leaseTtlSeconds: number;
+  viewerCount: number;
 };
 
 export type PreviewSessionStatus = {
@@ -95,6 +126,7 @@ export type PreviewSessionStatus = {
   deviceId: string;
   channelId: string;
   codec: "H264" | "H265";
+  streamProfile: PreviewStreamProfile;
   protocol: "WEBRTC" | "HLS" | "HTTP_FLV";
   playUrl: string;
   viewerCount: number;
@@ -112,6 +144,16 @@ export type PreviewWebRtcPlayResponse = {
   sdp: string;
 };
 
+export type SnapshotThumbnail = {
+  devicePk: number;
+  channelId: string;
+  status: "OK" | "STALE" | "UNAVAILABLE";
+  source: "LIVE" | "PULL" | "DISK" | null;
+  capturedAt: string | null;
+  expiresAt: string | null;
+  dataUri: string | null;
+};
+
 export type SipCommandResult = {
   success: boolean;
   callId?: string | null;
@@ -245,6 +287,17 @@ export type StoragePolicy = {
   updatedAt: string;
 };
 
+export type RetentionPolicy = {
+  id: number;
+  scope: "CHANNEL" | "GROUP";
+  scopeId: string;
+  groupName?: string | null;
+  retentionDays?: number | null;
+  maxStorageGb?: number | null;
+  priority?: number | null;
+  updatedAt: string;
+};
+
 export type StorageUsage = {
   fileCount: number;
   usedBytes: number;
@@ -331,10 +384,25 @@ export const previewApi = {
       method: "POST",
       body: JSON.stringify(payload),
     }),
-  stop: (sessionId: string) =>
+  batchStart: (
+    tiles: PreviewBatchTile[],
+    browserSupportsH265: boolean,
+    onTile: (item: PreviewBatchStartItem) => void,
+  ) =>
+    apiStream<PreviewBatchStartItem>(
+      "/api/preview/batch-start",
+      { method: "POST", body: JSON.stringify({ tiles, browserSupportsH265 }) },
+      onTile,
+    ),
+  stop: (sessionId: string, viewerId?: string) =>
     apiFetch<void>("/api/preview/stop", {
       method: "POST",
-      body: JSON.stringify({ sessionId }),
+      body: JSON.stringify({ sessionId, viewerId }),
+    }),
+  heartbeat: (sessionId: string, viewerId: string) =>
+    apiFetch<PreviewHeartbeatResponse>("/api/preview/heartbeat", {
+      method: "POST",
+      body: JSON.stringify({ sessionId, viewerId }),
     }),
   status: () => apiFetch<PreviewSessionStatus[]>("/api/preview/status"),
   webrtcPlay: (payload: PreviewWebRtcPlayRequest) =>
@@ -344,6 +412,14 @@ export const previewApi = {
     }),
 };
 
+export const snapshotApi = {
+  batch: (channels: { devicePk: number; channelId: string }[], pull = true) =>
+    apiFetch<SnapshotThumbnail[]>("/api/snapshots/batch", {
+      method: "POST",
+      body: JSON.stringify({ channels, pull }),
+    }),
+};
+
 export const gb28181Api = {
   queryDeviceInfo: (deviceId: string) =>
     apiFetch<SipCommandResult>(`/api/gb28181/devices/${deviceId}/queries/device-info`, {
@@ -451,6 +527,23 @@ export const storageApi = {
       method: "PUT",
       body: JSON.stringify(payload),
     }),
+  retentionPolicies: () => apiFetch<RetentionPolicy[]>("/api/storage/retention-policies"),
+  saveRetentionPolicy: (payload: {
+    scope: "CHANNEL" | "GROUP";
+    scopeId: string;
+    groupName?: string | null;
+    retentionDays?: number | null;
+    maxStorageGb?: number | null;
+    priority?: number | null;
+  }) =>
+    apiFetch<RetentionPolicy>("/api/storage/retention-policies", {
+      method: "PUT",
+      body: JSON.stringify(payload),
+    }),
+  deleteRetentionPolicy: (id: number) =>
+    apiFetch<void>(`/api/storage/retention-policies/${id}`, {
+      method: "DELETE",
+    }),
   usage: () => apiFetch<StorageUsage>("/api/storage/usage"),
   cleanup: () =>
     apiFetch<StorageUsage>("/api/storage/cleanup", {
@@ -494,12 +587,74 @@ export type PlaybackRecord = {
   createdAt: string;
 };
 
+export type PlaybackSpan = {
+  start: string;
+  end: string;
+  seconds: number;
+};
+
+export type PlaybackTimeline = {
+  channelId: string;
+  from: string;
+  to: string;
+  recordedSeconds: number;
+  spans: PlaybackSpan[];
+  gaps: PlaybackSpan[];
+};
+
+export type PlaybackLocated = {
+  span?: PlaybackSpan | null;
+  nextStart?: string | null;
+};
+
+export type PlaybackSeekTarget = {
+  path: string;
+  segmentStart: string;
+  segmentEnd: string;
+  codecs: string[];
+  keyframeOffsetSeconds: number;
+  keyframeTime: string;
+  byteOffset: number;
+  fileSizeBytes: number;
+};
+
+export type PlaybackExportStatus = {
+  id: number;
+  channelId: string;
+  from: string;
+  to: string;
+  state: "running" | "done" | "cancelled" | "failed";
+  segments: number;
+  segmentsSent: number;
+  segmentsSkipped: number;
+  bytesSent: number;
+  startedAt: string;
+  elapsedMs: number;
+  bytesPerSecond: number;
+};
+
 export const playbackApi = {
   channels: () => apiFetch<PlaybackChannel[]>("/api/playback/channels"),
   records: (channelId: string, date: string) =>
     apiFetch<PlaybackRecord[]>(
       `/api/playback/records?channelId=${encodeURIComponent(channelId)}&date=${encodeURIComponent(date)}`
     ),
+  /** Merged spans and gaps; from/to are yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss, to is exclusive. */
+  timeline: (channelId: string, from: string, to?: string) => {
+    const search = new URLSearchParams({ channelId, from });
+    if (to) {
+      search.set("to", to);
+    }
+    return apiFetch<PlaybackTimeline>(`/api/playback/timeline?${search.toString()}`);
+  },
+  locate: (channelId: string, time: string) =>
+    apiFetch<PlaybackLocated>(
+      `/api/playback/timeline/locate?channelId=${encodeURIComponent(channelId)}&time=${encodeURIComponent(time)}`
+    ),
+  seek: (channelId: string, time: string) =>
+    apiFetch<PlaybackSeekTarget>(
+      `/api/playback/seek?channelId=${encodeURIComponent(channelId)}&time=${encodeURIComponent(time)}`
+    ),
   /** Build a video URL that the browser can fetch directly (with auth via cookie or query). */
   videoUrl: (filePath: string): string => {
     const recordRoot = filePath;
@@ -508,4 +663,24 @@ export const playbackApi = {
       "";
     return `${API_BASE}/api/playback/video?path=${encodeURIComponent(recordRoot)}`;
   },
+  /** HLS (fMP4) playlist over [from, to); players must send the Authorization header (hls.js xhrSetup). */
+  hlsUrl: (channelId: string, from: string, to?: string): string => {
+    const API_BASE =
+      (import.meta as { env?: Record<string, string> }).env?.VITE_API_BASE ??
+      "";
+    const search = new URLSearchParams({ channelId, from });
+    if (to) {
+      search.set("to", to);
+    }
+    return `${API_BASE}/api/playback/hls/playlist.m3u8?${search.toString()}`;
+  },
+  /** Single fragmented MP4 of [from, to); fetch with the Authorization header and save the blob. */
+  exportUrl: (channelId: string, from: string, to: string): string => {
+    const API_BASE =
+      (import.meta as { env?: Record<string, string> }).env?.VITE_API_BASE ??
+      "";
+    const search = new URLSearchParams({ channelId, from, to });
+    return `${API_BASE}/api/playback/export?${search.toString()}`;
+  },
+  exports: () => apiFetch<PlaybackExportStatus[]>("/api/playback/exports"),
 };
@@ -60,3 +60,57 @@ export async function apiFetch<T>(path: string, init: RequestInit = {}): Promise
 
   return payload.data;
 }
+
+/**
+ * POSTs and reads an NDJSON response, calling onItem for every line as it arrives.
+ */
+export async function apiStream<T>(path: string, init: RequestInit, onItem: (item: T) => void): Promise<void> {
+  const token = getToken();
+  const headers = new Headers(init.headers);
+  headers.set("Content-Type", "application/json");
+  headers.set("Accept", "application/x-ndjson, application/json");
+  if (token) {
+    headers.set("Authorization", `Bearer ${token}`);
+  }
+
+  const response = await fetch(`${API_BASE}${path}`, {
+    ...init,
+    headers,
+  });
+  if (!response.ok || !response.body) {
+    let payload: ApiEnvelope<unknown> | null = null;
+    try {
+      payload = (await response.json()) as ApiEnvelope<unknown>;
+    } catch {
+      payload = null;
+    }
+    if (response.status === 401) {
+      clearToken();
+    }
+    throw new ApiError(payload?.message || `请求失败 (${response.status})`, response.status,
+      payload?.code ?? response.status);
+  }
+
+  const reader = response.body.getReader();
+  const decoder = new TextDecoder();
+  let buffer = "";
+  for (;;) {
+    const { done, value } = await reader.read();
+    buffer += decoder.decode(value ?? new Uint8Array(), { stream: !done });
+    let newline = buffer.indexOf("\n");
+    while (newline >= 0) {
+      const line = buffer.slice(0, newline).trim();
+      buffer = buffer.slice(newline + 1);
+      if (line) {
+        onItem(JSON.parse(line) as T);
+      }
+      newline = buffer.indexOf("\n");
+    }
+    if (done) {
+      break;
+    }
+  }
+  if (buffer.trim()) {
+    onItem(JSON.parse(buffer) as T);
+  }
+}
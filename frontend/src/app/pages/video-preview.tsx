@@ -15,7 +15,7 @@ import {
 } from "../components/ui/select";
 import { Button } from "../components/ui/button";
 import { Badge } from "../components/ui/badge";
-import { Pause, Play, Link2, RefreshCw, Square } from "lucide-react";
+import { LayoutGrid, Pause, Play, Link2, RefreshCw, Square } from "lucide-react";
 import { toast } from "sonner";
 import {
   deviceApi,
@@ -23,10 +23,13 @@ import {
   type Device,
   type DeviceChannel,
   type PreviewStartResponse,
+  type PreviewStreamProfile,
 } from "../lib/api";
+import { ApiError } from "../lib/http";
 import JessibucaPlayer from "../components/JessibucaPlayer";
 
 type PreviewProtocol = "WEBRTC" | "HLS" | "HTTP_FLV";
+type StreamProfileChoice = "AUTO" | PreviewStreamProfile;
 
 function supportsH265Browser() {
   if (typeof window === "undefined") {
@@ -170,6 +173,7 @@ export default function VideoPreview() {
   const [selectedDevicePk, setSelectedDevicePk] = useState<string>("");
   const [selectedChannelId, setSelectedChannelId] = useState<string>("");
   const [protocol, setProtocol] = useState<PreviewProtocol>("WEBRTC");
+  const [streamProfile, setStreamProfile] = useState<StreamProfileChoice>("AUTO");
   const [loading, setLoading] = useState(true);
   const [starting, setStarting] = useState(false);
   const [sessions, setSessions] = useState<PreviewStartResponse[]>([]);
@@ -235,11 +239,32 @@ export default function VideoPreview() {
   useEffect(() => {
     return () => {
       sessionsRef.current.forEach((item) => {
-        previewApi.stop(item.sessionId).catch(() => undefined);
+        previewApi.stop(item.sessionId, item.viewerId).catch(() => undefined);
       });
     };
   }, []);
 
+  // Keep viewer leases alive; the server reclaims sessions whose page stopped heartbeating.
+  const heartbeatSeconds = sessions.reduce(
+    (min, item) => Math.min(min, Math.max(5, Math.floor((item.leaseTtlSeconds || 45) / 3))),
+    15,
+  );
+  useEffect(() => {
+    if (sessions.length === 0) {
+      return;
+    }
+    const timer = window.setInterval(() => {
+      sessionsRef.current.forEach((item) => {
+        previewApi.heartbeat(item.sessionId, item.viewerId).catch((error) => {
+          if (error instanceof ApiError && (error.status === 404 || error.code === 404)) {
+            setSessions((prev) => prev.filter((session) => session.sessionId !== item.sessionId));
+          }
+        });
+      });
+    }, heartbeatSeconds * 1000);
+    return () => window.clearInterval(timer);
+  }, [sessions.length, heartbeatSeconds]);
+
   useEffect(() => {
     if (sessions.length === 0) {
       return;
@@ -269,6 +294,18 @@ export default function VideoPreview() {
     return () => window.clearInterval(timer);
   }, [sessions.length]);
 
+  const addSession = useCallback((data: PreviewStartResponse) => {
+    setSessions((prev) => {
+      const index = prev.findIndex((item) => item.sessionId === data.sessionId);
+      if (index < 0) {
+        return [data, ...prev];
+      }
+      const copy = [...prev];
+      copy[index] = data;
+      return copy;
+    });
+  }, []);
+
   const handleStart = async () => {
     if (!selectedDevice) {
       toast.error("请先选择设备");
@@ -289,16 +326,10 @@ export default function VideoPreview() {
         channelId: selectedChannelId,
         protocol,
         browserSupportsH265,
+        // A single tile gets the main stream; once the view becomes a grid, new tiles use the sub-stream.
+        streamProfile: streamProfile === "AUTO" ? (sessions.length > 0 ? "SUB" : "MAIN") : streamProfile,
       });
-      setSessions((prev) => {
-        const index = prev.findIndex((item) => item.sessionId === data.sessionId);
-        if (index < 0) {
-          return [data, ...prev];
-        }
-        const copy = [...prev];
-        copy[index] = data;
-        return copy;
-      });
+      addSession(data);
       await loadChannels(selectedDevice.id);
       toast.success(data.message || "预览启动成功");
     } catch (error) {
@@ -308,9 +339,58 @@ export default function VideoPreview() {
     }
   };
 
-  const handleStop = useCallback(async (sessionId: string) => {
+  // Opens every channel of the device as a grid through one batch request; tiles appear as they get ready.
+  const handleStartAll = async () => {
+    if (!selectedDevice) {
+      toast.error("请先选择设备");
+      return;
+    }
+    if (!selectedDevice.online) {
+      toast.error("设备离线，无法预览");
+      return;
+    }
+    if (channels.length === 0) {
+      toast.error("该设备没有通道");
+      return;
+    }
+    const grid = channels.length + sessions.length > 1;
+    let started = 0;
+    const failures: string[] = [];
+    try {
+      setStarting(true);
+      await previewApi.batchStart(
+        channels.map((channel) => ({
+          devicePk: selectedDevice.id,
+          channelId: channel.channelId,
+          protocol,
+          // Left out in AUTO mode for a grid: the server starts grid tiles on the sub-stream.
+          streamProfile: streamProfile === "AUTO" ? (grid ? undefined : "MAIN") : streamProfile,
+        })),
+        browserSupportsH265,
+        (item) => {
+          if (item.success && item.result) {
+            started += 1;
+            addSession(item.result);
+          } else {
+            failures.push(`${item.channelId}: ${item.message}`);
+          }
+        },
+      );
+      if (failures.length === 0) {
+        toast.success(`已启动 ${started} 路预览`);
+      } else {
+        toast.error(`已启动 ${started} 路，失败 ${failures.length} 路：${failures.join("；")}`);
+      }
+    } catch (error) {
+      toast.error(error instanceof Error ? error.message : "批量启动预览失败");
+    } finally {
+      setStarting(false);
+    }
+  };
+
+  const handleStop = useCallback(async (sessionId: string, viewerId?: string) => {
     try {
-      await previewApi.stop(sessionId);
+      await previewApi.stop(sessionId, viewerId);
       setSessions((prev) => prev.filter((item) => item.sessionId !== sessionId));
       toast.success("已停止预览");
     } catch (error) {
@@ -322,8 +402,7 @@ export default function VideoPreview() {
     if (sessions.length === 0) {
       return;
     }
-    const ids = sessions.map((item) => item.sessionId);
-    await Promise.allSettled(ids.map((id) => previewApi.stop(id)));
+    await Promise.allSettled(sessions.map((item) => previewApi.stop(item.sessionId, item.viewerId)));
     setSessions([]);
     toast.success("已停止全部预览");
   };
@@ -413,9 +492,10 @@ export default function VideoPreview() {
                     <div className="flex items-center justify-between gap-2">
                       <div className="text-xs text-slate-500 truncate">
                         {item.deviceId} / {item.channelId} / {item.codec}
+                        {item.streamProfile === "SUB" ? " / 子码流" : ""}
                       </div>
                       <div className="flex items-center">
-                        <Button variant="ghost" size="sm" onClick={() => handleStop(item.sessionId)}>
+                        <Button variant="ghost" size="sm" onClick={() => handleStop(item.sessionId, item.viewerId)}>
                           <Pause className="w-4 h-4" />
                         </Button>
                         <Button
@@ -441,6 +521,15 @@ export default function VideoPreview() {
                 </Button>
                 <span className="text-sm text-slate-600">{starting ? "启动中..." : "新增一路预览"}</span>
               </div>
+              <Button
+                variant="outline"
+                size="sm"
+                onClick={handleStartAll}
+                disabled={starting || channels.length === 0}
+              >
+                <LayoutGrid className="w-4 h-4 mr-2" />
+                全部通道
+              </Button>
             </div>
           </CardContent>
         </Card>
@@ -495,6 +584,19 @@ export default function VideoPreview() {
                   </SelectContent>
                 </Select>
               </div>
+              <div className="space-y-2">
+                <div className="text-sm text-slate-500">码流</div>
+                <Select value={streamProfile} onValueChange={(v: StreamProfileChoice) => setStreamProfile(v)}>
+                  <SelectTrigger>
+                    <SelectValue />
+                  </SelectTrigger>
+                  <SelectContent>
+                    <SelectItem value="AUTO">自动（多画面用子码流）</SelectItem>
+                    <SelectItem value="MAIN">主码流</SelectItem>
+                    <SelectItem value="SUB">子码流</SelectItem>
+                  </SelectContent>
+                </Select>
+              </div>
             </CardContent>
           </Card>
 
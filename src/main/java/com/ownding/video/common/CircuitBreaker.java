@@ -0,0 +1,148 @@
+package com.ownding.video.common;
+
+import com.ownding.video.config.AppProperties;
+
+import java.time.Instant;
+
+/**
+ * Closed / open / half-open breaker. Opens after a run of consecutive failures,
+ * rejects calls for a cool-down that doubles with every failed half-open trial,
+ * then lets a single trial call through to decide whether to close again.
+ */
+public class CircuitBreaker {
+
+    private final String name;
+    private final AppProperties.Resilience config;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int openCount;
+    private long openUntilMs;
+    private long trialStartedMs;
+    private String lastFailure;
+    private Instant lastStateChange = Instant.now();
+
+    CircuitBreaker(String name, AppProperties.Resilience config) {
+        this.name = name;
+        this.config = config;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return {@code false} when the call must fail fast; when half-open only
+     *         the trial call gets {@code true}
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.currentTimeMillis();
+        switch (state) {
+            case CLOSED -> {
+                return true;
+            }
+            case OPEN -> {
+                if (now < openUntilMs) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+                trialStartedMs = now;
+                return true;
+            }
+            default -> {
+                if (now - trialStartedMs < config.getTrialTimeoutMs()) {
+                    return false;
+                }
+                trialStartedMs = now;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Like {@link #tryAcquire()} but without taking the half-open trial, for
+     * cheap pre-checks before reserving resources for a call. Rejects while the
+     * circuit is open and while a half-open trial is in flight, since only the
+     * trial itself would get through.
+     */
+    public synchronized boolean isRejecting() {
+        long now = System.currentTimeMillis();
+        return switch (state) {
+            case CLOSED -> false;
+            case OPEN -> now < openUntilMs;
+            case HALF_OPEN -> now - trialStartedMs < config.getTrialTimeoutMs();
+        };
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            openCount = 0;
+            transition(State.CLOSED);
+        }
+    }
+
+    /**
+     * Ends the half-open trial without a verdict, for calls whose outcome says
+     * nothing about the protected service; the next call becomes the trial.
+     */
+    public synchronized void releaseTrial() {
+        if (state == State.HALF_OPEN) {
+            trialStartedMs = 0L;
+        }
+    }
+
+    public synchronized void onFailure(String reason) {
+        lastFailure = reason;
+        consecutiveFailures++;
+        boolean tripped = state == State.CLOSED && consecutiveFailures >= config.getFailureThreshold();
+        if (state == State.HALF_OPEN || tripped) {
+            long cooldown = Math.min(config.getMaxCooldownMs(),
+                    config.getBaseCooldownMs() << Math.min(openCount, 20));
+            openCount++;
+            openUntilMs = System.currentTimeMillis() + cooldown;
+            transition(State.OPEN);
+        }
+    }
+
+    /**
+     * Reason handed to callers that are rejected.
+     */
+    public synchronized String rejectionMessage() {
+        long remainingSeconds = Math.max(1L, (openUntilMs - System.currentTimeMillis() + 999L) / 1000L);
+        return "%s 连续失败已熔断，约 %d 秒后重试%s".formatted(name, remainingSeconds,
+                lastFailure == null ? "" : "（最近错误: " + lastFailure + "）");
+    }
+
+    public synchronized Status status() {
+        return new Status(
+                name,
+                state.name(),
+                consecutiveFailures,
+                state == State.OPEN ? Instant.ofEpochMilli(openUntilMs).toString() : null,
+                lastFailure,
+                lastStateChange.toString());
+    }
+
+    private void transition(State next) {
+        if (state != next) {
+            state = next;
+            lastStateChange = Instant.now();
+        }
+    }
+
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public record Status(
+            String name,
+            String state,
+            int consecutiveFailures,
+            String openUntil,
+            String lastFailure,
+            String lastStateChange) {
+    }
+}
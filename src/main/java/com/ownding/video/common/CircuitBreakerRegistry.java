@@ -0,0 +1,63 @@
+package com.ownding.video.common;
+
+import com.ownding.video.config.AppProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Circuit breakers by name: {@code device:<deviceId>} around INVITEs and
+ * stream setup, {@code zlm:<nodeId>} around ZLMediaKit API calls.
+ */
+@Component
+public class CircuitBreakerRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreakerRegistry.class);
+
+    private final AppProperties appProperties;
+    private final Map<String, CircuitBreaker> breakerByName = new ConcurrentHashMap<>();
+
+    public CircuitBreakerRegistry(AppProperties appProperties) {
+        this.appProperties = appProperties;
+    }
+
+    public static String deviceKey(String deviceId) {
+        return "device:" + deviceId;
+    }
+
+    public static String mediaNodeKey(String nodeId) {
+        return "zlm:" + nodeId;
+    }
+
+    public CircuitBreaker breaker(String name) {
+        return breakerByName.computeIfAbsent(name,
+                key -> new CircuitBreaker(key, appProperties.getResilience()));
+    }
+
+    /**
+     * @throws ApiException 503 while the named circuit is open
+     */
+    public void ensureNotRejecting(String name) {
+        CircuitBreaker breaker = breakerByName.get(name);
+        if (breaker != null && breaker.isRejecting()) {
+            log.debug("call rejected by open circuit {}", name);
+            throw new ApiException(503, breaker.rejectionMessage());
+        }
+    }
+
+    /**
+     * Circuits that are not closed or have recent failures.
+     */
+    public List<CircuitBreaker.Status> status() {
+        return breakerByName.values().stream()
+                .map(CircuitBreaker::status)
+                .filter(status -> !"CLOSED".equals(status.state()) || status.consecutiveFailures() > 0)
+                .sorted(Comparator.comparing(CircuitBreaker.Status::name))
+                .toList();
+    }
+}
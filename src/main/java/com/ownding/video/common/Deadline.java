@@ -0,0 +1,69 @@
+package com.ownding.video.common;
+
+import java.time.Duration;
+
+/**
+ * Time budget of one request, created at the API edge and handed down through
+ * every phase so that each phase waits at most for what is left of it.
+ * {@link #none()} keeps each phase's own timeout, for server-initiated work.
+ */
+public final class Deadline {
+
+    private static final Deadline NONE = new Deadline(Long.MAX_VALUE, 0L);
+
+    private final long expiresAtNanos;
+    private final long budgetMs;
+
+    private Deadline(long expiresAtNanos, long budgetMs) {
+        this.expiresAtNanos = expiresAtNanos;
+        this.budgetMs = budgetMs;
+    }
+
+    public static Deadline after(Duration budget) {
+        long budgetMs = Math.max(0L, budget.toMillis());
+        return new Deadline(System.nanoTime() + budgetMs * 1_000_000L, budgetMs);
+    }
+
+    public static Deadline none() {
+        return NONE;
+    }
+
+    public boolean isBounded() {
+        return this != NONE;
+    }
+
+    public boolean isExpired() {
+        return isBounded() && System.nanoTime() - expiresAtNanos >= 0;
+    }
+
+    public long remainingMs() {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0L, (expiresAtNanos - System.nanoTime()) / 1_000_000L);
+    }
+
+    /**
+     * The phase's own timeout, shortened to the remaining budget.
+     */
+    public Duration cap(Duration timeout) {
+        return Duration.ofMillis(capMs(timeout.toMillis()));
+    }
+
+    public long capMs(long timeoutMs) {
+        return Math.min(timeoutMs, remainingMs());
+    }
+
+    /**
+     * @throws ApiException 504 once the budget is used up
+     */
+    public void check(String phase) {
+        if (isExpired()) {
+            throw expired(phase);
+        }
+    }
+
+    public ApiException expired(String phase) {
+        return new ApiException(504, "请求超出时限（" + budgetMs + "ms），已在" + phase + "阶段中止");
+    }
+}
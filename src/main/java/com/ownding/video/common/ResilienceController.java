@@ -0,0 +1,26 @@
+package com.ownding.video.common;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/resilience")
+public class ResilienceController {
+
+    private final CircuitBreakerRegistry circuitBreakers;
+
+    public ResilienceController(CircuitBreakerRegistry circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    /**
+     * Open and half-open circuits, plus closed ones with recent failures.
+     */
+    @GetMapping("/circuits")
+    public ApiResult<List<CircuitBreaker.Status>> circuits() {
+        return ApiResult.success(circuitBreakers.status());
+    }
+}
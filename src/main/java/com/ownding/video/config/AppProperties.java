@@ -5,6 +5,11 @@ import jakarta.validation.constraints.NotBlank;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.validation.annotation.Validated;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @Validated
 @ConfigurationProperties(prefix = "app")
 public class AppProperties {
@@ -14,6 +19,7 @@ public class AppProperties {
     private final Preview preview = new Preview();
     private final Storage storage = new Storage();
     private final Gb28181 gb28181 = new Gb28181();
+    private final Resilience resilience = new Resilience();
 
     public Auth getAuth() {
         return auth;
@@ -35,6 +41,10 @@ public class AppProperties {
         return gb28181;
     }
 
+    public Resilience getResilience() {
+        return resilience;
+    }
+
     public static class Auth {
         @Min(1)
         private int tokenExpireHours = 12;
@@ -77,6 +87,22 @@ public class AppProperties {
         private String publicBaseUrl = "http://127.0.0.1:8081";
         @NotBlank
         private String defaultApp = "rtp";
+        @Min(1)
+        private int hookAliveTimeoutSeconds = 30;
+        @Min(100)
+        private int mediaSnapshotTtlMs = 1000;
+        private final Http http = new Http();
+        private final Rtp rtp = new Rtp();
+        /**
+         * Media nodes to place streams on. When empty, the single node described
+         * by baseUrl / secret / publicBaseUrl is used.
+         */
+        private List<Node> nodes = new ArrayList<>();
+        /**
+         * Source addresses allowed to call /zlm/hook. When empty, loopback and
+         * the hosts of the configured media nodes.
+         */
+        private List<String> hookAllowedIps = new ArrayList<>();
 
         public String getBaseUrl() {
             return baseUrl;
@@ -109,11 +135,276 @@ public class AppProperties {
         public void setDefaultApp(String defaultApp) {
             this.defaultApp = defaultApp;
         }
+
+        public int getHookAliveTimeoutSeconds() {
+            return hookAliveTimeoutSeconds;
+        }
+
+        public void setHookAliveTimeoutSeconds(int hookAliveTimeoutSeconds) {
+            this.hookAliveTimeoutSeconds = hookAliveTimeoutSeconds;
+        }
+
+        public int getMediaSnapshotTtlMs() {
+            return mediaSnapshotTtlMs;
+        }
+
+        public void setMediaSnapshotTtlMs(int mediaSnapshotTtlMs) {
+            this.mediaSnapshotTtlMs = mediaSnapshotTtlMs;
+        }
+
+        public Http getHttp() {
+            return http;
+        }
+
+        public Rtp getRtp() {
+            return rtp;
+        }
+
+        public List<Node> getNodes() {
+            return nodes;
+        }
+
+        public void setNodes(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        public List<String> getHookAllowedIps() {
+            return hookAllowedIps;
+        }
+
+        public void setHookAllowedIps(List<String> hookAllowedIps) {
+            this.hookAllowedIps = hookAllowedIps;
+        }
+
+        public static class Node {
+            @NotBlank
+            private String id;
+            @NotBlank
+            private String baseUrl;
+            @NotBlank
+            private String secret;
+            private String publicBaseUrl;
+            /** SDP receive address devices send RTP to; falls back to app.gb28181.media-ip. */
+            private String mediaIp;
+            @Min(1)
+            private int maxStreams = 200;
+            @Min(1)
+            private int maxBandwidthMbps = 1000;
+
+            public String getId() {
+                return id;
+            }
+
+            public void setId(String id) {
+                this.id = id;
+            }
+
+            public String getBaseUrl() {
+                return baseUrl;
+            }
+
+            public void setBaseUrl(String baseUrl) {
+                this.baseUrl = baseUrl;
+            }
+
+            public String getSecret() {
+                return secret;
+            }
+
+            public void setSecret(String secret) {
+                this.secret = secret;
+            }
+
+            public String getPublicBaseUrl() {
+                return publicBaseUrl;
+            }
+
+            public void setPublicBaseUrl(String publicBaseUrl) {
+                this.publicBaseUrl = publicBaseUrl;
+            }
+
+            public String getMediaIp() {
+                return mediaIp;
+            }
+
+            public void setMediaIp(String mediaIp) {
+                this.mediaIp = mediaIp;
+            }
+
+            public int getMaxStreams() {
+                return maxStreams;
+            }
+
+            public void setMaxStreams(int maxStreams) {
+                this.maxStreams = maxStreams;
+            }
+
+            public int getMaxBandwidthMbps() {
+                return maxBandwidthMbps;
+            }
+
+            public void setMaxBandwidthMbps(int maxBandwidthMbps) {
+                this.maxBandwidthMbps = maxBandwidthMbps;
+            }
+        }
+
+        public static class Http {
+            @Min(1)
+            private int maxConnections = 64;
+            @Min(1)
+            private int pendingAcquireMaxCount = 1000;
+            @Min(100)
+            private int pendingAcquireTimeoutMs = 3000;
+            @Min(1)
+            private int maxIdleTimeSeconds = 30;
+            @Min(1)
+            private int maxLifeTimeSeconds = 300;
+            @Min(1)
+            private int evictInBackgroundSeconds = 15;
+            @Min(100)
+            private int connectTimeoutMs = 2000;
+            @Min(100)
+            private int responseTimeoutMs = 5000;
+
+            public int getMaxConnections() {
+                return maxConnections;
+            }
+
+            public void setMaxConnections(int maxConnections) {
+                this.maxConnections = maxConnections;
+            }
+
+            public int getPendingAcquireMaxCount() {
+                return pendingAcquireMaxCount;
+            }
+
+            public void setPendingAcquireMaxCount(int pendingAcquireMaxCount) {
+                this.pendingAcquireMaxCount = pendingAcquireMaxCount;
+            }
+
+            public int getPendingAcquireTimeoutMs() {
+                return pendingAcquireTimeoutMs;
+            }
+
+            public void setPendingAcquireTimeoutMs(int pendingAcquireTimeoutMs) {
+                this.pendingAcquireTimeoutMs = pendingAcquireTimeoutMs;
+            }
+
+            public int getMaxIdleTimeSeconds() {
+                return maxIdleTimeSeconds;
+            }
+
+            public void setMaxIdleTimeSeconds(int maxIdleTimeSeconds) {
+                this.maxIdleTimeSeconds = maxIdleTimeSeconds;
+            }
+
+            public int getMaxLifeTimeSeconds() {
+                return maxLifeTimeSeconds;
+            }
+
+            public void setMaxLifeTimeSeconds(int maxLifeTimeSeconds) {
+                this.maxLifeTimeSeconds = maxLifeTimeSeconds;
+            }
+
+            public int getEvictInBackgroundSeconds() {
+                return evictInBackgroundSeconds;
+            }
+
+            public void setEvictInBackgroundSeconds(int evictInBackgroundSeconds) {
+                this.evictInBackgroundSeconds = evictInBackgroundSeconds;
+            }
+
+            public int getConnectTimeoutMs() {
+                return connectTimeoutMs;
+            }
+
+            public void setConnectTimeoutMs(int connectTimeoutMs) {
+                this.connectTimeoutMs = connectTimeoutMs;
+            }
+
+            public int getResponseTimeoutMs() {
+                return responseTimeoutMs;
+            }
+
+            public void setResponseTimeoutMs(int responseTimeoutMs) {
+                this.responseTimeoutMs = responseTimeoutMs;
+            }
+        }
+
+        public static class Rtp {
+            @Min(1)
+            private int portRangeStart = 30000;
+            @Min(1)
+            private int portRangeEnd = 30050;
+            private boolean singlePortEnabled = false;
+            @Min(1)
+            private int singlePort = 10000;
+            @Min(10)
+            private int leakGraceSeconds = 60;
+
+            public int getPortRangeStart() {
+                return portRangeStart;
+            }
+
+            public void setPortRangeStart(int portRangeStart) {
+                this.portRangeStart = portRangeStart;
+            }
+
+            public int getPortRangeEnd() {
+                return portRangeEnd;
+            }
+
+            public void setPortRangeEnd(int portRangeEnd) {
+                this.portRangeEnd = portRangeEnd;
+            }
+
+            public boolean isSinglePortEnabled() {
+                return singlePortEnabled;
+            }
+
+            public void setSinglePortEnabled(boolean singlePortEnabled) {
+                this.singlePortEnabled = singlePortEnabled;
+            }
+
+            public int getSinglePort() {
+                return singlePort;
+            }
+
+            public void setSinglePort(int singlePort) {
+                this.singlePort = singlePort;
+            }
+
+            public int getLeakGraceSeconds() {
+                return leakGraceSeconds;
+            }
+
+            public void setLeakGraceSeconds(int leakGraceSeconds) {
+                this.leakGraceSeconds = leakGraceSeconds;
+            }
+        }
     }
 
     public static class Preview {
         private boolean allowH265DirectPlay = true;
         private boolean enableH265TranscodeFallback = false;
+        @Min(10)
+        private int viewerLeaseSeconds = 45;
+        @Min(0)
+        private int idleGraceSeconds = 30;
+        /** Tiles of one batch start that are INVITEd at the same time. */
+        @Min(1)
+        private int batchStartConcurrency = 8;
+        @Min(1)
+        private int batchStartMaxTiles = 64;
+        /** Time budget of a preview start when the client sends none. */
+        @Min(1000)
+        private long startDeadlineMs = 30000;
+        /** Upper bound for a client-supplied X-Request-Deadline-Ms. */
+        @Min(1000)
+        private long maxStartDeadlineMs = 120000;
+        private final Prewarm prewarm = new Prewarm();
+        private final Snapshot snapshot = new Snapshot();
+        private final Teardown teardown = new Teardown();
 
         public boolean isAllowH265DirectPlay() {
             return allowH265DirectPlay;
@@ -130,12 +421,308 @@ public class AppProperties {
         public void setEnableH265TranscodeFallback(boolean enableH265TranscodeFallback) {
             this.enableH265TranscodeFallback = enableH265TranscodeFallback;
         }
+
+        public int getViewerLeaseSeconds() {
+            return viewerLeaseSeconds;
+        }
+
+        public void setViewerLeaseSeconds(int viewerLeaseSeconds) {
+            this.viewerLeaseSeconds = viewerLeaseSeconds;
+        }
+
+        public int getIdleGraceSeconds() {
+            return idleGraceSeconds;
+        }
+
+        public void setIdleGraceSeconds(int idleGraceSeconds) {
+            this.idleGraceSeconds = idleGraceSeconds;
+        }
+
+        public int getBatchStartConcurrency() {
+            return batchStartConcurrency;
+        }
+
+        public void setBatchStartConcurrency(int batchStartConcurrency) {
+            this.batchStartConcurrency = batchStartConcurrency;
+        }
+
+        public int getBatchStartMaxTiles() {
+            return batchStartMaxTiles;
+        }
+
+        public void setBatchStartMaxTiles(int batchStartMaxTiles) {
+            this.batchStartMaxTiles = batchStartMaxTiles;
+        }
+
+        public long getStartDeadlineMs() {
+            return startDeadlineMs;
+        }
+
+        public void setStartDeadlineMs(long startDeadlineMs) {
+            this.startDeadlineMs = startDeadlineMs;
+        }
+
+        public long getMaxStartDeadlineMs() {
+            return maxStartDeadlineMs;
+        }
+
+        public void setMaxStartDeadlineMs(long maxStartDeadlineMs) {
+            this.maxStartDeadlineMs = maxStartDeadlineMs;
+        }
+
+        public Prewarm getPrewarm() {
+            return prewarm;
+        }
+
+        public Snapshot getSnapshot() {
+            return snapshot;
+        }
+
+        public Teardown getTeardown() {
+            return teardown;
+        }
+
+        public static class Teardown {
+            /** DRAIN closes every session on shutdown; RETAIN leaves them for the next start to adopt. */
+            @NotBlank
+            private String onShutdown = "DRAIN";
+            /** Sessions torn down at the same time. */
+            @Min(1)
+            private int concurrency = 32;
+            /**
+             * How long a bulk stop waits for the teardown; sessions still closing
+             * then finish in the background.
+             */
+            @Min(100)
+            private long deadlineMs = 10000;
+            /** Upper bound of X-Request-Deadline-Ms on the admin bulk stop. */
+            @Min(100)
+            private long maxDeadlineMs = 120000;
+            /**
+             * How long the next start spends adopting RETAINed sessions; those
+             * not checked by then are dropped and their dialogs hung up.
+             */
+            @Min(1000)
+            private long recoveryDeadlineMs = 60000;
+
+            public String getOnShutdown() {
+                return onShutdown;
+            }
+
+            public void setOnShutdown(String onShutdown) {
+                this.onShutdown = onShutdown;
+            }
+
+            public int getConcurrency() {
+                return concurrency;
+            }
+
+            public void setConcurrency(int concurrency) {
+                this.concurrency = concurrency;
+            }
+
+            public long getDeadlineMs() {
+                return deadlineMs;
+            }
+
+            public void setDeadlineMs(long deadlineMs) {
+                this.deadlineMs = deadlineMs;
+            }
+
+            public long getMaxDeadlineMs() {
+                return maxDeadlineMs;
+            }
+
+            public void setMaxDeadlineMs(long maxDeadlineMs) {
+                this.maxDeadlineMs = maxDeadlineMs;
+            }
+
+            public long getRecoveryDeadlineMs() {
+                return recoveryDeadlineMs;
+            }
+
+            public void setRecoveryDeadlineMs(long recoveryDeadlineMs) {
+                this.recoveryDeadlineMs = recoveryDeadlineMs;
+            }
+        }
+
+        public static class Prewarm {
+            private boolean enabled = false;
+            @Min(1)
+            private int halfLifeMinutes = 60;
+            private double minScore = 2.0D;
+            @Min(0)
+            private int maxSessions = 8;
+            /** RTP ports that must stay free for on-demand previews and playback. */
+            @Min(0)
+            private int reservePorts = 10;
+            /** Open streams per device (viewed or warm) beyond which no warm stream is added. */
+            @Min(1)
+            private int maxStreamsPerDevice = 2;
+            @Min(1)
+            private int maxBandwidthMbps = 50;
+
+            public boolean isEnabled() {
+                return enabled;
+            }
+
+            public void setEnabled(boolean enabled) {
+                this.enabled = enabled;
+            }
+
+            public int getHalfLifeMinutes() {
+                return halfLifeMinutes;
+            }
+
+            public void setHalfLifeMinutes(int halfLifeMinutes) {
+                this.halfLifeMinutes = halfLifeMinutes;
+            }
+
+            public double getMinScore() {
+                return minScore;
+            }
+
+            public void setMinScore(double minScore) {
+                this.minScore = minScore;
+            }
+
+            public int getMaxSessions() {
+                return maxSessions;
+            }
+
+            public void setMaxSessions(int maxSessions) {
+                this.maxSessions = maxSessions;
+            }
+
+            public int getReservePorts() {
+                return reservePorts;
+            }
+
+            public void setReservePorts(int reservePorts) {
+                this.reservePorts = reservePorts;
+            }
+
+            public int getMaxStreamsPerDevice() {
+                return maxStreamsPerDevice;
+            }
+
+            public void setMaxStreamsPerDevice(int maxStreamsPerDevice) {
+                this.maxStreamsPerDevice = maxStreamsPerDevice;
+            }
+
+            public int getMaxBandwidthMbps() {
+                return maxBandwidthMbps;
+            }
+
+            public void setMaxBandwidthMbps(int maxBandwidthMbps) {
+                this.maxBandwidthMbps = maxBandwidthMbps;
+            }
+        }
+
+        public static class Snapshot {
+            @Min(1)
+            private int liveTtlSeconds = 10;
+            /** Channels nobody is watching are pulled briefly for a frame, so keep that frame longer. */
+            @Min(1)
+            private int pulledTtlSeconds = 300;
+            @Min(1)
+            private int memoryCacheMb = 64;
+            /** Frames evicted from memory are kept here and served until their TTL ends. */
+            @NotBlank
+            private String spillDir = "./data/snapshots";
+            private boolean pullEnabled = true;
+            @Min(1)
+            private int maxConcurrentPulls = 4;
+            @Min(1)
+            private int timeoutSeconds = 10;
+            /** Stream URL handed to getSnap, resolved by ZLMediaKit itself; {app} and {stream} are substituted. */
+            @NotBlank
+            private String sourceUrlTemplate = "rtsp://127.0.0.1:554/{app}/{stream}";
+            @Min(1)
+            private int maxBatchSize = 64;
+
+            public int getLiveTtlSeconds() {
+                return liveTtlSeconds;
+            }
+
+            public void setLiveTtlSeconds(int liveTtlSeconds) {
+                this.liveTtlSeconds = liveTtlSeconds;
+            }
+
+            public int getPulledTtlSeconds() {
+                return pulledTtlSeconds;
+            }
+
+            public void setPulledTtlSeconds(int pulledTtlSeconds) {
+                this.pulledTtlSeconds = pulledTtlSeconds;
+            }
+
+            public int getMemoryCacheMb() {
+                return memoryCacheMb;
+            }
+
+            public void setMemoryCacheMb(int memoryCacheMb) {
+                this.memoryCacheMb = memoryCacheMb;
+            }
+
+            public String getSpillDir() {
+                return spillDir;
+            }
+
+            public void setSpillDir(String spillDir) {
+                this.spillDir = spillDir;
+            }
+
+            public boolean isPullEnabled() {
+                return pullEnabled;
+            }
+
+            public void setPullEnabled(boolean pullEnabled) {
+                this.pullEnabled = pullEnabled;
+            }
+
+            public int getMaxConcurrentPulls() {
+                return maxConcurrentPulls;
+            }
+
+            public void setMaxConcurrentPulls(int maxConcurrentPulls) {
+                this.maxConcurrentPulls = maxConcurrentPulls;
+            }
+
+            public int getTimeoutSeconds() {
+                return timeoutSeconds;
+            }
+
+            public void setTimeoutSeconds(int timeoutSeconds) {
+                this.timeoutSeconds = timeoutSeconds;
+            }
+
+            public String getSourceUrlTemplate() {
+                return sourceUrlTemplate;
+            }
+
+            public void setSourceUrlTemplate(String sourceUrlTemplate) {
+                this.sourceUrlTemplate = sourceUrlTemplate;
+            }
+
+            public int getMaxBatchSize() {
+                return maxBatchSize;
+            }
+
+            public void setMaxBatchSize(int maxBatchSize) {
+                this.maxBatchSize = maxBatchSize;
+            }
+        }
     }
 
     public static class Storage {
         @Min(30)
         private int cleanupIntervalSeconds = 180;
         private String zlmRecordPath = "";
+        private final RecordIndex recordIndex = new RecordIndex();
+        private final Cleanup cleanup = new Cleanup();
+        private final Export export = new Export();
+        private final Tiering tiering = new Tiering();
 
         public int getCleanupIntervalSeconds() {
             return cleanupIntervalSeconds;
@@ -152,6 +739,205 @@ public class AppProperties {
         public void setZlmRecordPath(String zlmRecordPath) {
             this.zlmRecordPath = zlmRecordPath;
         }
+
+        public RecordIndex getRecordIndex() {
+            return recordIndex;
+        }
+
+        public Cleanup getCleanup() {
+            return cleanup;
+        }
+
+        public Export getExport() {
+            return export;
+        }
+
+        public Tiering getTiering() {
+            return tiering;
+        }
+
+        public static class Cleanup {
+            /** Overwrite cleanup starts when the record file system's free space falls below this share. */
+            @Min(1)
+            private int lowFreePercent = 10;
+            /** ...and keeps deleting the oldest segments until free space is back above this share. */
+            @Min(1)
+            private int highFreePercent = 15;
+            /** How often free space and the size cap are checked between timer runs. */
+            @Min(1000)
+            private long watermarkCheckIntervalMs = 10000;
+            /** Files or directories deleted at the same time. */
+            @Min(1)
+            private int deleteConcurrency = 4;
+            /** Oldest segments taken from the index per round. */
+            @Min(10)
+            private int batchSize = 500;
+
+            public int getLowFreePercent() {
+                return lowFreePercent;
+            }
+
+            public void setLowFreePercent(int lowFreePercent) {
+                this.lowFreePercent = lowFreePercent;
+            }
+
+            public int getHighFreePercent() {
+                return highFreePercent;
+            }
+
+            public void setHighFreePercent(int highFreePercent) {
+                this.highFreePercent = highFreePercent;
+            }
+
+            public long getWatermarkCheckIntervalMs() {
+                return watermarkCheckIntervalMs;
+            }
+
+            public void setWatermarkCheckIntervalMs(long watermarkCheckIntervalMs) {
+                this.watermarkCheckIntervalMs = watermarkCheckIntervalMs;
+            }
+
+            public int getDeleteConcurrency() {
+                return deleteConcurrency;
+            }
+
+            public void setDeleteConcurrency(int deleteConcurrency) {
+                this.deleteConcurrency = deleteConcurrency;
+            }
+
+            public int getBatchSize() {
+                return batchSize;
+            }
+
+            public void setBatchSize(int batchSize) {
+                this.batchSize = batchSize;
+            }
+        }
+
+        public static class Tiering {
+            /** Move closed day directories from the record path to the cold paths. */
+            private boolean enabled = false;
+            /** Days kept on the record path (hot tier) before migration. */
+            @Min(0)
+            private int hotDays = 2;
+            /** Cold tier roots (large HDD, NAS mount); the one with most free space receives each move. */
+            private List<String> coldPaths = new ArrayList<>();
+            @Min(60000)
+            private long migrateIntervalMs = 600000;
+            /** Copy rate of the migrator, in bytes per second; 0 is unlimited. */
+            @Min(0)
+            private long migrateBytesPerSecond = 50L * 1024 * 1024;
+
+            public boolean isEnabled() {
+                return enabled;
+            }
+
+            public void setEnabled(boolean enabled) {
+                this.enabled = enabled;
+            }
+
+            public int getHotDays() {
+                return hotDays;
+            }
+
+            public void setHotDays(int hotDays) {
+                this.hotDays = hotDays;
+            }
+
+            public List<String> getColdPaths() {
+                return coldPaths;
+            }
+
+            public void setColdPaths(List<String> coldPaths) {
+                this.coldPaths = coldPaths;
+            }
+
+            public long getMigrateIntervalMs() {
+                return migrateIntervalMs;
+            }
+
+            public void setMigrateIntervalMs(long migrateIntervalMs) {
+                this.migrateIntervalMs = migrateIntervalMs;
+            }
+
+            public long getMigrateBytesPerSecond() {
+                return migrateBytesPerSecond;
+            }
+
+            public void setMigrateBytesPerSecond(long migrateBytesPerSecond) {
+                this.migrateBytesPerSecond = migrateBytesPerSecond;
+            }
+        }
+
+        public static class Export {
+            /** Clip exports streaming at the same time; more are refused with 503. */
+            @Min(1)
+            private int maxConcurrent = 4;
+            /** Shared by all exports on this node, in bytes per second; 0 is unlimited. */
+            @Min(0)
+            private long maxBytesPerSecond = 0;
+            @Min(1)
+            private int maxRangeHours = 24;
+
+            public int getMaxConcurrent() {
+                return maxConcurrent;
+            }
+
+            public void setMaxConcurrent(int maxConcurrent) {
+                this.maxConcurrent = maxConcurrent;
+            }
+
+            public long getMaxBytesPerSecond() {
+                return maxBytesPerSecond;
+            }
+
+            public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+                this.maxBytesPerSecond = maxBytesPerSecond;
+            }
+
+            public int getMaxRangeHours() {
+                return maxRangeHours;
+            }
+
+            public void setMaxRangeHours(int maxRangeHours) {
+                this.maxRangeHours = maxRangeHours;
+            }
+        }
+
+        public static class RecordIndex {
+            /** Watch the record tree for new and removed segments between reconciliations. */
+            private boolean watchEnabled = true;
+            /** Full walk that repairs whatever the watcher and the hook missed. */
+            @Min(60000)
+            private long reconcileIntervalMs = 3600000;
+            /** Directories walked at the same time during a full scan. */
+            @Min(1)
+            private int scanParallelism = 4;
+
+            public boolean isWatchEnabled() {
+                return watchEnabled;
+            }
+
+            public void setWatchEnabled(boolean watchEnabled) {
+                this.watchEnabled = watchEnabled;
+            }
+
+            public long getReconcileIntervalMs() {
+                return reconcileIntervalMs;
+            }
+
+            public void setReconcileIntervalMs(long reconcileIntervalMs) {
+                this.reconcileIntervalMs = reconcileIntervalMs;
+            }
+
+            public int getScanParallelism() {
+                return scanParallelism;
+            }
+
+            public void setScanParallelism(int scanParallelism) {
+                this.scanParallelism = scanParallelism;
+            }
+        }
     }
 
     public static class Gb28181 {
@@ -174,6 +960,14 @@ public class AppProperties {
         private int inviteTimeoutMs = 8000;
         @NotBlank
         private String ssrcPrefix = "0";
+        /**
+         * SDP attributes added to an INVITE that asks for a specific stream, {n}
+         * being the stream number (0 main, 1 sub). streamnumber is GB28181-2022;
+         * streamprofile is understood by many older devices.
+         */
+        private List<String> streamNumberSdpAttributes = new ArrayList<>(List.of("streamnumber:{n}",
+                "streamprofile:{n}"));
+        private final Admission admission = new Admission();
 
         public boolean isEnabled() {
             return enabled;
@@ -255,6 +1049,114 @@ public class AppProperties {
             this.ssrcPrefix = ssrcPrefix;
         }
 
+        public List<String> getStreamNumberSdpAttributes() {
+            return streamNumberSdpAttributes;
+        }
+
+        public void setStreamNumberSdpAttributes(List<String> streamNumberSdpAttributes) {
+            this.streamNumberSdpAttributes = streamNumberSdpAttributes;
+        }
+
+        public Admission getAdmission() {
+            return admission;
+        }
+
+        public static class Admission {
+            /** Session setups (INVITE until its final answer) in flight across all devices. */
+            @Min(1)
+            private int maxConcurrent = 32;
+            @Min(1)
+            private int maxConcurrentPerDevice = 4;
+            /** Per-device overrides of max-concurrent-per-device keyed by device id. */
+            private Map<String, Integer> deviceLimits = new HashMap<>();
+            /** Sessions a device carries at once, established or being set up. */
+            @Min(1)
+            private int maxSessionsPerDevice = 16;
+            /** Per-device overrides keyed by device id, e.g. for NVRs with a known session limit. */
+            private Map<String, Integer> deviceSessionLimits = new HashMap<>();
+            @Min(0)
+            private long interactiveMaxWaitMs = 5000;
+            @Min(0)
+            private long playbackMaxWaitMs = 10000;
+            @Min(0)
+            private long backgroundMaxWaitMs = 30000;
+            /** How long a limit lowered after a busy answer stays in force. */
+            @Min(1)
+            private int learnedLimitTtlSeconds = 600;
+
+            public int getMaxConcurrent() {
+                return maxConcurrent;
+            }
+
+            public void setMaxConcurrent(int maxConcurrent) {
+                this.maxConcurrent = maxConcurrent;
+            }
+
+            public int getMaxConcurrentPerDevice() {
+                return maxConcurrentPerDevice;
+            }
+
+            public void setMaxConcurrentPerDevice(int maxConcurrentPerDevice) {
+                this.maxConcurrentPerDevice = maxConcurrentPerDevice;
+            }
+
+            public Map<String, Integer> getDeviceLimits() {
+                return deviceLimits;
+            }
+
+            public void setDeviceLimits(Map<String, Integer> deviceLimits) {
+                this.deviceLimits = deviceLimits;
+            }
+
+            public int getMaxSessionsPerDevice() {
+                return maxSessionsPerDevice;
+            }
+
+            public void setMaxSessionsPerDevice(int maxSessionsPerDevice) {
+                this.maxSessionsPerDevice = maxSessionsPerDevice;
+            }
+
+            public Map<String, Integer> getDeviceSessionLimits() {
+                return deviceSessionLimits;
+            }
+
+            public void setDeviceSessionLimits(Map<String, Integer> deviceSessionLimits) {
+                this.deviceSessionLimits = deviceSessionLimits;
+            }
+
+            public long getInteractiveMaxWaitMs() {
+                return interactiveMaxWaitMs;
+            }
+
+            public void setInteractiveMaxWaitMs(long interactiveMaxWaitMs) {
+                this.interactiveMaxWaitMs = interactiveMaxWaitMs;
+            }
+
+            public long getPlaybackMaxWaitMs() {
+                return playbackMaxWaitMs;
+            }
+
+            public void setPlaybackMaxWaitMs(long playbackMaxWaitMs) {
+                this.playbackMaxWaitMs = playbackMaxWaitMs;
+            }
+
+            public long getBackgroundMaxWaitMs() {
+                return backgroundMaxWaitMs;
+            }
+
+            public void setBackgroundMaxWaitMs(long backgroundMaxWaitMs) {
+                this.backgroundMaxWaitMs = backgroundMaxWaitMs;
+            }
+
+            public int getLearnedLimitTtlSeconds() {
+                return learnedLimitTtlSeconds;
+            }
+
+            public void setLearnedLimitTtlSeconds(int learnedLimitTtlSeconds) {
+                this.learnedLimitTtlSeconds = learnedLimitTtlSeconds;
+            }
+        }
+
         public String getLocalBindIp() {
             return localBindIp;
         }
@@ -263,4 +1165,53 @@ public class AppProperties {
             this.localBindIp = localBindIp;
         }
     }
+
+    /**
+     * Circuit breakers per device and per media node.
+     */
+    public static class Resilience {
+        /** Consecutive failures that open a circuit. */
+        @Min(1)
+        private int failureThreshold = 3;
+        /** First open period; doubles each time a half-open trial fails. */
+        @Min(100)
+        private long baseCooldownMs = 5000;
+        @Min(100)
+        private long maxCooldownMs = 300000;
+        /** A half-open trial that reports nothing within this time lets another call try. */
+        @Min(100)
+        private long trialTimeoutMs = 30000;
+
+        public int getFailureThreshold() {
+            return failureThreshold;
+        }
+
+        public void setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+        }
+
+        public long getBaseCooldownMs() {
+            return baseCooldownMs;
+        }
+
+        public void setBaseCooldownMs(long baseCooldownMs) {
+            this.baseCooldownMs = baseCooldownMs;
+        }
+
+        public long getMaxCooldownMs() {
+            return maxCooldownMs;
+        }
+
+        public void setMaxCooldownMs(long maxCooldownMs) {
+            this.maxCooldownMs = maxCooldownMs;
+        }
+
+        public long getTrialTimeoutMs() {
+            return trialTimeoutMs;
+        }
+
+        public void setTrialTimeoutMs(long trialTimeoutMs) {
+            this.trialTimeoutMs = trialTimeoutMs;
+        }
+    }
 }
@@ -1,8 +1,15 @@
 package com.ownding.video.config;
 
+import io.netty.channel.ChannelOption;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
 
 @Configuration
 public class WebClientConfig {
@@ -12,7 +19,38 @@ public class WebClientConfig {
     }
 
     @Bean
+    @Primary
     public WebClient webClient(WebClient.Builder builder) {
         return builder.build();
     }
+
+    /**
+     * Bounded pool for ZLMediaKit API calls, so concurrent preview setups queue for
+     * a connection instead of opening one socket each.
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider zlmConnectionProvider(AppProperties appProperties) {
+        AppProperties.Zlm.Http http = appProperties.getZlm().getHttp();
+        return ConnectionProvider.builder("zlm")
+                .maxConnections(http.getMaxConnections())
+                .pendingAcquireMaxCount(http.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(Duration.ofMillis(http.getPendingAcquireTimeoutMs()))
+                .maxIdleTime(Duration.ofSeconds(http.getMaxIdleTimeSeconds()))
+                .maxLifeTime(Duration.ofSeconds(http.getMaxLifeTimeSeconds()))
+                .evictInBackground(Duration.ofSeconds(http.getEvictInBackgroundSeconds()))
+                .build();
+    }
+
+    @Bean
+    public WebClient zlmWebClient(WebClient.Builder builder, ConnectionProvider zlmConnectionProvider,
+            AppProperties appProperties) {
+        AppProperties.Zlm.Http http = appProperties.getZlm().getHttp();
+        HttpClient httpClient = HttpClient.create(zlmConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, http.getConnectTimeoutMs())
+                .responseTimeout(Duration.ofMillis(http.getResponseTimeoutMs()))
+                .keepAlive(true);
+        return builder.clone()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
 }
@@ -23,9 +23,16 @@ import java.util.Optional;
 public class Gb28181Controller {
 
     private final Gb28181Service gb28181Service;
+    private final InviteAdmissionController inviteAdmission;
 
-    public Gb28181Controller(Gb28181Service gb28181Service) {
+    public Gb28181Controller(Gb28181Service gb28181Service, InviteAdmissionController inviteAdmission) {
         this.gb28181Service = gb28181Service;
+        this.inviteAdmission = inviteAdmission;
+    }
+
+    @GetMapping("/admission")
+    public ApiResult<InviteAdmissionController.AdmissionStatus> admission() {
+        return ApiResult.success(inviteAdmission.status());
     }
 
     @PostMapping("/devices/{deviceId}/queries/device-info")
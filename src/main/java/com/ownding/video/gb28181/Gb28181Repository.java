@@ -417,6 +417,61 @@ public class Gb28181Repository {
                 .update();
     }
 
+    public void saveSipDialog(GbSipDialog dialog) {
+        jdbcClient.sql("""
+                INSERT INTO sip_dialog (
+                    call_id, device_id, channel_id, host, port, transport,
+                    local_tag, remote_tag, remote_target, local_cseq, created_at
+                ) VALUES (
+                    :callId, :deviceId, :channelId, :host, :port, :transport,
+                    :localTag, :remoteTag, :remoteTarget, :localCseq, :createdAt
+                )
+                ON CONFLICT(call_id) DO UPDATE SET
+                    remote_tag = excluded.remote_tag,
+                    remote_target = excluded.remote_target,
+                    local_cseq = excluded.local_cseq
+                """)
+                .param("callId", dialog.callId())
+                .param("deviceId", dialog.deviceId())
+                .param("channelId", dialog.channelId())
+                .param("host", dialog.host())
+                .param("port", dialog.port())
+                .param("transport", dialog.transport())
+                .param("localTag", dialog.localTag())
+                .param("remoteTag", dialog.remoteTag())
+                .param("remoteTarget", dialog.remoteTarget())
+                .param("localCseq", dialog.localCseq())
+                .param("createdAt", dialog.createdAt())
+                .update();
+    }
+
+    public void deleteSipDialog(String callId) {
+        jdbcClient.sql("DELETE FROM sip_dialog WHERE call_id = :callId")
+                .param("callId", callId)
+                .update();
+    }
+
+    public List<GbSipDialog> listSipDialogs() {
+        return jdbcClient.sql("""
+                SELECT call_id, device_id, channel_id, host, port, transport,
+                       local_tag, remote_tag, remote_target, local_cseq, created_at
+                FROM sip_dialog
+                """)
+                .query((rs, rowNum) -> new GbSipDialog(
+                        rs.getString("call_id"),
+                        rs.getString("device_id"),
+                        rs.getString("channel_id"),
+                        rs.getString("host"),
+                        rs.getInt("port"),
+                        rs.getString("transport"),
+                        rs.getString("local_tag"),
+                        rs.getString("remote_tag"),
+                        rs.getString("remote_target"),
+                        rs.getLong("local_cseq"),
+                        rs.getString("created_at")))
+                .list();
+    }
+
     @Transactional
     public void syncCatalog(String deviceId, List<UpsertCatalogItemCommand> items) {
         Optional<DevicePkAndCodec> deviceInfo = jdbcClient.sql("""
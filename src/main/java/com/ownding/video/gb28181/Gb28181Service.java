@@ -1,10 +1,14 @@
 package com.ownding.video.gb28181;
 
 import com.ownding.video.common.ApiException;
+import com.ownding.video.common.CircuitBreakerRegistry;
+import com.ownding.video.common.Deadline;
 import com.ownding.video.config.AppProperties;
 import com.ownding.video.device.Device;
 import com.ownding.video.device.DeviceService;
+import com.ownding.video.media.MediaNodeRegistry;
 import com.ownding.video.media.PreviewService;
+import com.ownding.video.media.SessionTeardown;
 import com.ownding.video.media.ZlmClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,7 +21,9 @@ import java.time.format.DateTimeFormatter;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.HashSet;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -33,16 +39,21 @@ public class Gb28181Service {
     private final SipSignalService sipSignalService;
     private final ZlmClient zlmClient;
     private final AppProperties appProperties;
+    private final InviteAdmissionController inviteAdmission;
+    private final CircuitBreakerRegistry circuitBreakers;
     private final AtomicLong snGenerator = new AtomicLong(System.currentTimeMillis() % 1000000L);
 
     public Gb28181Service(DeviceService deviceService, Gb28181Repository repository,
             SipSignalService sipSignalService, ZlmClient zlmClient,
-            AppProperties appProperties) {
+            AppProperties appProperties, InviteAdmissionController inviteAdmission,
+            CircuitBreakerRegistry circuitBreakers) {
         this.deviceService = deviceService;
         this.repository = repository;
         this.sipSignalService = sipSignalService;
         this.zlmClient = zlmClient;
         this.appProperties = appProperties;
+        this.inviteAdmission = inviteAdmission;
+        this.circuitBreakers = circuitBreakers;
     }
 
     // ===== Query / Subscription (existing) =====
@@ -178,42 +189,62 @@ public class Gb28181Service {
         }
 
         String sessionId = UUID.randomUUID().toString().replace("-", "");
-        String streamId = "playback_" + channelId + "_" + sessionId.substring(0, 8);
         String ssrc = sipSignalService.generatePlaybackSsrc();
         int streamMode = resolveStreamMode(device.transport());
         String app = appProperties.getZlm().getDefaultApp();
 
-        Integer rtpPort = zlmClient.openRtpServer(streamId, streamMode);
-        if (rtpPort == null || rtpPort <= 0) {
-            throw new ApiException(502, "无法在ZLMediaKit创建RTP端口");
-        }
-        log.info("playback openRtpServer: deviceId={}, channelId={}, streamId={}, rtpPort={}, ssrc={}",
-                deviceId, channelId, streamId, rtpPort, ssrc);
-
-        String sdpIp = appProperties.getGb28181().getMediaIp();
-        SipSignalService.InviteResult inviteResult = sipSignalService.invite(
-                new SipSignalService.InviteCommand(
-                        device.deviceId(), device.ip(), device.port(), channelId,
-                        device.transport().toUpperCase(), streamMode, rtpPort, ssrc,
-                        sdpIp, streamId, command.startTime(), command.endTime()));
-        if (!inviteResult.success()) {
-            zlmClient.closeRtpServer(streamId);
-            throw new ApiException(502, "回放 INVITE 失败: " + inviteResult.reason());
-        }
-        log.info("playback invite accepted: callId={}, streamId={}", inviteResult.callId(), streamId);
+        String streamId;
+        int rtpPort;
+        SipSignalService.InviteResult inviteResult;
+        boolean streamReady;
+        String deviceCircuit = CircuitBreakerRegistry.deviceKey(device.deviceId());
+        circuitBreakers.ensureNotRejecting(deviceCircuit);
+        GbPlaybackSession session;
+        try (InviteAdmissionController.Permit permit = inviteAdmission.acquire(device.deviceId(),
+                InviteAdmissionController.Priority.PLAYBACK)) {
+            ZlmClient.RtpBinding binding = zlmClient.bindRtp(MediaNodeRegistry.channelKey(deviceId, channelId),
+                    "playback_" + channelId + "_" + sessionId.substring(0, 8), streamMode, ssrc);
+            if (binding == null || binding.port() <= 0) {
+                throw new ApiException(502, "无法在ZLMediaKit创建RTP端口");
+            }
+            streamId = binding.streamId();
+            rtpPort = binding.port();
+            log.info("playback openRtpServer: deviceId={}, channelId={}, streamId={}, rtpPort={}, ssrc={}",
+                    deviceId, channelId, streamId, rtpPort, ssrc);
+
+            String sdpIp = binding.mediaIp() != null ? binding.mediaIp() : appProperties.getGb28181().getMediaIp();
+            inviteResult = sipSignalService.invite(
+                    new SipSignalService.InviteCommand(
+                            device.deviceId(), device.ip(), device.port(), channelId,
+                            device.transport().toUpperCase(), streamMode, rtpPort, ssrc,
+                            sdpIp, streamId, command.startTime(), command.endTime(), null));
+            permit.signallingDone();
+            if (InviteAdmissionController.isBusyResponse(inviteResult.statusCode())) {
+                inviteAdmission.recordDeviceBusy(device.deviceId());
+            }
+            if (!inviteResult.success()) {
+                zlmClient.closeRtpServer(streamId);
+                throw new ApiException(502, "回放 INVITE 失败: " + inviteResult.reason());
+            }
+            log.info("playback invite accepted: callId={}, streamId={}", inviteResult.callId(), streamId);
+
+            streamReady = zlmClient.waitStreamReady(app, streamId, Duration.ofSeconds(15));
+            if (!streamReady) {
+                log.warn("playback stream not ready in 15s, session saved anyway. streamId={}", streamId);
+                circuitBreakers.breaker(deviceCircuit).onFailure("回放已应答但未推流");
+            } else {
+                circuitBreakers.breaker(deviceCircuit).onSuccess();
+            }
 
-        boolean streamReady = zlmClient.waitStreamReady(app, streamId, Duration.ofSeconds(15));
-        if (!streamReady) {
-            log.warn("playback stream not ready in 15s, session saved anyway. streamId={}", streamId);
+            session = repository.savePlaybackSession(
+                    new Gb28181Repository.UpsertPlaybackSessionCommand(
+                            sessionId, deviceId, channelId, streamId, app, ssrc,
+                            inviteResult.callId(), rtpPort, device.transport(),
+                            1.0, streamReady ? "PLAYING" : "PENDING",
+                            command.startTime(), command.endTime()));
+            permit.established(sessionId);
         }
 
-        GbPlaybackSession session = repository.savePlaybackSession(
-                new Gb28181Repository.UpsertPlaybackSessionCommand(
-                        sessionId, deviceId, channelId, streamId, app, ssrc,
-                        inviteResult.callId(), rtpPort, device.transport(),
-                        1.0, streamReady ? "PLAYING" : "PENDING",
-                        command.startTime(), command.endTime()));
-
         Map<String, String> playUrls = toUrlMap(zlmClient.buildPlayUrls(app, streamId));
         return new PlaybackStartResult(session, playUrls, streamReady);
     }
@@ -264,6 +295,9 @@ public class Gb28181Service {
 
         SipSignalService.SipCommandResult result = sipSignalService.sendInfo(callId, mansrtspBody);
         repository.updatePlaybackSessionStatus(sessionId, newStatus, newSpeed);
+        if ("CLOSED".equals(newStatus)) {
+            inviteAdmission.sessionEnded(sessionId);
+        }
         return result;
     }
 
@@ -280,9 +314,59 @@ public class Gb28181Service {
             zlmClient.closeRtpServer(session.streamId());
         }
         repository.updatePlaybackSessionStatus(sessionId, "CLOSED", session.speed());
+        inviteAdmission.sessionEnded(sessionId);
         log.info("playback stopped: sessionId={}, callId={}", sessionId, session.callId());
     }
 
+    /**
+     * Work that stops each open playback session, for a bulk stop.
+     */
+    public List<SessionTeardown.Task> detachPlaybackSessions() {
+        return repository.listPlaybackSessions().stream()
+                .filter(session -> !"CLOSED".equals(session.status()))
+                .map(session -> new SessionTeardown.Task(
+                        "playback " + session.deviceId() + "/" + session.channelId() + " " + session.streamId(),
+                        () -> stopPlayback(session.sessionId())))
+                .toList();
+    }
+
+    /**
+     * After a restart, keeps playback sessions whose stream and dialog are
+     * still alive and closes the others. Once the deadline passes the rest are
+     * marked closed without further network calls; their dialogs stay
+     * unclaimed and are hung up with the other orphans.
+     *
+     * @return call ids of the playback sessions kept
+     */
+    public Set<String> recoverPlaybackSessions(Deadline deadline) {
+        Set<String> claimedCallIds = new HashSet<>();
+        for (GbPlaybackSession session : repository.listPlaybackSessions()) {
+            if ("CLOSED".equals(session.status())) {
+                continue;
+            }
+            if (deadline.isExpired()) {
+                repository.updatePlaybackSessionStatus(session.sessionId(), "CLOSED", session.speed());
+                log.warn("playback session from before restart dropped, recovery out of time. sessionId={}",
+                        session.sessionId());
+                continue;
+            }
+            if (sipSignalService.hasDialog(session.callId())
+                    && zlmClient.isStreamReady(session.app(), session.streamId())) {
+                inviteAdmission.sessionRestored(session.deviceId(), session.sessionId());
+                claimedCallIds.add(session.callId());
+                continue;
+            }
+            sipSignalService.bye(session.callId());
+            if (session.streamId() != null) {
+                zlmClient.closeRtpServer(session.streamId());
+            }
+            repository.updatePlaybackSessionStatus(session.sessionId(), "CLOSED", session.speed());
+            log.info("playback session from before restart closed: sessionId={}, callId={}",
+                    session.sessionId(), session.callId());
+        }
+        return claimedCallIds;
+    }
+
     // ===== PTZ Control (new) =====
 
     /**
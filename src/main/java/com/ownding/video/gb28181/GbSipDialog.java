@@ -0,0 +1,16 @@
+package com.ownding.video.gb28181;
+
+public record GbSipDialog(
+        String callId,
+        String deviceId,
+        String channelId,
+        String host,
+        int port,
+        String transport,
+        String localTag,
+        String remoteTag,
+        String remoteTarget,
+        long localCseq,
+        String createdAt
+) {
+}
@@ -0,0 +1,367 @@
+package com.ownding.video.gb28181;
+
+import com.ownding.video.common.ApiException;
+import com.ownding.video.common.Deadline;
+import com.ownding.video.config.AppProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission for media sessions, shared by preview, playback and background
+ * recording. Limits the setups signalling at once (INVITE until its final
+ * answer) globally and per device, and the sessions a device carries: those
+ * established plus those still being set up. Callers over a limit queue by
+ * priority and give up with 503 when their wait deadline passes.
+ * <p>
+ * A device's setup limit is app.gb28181.admission.device-limits, else
+ * max-concurrent-per-device; its session limit is device-session-limits, else
+ * max-sessions-per-device. Both are lowered for a while when the device
+ * answers an INVITE with busy (486 / 503 / 600).
+ */
+@Component
+public class InviteAdmissionController {
+
+    private static final Logger log = LoggerFactory.getLogger(InviteAdmissionController.class);
+
+    private final AppProperties appProperties;
+    private final TreeSet<Waiter> queue = new TreeSet<>(Comparator
+            .comparingInt((Waiter waiter) -> waiter.priority.ordinal())
+            .thenComparingLong(waiter -> waiter.sequence));
+    private final Map<String, Integer> inFlightByDevice = new HashMap<>();
+    /** Admitted setups not yet established or abandoned, by device. */
+    private final Map<String, Integer> pendingByDevice = new HashMap<>();
+    private final Map<String, Set<String>> sessionsByDevice = new HashMap<>();
+    private final Map<String, String> deviceBySession = new HashMap<>();
+    private final Map<String, LearnedLimit> learnedLimitByDevice = new HashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<Priority, AtomicLong> admittedByPriority = new HashMap<>();
+    private final Map<Priority, AtomicLong> rejectedByPriority = new HashMap<>();
+    private int inFlight;
+
+    public InviteAdmissionController(AppProperties appProperties) {
+        this.appProperties = appProperties;
+        for (Priority priority : Priority.values()) {
+            admittedByPriority.put(priority, new AtomicLong());
+            rejectedByPriority.put(priority, new AtomicLong());
+        }
+    }
+
+    /**
+     * Blocks until the setup may start. Call {@link Permit#signallingDone()}
+     * once the INVITE has its final answer and {@link Permit#established}
+     * when the session is up, and close the permit in any case.
+     *
+     * @throws ApiException 503 when no slot frees up before the priority's deadline
+     */
+    public Permit acquire(String deviceId, Priority priority) {
+        return acquire(deviceId, priority, Deadline.none());
+    }
+
+    /**
+     * Like {@link #acquire(String, Priority)}, waiting no longer than the
+     * request's remaining budget.
+     *
+     * @throws ApiException 504 when the request budget runs out while queued
+     */
+    public Permit acquire(String deviceId, Priority priority, Deadline requestDeadline) {
+        long maxWaitMs = maxWaitMs(priority);
+        long waitMs = requestDeadline.capMs(maxWaitMs);
+        // Decided up front: the budget may be a hair short of expired when the wait ends.
+        boolean budgetBound = waitMs < maxWaitMs;
+        long deadlineNanos = System.nanoTime() + waitMs * 1_000_000L;
+        Waiter waiter = new Waiter(deviceId, priority, sequence.incrementAndGet());
+        synchronized (this) {
+            queue.add(waiter);
+            try {
+                while (!admissible(waiter)) {
+                    long remainingMs = (deadlineNanos - System.nanoTime()) / 1_000_000L;
+                    if (remainingMs <= 0) {
+                        rejectedByPriority.get(priority).incrementAndGet();
+                        log.warn("invite admission timed out. deviceId={}, priority={}, inFlight={}, device={}, "
+                                        + "deviceSessions={}", deviceId, priority, inFlight,
+                                inFlightByDevice.getOrDefault(deviceId, 0), occupiedSessions(deviceId));
+                        if (budgetBound) {
+                            throw requestDeadline.expired("排队");
+                        }
+                        throw new ApiException(503, "当前视频请求过多，请稍后重试");
+                    }
+                    wait(remainingMs);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ApiException(503, "视频请求排队被中断");
+            } finally {
+                queue.remove(waiter);
+                // Whoever is next may have been waiting behind us.
+                notifyAll();
+            }
+            inFlight++;
+            inFlightByDevice.merge(deviceId, 1, Integer::sum);
+            pendingByDevice.merge(deviceId, 1, Integer::sum);
+            admittedByPriority.get(priority).incrementAndGet();
+        }
+        return new Permit(deviceId);
+    }
+
+    /**
+     * Counts a session adopted after a restart against its device, so that
+     * new setups respect it.
+     */
+    public synchronized void sessionRestored(String deviceId, String sessionId) {
+        if (deviceBySession.putIfAbsent(sessionId, deviceId) == null) {
+            sessionsByDevice.computeIfAbsent(deviceId, key -> new HashSet<>()).add(sessionId);
+        }
+    }
+
+    /**
+     * The session was hung up: its device slot is free again. Unknown ids are
+     * ignored, so callers may report the end of every session they close.
+     */
+    public synchronized void sessionEnded(String sessionId) {
+        String deviceId = deviceBySession.remove(sessionId);
+        if (deviceId == null) {
+            return;
+        }
+        Set<String> sessions = sessionsByDevice.get(deviceId);
+        if (sessions != null) {
+            sessions.remove(sessionId);
+            if (sessions.isEmpty()) {
+                sessionsByDevice.remove(deviceId);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * The device refused an INVITE as busy: cap its setups and sessions below
+     * what it was handling.
+     */
+    public synchronized void recordDeviceBusy(String deviceId) {
+        int current = inFlightByDevice.getOrDefault(deviceId, 0);
+        int limit = Math.max(1, Math.min(current, deviceLimit(deviceId)) - 1);
+        // The refused setup is counted as pending until its permit closes.
+        int sessionLimit = Math.max(1, Math.min(occupiedSessions(deviceId), sessionLimit(deviceId)) - 1);
+        Instant until = Instant.now().plusSeconds(admissionConfig().getLearnedLimitTtlSeconds());
+        learnedLimitByDevice.put(deviceId, new LearnedLimit(limit, sessionLimit, until));
+        log.info("device reported busy, invite limit lowered. deviceId={}, limit={}, sessionLimit={}, until={}",
+                deviceId, limit, sessionLimit, until);
+    }
+
+    /**
+     * 486 Busy Here, 503 Service Unavailable and 600 Busy Everywhere.
+     */
+    public static boolean isBusyResponse(int statusCode) {
+        return statusCode == 486 || statusCode == 503 || statusCode == 600;
+    }
+
+    public synchronized AdmissionStatus status() {
+        Map<String, Integer> waitingByPriority = new HashMap<>();
+        for (Waiter waiter : queue) {
+            waitingByPriority.merge(waiter.priority.name(), 1, Integer::sum);
+        }
+        Set<String> deviceIds = new LinkedHashSet<>(inFlightByDevice.keySet());
+        deviceIds.addAll(pendingByDevice.keySet());
+        deviceIds.addAll(sessionsByDevice.keySet());
+        List<DeviceAdmission> devices = new ArrayList<>();
+        for (String deviceId : deviceIds) {
+            devices.add(new DeviceAdmission(deviceId, inFlightByDevice.getOrDefault(deviceId, 0),
+                    deviceLimit(deviceId), occupiedSessions(deviceId), sessionLimit(deviceId)));
+        }
+        Map<String, Long> admitted = new HashMap<>();
+        Map<String, Long> rejected = new HashMap<>();
+        for (Priority priority : Priority.values()) {
+            admitted.put(priority.name(), admittedByPriority.get(priority).get());
+            rejected.put(priority.name(), rejectedByPriority.get(priority).get());
+        }
+        return new AdmissionStatus(inFlight, admissionConfig().getMaxConcurrent(), deviceBySession.size(),
+                queue.size(), waitingByPriority, devices, admitted, rejected);
+    }
+
+    /**
+     * A waiter goes when there is room for it and no waiter ahead of it in
+     * priority order could use that room instead.
+     */
+    private boolean admissible(Waiter waiter) {
+        if (inFlight >= admissionConfig().getMaxConcurrent()) {
+            return false;
+        }
+        for (Waiter ahead : queue) {
+            if (ahead == waiter) {
+                return deviceHasRoom(waiter.deviceId);
+            }
+            if (deviceHasRoom(ahead.deviceId)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private boolean deviceHasRoom(String deviceId) {
+        return inFlightByDevice.getOrDefault(deviceId, 0) < deviceLimit(deviceId)
+                && occupiedSessions(deviceId) < sessionLimit(deviceId);
+    }
+
+    private int occupiedSessions(String deviceId) {
+        Set<String> sessions = sessionsByDevice.get(deviceId);
+        return pendingByDevice.getOrDefault(deviceId, 0) + (sessions == null ? 0 : sessions.size());
+    }
+
+    private int deviceLimit(String deviceId) {
+        AppProperties.Gb28181.Admission config = admissionConfig();
+        int limit = configuredLimit(config.getDeviceLimits(), deviceId, config.getMaxConcurrentPerDevice());
+        LearnedLimit learned = learnedLimit(deviceId);
+        return learned == null ? limit : Math.min(limit, learned.limit());
+    }
+
+    private int sessionLimit(String deviceId) {
+        AppProperties.Gb28181.Admission config = admissionConfig();
+        int limit = configuredLimit(config.getDeviceSessionLimits(), deviceId, config.getMaxSessionsPerDevice());
+        LearnedLimit learned = learnedLimit(deviceId);
+        return learned == null ? limit : Math.min(limit, learned.sessionLimit());
+    }
+
+    private static int configuredLimit(Map<String, Integer> overrides, String deviceId, int fallback) {
+        Integer configured = overrides == null ? null : overrides.get(deviceId);
+        return configured != null && configured > 0 ? configured : fallback;
+    }
+
+    private LearnedLimit learnedLimit(String deviceId) {
+        LearnedLimit learned = learnedLimitByDevice.get(deviceId);
+        if (learned != null && learned.until().isBefore(Instant.now())) {
+            learnedLimitByDevice.remove(deviceId);
+            return null;
+        }
+        return learned;
+    }
+
+    private synchronized void releaseSetup(String deviceId) {
+        inFlight = Math.max(0, inFlight - 1);
+        inFlightByDevice.computeIfPresent(deviceId, (key, count) -> count <= 1 ? null : count - 1);
+        notifyAll();
+    }
+
+    private synchronized void releasePending(String deviceId, String establishedSessionId) {
+        pendingByDevice.computeIfPresent(deviceId, (key, count) -> count <= 1 ? null : count - 1);
+        if (establishedSessionId != null) {
+            sessionRestored(deviceId, establishedSessionId);
+        }
+        notifyAll();
+    }
+
+    private long maxWaitMs(Priority priority) {
+        AppProperties.Gb28181.Admission config = admissionConfig();
+        return switch (priority) {
+            case INTERACTIVE -> config.getInteractiveMaxWaitMs();
+            case PLAYBACK -> config.getPlaybackMaxWaitMs();
+            case BACKGROUND -> config.getBackgroundMaxWaitMs();
+        };
+    }
+
+    private AppProperties.Gb28181.Admission admissionConfig() {
+        return appProperties.getGb28181().getAdmission();
+    }
+
+    /**
+     * Highest first.
+     */
+    public enum Priority {
+        INTERACTIVE,
+        PLAYBACK,
+        BACKGROUND
+    }
+
+    /**
+     * Holds a setup slot until the INVITE is answered and a session slot of
+     * the device until the session is established or the attempt abandoned.
+     * Re-INVITEs of the same attempt (another channel id, TCP after UDP) run
+     * under the session slot only.
+     */
+    public final class Permit implements AutoCloseable {
+        private final String deviceId;
+        private boolean signalling = true;
+        private boolean pending = true;
+
+        private Permit(String deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        /**
+         * The INVITE has its final answer: the setup slot goes to the next
+         * caller while this one waits for the stream.
+         */
+        public void signallingDone() {
+            if (signalling) {
+                signalling = false;
+                releaseSetup(deviceId);
+            }
+        }
+
+        /**
+         * The session is up; it keeps its device slot until
+         * {@link InviteAdmissionController#sessionEnded(String)}.
+         */
+        public void established(String sessionId) {
+            signallingDone();
+            if (pending) {
+                pending = false;
+                releasePending(deviceId, sessionId);
+            }
+        }
+
+        @Override
+        public void close() {
+            signallingDone();
+            if (pending) {
+                pending = false;
+                releasePending(deviceId, null);
+            }
+        }
+    }
+
+    private static final class Waiter {
+        private final String deviceId;
+        private final Priority priority;
+        private final long sequence;
+
+        private Waiter(String deviceId, Priority priority, long sequence) {
+            this.deviceId = deviceId;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    private record LearnedLimit(int limit, int sessionLimit, Instant until) {
+    }
+
+    public record DeviceAdmission(
+            String deviceId,
+            int inFlight,
+            int limit,
+            int sessions,
+            int sessionLimit) {
+    }
+
+    public record AdmissionStatus(
+            int inFlight,
+            int maxConcurrent,
+            int sessions,
+            int waiting,
+            Map<String, Integer> waitingByPriority,
+            List<DeviceAdmission> devices,
+            Map<String, Long> admitted,
+            Map<String, Long> rejected) {
+    }
+}
@@ -1,5 +1,8 @@
 package com.ownding.video.gb28181;
 
+import com.ownding.video.common.CircuitBreaker;
+import com.ownding.video.common.CircuitBreakerRegistry;
+import com.ownding.video.common.Deadline;
 import com.ownding.video.config.AppProperties;
 import com.ownding.video.device.Device;
 import com.ownding.video.device.DeviceService;
@@ -55,6 +58,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
@@ -75,6 +79,7 @@ public class SipSignalService implements SipListener {
     private final AppProperties appProperties;
     private final DeviceService deviceService;
     private final Gb28181Repository gb28181Repository;
+    private final CircuitBreakerRegistry circuitBreakers;
 
     private final AtomicLong cSeq = new AtomicLong(System.currentTimeMillis() % 100000000L);
     private final AtomicInteger ssrcSeq = new AtomicInteger();
@@ -82,6 +87,8 @@ public class SipSignalService implements SipListener {
     private final ConcurrentHashMap<String, CompletableFuture<SipCommandResult>> pendingCommandByCallId = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, Dialog> dialogByCallId = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, DeviceEndpoint> endpointByCallId = new ConcurrentHashMap<>();
+    /** Dialogs established before the last restart, rebuilt from the sip_dialog journal. */
+    private final ConcurrentHashMap<String, RecoveredDialog> recoveredDialogByCallId = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, String> contactHostByDeviceId = new ConcurrentHashMap<>();
 
     private volatile SipFactory sipFactory;
@@ -92,10 +99,11 @@ public class SipSignalService implements SipListener {
     private volatile MessageFactory messageFactory;
 
     public SipSignalService(AppProperties appProperties, DeviceService deviceService,
-            Gb28181Repository gb28181Repository) {
+            Gb28181Repository gb28181Repository, CircuitBreakerRegistry circuitBreakers) {
         this.appProperties = appProperties;
         this.deviceService = deviceService;
         this.gb28181Repository = gb28181Repository;
+        this.circuitBreakers = circuitBreakers;
     }
 
     @PostConstruct
@@ -139,6 +147,7 @@ public class SipSignalService implements SipListener {
                     appProperties.getGb28181().getLocalIp(),
                     appProperties.getGb28181().getLocalPort(),
                     String.join(",", availableSipTransports()));
+            loadJournaledDialogs();
         } catch (Exception ex) {
             log.error("Failed to initialize GB28181 SIP stack: {}", ex.getMessage(), ex);
             destroy();
@@ -155,6 +164,7 @@ public class SipSignalService implements SipListener {
         pendingCommandByCallId.clear();
         dialogByCallId.clear();
         endpointByCallId.clear();
+        recoveredDialogByCallId.clear();
         contactHostByDeviceId.clear();
 
         if (sipProvider != null) {
@@ -189,11 +199,39 @@ public class SipSignalService implements SipListener {
         sipFactory = null;
     }
 
+    /**
+     * Sends the INVITE and waits for the final response. Timeouts, send
+     * failures and 408 or 5xx responses count against the device's circuit; while it
+     * is open the INVITE fails at once with status 480. Other rejections such as
+     * 486 are no verdict either way and only give up a half-open trial; for
+     * accepted calls the caller reports the outcome of the stream setup to the
+     * circuit.
+     */
     public InviteResult invite(InviteCommand command) {
+        return invite(command, Deadline.none());
+    }
+
+    /**
+     * Waits for the final response at most invite-timeout-ms or the request's
+     * remaining budget, whichever is shorter. Running out of budget is not held
+     * against the device's circuit.
+     */
+    public InviteResult invite(InviteCommand command, Deadline deadline) {
         if (!appProperties.getGb28181().isEnabled()) {
             return InviteResult.skipped("SIP信令未启用，已跳过INVITE");
         }
         ensureSipReady();
+        long inviteTimeoutMs = appProperties.getGb28181().getInviteTimeoutMs();
+        long timeoutMs = deadline.capMs(inviteTimeoutMs);
+        if (timeoutMs <= 0) {
+            return InviteResult.failed(null, 408, "请求时限已用尽，未发送INVITE");
+        }
+        CircuitBreaker circuit = circuitBreakers.breaker(CircuitBreakerRegistry.deviceKey(command.deviceId()));
+        if (!circuit.tryAcquire()) {
+            log.info("INVITE skipped by open circuit. deviceId={}, channelId={}", command.deviceId(),
+                    command.channelId());
+            return InviteResult.failed(null, 480, circuit.rejectionMessage());
+        }
 
         String sdpProtocol = command.streamMode() == 0 ? "RTP/AVP" : "TCP/RTP/AVP";
         log.info(
@@ -224,18 +262,32 @@ public class SipSignalService implements SipListener {
             ClientTransaction clientTransaction = sipProvider.getNewClientTransaction(built.request());
             clientTransaction.sendRequest();
 
-            return future.get(appProperties.getGb28181().getInviteTimeoutMs(), TimeUnit.MILLISECONDS);
+            InviteResult result = future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            if (result.success()) {
+                journalDialog(callId, command);
+            } else if (result.statusCode() >= 500 || result.statusCode() == 408) {
+                // 408 also stands for the SIP transaction timing out.
+                circuit.onFailure("INVITE应答" + result.statusCode());
+            } else {
+                circuit.releaseTrial();
+            }
+            return result;
         } catch (TimeoutException ex) {
             if (callId != null) {
                 pendingInviteByCallId.remove(callId);
                 endpointByCallId.remove(callId);
             }
+            if (timeoutMs < inviteTimeoutMs) {
+                return InviteResult.failed(callId, 408, "请求时限内INVITE未应答");
+            }
+            circuit.onFailure("INVITE等待超时");
             return InviteResult.failed(callId, 408, "INVITE等待超时");
         } catch (Exception ex) {
             if (callId != null) {
                 pendingInviteByCallId.remove(callId);
                 endpointByCallId.remove(callId);
             }
+            circuit.onFailure("INVITE发送失败");
             return InviteResult.failed(callId, 500, "INVITE发送失败: " + ex.getMessage());
         }
     }
@@ -249,7 +301,12 @@ public class SipSignalService implements SipListener {
         }
         Dialog dialog = dialogByCallId.remove(callId);
         DeviceEndpoint endpoint = endpointByCallId.remove(callId);
+        forgetJournaledDialog(callId);
         if (dialog == null) {
+            RecoveredDialog recovered = recoveredDialogByCallId.remove(callId);
+            if (recovered != null) {
+                sendRecoveredRequest(recovered, Request.BYE, null, null);
+            }
             return;
         }
         if (dialog.getState() == DialogState.TERMINATED) {
@@ -282,7 +339,20 @@ public class SipSignalService implements SipListener {
         ensureSipReady();
         Dialog dialog = dialogByCallId.get(callId);
         if (dialog == null) {
-            return SipCommandResult.failed(callId, 404, "Dialog不存在: " + callId);
+            RecoveredDialog recovered = recoveredDialogByCallId.get(callId);
+            if (recovered == null) {
+                return SipCommandResult.failed(callId, 404, "Dialog不存在: " + callId);
+            }
+            try {
+                ContentTypeHeader contentType = headerFactory.createContentTypeHeader("Application", "MANSRTSP");
+                if (!sendRecoveredRequest(recovered, Request.INFO, contentType, mansrtspBody)) {
+                    return SipCommandResult.failed(callId, 500, "INFO发送失败");
+                }
+            } catch (ParseException ex) {
+                return SipCommandResult.failed(callId, 500, "INFO发送失败: " + ex.getMessage());
+            }
+            log.info("send INFO on recovered dialog: callId={}, body={}", callId, mansrtspBody.replace("\r\n", " | "));
+            return SipCommandResult.success(callId, 200, "INFO已发送");
         }
         if (dialog.getState() == DialogState.TERMINATED) {
             return SipCommandResult.failed(callId, 410, "Dialog已终止: " + callId);
@@ -754,7 +824,10 @@ public class SipSignalService implements SipListener {
     public void processDialogTerminated(javax.sip.DialogTerminatedEvent dialogTerminatedEvent) {
         Dialog dialog = dialogTerminatedEvent.getDialog();
         if (dialog != null && dialog.getCallId() != null) {
-            dialogByCallId.remove(dialog.getCallId().getCallId());
+            String callId = dialog.getCallId().getCallId();
+            if (dialogByCallId.remove(callId) != null) {
+                forgetJournaledDialog(callId);
+            }
         }
     }
 
@@ -1036,6 +1109,8 @@ public class SipSignalService implements SipListener {
             String callId = callIdHeader.getCallId();
             dialogByCallId.remove(callId);
             endpointByCallId.remove(callId);
+            recoveredDialogByCallId.remove(callId);
+            forgetJournaledDialog(callId);
         }
         sendResponse(requestEvent, Response.OK);
     }
@@ -1209,6 +1284,13 @@ public class SipSignalService implements SipListener {
             builder.append("a=connection:new").append("\r\n");
             builder.append("a=rtcp-mux").append("\r\n");
         }
+        if (command.streamNumber() != null) {
+            List<String> attributes = appProperties.getGb28181().getStreamNumberSdpAttributes();
+            for (String attribute : attributes == null ? List.<String>of() : attributes) {
+                builder.append("a=").append(attribute.replace("{n}", String.valueOf(command.streamNumber())))
+                        .append("\r\n");
+            }
+        }
         builder.append("y=").append(command.ssrc()).append("\r\n");
         return builder.toString();
     }
@@ -1391,6 +1473,113 @@ public class SipSignalService implements SipListener {
         return "OFFLINE";
     }
 
+    /**
+     * Whether BYE / INFO can still reach the device for this call, through a
+     * live dialog or one recovered from the journal.
+     */
+    public boolean hasDialog(String callId) {
+        return callId != null && (dialogByCallId.containsKey(callId) || recoveredDialogByCallId.containsKey(callId));
+    }
+
+    /**
+     * Hangs up recovered dialogs that no adopted session claimed after a restart.
+     *
+     * @return number of dialogs released
+     */
+    public int releaseRecoveredDialogs(Set<String> claimedCallIds) {
+        int released = 0;
+        for (String callId : List.copyOf(recoveredDialogByCallId.keySet())) {
+            if (claimedCallIds.contains(callId)) {
+                continue;
+            }
+            log.info("orphan dialog from before restart released. callId={}", callId);
+            bye(callId);
+            released++;
+        }
+        return released;
+    }
+
+    private void loadJournaledDialogs() {
+        try {
+            for (GbSipDialog journaled : gb28181Repository.listSipDialogs()) {
+                recoveredDialogByCallId.put(journaled.callId(), new RecoveredDialog(journaled));
+            }
+            if (!recoveredDialogByCallId.isEmpty()) {
+                log.info("recovered {} SIP dialogs from journal", recoveredDialogByCallId.size());
+            }
+        } catch (Exception ex) {
+            log.warn("load SIP dialog journal failed: {}", ex.getMessage());
+        }
+    }
+
+    private void journalDialog(String callId, InviteCommand command) {
+        Dialog dialog = dialogByCallId.get(callId);
+        DeviceEndpoint endpoint = endpointByCallId.get(callId);
+        if (dialog == null || endpoint == null) {
+            return;
+        }
+        try {
+            gb28181Repository.saveSipDialog(new GbSipDialog(
+                    callId,
+                    command.deviceId(),
+                    command.channelId(),
+                    endpoint.host(),
+                    endpoint.port(),
+                    endpoint.transport(),
+                    dialog.getLocalTag(),
+                    dialog.getRemoteTag(),
+                    dialog.getRemoteTarget() == null ? null : dialog.getRemoteTarget().getURI().toString(),
+                    dialog.getLocalSeqNumber(),
+                    Instant.now().toString()));
+        } catch (Exception ex) {
+            log.warn("journal SIP dialog failed. callId={}, reason={}", callId, ex.getMessage());
+        }
+    }
+
+    private void forgetJournaledDialog(String callId) {
+        try {
+            gb28181Repository.deleteSipDialog(callId);
+        } catch (Exception ex) {
+            log.warn("delete SIP dialog journal failed. callId={}, reason={}", callId, ex.getMessage());
+        }
+    }
+
+    /**
+     * Rebuilds an in-dialog request from the journaled Call-ID, tags and target,
+     * since the SIP stack that owned the dialog is gone.
+     */
+    private boolean sendRecoveredRequest(RecoveredDialog recovered, String method, ContentTypeHeader contentType,
+            String body) {
+        GbSipDialog journaled = recovered.journaled;
+        try {
+            Request request = createBaseRequest(method, new TargetDevice(
+                    journaled.channelId(),
+                    journaled.host(),
+                    journaled.port(),
+                    journaled.transport()));
+            request.setHeader(headerFactory.createCallIdHeader(journaled.callId()));
+            ((FromHeader) request.getHeader(FromHeader.NAME)).setTag(journaled.localTag());
+            if (journaled.remoteTag() != null) {
+                ((ToHeader) request.getHeader(ToHeader.NAME)).setTag(journaled.remoteTag());
+            }
+            request.setHeader(headerFactory.createCSeqHeader(recovered.cseq.incrementAndGet(), method));
+            if (journaled.remoteTarget() != null && !journaled.remoteTarget().isBlank()) {
+                request.setRequestURI(addressFactory.createURI(journaled.remoteTarget()));
+            }
+            if (body != null) {
+                request.setContent(body, contentType);
+            }
+            sipProvider.getNewClientTransaction(request).sendRequest();
+            log.info("send {} on recovered dialog: callId={}, deviceId={}", method, journaled.callId(),
+                    journaled.deviceId());
+            return true;
+        } catch (Exception ex) {
+            log.warn("send {} on recovered dialog failed. callId={}, reason={}", method, journaled.callId(),
+                    ex.getMessage());
+            return false;
+        }
+    }
+
     private long nextCSeq() {
         return cSeq.incrementAndGet();
     }
@@ -1449,6 +1638,10 @@ public class SipSignalService implements SipListener {
         return "1" + mid + String.format("%04d", seq);
     }
 
+    /**
+     * @param streamNumber 0 main / 1 sub stream, or {@code null} to leave the
+     *                     choice to the device
+     */
     public record InviteCommand(
             String deviceId,
             String deviceHost,
@@ -1461,7 +1654,8 @@ public class SipSignalService implements SipListener {
             String announcedMediaIp,
             String streamId,
             String startTime,
-            String endTime) {
+            String endTime,
+            Integer streamNumber) {
     }
 
     public record InviteResult(
@@ -1518,4 +1712,15 @@ public class SipSignalService implements SipListener {
             int port,
             String transport) {
     }
+
+    private static final class RecoveredDialog {
+        private final GbSipDialog journaled;
+        private final AtomicLong cseq;
+
+        private RecoveredDialog(GbSipDialog journaled) {
+            this.journaled = journaled;
+            // INFOs sent after the journal entry raised the CSeq; the device accepts any higher value.
+            this.cseq = new AtomicLong(journaled.localCseq() + 100);
+        }
+    }
 }
@@ -0,0 +1,84 @@
+package com.ownding.video.media;
+
+import com.ownding.video.config.AppProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decayed-LFU popularity of preview channels: every user-initiated preview adds
+ * 1 to the channel score and the score halves every configured half-life, so it
+ * reflects both how often and how recently a channel is opened.
+ */
+@Component
+public class ChannelAccessTracker {
+
+    private static final double FORGET_BELOW = 0.01D;
+
+    private final AppProperties appProperties;
+    private final Map<ChannelKey, Score> scoreByChannel = new ConcurrentHashMap<>();
+
+    public ChannelAccessTracker(AppProperties appProperties) {
+        this.appProperties = appProperties;
+    }
+
+    public void recordAccess(long devicePk, String channelId) {
+        Instant now = Instant.now();
+        scoreByChannel.compute(new ChannelKey(devicePk, channelId), (key, current) -> {
+            double decayed = current == null ? 0D : current.valueAt(now, halfLifeSeconds());
+            return new Score(decayed + 1D, now);
+        });
+    }
+
+    /**
+     * Channels ordered by current score, highest first, skipping those below
+     * {@code minScore}. Channels whose score decayed to nothing are forgotten.
+     */
+    public List<ChannelScore> top(int limit, double minScore) {
+        Instant now = Instant.now();
+        double halfLife = halfLifeSeconds();
+        List<ChannelScore> result = new ArrayList<>();
+        for (Map.Entry<ChannelKey, Score> entry : scoreByChannel.entrySet()) {
+            double value = entry.getValue().valueAt(now, halfLife);
+            if (value < FORGET_BELOW) {
+                scoreByChannel.remove(entry.getKey(), entry.getValue());
+                continue;
+            }
+            if (value >= minScore) {
+                result.add(new ChannelScore(entry.getKey().devicePk(), entry.getKey().channelId(), value));
+            }
+        }
+        result.sort(Comparator.comparingDouble(ChannelScore::score).reversed());
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    public double scoreOf(long devicePk, String channelId) {
+        Score score = scoreByChannel.get(new ChannelKey(devicePk, channelId));
+        return score == null ? 0D : score.valueAt(Instant.now(), halfLifeSeconds());
+    }
+
+    private double halfLifeSeconds() {
+        return Math.max(60D, appProperties.getPreview().getPrewarm().getHalfLifeMinutes() * 60D);
+    }
+
+    private record ChannelKey(long devicePk, String channelId) {
+    }
+
+    private record Score(double value, Instant updatedAt) {
+        private double valueAt(Instant now, double halfLifeSeconds) {
+            double elapsed = Math.max(0D, (now.toEpochMilli() - updatedAt.toEpochMilli()) / 1000D);
+            return value * Math.pow(0.5D, elapsed / halfLifeSeconds);
+        }
+    }
+
+    public record ChannelScore(
+            long devicePk,
+            String channelId,
+            double score) {
+    }
+}
@@ -0,0 +1,107 @@
+package com.ownding.video.media;
+
+import java.time.Instant;
+
+/**
+ * One ZLMediaKit instance streams can be placed on, with its last probed load.
+ */
+public class MediaNode {
+
+    private final String id;
+    private final String baseUrl;
+    private final String secret;
+    private final String publicBaseUrl;
+    private final String mediaIp;
+    private final int maxStreams;
+    private final long maxBytesPerSecond;
+
+    private volatile NodeLoad load;
+    private volatile boolean healthy = true;
+
+    MediaNode(String id, String baseUrl, String secret, String publicBaseUrl, String mediaIp, int maxStreams,
+            int maxBandwidthMbps) {
+        this.id = id;
+        this.baseUrl = trimTrailingSlash(baseUrl);
+        this.secret = secret;
+        this.publicBaseUrl = trimTrailingSlash(publicBaseUrl == null || publicBaseUrl.isBlank() ? baseUrl : publicBaseUrl);
+        this.mediaIp = mediaIp == null || mediaIp.isBlank() ? null : mediaIp.trim();
+        this.maxStreams = Math.max(1, maxStreams);
+        this.maxBytesPerSecond = Math.max(1, maxBandwidthMbps) * 125_000L;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String baseUrl() {
+        return baseUrl;
+    }
+
+    public String secret() {
+        return secret;
+    }
+
+    public String publicBaseUrl() {
+        return publicBaseUrl;
+    }
+
+    /**
+     * SDP receive address for this node, or {@code null} to use app.gb28181.media-ip.
+     */
+    public String mediaIp() {
+        return mediaIp;
+    }
+
+    public boolean healthy() {
+        return healthy;
+    }
+
+    public NodeLoad load() {
+        return load;
+    }
+
+    void updateLoad(NodeLoad load) {
+        this.load = load;
+        this.healthy = true;
+    }
+
+    void markUnhealthy() {
+        this.healthy = false;
+    }
+
+    boolean isFull(int ownedStreams) {
+        return streamCount(ownedStreams) >= maxStreams;
+    }
+
+    /**
+     * Placement score, lower is better: stream count, thread load and ingest
+     * bandwidth, each relative to the node's capacity. Streams placed since the
+     * last probe are counted through {@code ownedStreams}.
+     */
+    double score(int ownedStreams) {
+        NodeLoad current = load;
+        double streams = (double) streamCount(ownedStreams) / maxStreams;
+        double threads = current == null ? 0D : current.threadLoadPercent() / 100D;
+        double bandwidth = current == null ? 0D : (double) current.bytesSpeed() / maxBytesPerSecond;
+        return streams + threads + bandwidth;
+    }
+
+    private int streamCount(int ownedStreams) {
+        NodeLoad current = load;
+        return Math.max(ownedStreams, current == null ? 0 : current.streamCount());
+    }
+
+    private static String trimTrailingSlash(String url) {
+        if (url != null && url.endsWith("/")) {
+            return url.substring(0, url.length() - 1);
+        }
+        return url;
+    }
+
+    public record NodeLoad(
+            int streamCount,
+            double threadLoadPercent,
+            long bytesSpeed,
+            Instant probedAt) {
+    }
+}
@@ -0,0 +1,42 @@
+package com.ownding.video.media;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Refreshes the load of every media node so placement works on live numbers.
+ */
+@Component
+public class MediaNodeLoadProbe {
+
+    private static final Logger log = LoggerFactory.getLogger(MediaNodeLoadProbe.class);
+
+    private final ZlmClient zlmClient;
+    private final MediaNodeRegistry mediaNodeRegistry;
+
+    public MediaNodeLoadProbe(ZlmClient zlmClient, MediaNodeRegistry mediaNodeRegistry) {
+        this.zlmClient = zlmClient;
+        this.mediaNodeRegistry = mediaNodeRegistry;
+    }
+
+    @Scheduled(fixedDelayString = "${app.zlm.node-probe-interval-ms:5000}")
+    public void probeTask() {
+        if (mediaNodeRegistry.nodes().size() <= 1) {
+            return;
+        }
+        try {
+            Flux.fromIterable(mediaNodeRegistry.nodes())
+                    .flatMap(node -> zlmClient.probeNodeAsync(node).onErrorResume(ex -> Mono.empty()))
+                    .then()
+                    .block(Duration.ofSeconds(10));
+        } catch (Exception ex) {
+            log.warn("media node probe failed: {}", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.ownding.video.media;
+
+import com.ownding.video.common.ApiException;
+import com.ownding.video.config.AppProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Media nodes from {@code app.zlm.nodes} (or the single legacy base-url), the
+ * node owning each stream, and the sticky channel-to-node placement.
+ */
+@Component
+public class MediaNodeRegistry {
+
+    static final String DEFAULT_NODE_ID = "default";
+
+    private static final Logger log = LoggerFactory.getLogger(MediaNodeRegistry.class);
+
+    private final Map<String, MediaNode> nodeById = new LinkedHashMap<>();
+    private final Map<String, String> ownerByStream = new ConcurrentHashMap<>();
+    private final Map<String, String> nodeByPlacementKey = new ConcurrentHashMap<>();
+
+    public MediaNodeRegistry(AppProperties appProperties) {
+        AppProperties.Zlm zlm = appProperties.getZlm();
+        List<AppProperties.Zlm.Node> configured = zlm.getNodes() == null ? List.of() : zlm.getNodes();
+        for (AppProperties.Zlm.Node node : configured) {
+            if (nodeById.containsKey(node.getId())) {
+                throw new IllegalStateException("duplicate app.zlm.nodes id: " + node.getId());
+            }
+            nodeById.put(node.getId(), new MediaNode(node.getId(), node.getBaseUrl(), node.getSecret(),
+                    node.getPublicBaseUrl(), node.getMediaIp(), node.getMaxStreams(), node.getMaxBandwidthMbps()));
+        }
+        if (nodeById.isEmpty()) {
+            nodeById.put(DEFAULT_NODE_ID, new MediaNode(DEFAULT_NODE_ID, zlm.getBaseUrl(), zlm.getSecret(),
+                    zlm.getPublicBaseUrl(), null, Integer.MAX_VALUE, Integer.MAX_VALUE / 125_000));
+        }
+        log.info("media nodes configured: {}", nodeById.keySet());
+    }
+
+    /**
+     * Sticky placement key for a device channel, shared by preview and playback.
+     */
+    public static String channelKey(String deviceId, String channelId) {
+        return deviceId + ":" + channelId;
+    }
+
+    public List<MediaNode> nodes() {
+        return List.copyOf(nodeById.values());
+    }
+
+    public Optional<MediaNode> findNode(String nodeId) {
+        return nodeId == null ? Optional.empty() : Optional.ofNullable(nodeById.get(nodeId));
+    }
+
+    /**
+     * Picks the node for a new stream. The node previously used for the same key
+     * is kept while it is healthy and has room; otherwise the healthy node with
+     * the lowest load score wins.
+     *
+     * @throws ApiException 503 when every node is at its stream limit
+     */
+    public MediaNode place(String placementKey) {
+        if (nodeById.size() == 1) {
+            return nodeById.values().iterator().next();
+        }
+        Map<String, Integer> owned = ownedCounts();
+        if (placementKey != null) {
+            MediaNode sticky = nodeById.get(nodeByPlacementKey.get(placementKey));
+            if (sticky != null && sticky.healthy() && !sticky.isFull(owned.getOrDefault(sticky.id(), 0))) {
+                return sticky;
+            }
+        }
+        List<MediaNode> candidates = new ArrayList<>();
+        for (MediaNode node : nodeById.values()) {
+            if (!node.isFull(owned.getOrDefault(node.id(), 0))) {
+                candidates.add(node);
+            }
+        }
+        if (candidates.isEmpty()) {
+            throw new ApiException(503, "所有流媒体节点均已达到最大流数量，请稍后重试或增加节点");
+        }
+        List<MediaNode> healthy = candidates.stream().filter(MediaNode::healthy).toList();
+        // With every node failing its probe, still try one rather than refuse outright.
+        List<MediaNode> pool = healthy.isEmpty() ? candidates : healthy;
+        MediaNode chosen = pool.stream()
+                .min(Comparator.comparingDouble(node -> node.score(owned.getOrDefault(node.id(), 0))))
+                .orElseThrow();
+        if (placementKey != null) {
+            String previous = nodeByPlacementKey.put(placementKey, chosen.id());
+            if (previous != null && !previous.equals(chosen.id())) {
+                log.info("media placement moved. key={}, from={}, to={}", placementKey, previous, chosen.id());
+            }
+        }
+        return chosen;
+    }
+
+    public void assign(String streamId, MediaNode node) {
+        if (streamId != null) {
+            ownerByStream.put(streamId, node.id());
+        }
+    }
+
+    public void release(String streamId) {
+        if (streamId != null) {
+            ownerByStream.remove(streamId);
+        }
+    }
+
+    public Optional<MediaNode> ownerOf(String streamId) {
+        return streamId == null ? Optional.empty() : findNode(ownerByStream.get(streamId));
+    }
+
+    /**
+     * Node owning the stream, or the first node for streams this process did
+     * not place (single-node setups, sessions from before a restart).
+     */
+    public MediaNode nodeFor(String streamId) {
+        return ownerOf(streamId).orElseGet(this::primary);
+    }
+
+    public MediaNode primary() {
+        return nodeById.values().iterator().next();
+    }
+
+    public List<NodeStatus> status() {
+        Map<String, Integer> owned = ownedCounts();
+        List<NodeStatus> result = new ArrayList<>();
+        for (MediaNode node : nodeById.values()) {
+            int ownedStreams = owned.getOrDefault(node.id(), 0);
+            result.add(new NodeStatus(
+                    node.id(),
+                    node.baseUrl(),
+                    node.publicBaseUrl(),
+                    node.healthy(),
+                    ownedStreams,
+                    node.score(ownedStreams),
+                    node.load()));
+        }
+        return result;
+    }
+
+    private Map<String, Integer> ownedCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (String nodeId : ownerByStream.values()) {
+            counts.merge(nodeId, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    public record NodeStatus(
+            String id,
+            String baseUrl,
+            String publicBaseUrl,
+            boolean healthy,
+            int ownedStreams,
+            double score,
+            MediaNode.NodeLoad load) {
+    }
+}
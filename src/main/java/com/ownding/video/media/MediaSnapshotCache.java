@@ -0,0 +1,142 @@
+package com.ownding.video.media;
+
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Short-lived cache of the full ZLMediaKit getMediaList result.
+ * <p>
+ * Concurrent readers share one in-flight request (single-flight) and the result
+ * is indexed by stream alias, so per-stream lookups never hit ZLMediaKit.
+ * {@link #invalidate()} forces the next reader to refetch, e.g. after an RTP
+ * server was opened or closed.
+ */
+class MediaSnapshotCache {
+
+    private final Supplier<Mono<MediaSnapshot>> loader;
+    private final Supplier<Duration> ttl;
+    private final AtomicReference<MediaSnapshot> current = new AtomicReference<>();
+    private final AtomicReference<InFlight> inFlight = new AtomicReference<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    MediaSnapshotCache(Supplier<Mono<MediaSnapshot>> loader, Supplier<Duration> ttl) {
+        this.loader = loader;
+        this.ttl = ttl;
+    }
+
+    Mono<MediaSnapshot> get() {
+        long gen = generation.get();
+        MediaSnapshot snapshot = current.get();
+        if (snapshot != null && snapshot.generation() == gen
+                && snapshot.fetchedAt().plus(ttl.get()).isAfter(Instant.now())) {
+            return Mono.just(snapshot);
+        }
+        InFlight running = inFlight.get();
+        while (running == null || running.generation() < gen) {
+            InFlight candidate = new InFlight(gen, newFetch(gen));
+            if (inFlight.compareAndSet(running, candidate)) {
+                return candidate.mono();
+            }
+            running = inFlight.get();
+        }
+        return running.mono();
+    }
+
+    void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    private Mono<MediaSnapshot> newFetch(long gen) {
+        AtomicReference<Mono<MediaSnapshot>> self = new AtomicReference<>();
+        Mono<MediaSnapshot> mono = loader.get()
+                .map(snapshot -> snapshot.withGeneration(gen))
+                .doOnNext(snapshot -> current.accumulateAndGet(snapshot,
+                        (prev, next) -> prev != null && prev.generation() > next.generation() ? prev : next))
+                .doFinally(signal -> {
+                    InFlight running = inFlight.get();
+                    if (running != null && running.mono() == self.get()) {
+                        inFlight.compareAndSet(running, null);
+                    }
+                })
+                .cache();
+        self.set(mono);
+        return mono;
+    }
+
+    private record InFlight(long generation, Mono<MediaSnapshot> mono) {
+    }
+
+    /**
+     * One stream as reported by ZLMediaKit, merged across its protocol schemas.
+     */
+    record MediaEntry(
+            String app,
+            String streamId,
+            Set<String> aliases,
+            boolean mp4Recording,
+            String codec,
+            long bytesSpeed,
+            int readerCount) {
+    }
+
+    record MediaSnapshot(
+            Instant fetchedAt,
+            long generation,
+            List<MediaEntry> entries,
+            Map<String, List<MediaEntry>> byAlias) {
+
+        static MediaSnapshot of(List<MediaEntry> entries) {
+            Map<String, List<MediaEntry>> index = new LinkedHashMap<>();
+            for (MediaEntry entry : entries) {
+                for (String alias : entry.aliases()) {
+                    index.computeIfAbsent(alias, key -> new ArrayList<>()).add(entry);
+                }
+            }
+            return new MediaSnapshot(Instant.now(), 0L, List.copyOf(entries), index);
+        }
+
+        MediaSnapshot withGeneration(long value) {
+            return new MediaSnapshot(fetchedAt, value, entries, byAlias);
+        }
+
+        /**
+         * Finds a stream by raw or normalised id, preferring one in {@code app}
+         * and falling back to any app.
+         */
+        Optional<MediaEntry> find(String app, String rawStreamId, String normalizedStreamId) {
+            List<MediaEntry> candidates = new ArrayList<>();
+            if (rawStreamId != null) {
+                candidates.addAll(byAlias.getOrDefault(rawStreamId, List.of()));
+            }
+            if (normalizedStreamId != null && !normalizedStreamId.equals(rawStreamId)) {
+                candidates.addAll(byAlias.getOrDefault(normalizedStreamId, List.of()));
+            }
+            if (candidates.isEmpty()) {
+                return Optional.empty();
+            }
+            if (app != null && !app.isBlank()) {
+                for (MediaEntry candidate : candidates) {
+                    if (app.equals(candidate.app())) {
+                        return Optional.of(candidate);
+                    }
+                }
+            }
+            return Optional.of(candidates.get(0));
+        }
+
+        long totalBytesSpeed() {
+            return entries.stream().mapToLong(MediaEntry::bytesSpeed).sum();
+        }
+    }
+}
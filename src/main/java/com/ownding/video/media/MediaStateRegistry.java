@@ -0,0 +1,371 @@
+package com.ownding.video.media;
+
+import com.ownding.video.config.AppProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * In-memory media state table fed by ZLMediaKit web hooks.
+ * <p>
+ * Waiters (stream ready / mp4 recording) are completed the moment the matching
+ * hook arrives. Callers fall back to polling ZLMediaKit only while no hook has
+ * been received recently, see {@link #isHookActive()}.
+ */
+@Component
+public class MediaStateRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(MediaStateRegistry.class);
+
+    private final Map<String, StreamEntry> entryByStream = new ConcurrentHashMap<>();
+    private final Map<String, List<CompletableFuture<Boolean>>> readyWaiters = new ConcurrentHashMap<>();
+    private final Map<String, List<CompletableFuture<Boolean>>> recordingWaiters = new ConcurrentHashMap<>();
+    private final List<BiConsumer<String, String>> streamChangeListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<String>> rtpServerTimeoutListeners = new CopyOnWriteArrayList<>();
+    private final AppProperties appProperties;
+
+    private volatile Instant lastHookAt;
+    private volatile String lastMediaServerId;
+
+    public MediaStateRegistry(AppProperties appProperties) {
+        this.appProperties = appProperties;
+    }
+
+    /**
+     * Registers a callback fired whenever a stream registers, unregisters or its
+     * RTP server times out, with the reporting mediaServerId and the stream id.
+     */
+    public void addStreamChangeListener(BiConsumer<String, String> listener) {
+        streamChangeListeners.add(listener);
+    }
+
+    /**
+     * Registers a callback receiving the stream id of every RTP server that
+     * ZLMediaKit closed on its own because no data arrived.
+     */
+    public void addRtpServerTimeoutListener(Consumer<String> listener) {
+        rtpServerTimeoutListeners.add(listener);
+    }
+
+    /**
+     * Whether hooks can be trusted as the primary signal: at least one hook
+     * (keepalive included) arrived within the configured alive timeout.
+     */
+    public boolean isHookActive() {
+        Instant last = lastHookAt;
+        if (last == null) {
+            return false;
+        }
+        int timeoutSeconds = Math.max(1, appProperties.getZlm().getHookAliveTimeoutSeconds());
+        return last.plusSeconds(timeoutSeconds).isAfter(Instant.now());
+    }
+
+    public HookStatus status() {
+        Instant last = lastHookAt;
+        return new HookStatus(
+                isHookActive(),
+                last == null ? null : last.toString(),
+                lastMediaServerId,
+                entryByStream.size());
+    }
+
+    public void onStreamChanged(String mediaServerId, String app, String streamId, String schema, boolean regist,
+            Boolean mp4Recording) {
+        touch(mediaServerId);
+        String key = normalizeStreamId(streamId);
+        if (key == null) {
+            return;
+        }
+        StreamEntry entry = entryByStream.computeIfAbsent(key, k -> new StreamEntry(app, k));
+        boolean ready;
+        synchronized (entry) {
+            entry.app = app == null || app.isBlank() ? entry.app : app;
+            String normalizedSchema = schema == null || schema.isBlank() ? "unknown" : schema.trim().toLowerCase();
+            if (regist) {
+                entry.schemas.add(normalizedSchema);
+                if (mp4Recording != null) {
+                    entry.mp4Recording = mp4Recording;
+                }
+            } else {
+                entry.schemas.remove(normalizedSchema);
+            }
+            if (entry.schemas.isEmpty()) {
+                entry.mp4Recording = false;
+            }
+            entry.noneReaderSince = null;
+            entry.updatedAt = Instant.now();
+            ready = !entry.schemas.isEmpty();
+        }
+        notifyStreamChanged(mediaServerId, streamId);
+        if (ready) {
+            completeWaiters(readyWaiters, key, true);
+        }
+        if (entry.mp4Recording) {
+            completeWaiters(recordingWaiters, key, true);
+        }
+    }
+
+    public void onRecordMp4(String mediaServerId, String app, String streamId, String filePath, long fileSize,
+            long startTimeEpochSeconds, double timeLenSeconds) {
+        touch(mediaServerId);
+        String key = normalizeStreamId(streamId);
+        if (key == null) {
+            return;
+        }
+        StreamEntry entry = entryByStream.computeIfAbsent(key, k -> new StreamEntry(app, k));
+        synchronized (entry) {
+            entry.mp4Recording = true;
+            entry.lastRecordFile = new RecordedSegment(filePath, fileSize, startTimeEpochSeconds, timeLenSeconds);
+            entry.updatedAt = Instant.now();
+        }
+        completeWaiters(recordingWaiters, key, true);
+    }
+
+    public void onStreamNoneReader(String mediaServerId, String app, String streamId) {
+        touch(mediaServerId);
+        StreamEntry entry = findEntry(streamId);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.noneReaderSince == null) {
+                entry.noneReaderSince = Instant.now();
+            }
+            entry.updatedAt = Instant.now();
+        }
+    }
+
+    public void onRtpServerTimeout(String mediaServerId, String streamId) {
+        touch(mediaServerId);
+        String key = normalizeStreamId(streamId);
+        if (key == null) {
+            return;
+        }
+        StreamEntry entry = entryByStream.remove(key);
+        if (entry != null) {
+            log.info("rtp server timeout reported by hook, drop media state. streamId={}", key);
+        }
+        for (Consumer<String> listener : rtpServerTimeoutListeners) {
+            try {
+                listener.accept(streamId);
+            } catch (Exception ex) {
+                log.warn("rtp server timeout listener failed: {}", ex.getMessage());
+            }
+        }
+        notifyStreamChanged(mediaServerId, streamId);
+        completeWaiters(readyWaiters, key, false);
+        completeWaiters(recordingWaiters, key, false);
+    }
+
+    public void onPublish(String mediaServerId, String app, String streamId) {
+        touch(mediaServerId);
+        String key = normalizeStreamId(streamId);
+        if (key == null) {
+            return;
+        }
+        StreamEntry entry = entryByStream.computeIfAbsent(key, k -> new StreamEntry(app, k));
+        synchronized (entry) {
+            entry.publishedAt = Instant.now();
+            entry.updatedAt = entry.publishedAt;
+        }
+    }
+
+    public void onServerKeepalive(String mediaServerId) {
+        touch(mediaServerId);
+    }
+
+    /**
+     * Records the outcome of a startRecord/stopRecord API call so that waiters
+     * need not poll isRecording afterwards.
+     */
+    public void markMp4Recording(String app, String streamId, boolean recording) {
+        String key = normalizeStreamId(streamId);
+        if (key == null) {
+            return;
+        }
+        StreamEntry entry = entryByStream.computeIfAbsent(key, k -> new StreamEntry(app, k));
+        synchronized (entry) {
+            entry.mp4Recording = recording;
+            entry.updatedAt = Instant.now();
+        }
+        if (recording) {
+            completeWaiters(recordingWaiters, key, true);
+        }
+    }
+
+    public Optional<MediaState> find(String streamId) {
+        StreamEntry entry = findEntry(streamId);
+        return entry == null ? Optional.empty() : Optional.of(entry.toState());
+    }
+
+    public List<MediaState> list() {
+        return entryByStream.values().stream()
+                .map(StreamEntry::toState)
+                .sorted(Comparator.comparing(MediaState::streamId))
+                .toList();
+    }
+
+    /**
+     * Returns a future completed with {@code true} once the stream registers,
+     * or {@code false} if ZLMediaKit reports an RTP server timeout for it.
+     * Callers must cancel the future when they stop waiting.
+     */
+    public CompletableFuture<Boolean> awaitStreamReady(String streamId) {
+        String key = normalizeStreamId(streamId);
+        if (key == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        CompletableFuture<Boolean> future = register(readyWaiters, key);
+        StreamEntry entry = entryByStream.get(key);
+        if (entry != null && entry.isReady()) {
+            future.complete(true);
+        }
+        return future;
+    }
+
+    public CompletableFuture<Boolean> awaitMp4Recording(String streamId) {
+        String key = normalizeStreamId(streamId);
+        if (key == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        CompletableFuture<Boolean> future = register(recordingWaiters, key);
+        StreamEntry entry = entryByStream.get(key);
+        if (entry != null && entry.mp4Recording) {
+            future.complete(true);
+        }
+        return future;
+    }
+
+    public void forget(String streamId) {
+        String key = normalizeStreamId(streamId);
+        if (key != null) {
+            entryByStream.remove(key);
+        }
+    }
+
+    private StreamEntry findEntry(String streamId) {
+        String key = normalizeStreamId(streamId);
+        return key == null ? null : entryByStream.get(key);
+    }
+
+    private CompletableFuture<Boolean> register(Map<String, List<CompletableFuture<Boolean>>> waiters, String key) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        List<CompletableFuture<Boolean>> list = waiters.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>());
+        list.removeIf(CompletableFuture::isDone);
+        list.add(future);
+        return future;
+    }
+
+    private void completeWaiters(Map<String, List<CompletableFuture<Boolean>>> waiters, String key, boolean value) {
+        List<CompletableFuture<Boolean>> list = waiters.remove(key);
+        if (list == null) {
+            return;
+        }
+        for (CompletableFuture<Boolean> future : list) {
+            future.complete(value);
+        }
+    }
+
+    private void notifyStreamChanged(String mediaServerId, String streamId) {
+        for (BiConsumer<String, String> listener : streamChangeListeners) {
+            try {
+                listener.accept(mediaServerId, streamId);
+            } catch (Exception ex) {
+                log.warn("stream change listener failed: {}", ex.getMessage());
+            }
+        }
+    }
+
+    private void touch(String mediaServerId) {
+        lastHookAt = Instant.now();
+        if (mediaServerId != null && !mediaServerId.isBlank()) {
+            lastMediaServerId = mediaServerId;
+        }
+    }
+
+    private String normalizeStreamId(String streamId) {
+        if (streamId == null) {
+            return null;
+        }
+        String trimmed = streamId.trim();
+        if (trimmed.isBlank()) {
+            return null;
+        }
+        String normalized = trimmed.replaceAll("[^A-Za-z0-9_\\-]", "");
+        if (normalized.isBlank()) {
+            return trimmed;
+        }
+        return normalized;
+    }
+
+    public record MediaState(
+            String app,
+            String streamId,
+            boolean streamReady,
+            boolean mp4Recording,
+            Set<String> schemas,
+            String noneReaderSince,
+            String publishedAt,
+            RecordedSegment lastRecordFile,
+            String updatedAt) {
+    }
+
+    public record RecordedSegment(
+            String filePath,
+            long fileSize,
+            long startTimeEpochSeconds,
+            double timeLenSeconds) {
+    }
+
+    public record HookStatus(
+            boolean hookActive,
+            String lastHookAt,
+            String mediaServerId,
+            int trackedStreams) {
+    }
+
+    private static class StreamEntry {
+        private final String streamId;
+        private final Set<String> schemas = ConcurrentHashMap.newKeySet();
+        private volatile String app;
+        private volatile boolean mp4Recording;
+        private volatile Instant noneReaderSince;
+        private volatile Instant publishedAt;
+        private volatile RecordedSegment lastRecordFile;
+        private volatile Instant updatedAt = Instant.now();
+
+        private StreamEntry(String app, String streamId) {
+            this.app = app;
+            this.streamId = streamId;
+        }
+
+        private boolean isReady() {
+            return !schemas.isEmpty();
+        }
+
+        private MediaState toState() {
+            return new MediaState(
+                    app,
+                    streamId,
+                    isReady(),
+                    mp4Recording,
+                    Set.copyOf(schemas),
+                    noneReaderSince == null ? null : noneReaderSince.toString(),
+                    publishedAt == null ? null : publishedAt.toString(),
+                    lastRecordFile,
+                    updatedAt.toString());
+        }
+    }
+}
@@ -1,17 +1,28 @@
 package com.ownding.video.media;
 
+import com.ownding.video.auth.AuthContext;
+import com.ownding.video.auth.AuthWebFilter;
+import com.ownding.video.common.ApiException;
 import com.ownding.video.common.ApiResult;
+import com.ownding.video.common.Deadline;
+import com.ownding.video.config.AppProperties;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import org.springframework.http.MediaType;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
 import java.util.List;
 
 @Validated
@@ -19,54 +30,179 @@ import java.util.List;
 @RequestMapping("/api/preview")
 public class PreviewController {
 
+    static final String DEADLINE_HEADER = "X-Request-Deadline-Ms";
+
     private final PreviewService previewService;
+    private final RtpPortPool rtpPortPool;
+    private final MediaNodeRegistry mediaNodeRegistry;
+    private final PreviewPrewarmer previewPrewarmer;
+    private final AppProperties appProperties;
+    private final SessionTeardown sessionTeardown;
 
-    public PreviewController(PreviewService previewService) {
+    public PreviewController(PreviewService previewService, RtpPortPool rtpPortPool,
+            MediaNodeRegistry mediaNodeRegistry, PreviewPrewarmer previewPrewarmer, AppProperties appProperties,
+            SessionTeardown sessionTeardown) {
         this.previewService = previewService;
+        this.rtpPortPool = rtpPortPool;
+        this.mediaNodeRegistry = mediaNodeRegistry;
+        this.previewPrewarmer = previewPrewarmer;
+        this.appProperties = appProperties;
+        this.sessionTeardown = sessionTeardown;
     }
 
+    /**
+     * Answers within app.preview.start-deadline-ms, or the budget in the
+     * X-Request-Deadline-Ms header; past it the start is aborted with 504.
+     */
     @PostMapping("/start")
-    public Mono<ApiResult<PreviewService.StartPreviewResult>> startPreview(@Valid @RequestBody StartRequest request) {
+    public Mono<ApiResult<PreviewService.StartPreviewResult>> startPreview(
+            @Valid @RequestBody StartRequest request,
+            @RequestHeader(value = DEADLINE_HEADER, required = false) Long deadlineMs) {
+        Deadline deadline = requestDeadline(deadlineMs);
         return Mono.fromCallable(() -> ApiResult.success(previewService.startPreview(new PreviewService.StartPreviewCommand(
                         request.devicePk(),
                         request.channelId(),
                         request.protocol(),
-                        request.browserSupportsH265()
-                ))))
+                        request.browserSupportsH265(),
+                        request.streamProfile()
+                ), deadline)))
                 .subscribeOn(Schedulers.boundedElastic());
     }
 
+    /**
+     * Starts several tiles at once and streams one NDJSON line per tile as it
+     * becomes ready or fails, in completion order. One deadline covers the batch.
+     */
+    @PostMapping(value = "/batch-start", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<PreviewService.BatchStartItem> batchStart(
+            @Valid @RequestBody BatchStartRequest request,
+            @RequestHeader(value = DEADLINE_HEADER, required = false) Long deadlineMs) {
+        Deadline deadline = requestDeadline(deadlineMs);
+        List<PreviewService.StartPreviewCommand> commands = request.tiles().stream()
+                .map(tile -> new PreviewService.StartPreviewCommand(
+                        tile.devicePk(),
+                        tile.channelId(),
+                        tile.protocol(),
+                        request.browserSupportsH265(),
+                        tile.streamProfile()))
+                .toList();
+        return previewService.startPreviewBatch(commands, deadline);
+    }
+
+    private Deadline requestDeadline(Long requestedMs) {
+        AppProperties.Preview preview = appProperties.getPreview();
+        long budgetMs = requestedMs == null || requestedMs <= 0
+                ? preview.getStartDeadlineMs()
+                : Math.min(requestedMs, preview.getMaxStartDeadlineMs());
+        return Deadline.after(Duration.ofMillis(budgetMs));
+    }
+
     @PostMapping("/stop")
     public Mono<ApiResult<Void>> stopPreview(@Valid @RequestBody StopRequest request) {
-        return Mono.fromRunnable(() -> previewService.stopPreview(request.sessionId()))
+        return Mono.fromRunnable(() -> previewService.stopPreview(request.sessionId(), request.viewerId()))
                 .subscribeOn(Schedulers.boundedElastic())
                 .thenReturn(ApiResult.successMessage("已停止预览"));
     }
 
+    /**
+     * Admin only: stops every preview and playback session concurrently, bounded
+     * by app.preview.teardown.deadline-ms or X-Request-Deadline-Ms (at most
+     * app.preview.teardown.max-deadline-ms).
+     */
+    @PostMapping("/stop-all")
+    public Mono<ApiResult<SessionTeardown.BulkStopResult>> stopAll(
+            ServerWebExchange exchange,
+            @RequestHeader(value = DEADLINE_HEADER, required = false) Long deadlineMs) {
+        AuthContext context = exchange.getAttribute(AuthWebFilter.AUTH_CONTEXT_KEY);
+        if (context == null || !"ADMIN".equals(context.role())) {
+            throw new ApiException(403, "仅管理员可批量停止会话");
+        }
+        long budgetMs = deadlineMs == null || deadlineMs <= 0
+                ? appProperties.getPreview().getTeardown().getDeadlineMs()
+                : Math.min(deadlineMs, appProperties.getPreview().getTeardown().getMaxDeadlineMs());
+        Deadline deadline = Deadline.after(Duration.ofMillis(budgetMs));
+        return Mono.fromCallable(() -> ApiResult.success(
+                        sessionTeardown.stopAll("admin " + context.username(), deadline)))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @GetMapping("/stop-all")
+    public ApiResult<SessionTeardown.TeardownStatus> stopAllStatus() {
+        return ApiResult.success(sessionTeardown.status());
+    }
+
+    @PostMapping("/heartbeat")
+    public ApiResult<PreviewService.LeaseResult> heartbeat(@Valid @RequestBody HeartbeatRequest request) {
+        return ApiResult.success(previewService.heartbeat(request.sessionId(), request.viewerId()));
+    }
+
+    @GetMapping("/leases/stats")
+    public ApiResult<PreviewService.LeaseStats> leaseStats() {
+        return ApiResult.success(previewService.leaseStats());
+    }
+
+    @GetMapping("/prewarm")
+    public ApiResult<PreviewPrewarmer.PrewarmStatus> prewarmStatus() {
+        return ApiResult.success(previewPrewarmer.status());
+    }
+
     @GetMapping("/status")
     public Mono<ApiResult<List<PreviewService.SessionStatus>>> status() {
         return Mono.fromSupplier(() -> ApiResult.success(previewService.listSessions()))
                 .subscribeOn(Schedulers.boundedElastic());
     }
 
+    @GetMapping("/rtp-ports")
+    public ApiResult<List<RtpPortPool.PoolStatus>> rtpPorts() {
+        return ApiResult.success(mediaNodeRegistry.nodes().stream()
+                .map(node -> rtpPortPool.status(node.id()))
+                .toList());
+    }
+
+    @GetMapping("/media-nodes")
+    public ApiResult<List<MediaNodeRegistry.NodeStatus>> mediaNodes() {
+        return ApiResult.success(mediaNodeRegistry.status());
+    }
+
     @PostMapping("/webrtc/play")
     public Mono<ApiResult<PreviewService.WebRtcAnswer>> playWebRtc(@Valid @RequestBody WebRtcPlayRequest request) {
-        return Mono.fromCallable(() -> ApiResult.success(previewService.playWebRtc(
-                        request.sessionId(),
-                        request.offerSdp()
-                )))
-                .subscribeOn(Schedulers.boundedElastic());
+        return previewService.playWebRtcAsync(request.sessionId(), request.offerSdp())
+                .map(ApiResult::success);
     }
 
     public record StartRequest(
             long devicePk,
             String channelId,
             String protocol,
+            boolean browserSupportsH265,
+            String streamProfile
+    ) {
+    }
+
+    public record BatchStartRequest(
+            @NotEmpty(message = "不能为空") List<@Valid StartTile> tiles,
             boolean browserSupportsH265
     ) {
     }
 
-    public record StopRequest(@NotBlank(message = "不能为空") String sessionId) {
+    public record StartTile(
+            long devicePk,
+            @NotBlank(message = "不能为空") String channelId,
+            String protocol,
+            String streamProfile
+    ) {
+    }
+
+    public record StopRequest(
+            @NotBlank(message = "不能为空") String sessionId,
+            String viewerId
+    ) {
+    }
+
+    public record HeartbeatRequest(
+            @NotBlank(message = "不能为空") String sessionId,
+            @NotBlank(message = "不能为空") String viewerId
+    ) {
     }
 
     public record WebRtcPlayRequest(
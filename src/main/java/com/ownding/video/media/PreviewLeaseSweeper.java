@@ -0,0 +1,29 @@
+package com.ownding.video.media;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class PreviewLeaseSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(PreviewLeaseSweeper.class);
+    private final PreviewService previewService;
+
+    public PreviewLeaseSweeper(PreviewService previewService) {
+        this.previewService = previewService;
+    }
+
+    @Scheduled(fixedDelayString = "${app.preview.lease-sweep-interval-ms:10000}")
+    public void sweepTask() {
+        try {
+            int closed = previewService.sweepExpiredLeases();
+            if (closed > 0) {
+                log.info("preview lease sweep done, closedSessions={}", closed);
+            }
+        } catch (Exception ex) {
+            log.warn("preview lease sweep failed: {}", ex.getMessage());
+        }
+    }
+}
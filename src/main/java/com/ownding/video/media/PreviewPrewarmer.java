@@ -0,0 +1,194 @@
+package com.ownding.video.media;
+
+import com.ownding.video.config.AppProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the top-K most popular preview channels (see {@link ChannelAccessTracker})
+ * streaming as warm sessions. K is bounded by app.preview.prewarm: a session
+ * count, a reserve of free RTP ports, a per-device stream cap for device uplink
+ * and a total bandwidth budget. Warm sessions are given up again when they drop
+ * out of the top-K or the budget is needed elsewhere. A rebalance opens
+ * sessions one INVITE at a time, so it runs on a thread of its own instead of
+ * holding the shared {@code @Scheduled} thread.
+ */
+@Component
+public class PreviewPrewarmer {
+
+    private static final Logger log = LoggerFactory.getLogger(PreviewPrewarmer.class);
+
+    private final PreviewService previewService;
+    private final ChannelAccessTracker channelAccessTracker;
+    private final ZlmClient zlmClient;
+    private final RtpPortPool rtpPortPool;
+    private final MediaNodeRegistry mediaNodeRegistry;
+    private final AppProperties appProperties;
+    /** A timer run is queued or running on {@link #executor}. */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "preview-prewarm");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile PrewarmStatus lastStatus;
+
+    public PreviewPrewarmer(PreviewService previewService, ChannelAccessTracker channelAccessTracker,
+            ZlmClient zlmClient, RtpPortPool rtpPortPool, MediaNodeRegistry mediaNodeRegistry,
+            AppProperties appProperties) {
+        this.previewService = previewService;
+        this.channelAccessTracker = channelAccessTracker;
+        this.zlmClient = zlmClient;
+        this.rtpPortPool = rtpPortPool;
+        this.mediaNodeRegistry = mediaNodeRegistry;
+        this.appProperties = appProperties;
+    }
+
+    @Scheduled(fixedDelayString = "${app.preview.prewarm.interval-ms:30000}")
+    public void prewarmTask() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                run();
+            } catch (Exception ex) {
+                log.warn("preview prewarm failed: {}", ex.getMessage());
+            } finally {
+                scheduled.set(false);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private void run() {
+        AppProperties.Preview.Prewarm config = appProperties.getPreview().getPrewarm();
+        if (!config.isEnabled()) {
+            for (PreviewService.WarmSession warm : previewService.listWarmSessions()) {
+                previewService.releaseWarm(warm.devicePk(), warm.channelId(), "prewarm disabled");
+            }
+            return;
+        }
+        rebalance(config);
+    }
+
+    public PrewarmStatus status() {
+        PrewarmStatus status = lastStatus;
+        if (status != null) {
+            return status;
+        }
+        return new PrewarmStatus(appProperties.getPreview().getPrewarm().isEnabled(), List.of(),
+                previewService.listWarmSessions(), 0L, availablePorts(), null);
+    }
+
+    private void rebalance(AppProperties.Preview.Prewarm config) {
+        List<ChannelAccessTracker.ChannelScore> wanted =
+                channelAccessTracker.top(config.getMaxSessions(), config.getMinScore());
+        Set<String> wantedKeys = new HashSet<>();
+        for (ChannelAccessTracker.ChannelScore candidate : wanted) {
+            wantedKeys.add(key(candidate.devicePk(), candidate.channelId()));
+        }
+
+        for (PreviewService.WarmSession warm : previewService.listWarmSessions()) {
+            if (!wantedKeys.contains(key(warm.devicePk(), warm.channelId()))) {
+                previewService.releaseWarm(warm.devicePk(), warm.channelId(), "dropped out of top-k");
+            }
+        }
+        // Give ports back first if on-demand sessions ate into the reserve.
+        while (!singlePort() && availablePorts() < config.getReservePorts()
+                && previewService.releaseLeastPopularWarm("rtp port reserve")) {
+            log.info("warm session released to restore rtp port reserve, available={}", availablePorts());
+        }
+
+        long budgetBytes = config.getMaxBandwidthMbps() * 125_000L;
+        long warmBytes = warmBytesSpeed();
+        while (warmBytes > budgetBytes && previewService.releaseLeastPopularWarm("bandwidth budget")) {
+            warmBytes = warmBytesSpeed();
+        }
+
+        Set<String> warmKeys = new HashSet<>();
+        for (PreviewService.WarmSession warm : previewService.listWarmSessions()) {
+            warmKeys.add(key(warm.devicePk(), warm.channelId()));
+        }
+        for (ChannelAccessTracker.ChannelScore candidate : wanted) {
+            if (warmKeys.contains(key(candidate.devicePk(), candidate.channelId()))) {
+                continue;
+            }
+            if (warmKeys.size() >= config.getMaxSessions()) {
+                break;
+            }
+            if (!singlePort() && availablePorts() <= config.getReservePorts()) {
+                log.debug("prewarm stopped, rtp port reserve reached");
+                break;
+            }
+            if (warmBytes >= budgetBytes) {
+                log.debug("prewarm stopped, bandwidth budget reached");
+                break;
+            }
+            if (previewService.countDeviceSessions(candidate.devicePk()) >= config.getMaxStreamsPerDevice()) {
+                continue;
+            }
+            try {
+                previewService.ensureWarm(candidate.devicePk(), candidate.channelId());
+                warmKeys.add(key(candidate.devicePk(), candidate.channelId()));
+                warmBytes = warmBytesSpeed();
+            } catch (Exception ex) {
+                log.info("prewarm channel skipped. devicePk={}, channelId={}, reason={}",
+                        candidate.devicePk(), candidate.channelId(), ex.getMessage());
+            }
+        }
+        lastStatus = new PrewarmStatus(true, wanted, previewService.listWarmSessions(), warmBytes,
+                availablePorts(), Instant.now().toString());
+    }
+
+    private long warmBytesSpeed() {
+        long total = 0L;
+        for (PreviewService.WarmSession warm : previewService.listWarmSessions()) {
+            ZlmClient.StreamTraffic traffic = zlmClient.queryStreamTraffic(warm.app(), warm.streamId());
+            if (traffic != null) {
+                total += traffic.bytesSpeed();
+            }
+        }
+        return total;
+    }
+
+    private int availablePorts() {
+        int available = 0;
+        for (MediaNode node : mediaNodeRegistry.nodes()) {
+            available += rtpPortPool.available(node.id());
+        }
+        return available;
+    }
+
+    private boolean singlePort() {
+        return appProperties.getZlm().getRtp().isSinglePortEnabled();
+    }
+
+    private String key(long devicePk, String channelId) {
+        return devicePk + ":" + channelId;
+    }
+
+    public record PrewarmStatus(
+            boolean enabled,
+            List<ChannelAccessTracker.ChannelScore> topChannels,
+            List<PreviewService.WarmSession> warmSessions,
+            long warmBytesSpeed,
+            int availableRtpPorts,
+            String updatedAt) {
+    }
+}
@@ -1,16 +1,22 @@
 package com.ownding.video.media;
 
 import com.ownding.video.common.ApiException;
+import com.ownding.video.common.CircuitBreakerRegistry;
+import com.ownding.video.common.Deadline;
 import com.ownding.video.config.AppProperties;
 import com.ownding.video.device.Device;
 import com.ownding.video.device.DeviceChannel;
 import com.ownding.video.device.DeviceService;
+import com.ownding.video.gb28181.InviteAdmissionController;
 import com.ownding.video.gb28181.SipSignalService;
 import com.ownding.video.storage.StoragePolicy;
 import com.ownding.video.storage.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -21,47 +27,128 @@ import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class PreviewService {
 
     private static final Logger log = LoggerFactory.getLogger(PreviewService.class);
+    static final String STREAM_PROFILE_MAIN = "MAIN";
+    static final String STREAM_PROFILE_SUB = "SUB";
+    private static final Duration STREAM_READY_TIMEOUT = Duration.ofSeconds(15);
+    private static final Duration RECORD_START_TIMEOUT = Duration.ofSeconds(3);
 
     private final Map<String, SessionHolder> sessionByKey = new ConcurrentHashMap<>();
     private final Map<String, SessionHolder> sessionById = new ConcurrentHashMap<>();
+    private final Map<String, ReentrantLock> openLockByKey = new ConcurrentHashMap<>();
+    private final AtomicLong expiredLeaseCount = new AtomicLong();
+    private final AtomicLong reclaimedSessionCount = new AtomicLong();
+    private final AtomicLong reclaimedBytesSpeed = new AtomicLong();
+    private volatile Instant lastReclaimAt;
+    /** Until the journal is recovered, schedulers leave journaled channels alone. */
+    private volatile boolean recoveryPending = true;
 
     private final DeviceService deviceService;
     private final ZlmClient zlmClient;
     private final SipSignalService sipSignalService;
     private final StorageService storageService;
     private final AppProperties appProperties;
+    private final MediaStateRegistry mediaStateRegistry;
+    private final ChannelAccessTracker channelAccessTracker;
+    private final InviteAdmissionController inviteAdmission;
+    private final CircuitBreakerRegistry circuitBreakers;
+    private final PreviewSessionRepository sessionJournal;
 
     public PreviewService(DeviceService deviceService, ZlmClient zlmClient, SipSignalService sipSignalService,
-            StorageService storageService, AppProperties appProperties) {
+            StorageService storageService, AppProperties appProperties, MediaStateRegistry mediaStateRegistry,
+            ChannelAccessTracker channelAccessTracker, InviteAdmissionController inviteAdmission,
+            CircuitBreakerRegistry circuitBreakers, PreviewSessionRepository sessionJournal) {
         this.deviceService = deviceService;
         this.zlmClient = zlmClient;
         this.sipSignalService = sipSignalService;
         this.storageService = storageService;
         this.appProperties = appProperties;
+        this.mediaStateRegistry = mediaStateRegistry;
+        this.channelAccessTracker = channelAccessTracker;
+        this.inviteAdmission = inviteAdmission;
+        this.circuitBreakers = circuitBreakers;
+        this.sessionJournal = sessionJournal;
     }
 
-    public StartPreviewResult startPreview(StartPreviewCommand command) {
+    /**
+     * User-initiated preview; counts towards the channel's popularity used for
+     * pre-warming. Every phase waits at most for what is left of the deadline;
+     * once it runs out the half-built session is torn down and 504 is thrown.
+     */
+    public StartPreviewResult startPreview(StartPreviewCommand command, Deadline deadline) {
+        channelAccessTracker.recordAccess(command.devicePk(), command.channelId());
+        return openPreview(command, InviteAdmissionController.Priority.INTERACTIVE, deadline);
+    }
+
+    /**
+     * Short-lived session opened by the server itself, e.g. to grab a thumbnail;
+     * not counted as user interest. The caller stops it with the returned viewerId.
+     */
+    public StartPreviewResult openInternalPreview(long devicePk, String channelId, String streamProfile) {
+        return openPreview(new StartPreviewCommand(devicePk, channelId, "WEBRTC", true, streamProfile),
+                InviteAdmissionController.Priority.BACKGROUND, Deadline.none());
+    }
+
+    /**
+     * Starts the tiles of a wall concurrently, at most batch-start-concurrency at
+     * a time, emitting each tile's outcome as soon as it is known. A failing tile
+     * does not affect the others. The deadline covers the whole batch, so tiles
+     * still queued when it runs out fail with 504 instead of starting late.
+     * Tiles that name no stream profile are grid tiles and start on the sub-stream.
+     */
+    public Flux<BatchStartItem> startPreviewBatch(List<StartPreviewCommand> commands, Deadline deadline) {
+        int maxTiles = appProperties.getPreview().getBatchStartMaxTiles();
+        if (commands.size() > maxTiles) {
+            throw new ApiException(400, "单次最多批量启动 " + maxTiles + " 路预览");
+        }
+        return Flux.range(0, commands.size())
+                .flatMap(index -> {
+                    StartPreviewCommand command = commands.get(index).withDefaultProfile(STREAM_PROFILE_SUB);
+                    return Mono.fromCallable(() -> BatchStartItem.success(index, command,
+                                    startPreview(command, deadline)))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .onErrorResume(ex -> {
+                                int status = ex instanceof ApiException apiException ? apiException.getStatus() : 500;
+                                log.info("batch preview tile failed. devicePk={}, channelId={}, status={}, reason={}",
+                                        command.devicePk(), command.channelId(), status, ex.getMessage());
+                                return Mono.just(BatchStartItem.failure(index, command, status, ex.getMessage()));
+                            });
+                }, appProperties.getPreview().getBatchStartConcurrency());
+    }
+
+    private StartPreviewResult openPreview(StartPreviewCommand command, InviteAdmissionController.Priority priority,
+            Deadline deadline) {
+        deadline.check("排队启动");
         Device device = deviceService.getDevice(command.devicePk());
         if (!device.online()) {
             throw new ApiException(400, "设备离线，无法预览");
         }
         DeviceChannel channel = deviceService.resolveChannel(device.id(), command.channelId());
         String codec = normalizeCodec(channel.codec());
-        StoragePolicy storagePolicy = storageService.getPolicy();
-        RecordingConfig recordingConfig = resolveRecordingConfig(storagePolicy, device, channel);
+        String streamProfile = resolveStreamProfile(command.streamProfile());
+        // Recording follows the main stream; sub-stream sessions only feed grids and thumbnails.
+        RecordingConfig recordingConfig = STREAM_PROFILE_SUB.equals(streamProfile)
+                ? new RecordingConfig(false, null, null)
+                : resolveRecordingConfig(storageService.getPolicy(), device, channel);
 
-        String sessionKey = buildSessionKey(device.id(), channel.channelId());
+        String sessionKey = buildSessionKey(device.id(), channel.channelId(), streamProfile);
         String app = appProperties.getZlm().getDefaultApp();
         String sdpIp = resolveSdpIpv4(appProperties.getGb28181().getMediaIp());
         if (isLoopbackIp(sdpIp) && !isLoopbackIp(device.ip())) {
@@ -69,179 +156,267 @@ public class PreviewService {
         }
         warnIfMediaIpNotReachableForDevice(device.ip(), sdpIp);
 
-        synchronized (this) {
+        // Only starts of the same channel/profile wait for each other; different
+        // channels INVITE concurrently. Map updates still happen under this.
+        ReentrantLock openLock = acquireOpenLock(sessionKey, deadline);
+        try {
             SessionHolder current = sessionByKey.get(sessionKey);
             if (current != null) {
                 boolean streamAlive = zlmClient.isStreamReady(current.app, current.streamId);
-                if (streamAlive) {
-                    int viewers = current.viewerCount.incrementAndGet();
-                    current.updatedAt = Instant.now().toString();
-                    return toStartResult(current, viewers, false, "复用已有会话");
+                synchronized (this) {
+                    if (streamAlive && sessionByKey.get(sessionKey) == current) {
+                        String viewerId = current.grantLease(leaseTtl());
+                        current.updatedAt = Instant.now().toString();
+                        return toStartResult(current, viewerId, false, "复用已有会话");
+                    }
+                    if (!detachSession(current)) {
+                        // Closed meanwhile by stop or the lease sweeper.
+                        current = null;
+                    }
                 }
+            }
+            if (current != null) {
                 log.warn("stale preview session detected, cleanup and recreate. sessionId={}, streamId={}",
                         current.sessionId, current.streamId);
-                sessionById.remove(current.sessionId);
-                sessionByKey.remove(current.sessionKey);
-                if (current.recordingEnabled) {
-                    zlmClient.stopMp4Record(current.app, current.streamId);
-                }
-                sipSignalService.bye(current.sipCallId);
-                zlmClient.closeRtpServer(current.streamId);
-            }
-
-            String streamId = buildStreamId(channel.channelId());
-            String ssrc = sipSignalService.generateSsrc();
-            int streamMode = resolveStreamMode(device.transport());
-            Integer rtpPort = zlmClient.openRtpServer(streamId, streamMode);
-            if (rtpPort == null || rtpPort <= 0) {
-                throw new ApiException(502, "无法在ZLMediaKit创建RTP端口");
-            }
-            log.info(
-                    "preview openRtpServer success. deviceId={}, channelId={}, streamId={}, rtpPort={}, streamMode={}, ssrc={}",
-                    device.deviceId(), channel.channelId(), streamId, rtpPort, streamMode, ssrc);
-
-            String inviteChannelId = channel.channelId();
-            SipSignalService.InviteResult inviteResult = invite(device, inviteChannelId, streamMode, rtpPort, ssrc,
-                    sdpIp, streamId);
-            if (!inviteResult.success()) {
-                zlmClient.closeRtpServer(streamId);
-                throw new ApiException(502, "GB28181 INVITE失败: " + inviteResult.reason());
-            }
-            log.info("preview invite accepted. deviceId={}, inviteChannelId={}, callId={}, streamId={}, rtpPort={}",
-                    device.deviceId(), inviteChannelId, inviteResult.callId(), streamId, rtpPort);
-
-            boolean streamReady = zlmClient.waitStreamReady(app, streamId, Duration.ofSeconds(15));
-            if (!streamReady && !device.deviceId().equals(inviteChannelId)) {
-                // Some single-channel simulators use deviceId itself as the valid channelId.
-                sipSignalService.bye(inviteResult.callId());
-                log.warn("stream not ready by channel {}, retry invite with deviceId {}. streamId={}",
-                        inviteChannelId, device.deviceId(), streamId);
-                inviteChannelId = device.deviceId();
-                inviteResult = invite(device, inviteChannelId, streamMode, rtpPort, ssrc, sdpIp, streamId);
-                if (!inviteResult.success()) {
-                    zlmClient.closeRtpServer(streamId);
-                    throw new ApiException(502, "GB28181 INVITE失败: " + inviteResult.reason());
-                }
-                streamReady = zlmClient.waitStreamReady(app, streamId, Duration.ofSeconds(15));
+                teardownSession(current);
             }
 
-            if (!streamReady && streamMode == 0) {
-                log.warn("stream not ready via UDP, retry by TCP passive mode. deviceId={}, streamId={}",
-                        device.deviceId(), streamId);
-                sipSignalService.bye(inviteResult.callId());
-                zlmClient.closeRtpServer(streamId);
-
-                streamMode = 1;
-                Integer tcpRtpPort = zlmClient.openRtpServer(streamId, streamMode);
-                if (tcpRtpPort == null || tcpRtpPort <= 0) {
-                    throw new ApiException(502, "UDP失败后，无法在ZLMediaKit创建TCP模式RTP端口");
+            String deviceCircuit = CircuitBreakerRegistry.deviceKey(device.deviceId());
+            circuitBreakers.ensureNotRejecting(deviceCircuit);
+            try (InviteAdmissionController.Permit permit = inviteAdmission.acquire(device.deviceId(), priority,
+                    deadline)) {
+                deadline.check("申请RTP端口");
+                String ssrc = sipSignalService.generateSsrc();
+                int streamMode = resolveStreamMode(device.transport());
+                String placementKey = MediaNodeRegistry.channelKey(device.deviceId(), channel.channelId());
+                ZlmClient.RtpBinding binding = bindRtpReclaimingWarm(placementKey,
+                        buildStreamId(channel.channelId(), streamProfile), streamMode, ssrc, deadline);
+                if (binding == null || binding.port() <= 0) {
+                    throw new ApiException(502, "无法在ZLMediaKit创建RTP端口");
+                }
+                String streamId = binding.streamId();
+                int rtpPort = binding.port();
+                if (binding.mediaIp() != null) {
+                    sdpIp = resolveSdpIpv4(binding.mediaIp());
                 }
-                rtpPort = tcpRtpPort;
                 log.info(
-                        "preview openRtpServer success after udp failed. deviceId={}, channelId={}, streamId={}, rtpPort={}, streamMode={}, ssrc={}",
+                        "preview openRtpServer success. deviceId={}, channelId={}, streamId={}, rtpPort={}, streamMode={}, ssrc={}",
                         device.deviceId(), channel.channelId(), streamId, rtpPort, streamMode, ssrc);
-                inviteChannelId = channel.channelId();
-                inviteResult = invite(device, inviteChannelId, streamMode, rtpPort, ssrc, sdpIp, streamId);
+
+                String inviteChannelId = channel.channelId();
+                SipSignalService.InviteResult inviteResult = invite(device, inviteChannelId, streamMode, rtpPort, ssrc,
+                        sdpIp, streamId, streamProfile, deadline);
+                permit.signallingDone();
                 if (!inviteResult.success()) {
                     zlmClient.closeRtpServer(streamId);
-                    throw new ApiException(502, "GB28181 TCP INVITE失败: " + inviteResult.reason());
+                    throw inviteFailure("GB28181 INVITE失败: ", inviteResult, deadline);
                 }
-                streamReady = zlmClient.waitStreamReady(app, streamId, Duration.ofSeconds(15));
-                if (!streamReady && !device.deviceId().equals(inviteChannelId)) {
+                log.info("preview invite accepted. deviceId={}, inviteChannelId={}, callId={}, streamId={}, rtpPort={}",
+                        device.deviceId(), inviteChannelId, inviteResult.callId(), streamId, rtpPort);
+
+                boolean streamReady = zlmClient.waitStreamReady(app, streamId, STREAM_READY_TIMEOUT, deadline);
+                if (!streamReady && !deadline.isExpired() && !device.deviceId().equals(inviteChannelId)) {
+                    // Some single-channel simulators use deviceId itself as the valid channelId.
                     sipSignalService.bye(inviteResult.callId());
+                    log.warn("stream not ready by channel {}, retry invite with deviceId {}. streamId={}",
+                            inviteChannelId, device.deviceId(), streamId);
                     inviteChannelId = device.deviceId();
-                    inviteResult = invite(device, inviteChannelId, streamMode, rtpPort, ssrc, sdpIp, streamId);
+                    inviteResult = invite(device, inviteChannelId, streamMode, rtpPort, ssrc, sdpIp, streamId,
+                            streamProfile, deadline);
                     if (!inviteResult.success()) {
                         zlmClient.closeRtpServer(streamId);
-                        throw new ApiException(502, "GB28181 TCP INVITE失败: " + inviteResult.reason());
+                        throw inviteFailure("GB28181 INVITE失败: ", inviteResult, deadline);
                     }
-                    streamReady = zlmClient.waitStreamReady(app, streamId, Duration.ofSeconds(15));
+                    streamReady = zlmClient.waitStreamReady(app, streamId, STREAM_READY_TIMEOUT, deadline);
                 }
-            }
 
-            if (!streamReady) {
-                log.warn("preview stream not ready in timeout. deviceId={}, channelId={}, streamId={}, rtpPort={}",
-                        device.deviceId(), inviteChannelId, streamId, rtpPort);
-                sipSignalService.bye(inviteResult.callId());
-                zlmClient.closeRtpServer(streamId);
-                throw new ApiException(504, "设备已应答但未推流，请检查通道ID、RTP端口映射或设备编码设置");
-            }
-            String detectedCodec = normalizeCodec(zlmClient.detectStreamCodec(app, streamId));
-            String finalCodec = detectedCodec == null ? codec : detectedCodec;
-            if (!finalCodec.equals(codec)) {
-                log.info(
-                        "channel codec corrected by stream probe. deviceId={}, channelId={}, dbCodec={}, streamCodec={}",
-                        device.deviceId(), channel.channelId(), codec, finalCodec);
-                deviceService.updateChannelCodec(device.id(), channel.channelId(), finalCodec);
-            }
-            if (device.channelCount() <= 1 && !normalizeCodec(device.preferredCodec()).equals(finalCodec)) {
-                deviceService.updateDevicePreferredCodec(device.id(), finalCodec);
+                if (!streamReady && !deadline.isExpired() && streamMode == 0) {
+                    log.warn("stream not ready via UDP, retry by TCP passive mode. deviceId={}, streamId={}",
+                            device.deviceId(), streamId);
+                    sipSignalService.bye(inviteResult.callId());
+                    zlmClient.closeRtpServer(streamId, deadline);
+
+                    streamMode = 1;
+                    deadline.check("申请TCP收流端口");
+                    ZlmClient.RtpBinding tcpBinding = bindRtpReclaimingWarm(placementKey, streamId, streamMode,
+                            ssrc, deadline);
+                    if (tcpBinding == null || tcpBinding.port() <= 0) {
+                        throw new ApiException(502, "UDP失败后，无法在ZLMediaKit创建TCP模式RTP端口");
+                    }
+                    rtpPort = tcpBinding.port();
+                    if (tcpBinding.mediaIp() != null) {
+                        sdpIp = resolveSdpIpv4(tcpBinding.mediaIp());
+                    }
+                    log.info(
+                            "preview openRtpServer success after udp failed. deviceId={}, channelId={}, streamId={}, rtpPort={}, streamMode={}, ssrc={}",
+                            device.deviceId(), channel.channelId(), streamId, rtpPort, streamMode, ssrc);
+                    inviteChannelId = channel.channelId();
+                    inviteResult = invite(device, inviteChannelId, streamMode, rtpPort, ssrc, sdpIp, streamId,
+                            streamProfile, deadline);
+                    if (!inviteResult.success()) {
+                        zlmClient.closeRtpServer(streamId);
+                        throw inviteFailure("GB28181 TCP INVITE失败: ", inviteResult, deadline);
+                    }
+                    streamReady = zlmClient.waitStreamReady(app, streamId, STREAM_READY_TIMEOUT, deadline);
+                    if (!streamReady && !deadline.isExpired() && !device.deviceId().equals(inviteChannelId)) {
+                        sipSignalService.bye(inviteResult.callId());
+                        inviteChannelId = device.deviceId();
+                        inviteResult = invite(device, inviteChannelId, streamMode, rtpPort, ssrc, sdpIp, streamId,
+                                streamProfile, deadline);
+                        if (!inviteResult.success()) {
+                            zlmClient.closeRtpServer(streamId);
+                            throw inviteFailure("GB28181 TCP INVITE失败: ", inviteResult, deadline);
+                        }
+                        streamReady = zlmClient.waitStreamReady(app, streamId, STREAM_READY_TIMEOUT, deadline);
+                    }
+                }
+
+                if (!streamReady) {
+                    log.warn("preview stream not ready in timeout. deviceId={}, channelId={}, streamId={}, rtpPort={}",
+                            device.deviceId(), inviteChannelId, streamId, rtpPort);
+                    sipSignalService.bye(inviteResult.callId());
+                    zlmClient.closeRtpServer(streamId);
+                    if (deadline.isExpired()) {
+                        // The budget ran out, the device may just not have had enough time.
+                        throw deadline.expired("等待推流");
+                    }
+                    circuitBreakers.breaker(deviceCircuit).onFailure("设备已应答但未推流");
+                    throw new ApiException(504, "设备已应答但未推流，请检查通道ID、RTP端口映射或设备编码设置");
+                }
+                circuitBreakers.breaker(deviceCircuit).onSuccess();
+                String detectedCodec = normalizeCodec(zlmClient.detectStreamCodec(app, streamId));
+                String finalCodec = detectedCodec == null ? codec : detectedCodec;
+                if (!finalCodec.equals(codec)) {
+                    log.info(
+                            "channel codec corrected by stream probe. deviceId={}, channelId={}, dbCodec={}, streamCodec={}",
+                            device.deviceId(), channel.channelId(), codec, finalCodec);
+                    deviceService.updateChannelCodec(device.id(), channel.channelId(), finalCodec);
+                }
+                if (device.channelCount() <= 1 && !normalizeCodec(device.preferredCodec()).equals(finalCodec)) {
+                    deviceService.updateDevicePreferredCodec(device.id(), finalCodec);
+                }
+                try {
+                    validateCodecSupport(finalCodec, command.browserSupportsH265());
+                } catch (ApiException ex) {
+                    sipSignalService.bye(inviteResult.callId());
+                    zlmClient.closeRtpServer(streamId);
+                    throw ex;
+                }
+                log.info("preview stream ready. deviceId={}, channelId={}, streamId={}, codec={}",
+                        device.deviceId(), inviteChannelId, streamId, finalCodec);
+
+                if (recordingConfig.enabled()) {
+                    boolean recordingStarted = zlmClient.startMp4Record(app, streamId, recordingConfig.zlmRecordPath(),
+                            deadline);
+                    boolean recordingActive = recordingStarted
+                            && waitRecordingStarted(app, streamId, deadline);
+                    if (!recordingActive) {
+                        sipSignalService.bye(inviteResult.callId());
+                        zlmClient.closeRtpServer(streamId);
+                        if (deadline.isExpired()) {
+                            throw deadline.expired("启动录像");
+                        }
+                        throw new ApiException(502, "录像已开启，但启动录像失败，请检查 ZLMediaKit 录制配置");
+                    }
+                    log.info("preview recording started. deviceId={}, channelId={}, streamId={}, zlmPath={}, localPath={}",
+                            device.deviceId(), channel.channelId(), streamId,
+                            recordingConfig.zlmRecordPath(), recordingConfig.localRecordPath());
+                }
+
+                PlayUrls urls = zlmClient.buildPlayUrls(app, streamId);
+
+                String protocol = resolveProtocol(command.protocol());
+                String playUrl = selectPlayUrl(protocol, urls);
+
+                String now = Instant.now().toString();
+                SessionHolder created = new SessionHolder(
+                        randomSessionId(),
+                        sessionKey,
+                        device.id(),
+                        device.deviceId(),
+                        channel.channelId(),
+                        finalCodec,
+                        app,
+                        streamId,
+                        streamProfile,
+                        protocol,
+                        playUrl,
+                        urls,
+                        ssrc,
+                        inviteResult.callId(),
+                        rtpPort,
+                        recordingConfig.enabled(),
+                        recordingConfig.zlmRecordPath(),
+                        now,
+                        now);
+                String viewerId = created.grantLease(leaseTtl());
+
+                synchronized (this) {
+                    sessionByKey.put(sessionKey, created);
+                    sessionById.put(created.sessionId, created);
+                }
+                permit.established(created.sessionId);
+                journal(created);
+                return toStartResult(created, viewerId, true, "预览会话已创建");
             }
+        } finally {
+            openLock.unlock();
+            pruneOpenLock(sessionKey);
+        }
+    }
+
+    /**
+     * Locks the key's open lock, retrying when the entry was pruned while this
+     * thread waited for it so that two starts never hold different locks.
+     */
+    private ReentrantLock acquireOpenLock(String sessionKey, Deadline deadline) {
+        while (true) {
+            ReentrantLock openLock = openLockByKey.computeIfAbsent(sessionKey, key -> new ReentrantLock());
             try {
-                validateCodecSupport(finalCodec, command.browserSupportsH265());
-            } catch (ApiException ex) {
-                sipSignalService.bye(inviteResult.callId());
-                zlmClient.closeRtpServer(streamId);
+                lockOpen(openLock, deadline);
+            } catch (RuntimeException ex) {
+                pruneOpenLock(sessionKey);
                 throw ex;
             }
-            log.info("preview stream ready. deviceId={}, channelId={}, streamId={}, codec={}",
-                    device.deviceId(), inviteChannelId, streamId, finalCodec);
+            if (openLockByKey.get(sessionKey) == openLock) {
+                return openLock;
+            }
+            openLock.unlock();
+        }
+    }
 
-            if (recordingConfig.enabled()) {
-                boolean recordingStarted = zlmClient.startMp4Record(app, streamId, recordingConfig.zlmRecordPath());
-                boolean recordingActive = recordingStarted
-                        && waitRecordingStarted(app, streamId, Duration.ofSeconds(3));
-                if (!recordingActive) {
-                    sipSignalService.bye(inviteResult.callId());
-                    zlmClient.closeRtpServer(streamId);
-                    throw new ApiException(502, "录像已开启，但启动录像失败，请检查 ZLMediaKit 录制配置");
-                }
-                log.info("preview recording started. deviceId={}, channelId={}, streamId={}, zlmPath={}, localPath={}",
-                        device.deviceId(), channel.channelId(), streamId,
-                        recordingConfig.zlmRecordPath(), recordingConfig.localRecordPath());
-            }
-
-            PlayUrls urls = zlmClient.buildPlayUrls(app, streamId);
-
-            String protocol = resolveProtocol(command.protocol());
-            String playUrl = switch (protocol) {
-                case "HLS" -> urls.hlsUrl();
-                case "HTTP_FLV" -> urls.httpFlvUrl();
-                default -> urls.webrtcPlayerUrl();
-            };
-
-            String now = Instant.now().toString();
-            SessionHolder created = new SessionHolder(
-                    randomSessionId(),
-                    sessionKey,
-                    device.id(),
-                    device.deviceId(),
-                    channel.channelId(),
-                    finalCodec,
-                    app,
-                    streamId,
-                    protocol,
-                    playUrl,
-                    urls,
-                    ssrc,
-                    inviteResult.callId(),
-                    rtpPort,
-                    recordingConfig.enabled(),
-                    recordingConfig.zlmRecordPath(),
-                    new AtomicInteger(1),
-                    now,
-                    now);
-
-            sessionByKey.put(sessionKey, created);
-            sessionById.put(created.sessionId, created);
-            return toStartResult(created, 1, true, "预览会话已创建");
+    /**
+     * Drops the key's open lock once no session uses the key and nobody holds
+     * or waits for it.
+     */
+    private void pruneOpenLock(String sessionKey) {
+        openLockByKey.computeIfPresent(sessionKey, (key, lock) ->
+                sessionByKey.containsKey(key) || lock.isLocked() || lock.hasQueuedThreads() ? lock : null);
+    }
+
+    private void lockOpen(ReentrantLock openLock, Deadline deadline) {
+        try {
+            if (!deadline.isBounded()) {
+                openLock.lockInterruptibly();
+            } else if (!openLock.tryLock(deadline.remainingMs(), TimeUnit.MILLISECONDS)) {
+                throw deadline.expired("等待同通道启动");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(503, "预览启动被中断");
         }
     }
 
     public void ensureBackgroundRecording(long devicePk, String channelId) {
+        if (recoveryPending) {
+            log.debug("background recording waits for session recovery. devicePk={}, channelId={}",
+                    devicePk, channelId);
+            return;
+        }
         String sessionKey = buildSessionKey(devicePk, channelId);
         SessionHolder existing = sessionByKey.get(sessionKey);
         if (existing != null && zlmClient.isStreamReady(existing.app, existing.streamId)) {
+            boolean changed = !existing.backgroundPinned;
             if (!existing.recordingEnabled) {
                 Device device = deviceService.getDevice(devicePk);
                 DeviceChannel channel = deviceService.resolveChannel(devicePk, channelId);
@@ -250,86 +425,351 @@ public class PreviewService {
                     boolean started = zlmClient.startMp4Record(existing.app, existing.streamId,
                             recordingConfig.zlmRecordPath());
                     boolean active = started
-                            && waitRecordingStarted(existing.app, existing.streamId, Duration.ofSeconds(3));
+                            && waitRecordingStarted(existing.app, existing.streamId, Deadline.none());
                     if (!active) {
                         throw new ApiException(502, "后台补开录像失败");
                     }
                     existing.recordingEnabled = true;
                     existing.recordPath = recordingConfig.zlmRecordPath();
+                    changed = true;
                 }
             }
             existing.backgroundPinned = true;
             existing.updatedAt = Instant.now().toString();
+            if (changed) {
+                journal(existing);
+            }
             return;
         }
 
-        StartPreviewResult result = startPreview(new StartPreviewCommand(
+        StartPreviewResult result = openPreview(new StartPreviewCommand(
                 devicePk,
                 channelId,
                 "WEBRTC",
-                true));
+                true,
+                STREAM_PROFILE_MAIN), InviteAdmissionController.Priority.BACKGROUND, Deadline.none());
         synchronized (this) {
             SessionHolder holder = sessionById.get(result.sessionId());
             if (holder == null) {
                 return;
             }
             holder.backgroundPinned = true;
-            holder.viewerCount.updateAndGet(value -> value > 0 ? value - 1 : 0);
+            holder.leases.remove(result.viewerId());
+            holder.updatedAt = Instant.now().toString();
+            journal(holder);
+        }
+    }
+
+    /**
+     * Keeps the channel streaming without viewers so the next preview reuses it.
+     *
+     * @return {@code true} when a new session had to be opened for it
+     */
+    public boolean ensureWarm(long devicePk, String channelId) {
+        if (recoveryPending) {
+            return false;
+        }
+        synchronized (this) {
+            SessionHolder existing = sessionByKey.get(buildSessionKey(devicePk, channelId));
+            if (existing != null) {
+                if (!existing.warmPinned) {
+                    existing.warmPinned = true;
+                    journal(existing);
+                }
+                return false;
+            }
+        }
+        StartPreviewResult result = openPreview(new StartPreviewCommand(devicePk, channelId, "WEBRTC", true,
+                STREAM_PROFILE_MAIN), InviteAdmissionController.Priority.BACKGROUND, Deadline.none());
+        synchronized (this) {
+            SessionHolder holder = sessionById.get(result.sessionId());
+            if (holder == null) {
+                return false;
+            }
+            holder.warmPinned = true;
+            holder.leases.remove(result.viewerId());
             holder.updatedAt = Instant.now().toString();
+            journal(holder);
+            log.info("preview session pre-warmed. deviceId={}, channelId={}, streamId={}",
+                    holder.deviceId, holder.channelId, holder.streamId);
+        }
+        return result.created();
+    }
+
+    /**
+     * Stops keeping the channel warm and closes its session unless someone is
+     * watching it or background recording pinned it.
+     */
+    public void releaseWarm(long devicePk, String channelId, String reason) {
+        SessionHolder holder;
+        synchronized (this) {
+            holder = sessionByKey.get(buildSessionKey(devicePk, channelId));
+            if (holder == null || !holder.warmPinned) {
+                return;
+            }
+            holder.warmPinned = false;
+            if (holder.viewerCount() > 0 || holder.backgroundPinned) {
+                journal(holder);
+                return;
+            }
+            log.info("pre-warmed preview session released. deviceId={}, channelId={}, reason={}",
+                    holder.deviceId, holder.channelId, reason);
+            detachSession(holder);
         }
+        teardownSession(holder);
+    }
+
+    public List<WarmSession> listWarmSessions() {
+        return sessionById.values().stream()
+                .filter(holder -> holder.warmPinned)
+                .map(holder -> new WarmSession(
+                        holder.devicePk,
+                        holder.deviceId,
+                        holder.channelId,
+                        holder.app,
+                        holder.streamId,
+                        holder.viewerCount(),
+                        channelAccessTracker.scoreOf(holder.devicePk, holder.channelId)))
+                .sorted(Comparator.comparingDouble(WarmSession::score))
+                .toList();
+    }
+
+    /**
+     * Number of open sessions (viewed, warm or recording) pulling a stream from the device.
+     */
+    public int countDeviceSessions(long devicePk) {
+        return (int) sessionById.values().stream().filter(holder -> holder.devicePk == devicePk).count();
+    }
+
+    /**
+     * Opens the RTP endpoint; when the port pool is exhausted, gives up the least
+     * popular warm session that nobody is watching and tries once more.
+     */
+    private ZlmClient.RtpBinding bindRtpReclaimingWarm(String placementKey, String streamId, int streamMode,
+            String ssrc, Deadline deadline) {
+        try {
+            return zlmClient.bindRtp(placementKey, streamId, streamMode, ssrc, deadline);
+        } catch (ApiException ex) {
+            if (ex.getStatus() != 503 || !releaseLeastPopularWarm("rtp port needed")) {
+                throw ex;
+            }
+            return zlmClient.bindRtp(placementKey, streamId, streamMode, ssrc, deadline);
+        }
+    }
+
+    /**
+     * @return {@code true} when a warm session was closed
+     */
+    public boolean releaseLeastPopularWarm(String reason) {
+        for (WarmSession warm : listWarmSessions()) {
+            if (warm.viewerCount() > 0) {
+                continue;
+            }
+            synchronized (this) {
+                SessionHolder holder = sessionByKey.get(buildSessionKey(warm.devicePk(), warm.channelId()));
+                if (holder == null || !holder.warmPinned || holder.viewerCount() > 0 || holder.backgroundPinned) {
+                    continue;
+                }
+            }
+            releaseWarm(warm.devicePk(), warm.channelId(), reason);
+            return true;
+        }
+        return false;
     }
 
     public void releaseBackgroundRecording(long devicePk, String channelId) {
         String sessionKey = buildSessionKey(devicePk, channelId);
+        SessionHolder holder;
         synchronized (this) {
-            SessionHolder holder = sessionByKey.get(sessionKey);
+            holder = sessionByKey.get(sessionKey);
             if (holder == null) {
                 return;
             }
             holder.backgroundPinned = false;
-            if (holder.viewerCount.get() > 0) {
+            if (holder.viewerCount() > 0 || holder.warmPinned) {
                 holder.updatedAt = Instant.now().toString();
+                journal(holder);
                 return;
             }
-            closeSession(holder);
+            detachSession(holder);
         }
+        teardownSession(holder);
     }
 
     public void stopPreview(String sessionId) {
+        stopPreview(sessionId, null);
+    }
+
+    /**
+     * Releases the viewer's lease, or an arbitrary one for clients that do not
+     * send {@code viewerId}, and closes the session when it was the last viewer.
+     */
+    public void stopPreview(String sessionId, String viewerId) {
         SessionHolder holder = sessionById.get(sessionId);
         if (holder == null) {
             return;
         }
-        int viewers = holder.viewerCount.updateAndGet(value -> value > 0 ? value - 1 : 0);
-        if (viewers > 0 || holder.backgroundPinned) {
+        if (viewerId == null) {
+            log.info("preview stop without viewerId, releasing the oldest lease. sessionId={}, viewers={}",
+                    sessionId, holder.viewerCount());
+        }
+        if (!holder.releaseLease(viewerId)) {
+            log.debug("preview stop released no lease. sessionId={}, viewerId={}", sessionId, viewerId);
+        }
+        if (holder.viewerCount() > 0 || holder.isPinned()) {
             holder.updatedAt = Instant.now().toString();
             return;
         }
 
+        SessionHolder check;
         synchronized (this) {
-            SessionHolder check = sessionById.get(sessionId);
+            check = sessionById.get(sessionId);
             if (check == null) {
                 return;
             }
-            if (check.viewerCount.get() > 0 || check.backgroundPinned) {
+            if (check.viewerCount() > 0 || check.isPinned()) {
                 return;
             }
-            closeSession(check);
+            detachSession(check);
+        }
+        teardownSession(check);
+    }
+
+    /**
+     * Extends a lease granted by a preview start. Unknown viewer ids, including
+     * leases the sweeper already dropped, get 404 so the page starts again.
+     */
+    public LeaseResult heartbeat(String sessionId, String viewerId) {
+        SessionHolder holder = sessionById.get(sessionId);
+        if (holder == null) {
+            throw new ApiException(404, "预览会话不存在或已结束");
+        }
+        Duration ttl = leaseTtl();
+        Instant expiresAt = Instant.now().plus(ttl);
+        if (viewerId == null || holder.leases.computeIfPresent(viewerId, (id, previous) -> expiresAt) == null) {
+            throw new ApiException(404, "观看租约不存在或已过期");
+        }
+        holder.idleSince = null;
+        return new LeaseResult(sessionId, viewerId, expiresAt.toString(), ttl.toSeconds(), holder.viewerCount());
+    }
+
+    /**
+     * Drops lapsed viewer leases and tears down unpinned sessions that stayed
+     * without viewers for the idle grace period. A session whose stream ZLMediaKit
+     * reports as unread (on_stream_none_reader, confirmed by reader count 0) for
+     * the grace period loses its leases as well.
+     *
+     * @return number of sessions closed
+     */
+    public int sweepExpiredLeases() {
+        Instant now = Instant.now();
+        Duration grace = Duration.ofSeconds(appProperties.getPreview().getIdleGraceSeconds());
+        List<SessionHolder> idle = new ArrayList<>();
+        for (SessionHolder holder : sessionById.values()) {
+            int expired = holder.expireLeases(now);
+            if (expired > 0) {
+                expiredLeaseCount.addAndGet(expired);
+                log.info("preview viewer lease expired. sessionId={}, streamId={}, expired={}, remaining={}",
+                        holder.sessionId, holder.streamId, expired, holder.viewerCount());
+            }
+            if (holder.isPinned()) {
+                holder.idleSince = null;
+                continue;
+            }
+            if (holder.viewerCount() > 0 && unreadSince(holder, now.minus(grace))) {
+                int dropped = holder.viewerCount();
+                holder.leases.clear();
+                expiredLeaseCount.addAndGet(dropped);
+                log.info("preview stream has no reader, drop viewer leases. sessionId={}, streamId={}, dropped={}",
+                        holder.sessionId, holder.streamId, dropped);
+                idle.add(holder);
+                continue;
+            }
+            if (holder.viewerCount() > 0) {
+                holder.idleSince = null;
+                continue;
+            }
+            if (holder.idleSince == null) {
+                holder.idleSince = now;
+            }
+            if (!holder.idleSince.plus(grace).isAfter(now)) {
+                idle.add(holder);
+            }
+        }
+        int closed = 0;
+        for (SessionHolder candidate : idle) {
+            ZlmClient.StreamTraffic traffic = null;
+            try {
+                traffic = zlmClient.queryStreamTraffic(candidate.app, candidate.streamId);
+            } catch (Exception ex) {
+                log.debug("query stream traffic failed: {}", ex.getMessage());
+            }
+            synchronized (this) {
+                SessionHolder check = sessionById.get(candidate.sessionId);
+                if (check == null || check.viewerCount() > 0 || check.isPinned() || !detachSession(check)) {
+                    continue;
+                }
+            }
+            teardownSession(candidate);
+            closed++;
+            long bytesSpeed = traffic == null ? 0L : traffic.bytesSpeed();
+            reclaimedSessionCount.incrementAndGet();
+            reclaimedBytesSpeed.addAndGet(bytesSpeed);
+            lastReclaimAt = now;
+            log.info("idle preview session reclaimed. sessionId={}, deviceId={}, channelId={}, bytesSpeed={}",
+                    candidate.sessionId, candidate.deviceId, candidate.channelId, bytesSpeed);
         }
+        return closed;
+    }
+
+    public LeaseStats leaseStats() {
+        int leases = 0;
+        int idleSessions = 0;
+        for (SessionHolder holder : sessionById.values()) {
+            leases += holder.viewerCount();
+            if (holder.idleSince != null) {
+                idleSessions++;
+            }
+        }
+        Instant last = lastReclaimAt;
+        return new LeaseStats(
+                sessionById.size(),
+                leases,
+                idleSessions,
+                expiredLeaseCount.get(),
+                reclaimedSessionCount.get(),
+                reclaimedBytesSpeed.get(),
+                last == null ? null : last.toString());
+    }
+
+    private boolean unreadSince(SessionHolder holder, Instant threshold) {
+        Optional<MediaStateRegistry.MediaState> state = mediaStateRegistry.find(holder.streamId);
+        String noneReaderSince = state.map(MediaStateRegistry.MediaState::noneReaderSince).orElse(null);
+        if (noneReaderSince == null || Instant.parse(noneReaderSince).isAfter(threshold)) {
+            return false;
+        }
+        // The hook flag is not cleared when a reader joins again, so confirm with the live reader count.
+        ZlmClient.StreamTraffic traffic = zlmClient.queryStreamTraffic(holder.app, holder.streamId);
+        return traffic != null && traffic.readerCount() == 0;
+    }
+
+    private Duration leaseTtl() {
+        return Duration.ofSeconds(appProperties.getPreview().getViewerLeaseSeconds());
     }
 
     public List<SessionStatus> listSessions() {
         return sessionById.values().stream()
-                .filter(holder -> holder.viewerCount.get() > 0)
+                .filter(holder -> holder.viewerCount() > 0)
                 .map(holder -> new SessionStatus(
                         holder.sessionId,
                         holder.devicePk,
                         holder.deviceId,
                         holder.channelId,
                         holder.codec,
+                        holder.streamProfile,
                         holder.protocol,
                         holder.playUrl,
-                        holder.viewerCount.get(),
+                        holder.viewerCount(),
                         holder.startedAt,
                         holder.updatedAt))
                 .sorted((a, b) -> b.startedAt().compareTo(a.startedAt()))
@@ -354,7 +794,7 @@ public class PreviewService {
                     recording,
                     streamReady,
                     holder.backgroundPinned,
-                    holder.viewerCount.get(),
+                    holder.viewerCount(),
                     holder.startedAt,
                     holder.updatedAt));
         }
@@ -363,8 +803,15 @@ public class PreviewService {
         // stream
         // may still be alive and recording in ZLMediaKit.
         String app = appProperties.getZlm().getDefaultApp();
-        String expectedStreamId = buildStreamId(channelId);
-        ZlmClient.MediaRuntime mediaRuntime = zlmClient.queryMediaRuntime(app, expectedStreamId);
+        String expectedStreamId = null;
+        ZlmClient.MediaRuntime mediaRuntime = null;
+        for (String candidate : fallbackStreamIds(devicePk, channelId)) {
+            mediaRuntime = zlmClient.queryMediaRuntime(app, candidate);
+            if (mediaRuntime != null) {
+                expectedStreamId = candidate;
+                break;
+            }
+        }
         if (mediaRuntime == null) {
             return Optional.empty();
         }
@@ -385,6 +832,29 @@ public class PreviewService {
                 null));
     }
 
+    /**
+     * Stream ids the channel may be published under: the per-port name, and in
+     * single-port mode the SSRC-derived name of its journaled session.
+     */
+    private List<String> fallbackStreamIds(long devicePk, String channelId) {
+        Set<String> candidates = new LinkedHashSet<>();
+        candidates.add(buildStreamId(channelId));
+        try {
+            sessionJournal.find(buildSessionKey(devicePk, channelId)).ifPresent(row -> {
+                if (row.streamId() != null) {
+                    candidates.add(row.streamId());
+                }
+                String sharedStreamId = ZlmClient.ssrcToStreamId(row.ssrc());
+                if (sharedStreamId != null) {
+                    candidates.add(sharedStreamId);
+                }
+            });
+        } catch (Exception ex) {
+            log.debug("read preview session journal failed: {}", ex.getMessage());
+        }
+        return List.copyOf(candidates);
+    }
+
     /**
      * Lightweight session lookup — reads only from the in-memory session map,
      * NO HTTP calls to ZLMediaKit. Used by
@@ -392,7 +862,11 @@ public class PreviewService {
      * to avoid redundant per-channel HTTP calls.
      */
     public ChannelRuntime findChannelRuntimeLocal(long devicePk, String channelId) {
-        SessionHolder holder = sessionByKey.get(buildSessionKey(devicePk, channelId));
+        return findChannelRuntimeLocal(devicePk, channelId, STREAM_PROFILE_MAIN);
+    }
+
+    public ChannelRuntime findChannelRuntimeLocal(long devicePk, String channelId, String streamProfile) {
+        SessionHolder holder = sessionByKey.get(buildSessionKey(devicePk, channelId, streamProfile));
         if (holder == null) {
             return null;
         }
@@ -406,7 +880,7 @@ public class PreviewService {
                 holder.recordingEnabled,
                 false,
                 holder.backgroundPinned,
-                holder.viewerCount.get(),
+                holder.viewerCount(),
                 holder.startedAt,
                 holder.updatedAt);
     }
@@ -424,7 +898,26 @@ public class PreviewService {
         return answer;
     }
 
-    private StartPreviewResult toStartResult(SessionHolder holder, int viewers, boolean created, String message) {
+    /**
+     * Non-blocking variant of {@link #playWebRtc(String, String)}; all ZLMediaKit
+     * calls run on the ZLM connection pool without holding a worker thread.
+     */
+    public Mono<WebRtcAnswer> playWebRtcAsync(String sessionId, String offerSdp) {
+        SessionHolder holder = sessionById.get(sessionId);
+        if (holder == null) {
+            return Mono.error(new ApiException(404, "预览会话不存在或已结束"));
+        }
+        return zlmClient.isStreamReadyAsync(holder.app, holder.streamId)
+                .flatMap(ready -> {
+                    if (!ready) {
+                        return Mono.error(new ApiException(409, "流未就绪，请重新发起预览"));
+                    }
+                    return zlmClient.playWebRtcAsync(holder.app, holder.streamId, offerSdp);
+                })
+                .doOnNext(answer -> holder.updatedAt = Instant.now().toString());
+    }
+
+    private StartPreviewResult toStartResult(SessionHolder holder, String viewerId, boolean created, String message) {
         return new StartPreviewResult(
                 holder.sessionId,
                 holder.devicePk,
@@ -440,18 +933,42 @@ public class PreviewService {
                 holder.urls.rtmpUrl,
                 holder.ssrc,
                 holder.sipCallId,
-                viewers,
+                holder.viewerCount(),
                 holder.rtpPort,
                 created,
-                message);
+                message,
+                viewerId,
+                appProperties.getPreview().getViewerLeaseSeconds(),
+                holder.streamProfile);
     }
 
     private String buildSessionKey(long devicePk, String channelId) {
-        return devicePk + ":" + channelId;
+        return buildSessionKey(devicePk, channelId, STREAM_PROFILE_MAIN);
+    }
+
+    private String buildSessionKey(long devicePk, String channelId, String streamProfile) {
+        String key = devicePk + ":" + channelId;
+        return STREAM_PROFILE_SUB.equals(streamProfile) ? key + ":sub" : key;
     }
 
     private String buildStreamId(String channelId) {
-        return ("ch" + channelId).replaceAll("[^A-Za-z0-9_\\-]", "");
+        return buildStreamId(channelId, STREAM_PROFILE_MAIN);
+    }
+
+    private String buildStreamId(String channelId, String streamProfile) {
+        String streamId = ("ch" + channelId).replaceAll("[^A-Za-z0-9_\\-]", "");
+        return STREAM_PROFILE_SUB.equals(streamProfile) ? streamId + "_sub" : streamId;
+    }
+
+    private String resolveStreamProfile(String streamProfile) {
+        if (streamProfile == null || streamProfile.isBlank()) {
+            return STREAM_PROFILE_MAIN;
+        }
+        String normalized = streamProfile.trim().toUpperCase();
+        if (STREAM_PROFILE_MAIN.equals(normalized) || STREAM_PROFILE_SUB.equals(normalized)) {
+            return normalized;
+        }
+        throw new ApiException(400, "不支持的码流类型: " + streamProfile);
     }
 
     private RecordingConfig resolveRecordingConfig(StoragePolicy policy, Device device, DeviceChannel channel) {
@@ -499,33 +1016,209 @@ public class PreviewService {
     }
 
     private String randomSessionId() {
-        return java.util.UUID.randomUUID().toString().replace("-", "");
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    /**
+     * Takes the session out of service; callers hold {@code synchronized (this)}.
+     *
+     * @return {@code false} when it was closed meanwhile
+     */
+    private boolean detachSession(SessionHolder holder) {
+        if (!sessionById.remove(holder.sessionId, holder)) {
+            return false;
+        }
+        sessionByKey.remove(holder.sessionKey, holder);
+        return true;
     }
 
-    private void closeSession(SessionHolder holder) {
-        sessionById.remove(holder.sessionId);
-        sessionByKey.remove(holder.sessionKey);
+    /**
+     * Stops recording, hangs up and frees the RTP endpoint of a detached
+     * session. These are network calls, so never under the service lock.
+     */
+    private void teardownSession(SessionHolder holder) {
         if (holder.recordingEnabled) {
             zlmClient.stopMp4Record(holder.app, holder.streamId);
         }
         sipSignalService.bye(holder.sipCallId);
         zlmClient.closeRtpServer(holder.streamId);
+        inviteAdmission.sessionEnded(holder.sessionId);
+        forgetSession(holder);
+        pruneOpenLock(holder.sessionKey);
     }
 
-    private boolean waitRecordingStarted(String app, String streamId, Duration timeout) {
-        Instant deadline = Instant.now().plus(timeout);
-        while (Instant.now().isBefore(deadline)) {
-            if (zlmClient.isMp4Recording(app, streamId)) {
+    /**
+     * Takes every session out of service and returns the work that closes each
+     * one, for a bulk stop to run concurrently. Channels under background
+     * recording are reopened by its scheduler on the next round.
+     */
+    public List<SessionTeardown.Task> detachAllSessions() {
+        List<SessionHolder> holders;
+        synchronized (this) {
+            holders = List.copyOf(sessionById.values());
+            sessionById.clear();
+            sessionByKey.clear();
+        }
+        return holders.stream()
+                .map(holder -> new SessionTeardown.Task(
+                        "preview " + holder.deviceId + "/" + holder.channelId + " " + holder.streamId,
+                        () -> teardownSession(holder)))
+                .toList();
+    }
+
+    /**
+     * Adopts journaled sessions from before a restart whose stream is still up
+     * on ZLMediaKit and whose dialog survived, so neither viewers nor recording
+     * need a new INVITE. The rest are hung up and closed. A channel started
+     * anew meanwhile keeps its new session. Rows still unchecked when the
+     * deadline passes are dropped without further network calls: their
+     * dialogs stay unclaimed and are hung up with the other orphans.
+     */
+    public RecoveredSessions recoverSessions(Deadline deadline) {
+        Set<String> claimedCallIds = new HashSet<>();
+        int adopted = 0;
+        int discarded = 0;
+        try {
+            for (PreviewSessionRepository.JournaledSession row : sessionJournal.list()) {
+                if (recoverSession(row, deadline)) {
+                    if (row.sipCallId() != null) {
+                        claimedCallIds.add(row.sipCallId());
+                    }
+                    adopted++;
+                } else {
+                    discarded++;
+                }
+            }
+        } finally {
+            recoveryPending = false;
+        }
+        return new RecoveredSessions(adopted, discarded, claimedCallIds);
+    }
+
+    /**
+     * @return {@code true} when the session was adopted
+     */
+    private boolean recoverSession(PreviewSessionRepository.JournaledSession row, Deadline deadline) {
+        ReentrantLock openLock;
+        try {
+            deadline.check("恢复会话");
+            // Holds off a start of the same channel while the journaled session is checked.
+            openLock = acquireOpenLock(row.sessionKey(), deadline);
+        } catch (ApiException ex) {
+            log.warn("journaled preview session dropped, recovery out of time. deviceId={}, channelId={}, "
+                    + "streamId={}", row.deviceId(), row.channelId(), row.streamId());
+            sessionJournal.delete(row.sessionKey(), row.sessionId());
+            return false;
+        }
+        try {
+            zlmClient.adoptStream(row.streamId(), row.nodeId(), row.sharedPort());
+            boolean dialogAlive = row.sipCallId() == null || sipSignalService.hasDialog(row.sipCallId());
+            if (!sessionByKey.containsKey(row.sessionKey()) && dialogAlive
+                    && zlmClient.isStreamReady(row.app(), row.streamId())) {
+                SessionHolder holder = adoptSession(row);
+                // Viewers from before the restart hold leases this process never granted; one
+                // lease keeps the session for them to start again, after which it lapses
+                // and the sweeper reclaims the session like any other.
+                holder.grantLease(leaseTtl());
+                synchronized (this) {
+                    sessionByKey.put(holder.sessionKey, holder);
+                    sessionById.put(holder.sessionId, holder);
+                }
+                inviteAdmission.sessionRestored(holder.deviceId, holder.sessionId);
+                log.info("preview session adopted after restart. deviceId={}, channelId={}, streamId={}",
+                        row.deviceId(), row.channelId(), row.streamId());
                 return true;
             }
-            try {
-                Thread.sleep(200);
-            } catch (InterruptedException ex) {
-                Thread.currentThread().interrupt();
-                return false;
+            log.info("journaled preview session is gone, cleaning up. deviceId={}, channelId={}, streamId={}",
+                    row.deviceId(), row.channelId(), row.streamId());
+            if (row.recordingEnabled()) {
+                zlmClient.stopMp4Record(row.app(), row.streamId());
             }
+            sipSignalService.bye(row.sipCallId());
+            zlmClient.closeRtpServer(row.streamId());
+            sessionJournal.delete(row.sessionKey(), row.sessionId());
+            return false;
+        } finally {
+            openLock.unlock();
+            pruneOpenLock(row.sessionKey());
+        }
+    }
+
+    private SessionHolder adoptSession(PreviewSessionRepository.JournaledSession row) {
+        PlayUrls urls = zlmClient.buildPlayUrls(row.app(), row.streamId());
+        SessionHolder holder = new SessionHolder(
+                row.sessionId(),
+                row.sessionKey(),
+                row.devicePk(),
+                row.deviceId(),
+                row.channelId(),
+                row.codec(),
+                row.app(),
+                row.streamId(),
+                row.streamProfile(),
+                row.protocol(),
+                selectPlayUrl(row.protocol(), urls),
+                urls,
+                row.ssrc(),
+                row.sipCallId(),
+                row.rtpPort(),
+                row.recordingEnabled(),
+                row.recordPath(),
+                row.startedAt(),
+                Instant.now().toString());
+        holder.backgroundPinned = row.backgroundPinned();
+        holder.warmPinned = row.warmPinned();
+        return holder;
+    }
+
+    private void journal(SessionHolder holder) {
+        try {
+            sessionJournal.save(new PreviewSessionRepository.JournaledSession(
+                    holder.sessionKey,
+                    holder.sessionId,
+                    holder.devicePk,
+                    holder.deviceId,
+                    holder.channelId,
+                    holder.codec,
+                    holder.app,
+                    holder.streamId,
+                    holder.streamProfile,
+                    holder.protocol,
+                    holder.ssrc,
+                    holder.sipCallId,
+                    holder.rtpPort,
+                    zlmClient.nodeIdOf(holder.streamId),
+                    zlmClient.isSharedPortStream(holder.streamId),
+                    holder.recordingEnabled,
+                    holder.recordPath,
+                    holder.backgroundPinned,
+                    holder.warmPinned,
+                    holder.startedAt,
+                    holder.updatedAt));
+        } catch (Exception ex) {
+            log.warn("journal preview session failed. sessionId={}, reason={}", holder.sessionId, ex.getMessage());
+        }
+    }
+
+    private void forgetSession(SessionHolder holder) {
+        try {
+            sessionJournal.delete(holder.sessionKey, holder.sessionId);
+        } catch (Exception ex) {
+            log.warn("delete preview session journal failed. sessionId={}, reason={}", holder.sessionId,
+                    ex.getMessage());
         }
-        return zlmClient.isMp4Recording(app, streamId);
+    }
+
+    private String selectPlayUrl(String protocol, PlayUrls urls) {
+        return switch (protocol) {
+            case "HLS" -> urls.hlsUrl();
+            case "HTTP_FLV" -> urls.httpFlvUrl();
+            default -> urls.webrtcPlayerUrl();
+        };
+    }
+
+    private boolean waitRecordingStarted(String app, String streamId, Deadline deadline) {
+        return zlmClient.waitMp4Recording(app, streamId, RECORD_START_TIMEOUT, deadline);
     }
 
     private int resolveStreamMode(String transport) {
@@ -560,8 +1253,8 @@ public class PreviewService {
     }
 
     private SipSignalService.InviteResult invite(Device device, String channelId, int streamMode, int rtpPort,
-            String ssrc, String announcedMediaIp, String streamId) {
-        return sipSignalService.invite(new SipSignalService.InviteCommand(
+            String ssrc, String announcedMediaIp, String streamId, String streamProfile, Deadline deadline) {
+        SipSignalService.InviteResult result = sipSignalService.invite(new SipSignalService.InviteCommand(
                 device.deviceId(),
                 device.ip(),
                 device.port(),
@@ -573,7 +1266,16 @@ public class PreviewService {
                 announcedMediaIp,
                 streamId,
                 null,
-                null));
+                null,
+                STREAM_PROFILE_SUB.equals(streamProfile) ? 1 : null), deadline);
+        if (InviteAdmissionController.isBusyResponse(result.statusCode())) {
+            inviteAdmission.recordDeviceBusy(device.deviceId());
+        }
+        return result;
+    }
+
+    private ApiException inviteFailure(String prefix, SipSignalService.InviteResult result, Deadline deadline) {
+        return deadline.isExpired() ? deadline.expired("INVITE") : new ApiException(502, prefix + result.reason());
     }
 
     private String resolveProtocol(String protocol) {
@@ -768,11 +1470,26 @@ public class PreviewService {
         return "H264";
     }
 
+    /**
+     * @param streamProfile MAIN (default) or SUB; each profile gets its own session
+     */
     public record StartPreviewCommand(
             long devicePk,
             String channelId,
             String protocol,
-            boolean browserSupportsH265) {
+            boolean browserSupportsH265,
+            String streamProfile) {
+
+        /**
+         * This command, with {@code profile} when it names none; a single
+         * start without a profile stays on the main stream.
+         */
+        public StartPreviewCommand withDefaultProfile(String profile) {
+            if (streamProfile != null && !streamProfile.isBlank()) {
+                return this;
+            }
+            return new StartPreviewCommand(devicePk, channelId, protocol, browserSupportsH265, profile);
+        }
     }
 
     public record StartPreviewResult(
@@ -793,7 +1510,70 @@ public class PreviewService {
             int viewerCount,
             Integer rtpPort,
             boolean created,
-            String message) {
+            String message,
+            String viewerId,
+            int leaseTtlSeconds,
+            String streamProfile) {
+    }
+
+    /**
+     * One tile of a batch start; {@code index} is its position in the request.
+     */
+    public record BatchStartItem(
+            int index,
+            long devicePk,
+            String channelId,
+            boolean success,
+            int status,
+            String message,
+            StartPreviewResult result) {
+
+        private static BatchStartItem success(int index, StartPreviewCommand command, StartPreviewResult result) {
+            return new BatchStartItem(index, command.devicePk(), command.channelId(), true, 200, result.message(),
+                    result);
+        }
+
+        private static BatchStartItem failure(int index, StartPreviewCommand command, int status, String message) {
+            return new BatchStartItem(index, command.devicePk(), command.channelId(), false, status, message, null);
+        }
+    }
+
+    public record RecoveredSessions(
+            int adopted,
+            int discarded,
+            Set<String> claimedCallIds) {
+    }
+
+    public record WarmSession(
+            long devicePk,
+            String deviceId,
+            String channelId,
+            String app,
+            String streamId,
+            int viewerCount,
+            double score) {
+    }
+
+    public record LeaseResult(
+            String sessionId,
+            String viewerId,
+            String expiresAt,
+            long leaseTtlSeconds,
+            int viewerCount) {
+    }
+
+    /**
+     * @param reclaimedBytesSpeed sum of the ingest rates (bytes/s) of reclaimed
+     *                            streams at the time they were closed
+     */
+    public record LeaseStats(
+            int activeSessions,
+            int activeLeases,
+            int idleSessions,
+            long expiredLeases,
+            long reclaimedSessions,
+            long reclaimedBytesSpeed,
+            String lastReclaimAt) {
     }
 
     public record SessionStatus(
@@ -802,6 +1582,7 @@ public class PreviewService {
             String deviceId,
             String channelId,
             String codec,
+            String streamProfile,
             String protocol,
             String playUrl,
             int viewerCount,
@@ -852,6 +1633,7 @@ public class PreviewService {
         private final String codec;
         private final String app;
         private final String streamId;
+        private final String streamProfile;
         private final String protocol;
         private final String playUrl;
         private final PlayUrls urls;
@@ -860,10 +1642,12 @@ public class PreviewService {
         private final Integer rtpPort;
         private volatile boolean recordingEnabled;
         private volatile String recordPath;
-        private final AtomicInteger viewerCount;
+        private final Map<String, Instant> leases = new ConcurrentHashMap<>();
         private final String startedAt;
         private volatile String updatedAt;
         private volatile boolean backgroundPinned;
+        private volatile boolean warmPinned;
+        private volatile Instant idleSince;
 
         private SessionHolder(
                 String sessionId,
@@ -874,6 +1658,7 @@ public class PreviewService {
                 String codec,
                 String app,
                 String streamId,
+                String streamProfile,
                 String protocol,
                 String playUrl,
                 PlayUrls urls,
@@ -882,7 +1667,6 @@ public class PreviewService {
                 Integer rtpPort,
                 boolean recordingEnabled,
                 String recordPath,
-                AtomicInteger viewerCount,
                 String startedAt,
                 String updatedAt) {
             this.sessionId = sessionId;
@@ -893,6 +1677,7 @@ public class PreviewService {
             this.codec = codec;
             this.app = app;
             this.streamId = streamId;
+            this.streamProfile = streamProfile;
             this.protocol = protocol;
             this.playUrl = playUrl;
             this.urls = urls;
@@ -901,10 +1686,50 @@ public class PreviewService {
             this.rtpPort = rtpPort;
             this.recordingEnabled = recordingEnabled;
             this.recordPath = recordPath;
-            this.viewerCount = viewerCount;
             this.startedAt = startedAt;
             this.updatedAt = updatedAt;
             this.backgroundPinned = false;
         }
+
+        private int viewerCount() {
+            return leases.size();
+        }
+
+        private boolean isPinned() {
+            return backgroundPinned || warmPinned;
+        }
+
+        private String grantLease(Duration ttl) {
+            String viewerId = UUID.randomUUID().toString().replace("-", "");
+            leases.put(viewerId, Instant.now().plus(ttl));
+            idleSince = null;
+            return viewerId;
+        }
+
+        /**
+         * Releases the viewer's lease, or the oldest one when {@code viewerId}
+         * is {@code null}.
+         *
+         * @return {@code false} when no lease was released
+         */
+        private boolean releaseLease(String viewerId) {
+            if (viewerId != null) {
+                return leases.remove(viewerId) != null;
+            }
+            return leases.entrySet().stream()
+                    .min(Map.Entry.comparingByValue())
+                    .map(oldest -> leases.remove(oldest.getKey(), oldest.getValue()))
+                    .orElse(false);
+        }
+
+        private int expireLeases(Instant now) {
+            int expired = 0;
+            for (Map.Entry<String, Instant> lease : leases.entrySet()) {
+                if (!lease.getValue().isAfter(now) && leases.remove(lease.getKey(), lease.getValue())) {
+                    expired++;
+                }
+            }
+            return expired;
+        }
     }
 }
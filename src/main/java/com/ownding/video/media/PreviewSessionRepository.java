@@ -0,0 +1,151 @@
+package com.ownding.video.media;
+
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Journal of live preview sessions, one row per session key, so they can be
+ * adopted again after a restart instead of re-INVITEd.
+ */
+@Repository
+public class PreviewSessionRepository {
+
+    private static final String COLUMNS = """
+            session_key, session_id, device_pk, device_id, channel_id, codec, app, stream_id,
+            stream_profile, protocol, ssrc, sip_call_id, rtp_port, node_id, shared_port,
+            recording_enabled, record_path, background_pinned, warm_pinned, started_at, updated_at
+            """;
+
+    private final JdbcClient jdbcClient;
+
+    public PreviewSessionRepository(JdbcClient jdbcClient) {
+        this.jdbcClient = jdbcClient;
+    }
+
+    public void save(JournaledSession session) {
+        jdbcClient.sql("""
+                INSERT INTO preview_session (
+                    session_key, session_id, device_pk, device_id, channel_id, codec, app, stream_id,
+                    stream_profile, protocol, ssrc, sip_call_id, rtp_port, node_id, shared_port,
+                    recording_enabled, record_path, background_pinned, warm_pinned, started_at, updated_at
+                ) VALUES (
+                    :sessionKey, :sessionId, :devicePk, :deviceId, :channelId, :codec, :app, :streamId,
+                    :streamProfile, :protocol, :ssrc, :sipCallId, :rtpPort, :nodeId, :sharedPort,
+                    :recordingEnabled, :recordPath, :backgroundPinned, :warmPinned, :startedAt, :updatedAt
+                )
+                ON CONFLICT(session_key) DO UPDATE SET
+                    session_id = excluded.session_id,
+                    codec = excluded.codec,
+                    app = excluded.app,
+                    stream_id = excluded.stream_id,
+                    protocol = excluded.protocol,
+                    ssrc = excluded.ssrc,
+                    sip_call_id = excluded.sip_call_id,
+                    rtp_port = excluded.rtp_port,
+                    node_id = excluded.node_id,
+                    shared_port = excluded.shared_port,
+                    recording_enabled = excluded.recording_enabled,
+                    record_path = excluded.record_path,
+                    background_pinned = excluded.background_pinned,
+                    warm_pinned = excluded.warm_pinned,
+                    started_at = excluded.started_at,
+                    updated_at = excluded.updated_at
+                """)
+                .param("sessionKey", session.sessionKey())
+                .param("sessionId", session.sessionId())
+                .param("devicePk", session.devicePk())
+                .param("deviceId", session.deviceId())
+                .param("channelId", session.channelId())
+                .param("codec", session.codec())
+                .param("app", session.app())
+                .param("streamId", session.streamId())
+                .param("streamProfile", session.streamProfile())
+                .param("protocol", session.protocol())
+                .param("ssrc", session.ssrc())
+                .param("sipCallId", session.sipCallId())
+                .param("rtpPort", session.rtpPort())
+                .param("nodeId", session.nodeId())
+                .param("sharedPort", session.sharedPort() ? 1 : 0)
+                .param("recordingEnabled", session.recordingEnabled() ? 1 : 0)
+                .param("recordPath", session.recordPath())
+                .param("backgroundPinned", session.backgroundPinned() ? 1 : 0)
+                .param("warmPinned", session.warmPinned() ? 1 : 0)
+                .param("startedAt", session.startedAt())
+                .param("updatedAt", session.updatedAt())
+                .update();
+    }
+
+    public void delete(String sessionKey, String sessionId) {
+        jdbcClient.sql("DELETE FROM preview_session WHERE session_key = :sessionKey AND session_id = :sessionId")
+                .param("sessionKey", sessionKey)
+                .param("sessionId", sessionId)
+                .update();
+    }
+
+    public List<JournaledSession> list() {
+        return jdbcClient.sql("SELECT " + COLUMNS + " FROM preview_session")
+                .query((rs, rowNum) -> map(rs))
+                .list();
+    }
+
+    public Optional<JournaledSession> find(String sessionKey) {
+        return jdbcClient.sql("SELECT " + COLUMNS + " FROM preview_session WHERE session_key = :sessionKey")
+                .param("sessionKey", sessionKey)
+                .query((rs, rowNum) -> map(rs))
+                .optional();
+    }
+
+    private static JournaledSession map(ResultSet rs) throws SQLException {
+        return new JournaledSession(
+                rs.getString("session_key"),
+                rs.getString("session_id"),
+                rs.getLong("device_pk"),
+                rs.getString("device_id"),
+                rs.getString("channel_id"),
+                rs.getString("codec"),
+                rs.getString("app"),
+                rs.getString("stream_id"),
+                rs.getString("stream_profile"),
+                rs.getString("protocol"),
+                rs.getString("ssrc"),
+                rs.getString("sip_call_id"),
+                rs.getObject("rtp_port", Integer.class),
+                rs.getString("node_id"),
+                rs.getInt("shared_port") == 1,
+                rs.getInt("recording_enabled") == 1,
+                rs.getString("record_path"),
+                rs.getInt("background_pinned") == 1,
+                rs.getInt("warm_pinned") == 1,
+                rs.getString("started_at"),
+                rs.getString("updated_at"));
+    }
+
+    public record JournaledSession(
+            String sessionKey,
+            String sessionId,
+            long devicePk,
+            String deviceId,
+            String channelId,
+            String codec,
+            String app,
+            String streamId,
+            String streamProfile,
+            String protocol,
+            String ssrc,
+            String sipCallId,
+            Integer rtpPort,
+            String nodeId,
+            boolean sharedPort,
+            boolean recordingEnabled,
+            String recordPath,
+            boolean backgroundPinned,
+            boolean warmPinned,
+            String startedAt,
+            String updatedAt) {
+    }
+}
@@ -0,0 +1,196 @@
+package com.ownding.video.media;
+
+import com.ownding.video.common.ApiException;
+import com.ownding.video.config.AppProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks RTP server ports handed to ZLMediaKit against the configured range
+ * (must match {@code rtp_proxy.port_range} in ZLMediaKit and the ports exposed
+ * by the deployment).
+ * <p>
+ * Allocation walks the range round-robin so a just-released port is not reused
+ * immediately while a device may still be sending late packets to it. Every
+ * media node has its own copy of the range.
+ */
+@Component
+public class RtpPortPool {
+
+    private static final Logger log = LoggerFactory.getLogger(RtpPortPool.class);
+
+    private final AppProperties appProperties;
+    private final Map<String, Allocation> allocationByStream = new HashMap<>();
+    private final Map<String, Map<Integer, String>> streamByPortByNode = new HashMap<>();
+    private final Map<String, Integer> cursorByNode = new HashMap<>();
+    private long exhaustedCount;
+    private long reclaimedCount;
+    private long adoptedCount;
+
+    public RtpPortPool(AppProperties appProperties) {
+        this.appProperties = appProperties;
+    }
+
+    /**
+     * Returns the port reserved for {@code streamId} on the node, reserving a new
+     * one when the stream has none there or its current port is in {@code excludedPorts}.
+     *
+     * @throws ApiException 503 when every port of the node's range is in use
+     */
+    public synchronized int allocate(String nodeId, String streamId, Set<Integer> excludedPorts) {
+        Allocation existing = allocationByStream.get(streamId);
+        if (existing != null) {
+            if (existing.nodeId().equals(nodeId) && !excludedPorts.contains(existing.port())) {
+                return existing.port();
+            }
+            release(streamId);
+        }
+        Map<Integer, String> streamByPort = portsOf(nodeId);
+        int start = rangeStart();
+        int capacity = capacity();
+        int cursor = cursorByNode.getOrDefault(nodeId, -1);
+        for (int i = 1; i <= capacity; i++) {
+            int offset = Math.floorMod(cursor + i, capacity);
+            int port = start + offset;
+            if (streamByPort.containsKey(port) || excludedPorts.contains(port)) {
+                continue;
+            }
+            cursorByNode.put(nodeId, offset);
+            allocationByStream.put(streamId, new Allocation(nodeId, streamId, port, Instant.now(), false));
+            streamByPort.put(port, streamId);
+            return port;
+        }
+        exhaustedCount++;
+        log.warn("rtp port pool exhausted. node={}, range={}-{}, inUse={}, streamId={}",
+                nodeId, start, rangeEnd(), streamByPort.size(), streamId);
+        throw new ApiException(503,
+                "RTP 端口已耗尽（%d-%d 共 %d 个均在使用中），请关闭部分预览/回放，或扩大 app.zlm.rtp 端口范围、启用单端口模式"
+                        .formatted(start, rangeEnd(), capacity));
+    }
+
+    public synchronized void release(String streamId) {
+        if (streamId == null) {
+            return;
+        }
+        Allocation removed = allocationByStream.remove(streamId);
+        if (removed != null) {
+            portsOf(removed.nodeId()).remove(removed.port(), streamId);
+        }
+    }
+
+    /**
+     * Reconciles the node's part of the pool with the RTP servers it actually has open.
+     * Allocations missing from ZLMediaKit for longer than {@code grace} are leaks
+     * and get released; in-range servers the pool does not know (e.g. opened
+     * before a restart) are adopted so their ports are not handed out twice.
+     *
+     * @return number of reclaimed allocations
+     */
+    public synchronized int reconcile(String nodeId, Map<String, Integer> liveServers, Duration grace) {
+        Instant threshold = Instant.now().minus(grace);
+        Map<Integer, String> streamByPort = portsOf(nodeId);
+        int reclaimed = 0;
+        Iterator<Map.Entry<String, Allocation>> iterator = allocationByStream.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Allocation allocation = iterator.next().getValue();
+            if (!allocation.nodeId().equals(nodeId)
+                    || liveServers.containsKey(allocation.streamId())
+                    || allocation.allocatedAt().isAfter(threshold)) {
+                continue;
+            }
+            iterator.remove();
+            streamByPort.remove(allocation.port(), allocation.streamId());
+            reclaimed++;
+            log.info("rtp port leak reclaimed. node={}, streamId={}, port={}, allocatedAt={}",
+                    nodeId, allocation.streamId(), allocation.port(), allocation.allocatedAt());
+        }
+        for (Map.Entry<String, Integer> live : liveServers.entrySet()) {
+            Integer port = live.getValue();
+            if (port == null || port < rangeStart() || port > rangeEnd()
+                    || allocationByStream.containsKey(live.getKey()) || streamByPort.containsKey(port)) {
+                continue;
+            }
+            allocationByStream.put(live.getKey(), new Allocation(nodeId, live.getKey(), port, Instant.now(), true));
+            streamByPort.put(port, live.getKey());
+            adoptedCount++;
+            log.info("rtp server opened outside the pool adopted. node={}, streamId={}, port={}",
+                    nodeId, live.getKey(), port);
+        }
+        reclaimedCount += reclaimed;
+        return reclaimed;
+    }
+
+    public synchronized PoolStatus status(String nodeId) {
+        List<Allocation> allocations = new ArrayList<>();
+        for (Allocation allocation : allocationByStream.values()) {
+            if (allocation.nodeId().equals(nodeId)) {
+                allocations.add(allocation);
+            }
+        }
+        allocations.sort(Comparator.comparingInt(Allocation::port));
+        int capacity = capacity();
+        return new PoolStatus(
+                nodeId,
+                rangeStart(),
+                rangeEnd(),
+                capacity,
+                allocations.size(),
+                Math.max(0, capacity - allocations.size()),
+                exhaustedCount,
+                reclaimedCount,
+                adoptedCount,
+                allocations);
+    }
+
+    public synchronized int available(String nodeId) {
+        return Math.max(0, capacity() - portsOf(nodeId).size());
+    }
+
+    private Map<Integer, String> portsOf(String nodeId) {
+        return streamByPortByNode.computeIfAbsent(nodeId, key -> new HashMap<>());
+    }
+
+    private int rangeStart() {
+        return appProperties.getZlm().getRtp().getPortRangeStart();
+    }
+
+    private int rangeEnd() {
+        return Math.max(rangeStart(), appProperties.getZlm().getRtp().getPortRangeEnd());
+    }
+
+    private int capacity() {
+        return rangeEnd() - rangeStart() + 1;
+    }
+
+    public record Allocation(
+            String nodeId,
+            String streamId,
+            int port,
+            Instant allocatedAt,
+            boolean adopted) {
+    }
+
+    public record PoolStatus(
+            String nodeId,
+            int rangeStart,
+            int rangeEnd,
+            int capacity,
+            int inUse,
+            int available,
+            long exhaustedCount,
+            long reclaimedCount,
+            long adoptedCount,
+            List<Allocation> allocations) {
+    }
+}
@@ -0,0 +1,53 @@
+package com.ownding.video.media;
+
+import com.ownding.video.config.AppProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Periodically compares the RTP port pool with each media node's listRtpServer
+ * and returns ports whose RTP server is gone (missed close, ZLMediaKit restart).
+ */
+@Component
+public class RtpPortReclaimer {
+
+    private static final Logger log = LoggerFactory.getLogger(RtpPortReclaimer.class);
+
+    private final ZlmClient zlmClient;
+    private final RtpPortPool rtpPortPool;
+    private final MediaNodeRegistry mediaNodeRegistry;
+    private final AppProperties appProperties;
+
+    public RtpPortReclaimer(ZlmClient zlmClient, RtpPortPool rtpPortPool, MediaNodeRegistry mediaNodeRegistry,
+            AppProperties appProperties) {
+        this.zlmClient = zlmClient;
+        this.rtpPortPool = rtpPortPool;
+        this.mediaNodeRegistry = mediaNodeRegistry;
+        this.appProperties = appProperties;
+    }
+
+    @Scheduled(fixedDelayString = "${app.zlm.rtp.leak-check-interval-ms:60000}")
+    public void reclaimTask() {
+        Duration grace = Duration.ofSeconds(appProperties.getZlm().getRtp().getLeakGraceSeconds());
+        for (MediaNode node : mediaNodeRegistry.nodes()) {
+            try {
+                Map<String, Integer> liveServers = zlmClient.listRtpServerAsync(node).block(Duration.ofSeconds(5));
+                if (liveServers == null) {
+                    continue;
+                }
+                int reclaimed = rtpPortPool.reconcile(node.id(), liveServers, grace);
+                if (reclaimed > 0) {
+                    log.info("rtp port reclaim done, node={}, reclaimed={}, available={}",
+                            node.id(), reclaimed, rtpPortPool.available(node.id()));
+                }
+            } catch (Exception ex) {
+                log.warn("rtp port reclaim failed, node={}: {}", node.id(), ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.ownding.video.media;
+
+import com.ownding.video.common.Deadline;
+import com.ownding.video.config.AppProperties;
+import com.ownding.video.gb28181.Gb28181Service;
+import com.ownding.video.gb28181.SipSignalService;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Warm restart: once the application is up, reconciles the journaled preview
+ * sessions, playback sessions and SIP dialogs with what ZLMediaKit still has.
+ * Live streams are adopted, so background recording (held off until then)
+ * finds its sessions in place instead of re-INVITEing every channel; dialogs
+ * nobody claims are hung up. The checks are network calls to every node and
+ * device, so they run on a thread of their own within
+ * app.preview.teardown.recovery-deadline-ms rather than during startup.
+ */
+@Component
+public class SessionRecovery {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionRecovery.class);
+
+    private final PreviewService previewService;
+    private final Gb28181Service gb28181Service;
+    private final SipSignalService sipSignalService;
+    private final AppProperties appProperties;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "session-recovery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SessionRecovery(PreviewService previewService, Gb28181Service gb28181Service,
+            SipSignalService sipSignalService, AppProperties appProperties) {
+        this.previewService = previewService;
+        this.gb28181Service = gb28181Service;
+        this.sipSignalService = sipSignalService;
+        this.appProperties = appProperties;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        executor.execute(this::recover);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    public void recover() {
+        Deadline deadline = Deadline.after(
+                Duration.ofMillis(appProperties.getPreview().getTeardown().getRecoveryDeadlineMs()));
+        try {
+            PreviewService.RecoveredSessions preview = previewService.recoverSessions(deadline);
+            Set<String> claimedCallIds = new HashSet<>(preview.claimedCallIds());
+            claimedCallIds.addAll(gb28181Service.recoverPlaybackSessions(deadline));
+            int released = sipSignalService.releaseRecoveredDialogs(claimedCallIds);
+            if (preview.adopted() + preview.discarded() + released > 0) {
+                log.info("session recovery done. adopted={}, discarded={}, orphanDialogsReleased={}",
+                        preview.adopted(), preview.discarded(), released);
+            }
+        } catch (Exception ex) {
+            log.warn("session recovery failed, sessions will be re-established on demand: {}", ex.getMessage());
+        }
+    }
+}
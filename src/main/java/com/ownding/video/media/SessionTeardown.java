@@ -0,0 +1,255 @@
+package com.ownding.video.media;
+
+import com.ownding.video.common.ApiException;
+import com.ownding.video.common.Deadline;
+import com.ownding.video.config.AppProperties;
+import com.ownding.video.gb28181.Gb28181Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tears down all preview and playback sessions at once (BYE, stopMp4Record,
+ * closeRtpServer), at most app.preview.teardown.concurrency at a time. The
+ * caller waits up to one overall deadline; sessions are already detached from
+ * the services by then, so whatever is still closing keeps running in the
+ * background and the bulk stop stays "running" until the last one is done.
+ * Used by the admin bulk stop and on shutdown, after the web server stopped
+ * taking requests but while SIP and ZLMediaKit clients are still up.
+ */
+@Component
+public class SessionTeardown implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionTeardown.class);
+
+    private final PreviewService previewService;
+    private final Gb28181Service gb28181Service;
+    private final AppProperties appProperties;
+    private volatile Progress current;
+    private volatile boolean running;
+
+    public SessionTeardown(PreviewService previewService, Gb28181Service gb28181Service,
+            AppProperties appProperties) {
+        this.previewService = previewService;
+        this.gb28181Service = gb28181Service;
+        this.appProperties = appProperties;
+    }
+
+    /**
+     * @throws ApiException 409 while another bulk stop is running
+     */
+    public BulkStopResult stopAll(String reason, Deadline deadline) {
+        Progress progress = new Progress(reason);
+        synchronized (this) {
+            if (current != null && current.isRunning()) {
+                throw new ApiException(409, "批量停止正在进行中");
+            }
+            current = progress;
+        }
+        CompletableFuture<Void> done;
+        try {
+            List<Task> tasks = new ArrayList<>(previewService.detachAllSessions());
+            tasks.addAll(gb28181Service.detachPlaybackSessions());
+            progress.start(tasks);
+            log.info("bulk teardown started. reason={}, sessions={}, budgetMs={}", reason, tasks.size(),
+                    deadline.remainingMs());
+            int concurrency = appProperties.getPreview().getTeardown().getConcurrency();
+            done = Flux.fromIterable(tasks)
+                    .flatMap(task -> run(task).doOnNext(outcome -> progress.record(task, outcome)), concurrency)
+                    .then()
+                    // Before the future completes, so a caller that waited sees the stop as finished.
+                    .doOnTerminate(() -> {
+                        BulkStopResult result = progress.complete();
+                        log.info("bulk teardown done. reason={}, total={}, stopped={}, failed={}, elapsedMs={}",
+                                reason, result.total(), result.stopped(), result.failed(), result.elapsedMs());
+                    })
+                    .toFuture();
+        } catch (RuntimeException ex) {
+            progress.complete();
+            throw ex;
+        }
+        try {
+            if (deadline.isBounded()) {
+                done.get(Math.max(1L, deadline.remainingMs()), TimeUnit.MILLISECONDS);
+            } else {
+                done.get();
+            }
+        } catch (TimeoutException ex) {
+            BulkStopResult result = progress.snapshot();
+            log.warn("bulk teardown deadline reached, {} sessions keep closing in the background. reason={}",
+                    result.timedOut(), reason);
+            return result;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return progress.snapshot();
+        } catch (ExecutionException ex) {
+            log.warn("bulk teardown failed: {}", ex.getCause() == null ? ex.getMessage() : ex.getCause().getMessage());
+        }
+        return progress.snapshot();
+    }
+
+    public TeardownStatus status() {
+        Progress progress = current;
+        return progress == null ? null : progress.status();
+    }
+
+    /**
+     * Runs to completion even past the deadline: the session is no longer in
+     * any map, so dropping the task would leak its SSRC, RTP port and dialog.
+     */
+    private Mono<Outcome> run(Task task) {
+        return Mono.fromRunnable(task.action())
+                .subscribeOn(Schedulers.boundedElastic())
+                .thenReturn(Outcome.STOPPED)
+                .onErrorResume(ex -> {
+                    log.warn("teardown failed. session={}, err={}", task.label(), ex.getMessage());
+                    return Mono.just(Outcome.FAILED);
+                });
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        try {
+            String mode = appProperties.getPreview().getTeardown().getOnShutdown();
+            if ("RETAIN".equalsIgnoreCase(mode)) {
+                log.info("shutdown keeps media sessions running for the next start to adopt");
+                return;
+            }
+            stopAll("shutdown", Deadline.after(
+                    Duration.ofMillis(appProperties.getPreview().getTeardown().getDeadlineMs())));
+        } catch (Exception ex) {
+            log.warn("shutdown teardown failed: {}", ex.getMessage());
+        } finally {
+            running = false;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Below the web server's phases, so it stops (and stops accepting new
+     * previews) before sessions are torn down.
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    /**
+     * Closing one session, labelled for the failure report.
+     */
+    public record Task(String label, Runnable action) {
+    }
+
+    private enum Outcome {
+        STOPPED,
+        FAILED
+    }
+
+    private static final class Progress {
+        private final String reason;
+        private final Instant startedAt = Instant.now();
+        private final long startedNanos = System.nanoTime();
+        private final AtomicInteger total = new AtomicInteger();
+        private final AtomicInteger stopped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final Set<Task> pending = ConcurrentHashMap.newKeySet();
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        private volatile long elapsedMs = -1L;
+
+        private Progress(String reason) {
+            this.reason = reason;
+        }
+
+        private boolean isRunning() {
+            return elapsedMs < 0;
+        }
+
+        private void start(List<Task> tasks) {
+            pending.addAll(tasks);
+            total.set(tasks.size());
+        }
+
+        private void record(Task task, Outcome outcome) {
+            switch (outcome) {
+                case STOPPED -> stopped.incrementAndGet();
+                case FAILED -> {
+                    failed.incrementAndGet();
+                    failures.add(task.label() + ": 失败");
+                }
+            }
+            pending.remove(task);
+        }
+
+        private BulkStopResult complete() {
+            elapsedMs = (System.nanoTime() - startedNanos) / 1_000_000L;
+            return snapshot();
+        }
+
+        /**
+         * Sessions still closing count as timed out; they are listed in the
+         * failures but keep running.
+         */
+        private BulkStopResult snapshot() {
+            List<String> report = new ArrayList<>(failures);
+            List<Task> open = List.copyOf(pending);
+            for (Task task : open) {
+                report.add(task.label() + ": 超时，后台继续关闭");
+            }
+            long elapsed = isRunning() ? (System.nanoTime() - startedNanos) / 1_000_000L : elapsedMs;
+            return new BulkStopResult(reason, total.get(), stopped.get(), failed.get(), open.size(), elapsed,
+                    List.copyOf(report));
+        }
+
+        private TeardownStatus status() {
+            int done = stopped.get() + failed.get();
+            return new TeardownStatus(reason, isRunning(), total.get(), done, failed.get(), pending.size(),
+                    startedAt.toString());
+        }
+    }
+
+    public record BulkStopResult(
+            String reason,
+            int total,
+            int stopped,
+            int failed,
+            int timedOut,
+            long elapsedMs,
+            List<String> failures) {
+    }
+
+    public record TeardownStatus(
+            String reason,
+            boolean running,
+            int total,
+            int done,
+            int failed,
+            int timedOut,
+            String startedAt) {
+    }
+}
@@ -0,0 +1,90 @@
+package com.ownding.video.media;
+
+import com.ownding.video.common.ApiResult;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+@Validated
+@RestController
+@RequestMapping("/api/snapshots")
+public class SnapshotController {
+
+    private final SnapshotService snapshotService;
+
+    public SnapshotController(SnapshotService snapshotService) {
+        this.snapshotService = snapshotService;
+    }
+
+    /**
+     * Current JPEG frame of one channel.
+     *
+     * @param pull start a short-lived stream when the channel is not live
+     */
+    @GetMapping("/{devicePk}/{channelId}")
+    public Mono<ResponseEntity<byte[]>> snapshot(
+            @PathVariable long devicePk,
+            @PathVariable String channelId,
+            @RequestParam(defaultValue = "true") boolean pull) {
+        return Mono.fromCallable(() -> {
+                    SnapshotService.Frame frame = snapshotService.getThumbnail(devicePk, channelId, pull);
+                    long maxAgeSeconds = frame.stale()
+                            ? 0L
+                            : Math.max(0L, Duration.between(Instant.now(), frame.expiresAt()).getSeconds());
+                    return ResponseEntity.ok()
+                            .contentType(MediaType.IMAGE_JPEG)
+                            .cacheControl(CacheControl.maxAge(Duration.ofSeconds(maxAgeSeconds)).cachePrivate())
+                            .header("X-Snapshot-Source", frame.source())
+                            .header("X-Snapshot-Stale", String.valueOf(frame.stale()))
+                            .body(frame.jpeg());
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Thumbnails for a page of channels in one round trip, e.g. the wall overview.
+     */
+    @PostMapping("/batch")
+    public Mono<ApiResult<List<SnapshotService.ThumbnailItem>>> batch(@Valid @RequestBody BatchRequest request) {
+        List<SnapshotService.ChannelRef> channels = request.channels().stream()
+                .map(channel -> new SnapshotService.ChannelRef(channel.devicePk(), channel.channelId()))
+                .toList();
+        boolean pull = request.pull() == null || request.pull();
+        return Mono.fromCallable(() -> ApiResult.success(snapshotService.batch(channels, pull)))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @GetMapping("/stats")
+    public ApiResult<SnapshotService.SnapshotStats> stats() {
+        return ApiResult.success(snapshotService.stats());
+    }
+
+    public record BatchRequest(
+            @NotEmpty(message = "不能为空") List<@Valid ChannelRequest> channels,
+            Boolean pull
+    ) {
+    }
+
+    public record ChannelRequest(
+            long devicePk,
+            @NotBlank(message = "不能为空") String channelId
+    ) {
+    }
+}
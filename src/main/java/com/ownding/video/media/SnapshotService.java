@@ -0,0 +1,363 @@
+package com.ownding.video.media;
+
+import com.ownding.video.common.ApiException;
+import com.ownding.video.config.AppProperties;
+import com.ownding.video.device.Device;
+import com.ownding.video.device.DeviceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Channel thumbnails. Frames come from getSnap on the channel's live stream or,
+ * when nothing is streaming, from a short-lived sub-stream preview. They are kept
+ * in a size-bounded LRU with a per-channel expiry (shorter for live channels),
+ * spilled to disk on eviction and served stale when a fresh grab fails.
+ */
+@Service
+public class SnapshotService {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotService.class);
+    private static final int BATCH_CAPTURE_CONCURRENCY = 8;
+
+    private final PreviewService previewService;
+    private final DeviceService deviceService;
+    private final ZlmClient zlmClient;
+    private final AppProperties appProperties;
+    private final Semaphore pullPermits;
+    /** Access-ordered, guarded by itself. */
+    private final LinkedHashMap<String, Frame> frameByChannel = new LinkedHashMap<>(64, 0.75F, true);
+    private final Map<String, CompletableFuture<Frame>> captureInFlight = new ConcurrentHashMap<>();
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong liveCaptures = new AtomicLong();
+    private final AtomicLong pulledCaptures = new AtomicLong();
+    private final AtomicLong failedCaptures = new AtomicLong();
+    private long memoryBytes;
+
+    public SnapshotService(PreviewService previewService, DeviceService deviceService, ZlmClient zlmClient,
+            AppProperties appProperties) {
+        this.previewService = previewService;
+        this.deviceService = deviceService;
+        this.zlmClient = zlmClient;
+        this.appProperties = appProperties;
+        this.pullPermits = new Semaphore(config().getMaxConcurrentPulls());
+    }
+
+    /**
+     * Fresh cached frame, else a new grab, else the last stale frame.
+     *
+     * @throws ApiException 404 when the channel has no frame at all
+     */
+    public Frame getThumbnail(long devicePk, String channelId, boolean allowPull) {
+        Frame frame = resolve(devicePk, channelId, allowPull);
+        if (frame == null) {
+            throw new ApiException(404, "暂无该通道的快照");
+        }
+        return frame;
+    }
+
+    /**
+     * Thumbnails for a page of channels. Cached frames cost a map read; only the
+     * misses are grabbed, concurrently, with pulls capped by max-concurrent-pulls.
+     */
+    public List<ThumbnailItem> batch(List<ChannelRef> channels, boolean allowPull) {
+        if (channels.size() > config().getMaxBatchSize()) {
+            throw new ApiException(400, "单次最多获取 " + config().getMaxBatchSize() + " 个通道快照");
+        }
+        return Flux.fromIterable(channels)
+                .flatMapSequential(ref -> Mono.fromCallable(() -> toItem(ref, resolve(ref.devicePk(),
+                                        ref.channelId(), allowPull)))
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .onErrorResume(ex -> Mono.just(new ThumbnailItem(ref.devicePk(), ref.channelId(),
+                                        "UNAVAILABLE", null, null, null, null))),
+                        BATCH_CAPTURE_CONCURRENCY)
+                .collectList()
+                .block();
+    }
+
+    public SnapshotStats stats() {
+        int entries;
+        long bytes;
+        synchronized (frameByChannel) {
+            entries = frameByChannel.size();
+            bytes = memoryBytes;
+        }
+        return new SnapshotStats(entries, bytes, memoryHits.get(), diskHits.get(), liveCaptures.get(),
+                pulledCaptures.get(), failedCaptures.get(),
+                config().getMaxConcurrentPulls() - pullPermits.availablePermits());
+    }
+
+    private Frame resolve(long devicePk, String channelId, boolean allowPull) {
+        String key = cacheKey(devicePk, channelId);
+        Instant now = Instant.now();
+        Frame cached = lookup(key);
+        if (cached != null && cached.expiresAt().isAfter(now)) {
+            return cached;
+        }
+        Frame captured = captureSingleFlight(key, devicePk, channelId, allowPull);
+        if (captured != null) {
+            return captured;
+        }
+        return cached == null ? null : cached.asStale();
+    }
+
+    private Frame lookup(String key) {
+        synchronized (frameByChannel) {
+            Frame frame = frameByChannel.get(key);
+            if (frame != null) {
+                memoryHits.incrementAndGet();
+                return frame;
+            }
+        }
+        Frame spilled = readSpilled(key);
+        if (spilled != null) {
+            diskHits.incrementAndGet();
+            put(key, spilled);
+        }
+        return spilled;
+    }
+
+    /**
+     * Concurrent requests for the same channel share one grab.
+     */
+    private Frame captureSingleFlight(String key, long devicePk, String channelId, boolean allowPull) {
+        CompletableFuture<Frame> mine = new CompletableFuture<>();
+        CompletableFuture<Frame> running = captureInFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            Frame frame = capture(devicePk, channelId, allowPull);
+            if (frame != null) {
+                put(key, frame);
+            } else {
+                failedCaptures.incrementAndGet();
+            }
+            mine.complete(frame);
+            return frame;
+        } catch (RuntimeException ex) {
+            failedCaptures.incrementAndGet();
+            log.info("snapshot capture failed. devicePk={}, channelId={}, reason={}", devicePk, channelId,
+                    ex.getMessage());
+            mine.complete(null);
+            return null;
+        } finally {
+            captureInFlight.remove(key, mine);
+        }
+    }
+
+    private Frame capture(long devicePk, String channelId, boolean allowPull) {
+        AppProperties.Preview.Snapshot config = config();
+        PreviewService.ChannelRuntime runtime = previewService.findChannelRuntimeLocal(devicePk, channelId,
+                PreviewService.STREAM_PROFILE_SUB);
+        if (runtime == null) {
+            runtime = previewService.findChannelRuntimeLocal(devicePk, channelId);
+        }
+        if (runtime == null) {
+            Device device = deviceService.getDevice(devicePk);
+            runtime = previewService.findChannelRuntime(devicePk, device.deviceId(), channelId)
+                    .filter(PreviewService.ChannelRuntime::streamReady)
+                    .orElse(null);
+        }
+        if (runtime != null) {
+            byte[] jpeg = zlmClient.getSnap(runtime.app(), runtime.streamId());
+            if (jpeg != null) {
+                liveCaptures.incrementAndGet();
+                return newFrame(jpeg, "LIVE", Duration.ofSeconds(config.getLiveTtlSeconds()));
+            }
+            return null;
+        }
+        if (!allowPull || !config.isPullEnabled() || !pullPermits.tryAcquire()) {
+            return null;
+        }
+        try {
+            return pull(devicePk, channelId, config);
+        } finally {
+            pullPermits.release();
+        }
+    }
+
+    /**
+     * Opens a preview just long enough for one frame. A viewer that joins in the
+     * meantime keeps the session after our lease is released.
+     */
+    private Frame pull(long devicePk, String channelId, AppProperties.Preview.Snapshot config) {
+        PreviewService.StartPreviewResult session = previewService.openInternalPreview(devicePk, channelId,
+                PreviewService.STREAM_PROFILE_SUB);
+        try {
+            PreviewService.ChannelRuntime runtime = previewService.findChannelRuntimeLocal(devicePk, channelId,
+                    PreviewService.STREAM_PROFILE_SUB);
+            if (runtime == null) {
+                return null;
+            }
+            byte[] jpeg = zlmClient.getSnap(runtime.app(), runtime.streamId());
+            if (jpeg == null) {
+                return null;
+            }
+            pulledCaptures.incrementAndGet();
+            return newFrame(jpeg, "PULL", Duration.ofSeconds(config.getPulledTtlSeconds()));
+        } finally {
+            try {
+                previewService.stopPreview(session.sessionId(), session.viewerId());
+            } catch (ApiException ex) {
+                log.debug("snapshot preview already closed. sessionId={}", session.sessionId());
+            }
+        }
+    }
+
+    private Frame newFrame(byte[] jpeg, String source, Duration ttl) {
+        Instant now = Instant.now();
+        return new Frame(jpeg, source, now, now.plus(ttl), false);
+    }
+
+    private void put(String key, Frame frame) {
+        List<Map.Entry<String, Frame>> evicted = new ArrayList<>();
+        long maxBytes = config().getMemoryCacheMb() * 1024L * 1024L;
+        synchronized (frameByChannel) {
+            Frame previous = frameByChannel.put(key, frame);
+            memoryBytes += frame.jpeg().length - (previous == null ? 0 : previous.jpeg().length);
+            Iterator<Map.Entry<String, Frame>> iterator = frameByChannel.entrySet().iterator();
+            while (memoryBytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, Frame> eldest = iterator.next();
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+                iterator.remove();
+                memoryBytes -= eldest.getValue().jpeg().length;
+                evicted.add(eldest);
+            }
+        }
+        for (Map.Entry<String, Frame> entry : evicted) {
+            spill(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Writes the frame to {@code <spill-dir>/<key>.jpg}; the file's modified time
+     * carries the frame's expiry.
+     */
+    private void spill(String key, Frame frame) {
+        Path target = spillPath(key);
+        try {
+            Files.createDirectories(target.getParent());
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.write(temp, frame.jpeg());
+            Files.setLastModifiedTime(temp, FileTime.from(frame.expiresAt()));
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            log.warn("snapshot spill failed. key={}, err={}", key, ex.getMessage());
+        }
+    }
+
+    private Frame readSpilled(String key) {
+        Path path = spillPath(key);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try {
+            byte[] jpeg = Files.readAllBytes(path);
+            Instant expiresAt = Files.getLastModifiedTime(path).toInstant();
+            Files.deleteIfExists(path);
+            return new Frame(jpeg, "DISK", null, expiresAt, false);
+        } catch (IOException ex) {
+            log.debug("snapshot spill read failed. key={}, err={}", key, ex.getMessage());
+            return null;
+        }
+    }
+
+    private Path spillPath(String key) {
+        return Paths.get(config().getSpillDir()).toAbsolutePath().normalize().resolve(key + ".jpg");
+    }
+
+    private ThumbnailItem toItem(ChannelRef ref, Frame frame) {
+        if (frame == null) {
+            return new ThumbnailItem(ref.devicePk(), ref.channelId(), "UNAVAILABLE", null, null, null, null);
+        }
+        return new ThumbnailItem(
+                ref.devicePk(),
+                ref.channelId(),
+                frame.stale() ? "STALE" : "OK",
+                frame.source(),
+                frame.capturedAt() == null ? null : frame.capturedAt().toString(),
+                frame.expiresAt().toString(),
+                "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(frame.jpeg()));
+    }
+
+    private String cacheKey(long devicePk, String channelId) {
+        return devicePk + "_" + channelId.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    private AppProperties.Preview.Snapshot config() {
+        return appProperties.getPreview().getSnapshot();
+    }
+
+    /**
+     * @param source LIVE (grabbed from a running stream), PULL (short-lived
+     *               preview) or DISK (read back from the spill directory)
+     */
+    public record Frame(
+            byte[] jpeg,
+            String source,
+            Instant capturedAt,
+            Instant expiresAt,
+            boolean stale) {
+
+        private Frame asStale() {
+            return new Frame(jpeg, source, capturedAt, expiresAt, true);
+        }
+    }
+
+    public record ChannelRef(
+            long devicePk,
+            String channelId) {
+    }
+
+    /**
+     * @param status  OK, STALE (expired frame served because a new grab failed)
+     *                or UNAVAILABLE
+     * @param dataUri {@code data:image/jpeg;base64,...}, null when unavailable
+     */
+    public record ThumbnailItem(
+            long devicePk,
+            String channelId,
+            String status,
+            String source,
+            String capturedAt,
+            String expiresAt,
+            String dataUri) {
+    }
+
+    public record SnapshotStats(
+            int memoryEntries,
+            long memoryBytes,
+            long memoryHits,
+            long diskHits,
+            long liveCaptures,
+            long pulledCaptures,
+            long failedCaptures,
+            int pullsInProgress) {
+    }
+}
@@ -1,227 +1,718 @@
 package com.ownding.video.media;
 
 import com.ownding.video.common.ApiException;
+import com.ownding.video.common.CircuitBreaker;
+import com.ownding.video.common.CircuitBreakerRegistry;
+import com.ownding.video.common.Deadline;
 import com.ownding.video.config.AppProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.net.URI;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
 
+/**
+ * ZLMediaKit HTTP API client. The {@code *Async} methods are the primary API and
+ * run on the dedicated {@code zlmWebClient} connection pool; the blocking
+ * variants are kept for callers that already run on a worker thread. Calls for
+ * a stream go to the media node that owns it, see {@link MediaNodeRegistry}.
+ */
 @Component
 public class ZlmClient {
 
     private static final Logger log = LoggerFactory.getLogger(ZlmClient.class);
+    private static final long HOOK_SAFETY_POLL_MS = 2000L;
+    private static final Duration API_TIMEOUT = Duration.ofSeconds(3);
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(2);
+    private static final Duration WEBRTC_TIMEOUT = Duration.ofSeconds(5);
+    private static final int MAX_RTP_PORT_ATTEMPTS = 3;
+    private static final ParameterizedTypeReference<Map<String, Object>> JSON_MAP =
+            new ParameterizedTypeReference<>() {
+            };
+
     private final WebClient webClient;
     private final AppProperties appProperties;
+    private final MediaStateRegistry mediaStateRegistry;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, MediaSnapshotCache> snapshotCacheByNode = new LinkedHashMap<>();
+    private final RtpPortPool rtpPortPool;
+    private final MediaNodeRegistry mediaNodeRegistry;
+    private final Set<String> sharedPortStreams = ConcurrentHashMap.newKeySet();
+    private final CircuitBreakerRegistry circuitBreakers;
 
-    public ZlmClient(WebClient webClient, AppProperties appProperties) {
+    public ZlmClient(@Qualifier("zlmWebClient") WebClient webClient, AppProperties appProperties,
+            MediaStateRegistry mediaStateRegistry, MeterRegistry meterRegistry, RtpPortPool rtpPortPool,
+            MediaNodeRegistry mediaNodeRegistry, CircuitBreakerRegistry circuitBreakers) {
         this.webClient = webClient;
         this.appProperties = appProperties;
+        this.mediaStateRegistry = mediaStateRegistry;
+        this.meterRegistry = meterRegistry;
+        this.rtpPortPool = rtpPortPool;
+        this.mediaNodeRegistry = mediaNodeRegistry;
+        this.circuitBreakers = circuitBreakers;
+        for (MediaNode node : mediaNodeRegistry.nodes()) {
+            snapshotCacheByNode.put(node.id(), new MediaSnapshotCache(
+                    () -> loadMediaSnapshot(node),
+                    () -> Duration.ofMillis(appProperties.getZlm().getMediaSnapshotTtlMs())));
+        }
+        mediaStateRegistry.addStreamChangeListener(this::invalidateMediaSnapshot);
+        mediaStateRegistry.addRtpServerTimeoutListener(rtpPortPool::release);
     }
 
-    @SuppressWarnings("unchecked")
     public Integer openRtpServer(String streamId, int tcpMode) {
         return openRtpServer(streamId, tcpMode, null);
     }
 
-    @SuppressWarnings("unchecked")
     public Integer openRtpServer(String streamId, int tcpMode, String ssrc) {
-        try {
-            Map<String, Object> response = requestOpenRtpServer(streamId, tcpMode, ssrc);
-            if (isSuccess(response)) {
-                return extractPort(response);
+        return openRtpServerAsync(streamId, tcpMode, ssrc).block();
+    }
+
+    /**
+     * Reserves an RTP receive endpoint for a GB28181 stream. In single-port mode
+     * (UDP / TCP passive only) the device sends to the shared rtp_proxy port and
+     * ZLMediaKit names the stream after the SSRC, so no RTP server is opened.
+     * Otherwise a dedicated RTP server is opened on a pooled port. The media node
+     * is chosen by load, sticky per {@code placementKey} (see
+     * {@link MediaNodeRegistry#channelKey}), and owns the stream until it is closed.
+     *
+     * @return the binding, or {@code null} when ZLMediaKit refused to open a port
+     * @throws ApiException 503 when the port pool or every media node is exhausted
+     */
+    public RtpBinding bindRtp(String placementKey, String streamId, int tcpMode, String ssrc) {
+        return bindRtp(placementKey, streamId, tcpMode, ssrc, Deadline.none());
+    }
+
+    /**
+     * Same, but every ZLMediaKit call waits at most for what is left of the
+     * request budget.
+     *
+     * @throws ApiException 504 when the budget is used up before or during the bind
+     */
+    public RtpBinding bindRtp(String placementKey, String streamId, int tcpMode, String ssrc, Deadline deadline) {
+        return bindRtpAsync(placementKey, streamId, tcpMode, ssrc, deadline).block();
+    }
+
+    public Mono<RtpBinding> bindRtpAsync(String placementKey, String streamId, int tcpMode, String ssrc) {
+        return bindRtpAsync(placementKey, streamId, tcpMode, ssrc, Deadline.none());
+    }
+
+    public Mono<RtpBinding> bindRtpAsync(String placementKey, String streamId, int tcpMode, String ssrc,
+            Deadline deadline) {
+        return Mono.defer(() -> {
+            if (deadline.isExpired()) {
+                return Mono.error(deadline.expired("申请RTP端口"));
             }
-            if (isStreamAlreadyExists(response)) {
-                log.warn("openRtpServer stream already exists, try to close stale rtp server first. streamId={}",
-                        streamId);
-                closeRtpServer(streamId);
-                try {
-                    Thread.sleep(120);
-                } catch (InterruptedException interruptedEx) {
-                    Thread.currentThread().interrupt();
-                    return null;
-                }
-                Map<String, Object> retried = requestOpenRtpServer(streamId, tcpMode, ssrc);
-                if (isSuccess(retried)) {
-                    return extractPort(retried);
+            MediaNode node = mediaNodeRegistry.place(placementKey);
+            AppProperties.Zlm.Rtp rtp = appProperties.getZlm().getRtp();
+            if (rtp.isSinglePortEnabled() && tcpMode != 2) {
+                String sharedStreamId = ssrcToStreamId(ssrc);
+                if (sharedStreamId != null) {
+                    sharedPortStreams.add(sharedStreamId);
+                    mediaNodeRegistry.assign(sharedStreamId, node);
+                    return Mono.just(new RtpBinding(node.id(), sharedStreamId, rtp.getSinglePort(), true,
+                            node.mediaIp()));
                 }
-                log.warn("openRtpServer retry failed, response={}", retried);
-                return null;
+                log.warn("single-port mode skipped, invalid ssrc. streamId={}, ssrc={}", streamId, ssrc);
             }
-            log.warn("openRtpServer failed, response={}", response);
-            return null;
-        } catch (Exception ex) {
-            log.warn("openRtpServer exception: {}", ex.getMessage());
-            return null;
-        }
+            // Dedicated ports keep accepting any SSRC, as before, so devices that ignore the SDP y= line still play.
+            return openOnPooledPort(node, streamId, tcpMode, null, new HashSet<>(), deadline)
+                    .map(port -> new RtpBinding(node.id(), streamId, port, false, node.mediaIp()));
+        });
     }
 
-    public void closeRtpServer(String streamId) {
+    /**
+     * Opens an RTP server on a pooled port of the stream's node (placing it when
+     * new) and emits the bound port, or completes empty on failure. Fails with a
+     * 503 {@link ApiException} when the pool is exhausted.
+     */
+    public Mono<Integer> openRtpServerAsync(String streamId, int tcpMode, String ssrc) {
+        return openRtpServerAsync(streamId, tcpMode, ssrc, Deadline.none());
+    }
+
+    /**
+     * Same, bounded by the request budget; fails with a 504 {@link ApiException}
+     * once it is used up.
+     */
+    public Mono<Integer> openRtpServerAsync(String streamId, int tcpMode, String ssrc, Deadline deadline) {
+        return Mono.defer(() -> {
+            if (deadline.isExpired()) {
+                return Mono.error(deadline.expired("申请RTP端口"));
+            }
+            MediaNode node = mediaNodeRegistry.ownerOf(streamId).orElseGet(() -> mediaNodeRegistry.place(null));
+            return openOnPooledPort(node, streamId, tcpMode, ssrc, new HashSet<>(), deadline);
+        });
+    }
+
+    private Mono<Integer> openOnPooledPort(MediaNode node, String streamId, int tcpMode, String ssrc,
+            Set<Integer> triedPorts, Deadline deadline) {
+        int port;
         try {
-            webClient.get()
-                    .uri(appProperties.getZlm().getBaseUrl()
-                            + "/index/api/closeRtpServer?secret={secret}&stream_id={streamId}",
-                            Map.of("secret", appProperties.getZlm().getSecret(),
-                                    "streamId", streamId))
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block(Duration.ofSeconds(2));
-        } catch (Exception ex) {
-            log.warn("closeRtpServer exception: {}", ex.getMessage());
+            port = rtpPortPool.allocate(node.id(), streamId, triedPorts);
+        } catch (ApiException ex) {
+            return Mono.error(ex);
+        }
+        mediaNodeRegistry.assign(streamId, node);
+        return requestOpenRtpServer(node, streamId, tcpMode, ssrc, port, deadline)
+                .flatMap(response -> {
+                    if (isSuccess(response)) {
+                        snapshotCache(node).invalidate();
+                        return Mono.justOrEmpty(extractPort(response));
+                    }
+                    if (isStreamAlreadyExists(response)) {
+                        log.warn("openRtpServer stream already exists, try to close stale rtp server first. node={}, streamId={}",
+                                node.id(), streamId);
+                        return requestCloseRtpServer(node, streamId, deadline)
+                                .onErrorResume(ex -> !(ex instanceof ApiException), ex -> Mono.empty())
+                                .then(Mono.delay(Duration.ofMillis(120)))
+                                .then(requestOpenRtpServer(node, streamId, tcpMode, ssrc, port, deadline))
+                                .flatMap(retried -> {
+                                    if (isSuccess(retried)) {
+                                        snapshotCache(node).invalidate();
+                                        return Mono.justOrEmpty(extractPort(retried));
+                                    }
+                                    log.warn("openRtpServer retry failed, response={}", retried);
+                                    releaseStream(streamId);
+                                    return Mono.empty();
+                                });
+                    }
+                    // Usually the port is held by something else (e.g. RTSP over UDP shares the range).
+                    log.warn("openRtpServer failed, node={}, port={}, response={}", node.id(), port, response);
+                    triedPorts.add(port);
+                    if (triedPorts.size() < MAX_RTP_PORT_ATTEMPTS) {
+                        return openOnPooledPort(node, streamId, tcpMode, ssrc, triedPorts, deadline);
+                    }
+                    releaseStream(streamId);
+                    return Mono.empty();
+                })
+                // Out of budget or circuit open: the port goes back before the error reaches the caller.
+                .doOnError(ApiException.class, ex -> releaseStream(streamId))
+                .onErrorResume(ex -> !(ex instanceof ApiException), ex -> {
+                    log.warn("openRtpServer exception, node={}: {}", node.id(), ex.getMessage());
+                    releaseStream(streamId);
+                    return Mono.empty();
+                });
+    }
+
+    private void releaseStream(String streamId) {
+        rtpPortPool.release(streamId);
+        mediaNodeRegistry.release(streamId);
+    }
+
+    public void closeRtpServer(String streamId) {
+        closeRtpServerAsync(streamId).block();
+    }
+
+    /**
+     * Closes the RTP server within the request budget, e.g. before re-binding in
+     * another mode. With the budget used up the port still returns to the pool
+     * but ZLMediaKit is not asked, so cleanup after a failed request should use
+     * {@link #closeRtpServer(String)}.
+     */
+    public void closeRtpServer(String streamId, Deadline deadline) {
+        closeRtpServerAsync(streamId, deadline).block();
+    }
+
+    public String nodeIdOf(String streamId) {
+        return mediaNodeRegistry.ownerOf(streamId).map(MediaNode::id).orElse(null);
+    }
+
+    public boolean isSharedPortStream(String streamId) {
+        return sharedPortStreams.contains(streamId);
+    }
+
+    /**
+     * Takes back a stream bound before a restart, so closing it later reaches
+     * the right node and the right kind of RTP endpoint.
+     */
+    public void adoptStream(String streamId, String nodeId, boolean sharedPort) {
+        mediaNodeRegistry.findNode(nodeId).ifPresent(node -> mediaNodeRegistry.assign(streamId, node));
+        if (sharedPort) {
+            sharedPortStreams.add(streamId);
         }
     }
 
+    /**
+     * Closes the RTP server of the stream and returns its port to the pool, even
+     * when ZLMediaKit cannot be reached. Shared-port streams are force-closed instead.
+     */
+    public Mono<Void> closeRtpServerAsync(String streamId) {
+        return closeRtpServerAsync(streamId, Deadline.none());
+    }
+
+    public Mono<Void> closeRtpServerAsync(String streamId, Deadline deadline) {
+        MediaNode node = mediaNodeRegistry.nodeFor(streamId);
+        if (sharedPortStreams.remove(streamId)) {
+            URI uri = apiUri(node, "/index/api/close_streams")
+                    .queryParam("stream", streamId)
+                    .queryParam("force", 1)
+                    .build(true)
+                    .toUri();
+            return getJson(node, "close_streams", uri, CLOSE_TIMEOUT, deadline)
+                    .doFinally(signal -> {
+                        mediaNodeRegistry.release(streamId);
+                        snapshotCache(node).invalidate();
+                    })
+                    .onErrorResume(ex -> {
+                        log.warn("close shared-port stream exception: {}", ex.getMessage());
+                        return Mono.empty();
+                    })
+                    .then();
+        }
+        return requestCloseRtpServer(node, streamId, deadline)
+                .doFinally(signal -> {
+                    releaseStream(streamId);
+                    snapshotCache(node).invalidate();
+                })
+                .onErrorResume(ex -> {
+                    log.warn("closeRtpServer exception: {}", ex.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * Lists RTP servers currently open on the node as stream_id -> port.
+     */
     @SuppressWarnings("unchecked")
-    public boolean startMp4Record(String app, String streamId, String customPath) {
+    public Mono<Map<String, Integer>> listRtpServerAsync(MediaNode node) {
+        URI uri = apiUri(node, "/index/api/listRtpServer").build(true).toUri();
+        return getJson(node, "listRtpServer", uri, API_TIMEOUT)
+                .flatMap(response -> {
+                    if (!isSuccess(response)) {
+                        return Mono.error(new IllegalStateException("listRtpServer failed: " + extractMessage(response)));
+                    }
+                    Map<String, Integer> result = new LinkedHashMap<>();
+                    if (response.get("data") instanceof List<?> list) {
+                        for (Object item : list) {
+                            if (item instanceof Map<?, ?> raw) {
+                                Map<String, Object> map = (Map<String, Object>) raw;
+                                String stream = firstString(map, "stream_id", "stream");
+                                long port = readLong(map, "port");
+                                if (stream != null && port > 0) {
+                                    result.put(stream, (int) port);
+                                }
+                            }
+                        }
+                    }
+                    return Mono.just(result);
+                });
+    }
+
+    /**
+     * ZLMediaKit names streams arriving on the shared rtp_proxy port after the
+     * RTP SSRC printed as %08X; the GB28181 SSRC is its decimal form.
+     */
+    static String ssrcToStreamId(String ssrc) {
+        if (ssrc == null || ssrc.isBlank()) {
+            return null;
+        }
         try {
-            Map<String, Object> response = requestRecordControl("/index/api/startRecord", app, streamId, customPath);
-            if (isSuccess(response) || isAlreadyRecording(response)) {
-                return true;
+            long value = Long.parseLong(ssrc.trim());
+            if (value < 0 || value > 0xFFFFFFFFL) {
+                return null;
             }
-            log.warn("startMp4Record failed, app={}, streamId={}, response={}", app, streamId, response);
-            return false;
-        } catch (Exception ex) {
-            log.warn("startMp4Record exception, app={}, streamId={}, err={}", app, streamId, ex.getMessage());
-            return false;
+            return String.format("%08X", value);
+        } catch (NumberFormatException ex) {
+            return null;
         }
     }
 
-    @SuppressWarnings("unchecked")
+    public boolean startMp4Record(String app, String streamId, String customPath) {
+        return startMp4Record(app, streamId, customPath, Deadline.none());
+    }
+
+    /**
+     * Same, bounded by the request budget; {@code false} when it runs out.
+     */
+    public boolean startMp4Record(String app, String streamId, String customPath, Deadline deadline) {
+        return Boolean.TRUE.equals(startMp4RecordAsync(app, streamId, customPath, deadline).block());
+    }
+
+    public Mono<Boolean> startMp4RecordAsync(String app, String streamId, String customPath) {
+        return startMp4RecordAsync(app, streamId, customPath, Deadline.none());
+    }
+
+    public Mono<Boolean> startMp4RecordAsync(String app, String streamId, String customPath, Deadline deadline) {
+        MediaNode node = mediaNodeRegistry.nodeFor(streamId);
+        return requestRecordControl(node, "/index/api/startRecord", app, streamId, customPath, deadline)
+                .map(response -> {
+                    if (isSuccess(response) || isAlreadyRecording(response)) {
+                        mediaStateRegistry.markMp4Recording(app, streamId, true);
+                        snapshotCache(node).invalidate();
+                        return true;
+                    }
+                    log.warn("startMp4Record failed, app={}, streamId={}, response={}", app, streamId, response);
+                    return false;
+                })
+                .defaultIfEmpty(false)
+                .onErrorResume(ex -> {
+                    log.warn("startMp4Record exception, app={}, streamId={}, err={}", app, streamId, ex.getMessage());
+                    return Mono.just(false);
+                });
+    }
+
     public boolean stopMp4Record(String app, String streamId) {
-        try {
-            Map<String, Object> response = requestRecordControl("/index/api/stopRecord", app, streamId, null);
-            if (isSuccess(response) || isNotRecording(response) || isStreamNotFound(response)) {
-                return true;
-            }
-            log.warn("stopMp4Record failed, app={}, streamId={}, response={}", app, streamId, response);
-            return false;
-        } catch (Exception ex) {
-            log.warn("stopMp4Record exception, app={}, streamId={}, err={}", app, streamId, ex.getMessage());
-            return false;
-        }
+        return Boolean.TRUE.equals(stopMp4RecordAsync(app, streamId).block());
+    }
+
+    public Mono<Boolean> stopMp4RecordAsync(String app, String streamId) {
+        MediaNode node = mediaNodeRegistry.nodeFor(streamId);
+        return requestRecordControl(node, "/index/api/stopRecord", app, streamId, null, Deadline.none())
+                .map(response -> {
+                    if (isSuccess(response) || isNotRecording(response) || isStreamNotFound(response)) {
+                        mediaStateRegistry.markMp4Recording(app, streamId, false);
+                        snapshotCache(node).invalidate();
+                        return true;
+                    }
+                    log.warn("stopMp4Record failed, app={}, streamId={}, response={}", app, streamId, response);
+                    return false;
+                })
+                .defaultIfEmpty(false)
+                .onErrorResume(ex -> {
+                    log.warn("stopMp4Record exception, app={}, streamId={}, err={}", app, streamId, ex.getMessage());
+                    return Mono.just(false);
+                });
     }
 
-    @SuppressWarnings("unchecked")
     public boolean isMp4Recording(String app, String streamId) {
-        try {
-            MediaRuntime runtime = queryMediaRuntime(app, streamId);
-            if (runtime != null && runtime.mp4Recording()) {
-                return runtime.mp4Recording();
-            }
-            Map<String, Object> response = requestRecordControl("/index/api/isRecording", app, streamId, null);
-            if (!isSuccess(response)) {
-                return runtime != null && runtime.mp4Recording();
-            }
-            boolean byApi = extractRecordingFlag(response);
-            return byApi || (runtime != null && runtime.mp4Recording());
-        } catch (Exception ex) {
-            log.warn("isMp4Recording exception, app={}, streamId={}, err={}", app, streamId, ex.getMessage());
-            return false;
-        }
+        return Boolean.TRUE.equals(isMp4RecordingAsync(app, streamId).block());
+    }
+
+    public Mono<Boolean> isMp4RecordingAsync(String app, String streamId) {
+        if (mediaStateRegistry.find(streamId).map(MediaStateRegistry.MediaState::mp4Recording).orElse(false)) {
+            return Mono.just(true);
+        }
+        return queryMediaRuntimeAsync(app, streamId)
+                .map(MediaRuntime::mp4Recording)
+                .defaultIfEmpty(false)
+                .flatMap(byRuntime -> {
+                    if (byRuntime) {
+                        return Mono.just(true);
+                    }
+                    return requestRecordControl(mediaNodeRegistry.nodeFor(streamId), "/index/api/isRecording",
+                            app, streamId, null, Deadline.none())
+                            .map(response -> isSuccess(response) && extractRecordingFlag(response))
+                            .defaultIfEmpty(false);
+                })
+                .onErrorResume(ex -> {
+                    log.warn("isMp4Recording exception, app={}, streamId={}, err={}", app, streamId, ex.getMessage());
+                    return Mono.just(false);
+                });
     }
 
-    @SuppressWarnings("unchecked")
     public Map<String, MediaRuntime> listMediaRuntimeByApp(String app) {
+        return listMediaRuntimeByAppAsync(app).block();
+    }
+
+    public Mono<Map<String, MediaRuntime>> listMediaRuntimeByAppAsync(String app) {
         return listMediaRuntimeInternal(app, null);
     }
 
     public MediaRuntime queryMediaRuntime(String app, String streamId) {
-        if (streamId == null || streamId.isBlank()) {
-            return null;
-        }
-        String normalizedStreamId = normalizeStreamId(streamId);
+        return queryMediaRuntimeAsync(app, streamId).block();
+    }
 
-        MediaRuntime runtime = lookupRuntime(listMediaRuntimeInternal(app, streamId), streamId, normalizedStreamId);
-        if (runtime == null && normalizedStreamId != null && !normalizedStreamId.equals(streamId)) {
-            runtime = lookupRuntime(
-                    listMediaRuntimeInternal(app, normalizedStreamId),
-                    streamId,
-                    normalizedStreamId);
-        }
-        if (runtime != null) {
-            return runtime;
-        }
+    /**
+     * Looks the stream up by raw and normalised id, preferring {@code app} and
+     * then any app. Served from the shared media snapshot; completes empty when
+     * ZLMediaKit does not know the stream.
+     */
+    public Mono<MediaRuntime> queryMediaRuntimeAsync(String app, String streamId) {
+        return findMediaEntry(app, streamId)
+                .map(entry -> new MediaRuntime(entry.app(), entry.streamId(), true, entry.mp4Recording()))
+                .onErrorResume(ex -> {
+                    log.warn("queryMediaRuntime exception, app={}, stream={}, err={}", app, streamId, ex.getMessage());
+                    return Mono.empty();
+                });
+    }
 
-        if (app != null && !app.isBlank()) {
-            runtime = lookupRuntime(listMediaRuntimeInternal(null, streamId), streamId, normalizedStreamId);
-            if (runtime == null && normalizedStreamId != null && !normalizedStreamId.equals(streamId)) {
-                runtime = lookupRuntime(
-                        listMediaRuntimeInternal(null, normalizedStreamId),
-                        streamId,
-                        normalizedStreamId);
-            }
+    public StreamTraffic queryStreamTraffic(String app, String streamId) {
+        return queryStreamTrafficAsync(app, streamId).block();
+    }
+
+    /**
+     * Reader count and ingest rate of the stream from the media snapshot; empty
+     * when ZLMediaKit does not know it.
+     */
+    public Mono<StreamTraffic> queryStreamTrafficAsync(String app, String streamId) {
+        return findMediaEntry(app, streamId)
+                .map(entry -> new StreamTraffic(entry.readerCount(), entry.bytesSpeed()));
+    }
+
+    /**
+     * Total ingest bandwidth (bytes/s) over all streams on all media nodes.
+     */
+    public Mono<Long> totalBytesSpeedAsync() {
+        return Flux.fromIterable(mediaNodeRegistry.nodes())
+                .flatMap(node -> snapshotCache(node).get()
+                        .map(MediaSnapshotCache.MediaSnapshot::totalBytesSpeed)
+                        .onErrorResume(ex -> Mono.just(0L)))
+                .reduce(0L, Long::sum);
+    }
+
+    public byte[] getSnap(String app, String streamId) {
+        return getSnapAsync(app, streamId).block();
+    }
+
+    /**
+     * Grabs a JPEG frame of the stream through getSnap on its owning node. Empty
+     * when ZLMediaKit could not decode a frame in time; it then answers with its
+     * placeholder logo, which is not a JPEG.
+     */
+    public Mono<byte[]> getSnapAsync(String app, String streamId) {
+        AppProperties.Preview.Snapshot config = appProperties.getPreview().getSnapshot();
+        MediaNode node = mediaNodeRegistry.nodeFor(streamId);
+        String sourceUrl = config.getSourceUrlTemplate()
+                .replace("{app}", app)
+                .replace("{stream}", streamId);
+        URI uri = apiUri(node, "/index/api/getSnap")
+                .queryParam("url", sourceUrl)
+                .queryParam("timeout_sec", config.getTimeoutSeconds())
+                .queryParam("expire_sec", 1)
+                .build()
+                .encode()
+                .toUri();
+        return guarded(node, "getSnap", Mono.defer(() -> {
+            long startNanos = System.nanoTime();
+            return webClient.get().uri(uri)
+                    .exchangeToMono(response -> {
+                        MediaType contentType = response.headers().contentType().orElse(null);
+                        if (!response.statusCode().is2xxSuccessful()
+                                || !MediaType.IMAGE_JPEG.isCompatibleWith(contentType)) {
+                            return response.releaseBody().then(Mono.<byte[]>empty());
+                        }
+                        return response.bodyToMono(byte[].class);
+                    })
+                    .timeout(Duration.ofSeconds(config.getTimeoutSeconds() + 2L))
+                    .doOnSuccess(bytes -> recordCall(node, "getSnap", bytes != null ? "success" : "rejected",
+                            startNanos))
+                    .doOnError(ex -> recordCall(node, "getSnap",
+                            ex instanceof TimeoutException ? "timeout" : "error", startNanos));
+        }));
+    }
+
+    /**
+     * Drops the cached media snapshots so the next lookup refetches getMediaList.
+     */
+    public void invalidateMediaSnapshot() {
+        snapshotCacheByNode.values().forEach(MediaSnapshotCache::invalidate);
+    }
+
+    /**
+     * Drops only the snapshot of the node a hook came from, found by its
+     * mediaServerId or else as the stream's owner; the other nodes' snapshots
+     * stay valid. Falls back to all nodes when neither identifies one.
+     */
+    void invalidateMediaSnapshot(String mediaServerId, String streamId) {
+        Optional<MediaNode> node = mediaNodeRegistry.findNode(mediaServerId)
+                .or(() -> mediaNodeRegistry.ownerOf(streamId));
+        if (node.isPresent()) {
+            snapshotCache(node.get()).invalidate();
+        } else {
+            invalidateMediaSnapshot();
         }
-        return runtime;
     }
 
+    /**
+     * Probes the node's thread load (getThreadsLoad) and stream count / bandwidth
+     * (getMediaList) and records the result on the node for placement. A failed
+     * probe marks the node unhealthy until the next successful one.
+     */
     @SuppressWarnings("unchecked")
-    private Map<String, MediaRuntime> listMediaRuntimeInternal(String app, String streamFilter) {
-        try {
-            Map<String, Object> response = requestMediaList(app, streamFilter);
-            if (!isSuccess(response)) {
-                return Map.of();
-            }
-            Object dataObj = response.get("data");
-            Map<String, MediaRuntime> result = new LinkedHashMap<>();
-            String normalizedFilter = normalizeStreamId(streamFilter);
-            if (dataObj instanceof List<?> list) {
-                for (Object item : list) {
-                    if (!(item instanceof Map<?, ?> raw)) {
-                        continue;
+    public Mono<MediaNode.NodeLoad> probeNodeAsync(MediaNode node) {
+        URI uri = apiUri(node, "/index/api/getThreadsLoad").build(true).toUri();
+        Mono<Double> threadLoad = getJson(node, "getThreadsLoad", uri, API_TIMEOUT)
+                .map(response -> {
+                    if (!isSuccess(response)) {
+                        throw new IllegalStateException("getThreadsLoad failed: " + extractMessage(response));
                     }
-                    Map<String, Object> map = (Map<String, Object>) raw;
-                    List<String> streamCandidates = extractStreamCandidates(map);
-                    if (streamCandidates.isEmpty()) {
-                        continue;
+                    double total = 0D;
+                    int threads = 0;
+                    if (response.get("data") instanceof List<?> list) {
+                        for (Object item : list) {
+                            if (item instanceof Map<?, ?> raw) {
+                                total += readLong((Map<String, Object>) raw, "load");
+                                threads++;
+                            }
+                        }
                     }
-                    if (normalizedFilter != null && streamCandidates.stream().noneMatch(normalizedFilter::equals)) {
-                        continue;
+                    return threads == 0 ? 0D : total / threads;
+                });
+        MediaSnapshotCache cache = snapshotCache(node);
+        cache.invalidate();
+        return Mono.zip(threadLoad, cache.get())
+                .map(tuple -> new MediaNode.NodeLoad(
+                        tuple.getT2().entries().size(),
+                        tuple.getT1(),
+                        tuple.getT2().totalBytesSpeed(),
+                        Instant.now()))
+                .doOnNext(node::updateLoad)
+                .doOnError(ex -> {
+                    if (node.healthy()) {
+                        log.warn("media node probe failed, marked unhealthy. node={}, err={}", node.id(), ex.getMessage());
                     }
-                    String runtimeApp = firstString(map, "app");
-                    if (runtimeApp == null || runtimeApp.isBlank()) {
-                        runtimeApp = app;
-                    }
-                    boolean mp4 = extractMp4RecordingFlag(map);
-                    String primaryStream = streamCandidates.get(0);
-                    for (String candidate : streamCandidates) {
-                        registerRuntime(result, candidate, runtimeApp, primaryStream, mp4);
+                    node.markUnhealthy();
+                });
+    }
+
+    private MediaSnapshotCache snapshotCache(MediaNode node) {
+        return snapshotCacheByNode.get(node.id());
+    }
+
+    /**
+     * Finds the stream on its owning node, or on any node for streams this process
+     * did not place; a stream found that way is adopted by that node.
+     */
+    private Mono<MediaSnapshotCache.MediaEntry> findMediaEntry(String app, String streamId) {
+        if (streamId == null || streamId.isBlank()) {
+            return Mono.empty();
+        }
+        String normalizedStreamId = normalizeStreamId(streamId);
+        Optional<MediaNode> owner = mediaNodeRegistry.ownerOf(streamId);
+        List<MediaNode> candidates = owner.map(List::of).orElseGet(mediaNodeRegistry::nodes);
+        return Flux.fromIterable(candidates)
+                .concatMap(node -> snapshotCache(node).get()
+                        .flatMap(snapshot -> Mono.justOrEmpty(snapshot.find(app, streamId, normalizedStreamId)))
+                        .doOnNext(entry -> {
+                            if (owner.isEmpty() && candidates.size() > 1) {
+                                mediaNodeRegistry.assign(streamId, node);
+                            }
+                        })
+                        .onErrorResume(ex -> {
+                            log.warn("media lookup failed, node={}, stream={}, err={}",
+                                    node.id(), streamId, ex.getMessage());
+                            return Mono.empty();
+                        }))
+                .next();
+    }
+
+    private Mono<Map<String, MediaRuntime>> listMediaRuntimeInternal(String app, String streamFilter) {
+        String normalizedFilter = normalizeStreamId(streamFilter);
+        return Flux.fromIterable(mediaNodeRegistry.nodes())
+                .concatMap(node -> snapshotCache(node).get()
+                        .onErrorResume(ex -> {
+                            log.warn("getMediaList failed, node={}, err={}", node.id(), ex.getMessage());
+                            return Mono.empty();
+                        }))
+                .collectList()
+                .map(snapshots -> {
+                    Map<String, MediaRuntime> result = new LinkedHashMap<>();
+                    for (MediaSnapshotCache.MediaSnapshot snapshot : snapshots) {
+                        for (MediaSnapshotCache.MediaEntry entry : snapshot.entries()) {
+                            if (app != null && !app.isBlank() && !app.equals(entry.app())) {
+                                continue;
+                            }
+                            if (normalizedFilter != null && !entry.aliases().contains(normalizedFilter)) {
+                                continue;
+                            }
+                            for (String alias : entry.aliases()) {
+                                registerRuntime(result, alias, entry.app(), entry.streamId(), entry.mp4Recording());
+                            }
+                        }
                     }
+                    return result;
+                })
+                .onErrorResume(ex -> {
+                    log.warn("listMediaRuntimeInternal exception, app={}, stream={}, err={}",
+                            app, streamFilter, ex.getMessage());
+                    return Mono.just(Map.of());
+                });
+    }
+
+    private Mono<MediaSnapshotCache.MediaSnapshot> loadMediaSnapshot(MediaNode node) {
+        return requestMediaList(node, null, null)
+                .map(this::parseMediaSnapshot)
+                .defaultIfEmpty(MediaSnapshotCache.MediaSnapshot.of(List.of()));
+    }
+
+    /**
+     * getMediaList returns one item per protocol schema; merge them into one
+     * entry per app/stream.
+     */
+    @SuppressWarnings("unchecked")
+    private MediaSnapshotCache.MediaSnapshot parseMediaSnapshot(Map<String, Object> response) {
+        if (!isSuccess(response)) {
+            log.warn("getMediaList failed, response={}", response);
+            return MediaSnapshotCache.MediaSnapshot.of(List.of());
+        }
+        Map<String, MediaSnapshotCache.MediaEntry> merged = new LinkedHashMap<>();
+        if (response.get("data") instanceof List<?> list) {
+            for (Object item : list) {
+                if (!(item instanceof Map<?, ?> raw)) {
+                    continue;
+                }
+                Map<String, Object> map = (Map<String, Object>) raw;
+                List<String> streamCandidates = extractStreamCandidates(map);
+                if (streamCandidates.isEmpty()) {
+                    continue;
                 }
+                String runtimeApp = firstString(map, "app");
+                String primaryStream = streamCandidates.get(0);
+                MediaSnapshotCache.MediaEntry parsed = new MediaSnapshotCache.MediaEntry(
+                        runtimeApp,
+                        primaryStream,
+                        new LinkedHashSet<>(streamCandidates),
+                        extractMp4RecordingFlag(map),
+                        detectCodecFromObject(map.get("tracks"), 0),
+                        readLong(map, "bytesSpeed"),
+                        (int) Math.max(readLong(map, "totalReaderCount"), readLong(map, "readerCount")));
+                merged.merge(runtimeApp + "/" + primaryStream, parsed, this::mergeEntry);
             }
-            return result;
-        } catch (Exception ex) {
-            log.warn("listMediaRuntimeInternal exception, app={}, stream={}, err={}",
-                    app, streamFilter, ex.getMessage());
-            return Map.of();
         }
+        return MediaSnapshotCache.MediaSnapshot.of(new ArrayList<>(merged.values()));
     }
 
-    private MediaRuntime lookupRuntime(Map<String, MediaRuntime> runtimeMap, String rawStreamId,
-            String normalizedStreamId) {
-        if (runtimeMap == null || runtimeMap.isEmpty()) {
-            return null;
+    private MediaSnapshotCache.MediaEntry mergeEntry(MediaSnapshotCache.MediaEntry left,
+            MediaSnapshotCache.MediaEntry right) {
+        Set<String> aliases = new LinkedHashSet<>(left.aliases());
+        aliases.addAll(right.aliases());
+        return new MediaSnapshotCache.MediaEntry(
+                left.app(),
+                left.streamId(),
+                aliases,
+                left.mp4Recording() || right.mp4Recording(),
+                left.codec() != null ? left.codec() : right.codec(),
+                Math.max(left.bytesSpeed(), right.bytesSpeed()),
+                Math.max(left.readerCount(), right.readerCount()));
+    }
+
+    private long readLong(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        if (value instanceof Number number) {
+            return number.longValue();
         }
-        if (rawStreamId != null) {
-            MediaRuntime byRaw = runtimeMap.get(rawStreamId);
-            if (byRaw != null) {
-                return byRaw;
+        if (value != null) {
+            try {
+                return Long.parseLong(String.valueOf(value).trim());
+            } catch (NumberFormatException ignored) {
+                return 0L;
             }
         }
-        if (normalizedStreamId != null) {
-            return runtimeMap.get(normalizedStreamId);
-        }
-        return null;
+        return 0L;
     }
 
     private void registerRuntime(Map<String, MediaRuntime> result, String key, String runtimeApp, String streamId,
@@ -291,93 +782,161 @@ public class ZlmClient {
         return normalized;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Waits for the stream to register. Driven by the on_stream_changed hook when
+     * hooks are alive, otherwise polls getMediaList every 300ms.
+     */
     public boolean waitStreamReady(String app, String streamId, Duration timeout) {
-        Instant deadline = Instant.now().plus(timeout);
-        while (Instant.now().isBefore(deadline)) {
-            if (isStreamReady(app, streamId)) {
-                return true;
+        return waitStreamReady(app, streamId, timeout, Deadline.none());
+    }
+
+    /**
+     * Same, but never waits past the request deadline, including the final
+     * getMediaList check.
+     */
+    public boolean waitStreamReady(String app, String streamId, Duration timeout, Deadline deadline) {
+        CompletableFuture<Boolean> signal = mediaStateRegistry.awaitStreamReady(streamId);
+        try {
+            Boolean signalled = awaitHookSignal(signal, deadline.cap(timeout), 300, () -> isStreamReady(app, streamId));
+            if (signalled != null) {
+                return signalled;
+            }
+            return !deadline.isExpired() && isStreamReady(app, streamId);
+        } finally {
+            signal.cancel(false);
+        }
+    }
+
+    /**
+     * Waits until mp4 recording is confirmed, by hook / startRecord result first
+     * and by polling isRecording while hooks are unavailable.
+     */
+    public boolean waitMp4Recording(String app, String streamId, Duration timeout) {
+        return waitMp4Recording(app, streamId, timeout, Deadline.none());
+    }
+
+    public boolean waitMp4Recording(String app, String streamId, Duration timeout, Deadline deadline) {
+        CompletableFuture<Boolean> signal = mediaStateRegistry.awaitMp4Recording(streamId);
+        try {
+            Boolean signalled = awaitHookSignal(signal, deadline.cap(timeout), 200,
+                    () -> isMp4Recording(app, streamId));
+            if (signalled != null) {
+                return signalled;
             }
+            return !deadline.isExpired() && isMp4Recording(app, streamId);
+        } finally {
+            signal.cancel(false);
+        }
+    }
+
+    /**
+     * Returns the hook verdict, {@code true} as soon as the poll check passes, or
+     * {@code null} when the timeout elapsed without either. While hooks are alive
+     * the poll check only runs as a slow safety net for missed notifications.
+     */
+    private Boolean awaitHookSignal(CompletableFuture<Boolean> signal, Duration timeout, long pollIntervalMs,
+            BooleanSupplier pollCheck) {
+        long deadlineMs = System.currentTimeMillis() + timeout.toMillis();
+        long nextPollAt = 0L;
+        while (System.currentTimeMillis() < deadlineMs) {
+            if (signal.isDone()) {
+                return signal.getNow(false);
+            }
+            long now = System.currentTimeMillis();
+            if (now >= nextPollAt) {
+                if (pollCheck.getAsBoolean()) {
+                    return true;
+                }
+                long interval = mediaStateRegistry.isHookActive() ? HOOK_SAFETY_POLL_MS : pollIntervalMs;
+                nextPollAt = System.currentTimeMillis() + interval;
+            }
+            long waitMs = Math.max(1L, Math.min(nextPollAt, deadlineMs) - System.currentTimeMillis());
             try {
-                Thread.sleep(300);
+                return signal.get(waitMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ignore) {
+                // no hook yet, poll again
             } catch (InterruptedException ex) {
                 Thread.currentThread().interrupt();
                 return false;
+            } catch (Exception ignore) {
+                // cancelled or failed, fall back to polling
             }
         }
-        return isStreamReady(app, streamId);
+        return signal.isDone() ? signal.getNow(false) : null;
     }
 
-    @SuppressWarnings("unchecked")
     public boolean isStreamReady(String app, String streamId) {
-        try {
-            MediaRuntime runtime = queryMediaRuntime(app, streamId);
-            return runtime != null && runtime.streamReady();
-        } catch (Exception ex) {
-            log.warn("isStreamReady exception: {}", ex.getMessage());
-            return false;
-        }
+        return Boolean.TRUE.equals(isStreamReadyAsync(app, streamId).block());
+    }
+
+    public Mono<Boolean> isStreamReadyAsync(String app, String streamId) {
+        Optional<MediaStateRegistry.MediaState> known = mediaStateRegistry.find(streamId);
+        if (known.isPresent() && known.get().streamReady()) {
+            return Mono.just(true);
+        }
+        return queryMediaRuntimeAsync(app, streamId)
+                .map(MediaRuntime::streamReady)
+                .defaultIfEmpty(false)
+                .onErrorResume(ex -> {
+                    log.warn("isStreamReady exception: {}", ex.getMessage());
+                    return Mono.just(false);
+                });
     }
 
-    @SuppressWarnings("unchecked")
     public String detectStreamCodec(String app, String streamId) {
-        try {
-            Map<String, Object> response = requestMediaList(app, streamId);
-            if (!isSuccess(response)) {
-                return null;
-            }
-            return detectCodecFromObject(response.get("data"), 0);
-        } catch (Exception ex) {
-            log.debug("detectStreamCodec exception: {}", ex.getMessage());
-            return null;
-        }
+        return detectStreamCodecAsync(app, streamId).block();
+    }
+
+    public Mono<String> detectStreamCodecAsync(String app, String streamId) {
+        return findMediaEntry(app, streamId)
+                .flatMap(entry -> Mono.justOrEmpty(entry.codec()))
+                .onErrorResume(ex -> {
+                    log.debug("detectStreamCodec exception: {}", ex.getMessage());
+                    return Mono.empty();
+                });
     }
 
-    @SuppressWarnings("unchecked")
     public PreviewService.WebRtcAnswer playWebRtc(String app, String streamId, String offerSdp) {
-        try {
-            String baseUrl = trimTrailingSlash(appProperties.getZlm().getBaseUrl());
-            UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromUriString(baseUrl)
-                    .path("/index/api/webrtc")
-                    .queryParam("secret", appProperties.getZlm().getSecret())
-                    .queryParam("app", app)
-                    .queryParam("stream", streamId)
-                    .queryParam("type", "play");
-
-            Map<String, Object> response = webClient.post()
-                    .uri(uriBuilder.build(true).toUri())
-                    .contentType(MediaType.TEXT_PLAIN)
-                    .bodyValue(offerSdp)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block(Duration.ofSeconds(5));
-            if (response == null) {
-                throw new ApiException(502, "ZLMediaKit WebRTC 返回为空");
-            }
-            Number code = (Number) response.get("code");
-            if (code == null || code.intValue() != 0) {
-                String msg = extractMessage(response);
-                throw new ApiException(502, "ZLMediaKit WebRTC信令失败: " + msg);
-            }
+        return playWebRtcAsync(app, streamId, offerSdp).block();
+    }
 
-            String answerSdp = extractString(response, "sdp", "answer");
-            if (answerSdp == null || answerSdp.isBlank()) {
-                throw new ApiException(502, "ZLMediaKit WebRTC 未返回 answer SDP");
-            }
-            String answerType = extractString(response, "type");
-            if (answerType == null || answerType.isBlank()) {
-                answerType = "answer";
-            }
-            return new PreviewService.WebRtcAnswer(answerType, answerSdp);
-        } catch (ApiException ex) {
-            throw ex;
-        } catch (Exception ex) {
-            throw new ApiException(502, "ZLMediaKit WebRTC信令异常: " + ex.getMessage());
-        }
+    public Mono<PreviewService.WebRtcAnswer> playWebRtcAsync(String app, String streamId, String offerSdp) {
+        MediaNode node = mediaNodeRegistry.nodeFor(streamId);
+        URI uri = apiUri(node, "/index/api/webrtc")
+                .queryParam("app", app)
+                .queryParam("stream", streamId)
+                .queryParam("type", "play")
+                .build(true)
+                .toUri();
+        Mono<Map<String, Object>> call = webClient.post()
+                .uri(uri)
+                .contentType(MediaType.TEXT_PLAIN)
+                .bodyValue(offerSdp)
+                .retrieve()
+                .bodyToMono(JSON_MAP);
+        return timed(node, "webrtc", call, WEBRTC_TIMEOUT)
+                .switchIfEmpty(Mono.error(() -> new ApiException(502, "ZLMediaKit WebRTC 返回为空")))
+                .map(response -> {
+                    if (!isSuccess(response)) {
+                        String msg = extractMessage(response);
+                        throw new ApiException(502, "ZLMediaKit WebRTC信令失败: " + msg);
+                    }
+                    String answerSdp = extractString(response, "sdp", "answer");
+                    if (answerSdp == null || answerSdp.isBlank()) {
+                        throw new ApiException(502, "ZLMediaKit WebRTC 未返回 answer SDP");
+                    }
+                    String answerType = extractString(response, "type");
+                    if (answerType == null || answerType.isBlank()) {
+                        answerType = "answer";
+                    }
+                    return new PreviewService.WebRtcAnswer(answerType, answerSdp);
+                })
+                .onErrorMap(ex -> !(ex instanceof ApiException),
+                        ex -> new ApiException(502, "ZLMediaKit WebRTC信令异常: " + ex.getMessage()));
     }
 
     public PreviewService.PlayUrls buildPlayUrls(String app, String streamId) {
-        String base = trimTrailingSlash(appProperties.getZlm().getPublicBaseUrl());
+        String base = mediaNodeRegistry.nodeFor(streamId).publicBaseUrl();
         String webrtcPlayerUrl = "%s/index/api/webrtc?app=%s&stream=%s&type=play".formatted(base, app, streamId);
         String hlsUrl = "%s/%s/%s/hls.m3u8".formatted(base, app, streamId);
         String httpFlvUrl = "%s/%s/%s.live.flv".formatted(base, app, streamId);
@@ -386,13 +945,6 @@ public class ZlmClient {
         return new PreviewService.PlayUrls(webrtcPlayerUrl, hlsUrl, httpFlvUrl, rtspUrl, rtmpUrl);
     }
 
-    private String trimTrailingSlash(String url) {
-        if (url.endsWith("/")) {
-            return url.substring(0, url.length() - 1);
-        }
-        return url;
-    }
-
     private String toRtsp(String base, String app, String streamId) {
         String host = base.replace("http://", "").replace("https://", "");
         return "rtsp://%s/%s/%s".formatted(host, app, streamId);
@@ -438,31 +990,29 @@ public class ZlmClient {
         return null;
     }
 
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> requestOpenRtpServer(String streamId, int tcpMode, String ssrc) {
-        String baseUrl = trimTrailingSlash(appProperties.getZlm().getBaseUrl());
-        UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromUriString(baseUrl)
-                .path("/index/api/openRtpServer")
-                .queryParam("secret", appProperties.getZlm().getSecret())
-                .queryParam("port", 0)
+    private Mono<Map<String, Object>> requestOpenRtpServer(MediaNode node, String streamId, int tcpMode, String ssrc,
+            int port, Deadline deadline) {
+        UriComponentsBuilder uriBuilder = apiUri(node, "/index/api/openRtpServer")
+                .queryParam("port", port)
                 .queryParam("tcp_mode", tcpMode)
                 .queryParam("stream_id", streamId);
         if (ssrc != null && !ssrc.isBlank()) {
             uriBuilder.queryParam("ssrc", ssrc.trim());
         }
-        return webClient.get()
-                .uri(uriBuilder.build(true).toUri())
-                .retrieve()
-                .bodyToMono(Map.class)
-                .block(Duration.ofSeconds(3));
+        return getJson(node, "openRtpServer", uriBuilder.build(true).toUri(), API_TIMEOUT, deadline);
     }
 
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> requestRecordControl(String path, String app, String streamId, String customPath) {
-        String baseUrl = trimTrailingSlash(appProperties.getZlm().getBaseUrl());
-        UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromUriString(baseUrl)
-                .path(path)
-                .queryParam("secret", appProperties.getZlm().getSecret())
+    private Mono<Map<String, Object>> requestCloseRtpServer(MediaNode node, String streamId, Deadline deadline) {
+        URI uri = apiUri(node, "/index/api/closeRtpServer")
+                .queryParam("stream_id", streamId)
+                .build(true)
+                .toUri();
+        return getJson(node, "closeRtpServer", uri, CLOSE_TIMEOUT, deadline);
+    }
+
+    private Mono<Map<String, Object>> requestRecordControl(MediaNode node, String path, String app, String streamId,
+            String customPath, Deadline deadline) {
+        UriComponentsBuilder uriBuilder = apiUri(node, path)
                 .queryParam("type", 1)
                 .queryParam("vhost", "__defaultVhost__")
                 .queryParam("app", app)
@@ -470,30 +1020,97 @@ public class ZlmClient {
         if (customPath != null && !customPath.isBlank()) {
             uriBuilder.queryParam("customized_path", customPath.trim());
         }
-        return webClient.get()
-                .uri(uriBuilder.build(true).toUri())
-                .retrieve()
-                .bodyToMono(Map.class)
-                .block(Duration.ofSeconds(3));
+        String endpoint = path.substring(path.lastIndexOf('/') + 1);
+        return getJson(node, endpoint, uriBuilder.build(true).toUri(), API_TIMEOUT, deadline);
     }
 
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> requestMediaList(String app, String streamId) {
-        String baseUrl = trimTrailingSlash(appProperties.getZlm().getBaseUrl());
-        UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromUriString(baseUrl)
-                .path("/index/api/getMediaList")
-                .queryParam("secret", appProperties.getZlm().getSecret());
+    private Mono<Map<String, Object>> requestMediaList(MediaNode node, String app, String streamId) {
+        UriComponentsBuilder uriBuilder = apiUri(node, "/index/api/getMediaList");
         if (app != null && !app.isBlank()) {
             uriBuilder.queryParam("app", app);
         }
         if (streamId != null && !streamId.isBlank()) {
             uriBuilder.queryParam("stream", streamId);
         }
-        return webClient.get()
-                .uri(uriBuilder.build(true).toUri())
-                .retrieve()
-                .bodyToMono(Map.class)
-                .block(Duration.ofSeconds(3));
+        return getJson(node, "getMediaList", uriBuilder.build(true).toUri(), API_TIMEOUT);
+    }
+
+    private UriComponentsBuilder apiUri(MediaNode node, String path) {
+        return UriComponentsBuilder.fromUriString(node.baseUrl())
+                .path(path)
+                .queryParam("secret", node.secret());
+    }
+
+    private Mono<Map<String, Object>> getJson(MediaNode node, String endpoint, URI uri, Duration timeout) {
+        return getJson(node, endpoint, uri, timeout, Deadline.none());
+    }
+
+    private Mono<Map<String, Object>> getJson(MediaNode node, String endpoint, URI uri, Duration timeout,
+            Deadline deadline) {
+        return timed(node, endpoint, webClient.get().uri(uri).retrieve().bodyToMono(JSON_MAP), timeout, deadline);
+    }
+
+    /**
+     * Applies the per-call timeout, shortened to the request budget, and records
+     * latency under {@code zlm.api.requests} tagged with node, endpoint and
+     * outcome (success / rejected / timeout / error). With the budget used up
+     * the call is not made; a timeout that only the budget imposed fails with a
+     * 504 {@link ApiException} and is not held against the node's circuit.
+     */
+    private Mono<Map<String, Object>> timed(MediaNode node, String endpoint, Mono<Map<String, Object>> call,
+            Duration timeout, Deadline deadline) {
+        return Mono.defer(() -> {
+            if (deadline.isExpired()) {
+                return Mono.error(deadline.expired("ZLMediaKit " + endpoint));
+            }
+            Duration capped = deadline.cap(timeout);
+            boolean budgetBound = capped.compareTo(timeout) < 0;
+            return guarded(node, endpoint, Mono.defer(() -> {
+                long startNanos = System.nanoTime();
+                return call.timeout(capped)
+                        .doOnSuccess(response -> recordCall(node, endpoint,
+                                response != null && isSuccess(response) ? "success" : "rejected", startNanos))
+                        .doOnError(ex -> recordCall(node, endpoint,
+                                ex instanceof TimeoutException ? "timeout" : "error", startNanos))
+                        .onErrorMap(ex -> budgetBound && ex instanceof TimeoutException,
+                                ex -> deadline.expired("ZLMediaKit " + endpoint));
+            }));
+        });
+    }
+
+    /**
+     * Runs the call through the node's circuit: timeouts and transport errors
+     * count as failures, any answer from ZLMediaKit as success, and a request
+     * running out of budget as neither. While the circuit is open the call fails
+     * at once with a 503 {@link ApiException}.
+     */
+    private <T> Mono<T> guarded(MediaNode node, String endpoint, Mono<T> call) {
+        return Mono.defer(() -> {
+            CircuitBreaker circuit = circuitBreakers.breaker(CircuitBreakerRegistry.mediaNodeKey(node.id()));
+            if (!circuit.tryAcquire()) {
+                recordCall(node, endpoint, "circuit_open", System.nanoTime());
+                return Mono.error(new ApiException(503, circuit.rejectionMessage()));
+            }
+            return call
+                    .doOnSuccess(ignored -> circuit.onSuccess())
+                    .doOnError(ex -> {
+                        if (ex instanceof ApiException) {
+                            circuit.releaseTrial();
+                        } else {
+                            circuit.onFailure(endpoint + ": " + ex.getClass().getSimpleName());
+                        }
+                    });
+        });
+    }
+
+    private void recordCall(MediaNode node, String endpoint, String outcome, long startNanos) {
+        Timer.builder("zlm.api.requests")
+                .description("ZLMediaKit HTTP API latency")
+                .tag("node", node.id())
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
     }
 
     private boolean isSuccess(Map<String, Object> response) {
@@ -785,6 +1402,22 @@ public class ZlmClient {
         return null;
     }
 
+    /**
+     * @param mediaIp SDP receive address of the node, {@code null} for app.gb28181.media-ip
+     */
+    public record RtpBinding(
+            String nodeId,
+            String streamId,
+            int port,
+            boolean sharedPort,
+            String mediaIp) {
+    }
+
+    public record StreamTraffic(
+            int readerCount,
+            long bytesSpeed) {
+    }
+
     public record MediaRuntime(
             String app,
             String streamId,
@@ -0,0 +1,142 @@
+package com.ownding.video.media;
+
+import com.ownding.video.storage.RecordIndexer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ZLMediaKit web hook receiver. Mounted outside {@code /api} because ZLMediaKit
+ * cannot carry the bearer token; {@link ZlmHookGuard} admits only the media
+ * nodes instead. Responses follow the ZLMediaKit hook protocol.
+ */
+@RestController
+@RequestMapping("/zlm/hook")
+public class ZlmHookController {
+
+    private static final Logger log = LoggerFactory.getLogger(ZlmHookController.class);
+
+    private final MediaStateRegistry mediaStateRegistry;
+    private final RecordIndexer recordIndexer;
+
+    public ZlmHookController(MediaStateRegistry mediaStateRegistry, RecordIndexer recordIndexer) {
+        this.mediaStateRegistry = mediaStateRegistry;
+        this.recordIndexer = recordIndexer;
+    }
+
+    @PostMapping("/on_stream_changed")
+    public Map<String, Object> onStreamChanged(@RequestBody Map<String, Object> body) {
+        boolean regist = asBoolean(body.get("regist"));
+        String app = asText(body.get("app"));
+        String stream = asText(body.get("stream"));
+        String schema = asText(body.get("schema"));
+        Boolean mp4Recording = body.containsKey("isRecordingMP4") ? asBoolean(body.get("isRecordingMP4")) : null;
+        log.debug("zlm hook on_stream_changed. regist={}, schema={}, app={}, stream={}", regist, schema, app, stream);
+        mediaStateRegistry.onStreamChanged(asText(body.get("mediaServerId")), app, stream, schema, regist, mp4Recording);
+        return ok();
+    }
+
+    @PostMapping("/on_record_mp4")
+    public Map<String, Object> onRecordMp4(@RequestBody Map<String, Object> body) {
+        String app = asText(body.get("app"));
+        String stream = asText(body.get("stream"));
+        String filePath = asText(body.get("file_path"));
+        log.debug("zlm hook on_record_mp4. app={}, stream={}, file={}", app, stream, filePath);
+        mediaStateRegistry.onRecordMp4(
+                asText(body.get("mediaServerId")),
+                app,
+                stream,
+                filePath,
+                asLong(body.get("file_size")),
+                asLong(body.get("start_time")),
+                asDouble(body.get("time_len")));
+        recordIndexer.onRecordMp4(filePath);
+        return ok();
+    }
+
+    @PostMapping("/on_stream_none_reader")
+    public Map<String, Object> onStreamNoneReader(@RequestBody Map<String, Object> body) {
+        String app = asText(body.get("app"));
+        String stream = asText(body.get("stream"));
+        log.debug("zlm hook on_stream_none_reader. app={}, stream={}", app, stream);
+        mediaStateRegistry.onStreamNoneReader(asText(body.get("mediaServerId")), app, stream);
+        Map<String, Object> response = ok();
+        // Session lifecycle is owned by PreviewService, never let ZLMediaKit close the stream on its own.
+        response.put("close", false);
+        return response;
+    }
+
+    @PostMapping("/on_rtp_server_timeout")
+    public Map<String, Object> onRtpServerTimeout(@RequestBody Map<String, Object> body) {
+        String streamId = asText(body.get("stream_id"));
+        log.info("zlm hook on_rtp_server_timeout. streamId={}, port={}, ssrc={}",
+                streamId, body.get("local_port"), body.get("ssrc"));
+        mediaStateRegistry.onRtpServerTimeout(asText(body.get("mediaServerId")), streamId);
+        return ok();
+    }
+
+    @PostMapping("/on_publish")
+    public Map<String, Object> onPublish(@RequestBody Map<String, Object> body) {
+        mediaStateRegistry.onPublish(
+                asText(body.get("mediaServerId")),
+                asText(body.get("app")),
+                asText(body.get("stream")));
+        return ok();
+    }
+
+    @PostMapping("/on_server_keepalive")
+    public Map<String, Object> onServerKeepalive(@RequestBody Map<String, Object> body) {
+        mediaStateRegistry.onServerKeepalive(asText(body.get("mediaServerId")));
+        return ok();
+    }
+
+    private Map<String, Object> ok() {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("code", 0);
+        response.put("msg", "success");
+        return response;
+    }
+
+    private String asText(Object value) {
+        return value == null ? null : String.valueOf(value).trim();
+    }
+
+    private boolean asBoolean(Object value) {
+        if (value instanceof Boolean bool) {
+            return bool;
+        }
+        if (value instanceof Number number) {
+            return number.intValue() != 0;
+        }
+        String text = asText(value);
+        return "true".equalsIgnoreCase(text) || "1".equals(text);
+    }
+
+    private long asLong(Object value) {
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        try {
+            return value == null ? 0L : Long.parseLong(String.valueOf(value).trim());
+        } catch (NumberFormatException ex) {
+            return 0L;
+        }
+    }
+
+    private double asDouble(Object value) {
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        try {
+            return value == null ? 0D : Double.parseDouble(String.valueOf(value).trim());
+        } catch (NumberFormatException ex) {
+            return 0D;
+        }
+    }
+}
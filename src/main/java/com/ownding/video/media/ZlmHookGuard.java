@@ -0,0 +1,103 @@
+package com.ownding.video.media;
+
+import com.ownding.video.config.AppProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Only lets the media nodes post to {@code /zlm/hook}: the bearer token filter
+ * does not cover it, and a forged hook could tear down sessions or mark a
+ * stream ready. The allowlist is app.zlm.hook-allowed-ips, or loopback plus
+ * the hosts of the configured media nodes when that is empty.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ZlmHookGuard implements WebFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(ZlmHookGuard.class);
+    private static final String HOOK_PATH = "/zlm/hook/";
+
+    private final Set<InetAddress> allowed;
+
+    public ZlmHookGuard(AppProperties appProperties, MediaNodeRegistry mediaNodeRegistry) {
+        List<String> configured = appProperties.getZlm().getHookAllowedIps();
+        Set<String> hosts = new HashSet<>();
+        if (configured != null && !configured.isEmpty()) {
+            hosts.addAll(configured);
+        } else {
+            hosts.add("127.0.0.1");
+            hosts.add("::1");
+            for (MediaNode node : mediaNodeRegistry.nodes()) {
+                String host = hostOf(node.baseUrl());
+                if (host != null) {
+                    hosts.add(host);
+                }
+            }
+        }
+        this.allowed = resolve(hosts);
+        log.info("zlm hook allowed sources: {}", allowed);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!exchange.getRequest().getPath().value().startsWith(HOOK_PATH)) {
+            return chain.filter(exchange);
+        }
+        InetSocketAddress remote = exchange.getRequest().getRemoteAddress();
+        if (remote != null && remote.getAddress() != null && allowed.contains(remote.getAddress())) {
+            return chain.filter(exchange);
+        }
+        log.warn("zlm hook rejected. source={}, path={}", remote, exchange.getRequest().getPath().value());
+        return forbidden(exchange.getResponse());
+    }
+
+    private static Set<InetAddress> resolve(Set<String> hosts) {
+        Set<InetAddress> addresses = new HashSet<>();
+        for (String host : hosts) {
+            if (host == null || host.isBlank()) {
+                continue;
+            }
+            try {
+                addresses.addAll(List.of(InetAddress.getAllByName(host.trim())));
+            } catch (UnknownHostException ex) {
+                log.warn("zlm hook source cannot be resolved: {}", host);
+            }
+        }
+        return Set.copyOf(addresses);
+    }
+
+    private static String hostOf(String baseUrl) {
+        try {
+            return baseUrl == null ? null : URI.create(baseUrl.trim()).getHost();
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private Mono<Void> forbidden(ServerHttpResponse response) {
+        // ZLMediaKit hook protocol: non-zero code refuses the event.
+        response.setStatusCode(HttpStatus.FORBIDDEN);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        byte[] bytes = "{\"code\":-1,\"msg\":\"forbidden\"}".getBytes(StandardCharsets.UTF_8);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(bytes)));
+    }
+}
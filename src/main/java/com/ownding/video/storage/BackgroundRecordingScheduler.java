@@ -4,6 +4,7 @@ import com.ownding.video.device.Device;
 import com.ownding.video.device.DeviceChannel;
 import com.ownding.video.device.DeviceService;
 import com.ownding.video.config.AppProperties;
+import com.ownding.video.media.MediaStateRegistry;
 import com.ownding.video.media.PreviewService;
 import com.ownding.video.media.ZlmClient;
 import org.slf4j.Logger;
@@ -17,6 +18,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Predicate;
 
 @Component
 public class BackgroundRecordingScheduler {
@@ -28,16 +30,19 @@ public class BackgroundRecordingScheduler {
     private final PreviewService previewService;
     private final ZlmClient zlmClient;
     private final AppProperties appProperties;
+    private final MediaStateRegistry mediaStateRegistry;
     private final Map<String, ManagedChannel> managedChannels = new HashMap<>();
     private final Map<String, String> lastErrorByChannel = new HashMap<>();
 
     public BackgroundRecordingScheduler(DeviceService deviceService, StorageService storageService,
-            PreviewService previewService, ZlmClient zlmClient, AppProperties appProperties) {
+            PreviewService previewService, ZlmClient zlmClient, AppProperties appProperties,
+            MediaStateRegistry mediaStateRegistry) {
         this.deviceService = deviceService;
         this.storageService = storageService;
         this.previewService = previewService;
         this.zlmClient = zlmClient;
         this.appProperties = appProperties;
+        this.mediaStateRegistry = mediaStateRegistry;
     }
 
     @Scheduled(fixedDelayString = "${app.storage.background-record-interval-ms:15000}")
@@ -84,6 +89,8 @@ public class BackgroundRecordingScheduler {
     public synchronized List<BackgroundRecordingStatus> listStatuses() {
         StoragePolicy policy = storageService.getPolicy();
         String defaultApp = appProperties.getZlm().getDefaultApp();
+        // Both maps come from the same shared media snapshot (one getMediaList per TTL),
+        // so no per-channel ZLMediaKit calls are needed below.
         Map<String, ZlmClient.MediaRuntime> runtimeByDefaultApp = zlmClient.listMediaRuntimeByApp(defaultApp);
         Map<String, ZlmClient.MediaRuntime> runtimeByAnyApp = zlmClient.listMediaRuntimeByApp(null);
 
@@ -107,19 +114,11 @@ public class BackgroundRecordingScheduler {
                         ? runtime.streamId()
                         : expectedStreamId;
 
-                // Use pre-fetched runtime maps (batch-loaded, no per-channel HTTP calls).
                 ZlmClient.MediaRuntime mediaRuntime = resolveMediaRuntime(
                         runtimeByDefaultApp,
                         runtimeByAnyApp,
                         expectedStreamId,
                         streamId);
-                // Only fall back to per-channel HTTP if maps had no match.
-                if (mediaRuntime == null) {
-                    mediaRuntime = zlmClient.queryMediaRuntime(app, streamId);
-                }
-                if (mediaRuntime == null && !expectedStreamId.equals(streamId)) {
-                    mediaRuntime = zlmClient.queryMediaRuntime(defaultApp, expectedStreamId);
-                }
                 if (mediaRuntime != null && mediaRuntime.app() != null && !mediaRuntime.app().isBlank()) {
                     app = mediaRuntime.app();
                 }
@@ -133,10 +132,7 @@ public class BackgroundRecordingScheduler {
                     streamReady = runtime.streamReady();
                 }
                 if (!streamReady) {
-                    streamReady = zlmClient.isStreamReady(app, streamId);
-                    if (!streamReady && !expectedStreamId.equals(streamId)) {
-                        streamReady = zlmClient.isStreamReady(defaultApp, expectedStreamId);
-                    }
+                    streamReady = hookState(streamId, expectedStreamId, MediaStateRegistry.MediaState::streamReady);
                 }
 
                 // Determine recording primarily from pre-fetched mediaRuntime.
@@ -145,10 +141,7 @@ public class BackgroundRecordingScheduler {
                     recording = runtime.recording();
                 }
                 if (!recording) {
-                    recording = zlmClient.isMp4Recording(app, streamId);
-                    if (!recording && !expectedStreamId.equals(streamId)) {
-                        recording = zlmClient.isMp4Recording(defaultApp, expectedStreamId);
-                    }
+                    recording = hookState(streamId, expectedStreamId, MediaStateRegistry.MediaState::mp4Recording);
                 }
 
                 boolean sessionActive = runtime != null || mediaRuntime != null || streamReady || recording;
@@ -221,6 +214,12 @@ public class BackgroundRecordingScheduler {
         lastErrorByChannel.clear();
     }
 
+    private boolean hookState(String streamId, String expectedStreamId,
+            Predicate<MediaStateRegistry.MediaState> flag) {
+        return mediaStateRegistry.find(streamId).filter(flag).isPresent()
+                || mediaStateRegistry.find(expectedStreamId).filter(flag).isPresent();
+    }
+
     private String key(long devicePk, String channelId) {
         return devicePk + ":" + channelId;
     }
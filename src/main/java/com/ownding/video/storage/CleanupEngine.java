@@ -0,0 +1,546 @@
+package com.ownding.video.storage;
+
+import com.ownding.video.config.AppProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Deletes recordings past retention, channels and groups over their own
+ * quota and, with auto-overwrite on, more recordings while the size cap is
+ * exceeded or free space is below the low watermark (until it is back above
+ * the high one). Retention, quota and priority are resolved per channel from
+ * storage_retention_policy over the storage policy. Which channel loses
+ * footage next is decided from the running per-channel totals: the lowest
+ * priority first and, among equals, the oldest footage first; its candidates
+ * then come oldest first off the (channel_id, created_at) index in batches,
+ * so no deletion sorts the archive. A day directory ({@code .../yyyy-MM-dd})
+ * that expired as a whole is removed in one go, with one index statement.
+ * Deletions run app.storage.cleanup.delete-concurrency at a time. With tiered
+ * storage the free-space watermarks apply to each cold tier and only delete
+ * from the tier that is short of space; the hot tier is normally relieved by
+ * migration and comes last, for when migration cannot keep up.
+ */
+@Component
+public class CleanupEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(CleanupEngine.class);
+    private static final Pattern DAY_DIR_PATTERN = Pattern.compile("^\\d{4}-\\d{2}-\\d{2}$");
+    /** Sorts after every created_at value. */
+    private static final String NO_CUTOFF = "9999";
+
+    private final StorageRepository storageRepository;
+    private final RecordIndexer recordIndexer;
+    private final StorageUsageCounters usageCounters;
+    private final RecordTiers recordTiers;
+    private final AppProperties appProperties;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile CleanupReport lastReport;
+
+    public CleanupEngine(StorageRepository storageRepository, RecordIndexer recordIndexer,
+            StorageUsageCounters usageCounters, RecordTiers recordTiers, AppProperties appProperties) {
+        this.storageRepository = storageRepository;
+        this.recordIndexer = recordIndexer;
+        this.usageCounters = usageCounters;
+        this.recordTiers = recordTiers;
+        this.appProperties = appProperties;
+    }
+
+    public CleanupReport lastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Cheap enough to poll every few seconds: one statfs and the running
+     * counters.
+     */
+    public boolean watermarkBreached() {
+        StoragePolicy policy = storageRepository.getPolicy();
+        if (limits(policy).overQuota(usageCounters.channelBytes())) {
+            return true;
+        }
+        if (!policy.autoOverwrite()) {
+            return false;
+        }
+        if (usageCounters.totals().totalBytes() > maxBytes(policy)) {
+            return true;
+        }
+        for (Path root : spaceManagedRoots()) {
+            DiskSpace disk = diskSpace(root);
+            if (disk != null && isBelow(disk, config().getLowFreePercent())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code null} when another run is still in progress
+     */
+    public CleanupReport run(String trigger) {
+        if (!running.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            CleanupReport report = doRun(trigger);
+            lastReport = report;
+            if (report.deletedFiles() > 0 || report.deletedDirectories() > 0) {
+                log.info("storage cleanup done. trigger={}, files={}, dirs={}, reclaimedMb={}, mbPerSec={}, "
+                                + "elapsedMs={}", trigger, report.deletedFiles(), report.deletedDirectories(),
+                        report.reclaimedBytes() / 1024 / 1024, report.reclaimedBytesPerSecond() / 1024 / 1024,
+                        report.elapsedMs());
+            }
+            return report;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private CleanupReport doRun(String trigger) {
+        long startedNanos = System.nanoTime();
+        StoragePolicy policy = storageRepository.getPolicy();
+        Limits limits = limits(policy);
+        List<Path> spaceRoots = spaceManagedRoots();
+        DiskSpace before = diskSpace(spaceRoots.get(0));
+        Tally tally = new Tally();
+
+        deleteExpired(limits, tally);
+        enforceQuotas(limits, tally);
+
+        if (policy.autoOverwrite()) {
+            long maxBytes = maxBytes(policy);
+            deleteOldest(limits, channelId -> true, null, NO_CUTOFF,
+                    () -> usageCounters.totals().totalBytes() - maxBytes, tally);
+            for (Path root : spaceRoots) {
+                // Hysteresis: once below the low watermark, free up to the high one.
+                DiskSpace start = diskSpace(root);
+                if (start == null || !isBelow(start, config().getLowFreePercent())) {
+                    continue;
+                }
+                String prefix = root.toString().endsWith(root.getFileSystem().getSeparator())
+                        ? root.toString()
+                        : root + root.getFileSystem().getSeparator();
+                deleteOldest(limits, channelId -> true, prefix, NO_CUTOFF, () -> {
+                    DiskSpace now = diskSpace(root);
+                    return now == null ? 0L
+                            : now.totalBytes() / 100L * config().getHighFreePercent() - now.usableBytes();
+                }, tally);
+            }
+        }
+
+        long elapsedMs = (System.nanoTime() - startedNanos) / 1_000_000L;
+        DiskSpace after = diskSpace(spaceRoots.get(0));
+        return new CleanupReport(
+                trigger,
+                tally.files,
+                tally.directories,
+                tally.bytes,
+                elapsedMs,
+                tally.bytes * 1000L / Math.max(1L, elapsedMs),
+                before == null ? -1L : before.usableBytes(),
+                after == null ? -1L : after.usableBytes(),
+                Instant.now().toString());
+    }
+
+    /**
+     * Each channel's footage past its retention: whole day directories first,
+     * then single segments of the channels whose oldest footage is past it.
+     */
+    private void deleteExpired(Limits limits, Tally tally) {
+        Instant now = Instant.now();
+        int shortestDays = usageCounters.channelBytes().keySet().stream()
+                .mapToInt(limits::retentionDays)
+                .filter(days -> days > 0)
+                .min()
+                .orElse(0);
+        if (shortestDays == 0) {
+            return;
+        }
+        deleteExpiredDirectories(limits, now, now.minus(shortestDays, ChronoUnit.DAYS), tally);
+        for (StorageUsageCounters.ChannelUsage channel : usageCounters.byChannel()) {
+            int days = limits.retentionDays(channel.channelId());
+            if (days <= 0) {
+                continue;
+            }
+            String cutoff = now.minus(days, ChronoUnit.DAYS).toString();
+            if (channel.oldest() == null || channel.oldest().compareTo(cutoff) >= 0) {
+                continue;
+            }
+            deleteOldest(limits, channelId -> Objects.equals(channelId, channel.channelId()), null, cutoff,
+                    () -> Long.MAX_VALUE, tally);
+        }
+    }
+
+    /**
+     * Channels over their own quota, then groups over theirs; a group gives up
+     * its members' footage by priority like the global cap does.
+     */
+    private void enforceQuotas(Limits limits, Tally tally) {
+        for (Map.Entry<String, Long> quota : limits.channelQuotas().entrySet()) {
+            String channel = quota.getKey();
+            deleteOldest(limits, channelId -> Objects.equals(channelId, channel), null, NO_CUTOFF,
+                    () -> usageCounters.channelBytes().getOrDefault(channel, 0L) - quota.getValue(), tally);
+        }
+        for (Map.Entry<String, Long> quota : limits.groupQuotas().entrySet()) {
+            Set<String> members = limits.members(quota.getKey());
+            deleteOldest(limits, members::contains, null, NO_CUTOFF,
+                    () -> Limits.bytesOf(members, usageCounters.channelBytes()) - quota.getValue(), tally);
+        }
+    }
+
+    /**
+     * Day directories whose day ended before their channel's retention cutoff
+     * and that hold no newer segment.
+     *
+     * @param earliestCutoff cutoff of the shortest retention in effect
+     */
+    private void deleteExpiredDirectories(Limits limits, Instant now, Instant earliestCutoff, Tally tally) {
+        List<Path> roots = recordTiers.allRoots();
+        String separator = roots.get(0).getFileSystem().getSeparator();
+        ZoneId zone = ZoneId.systemDefault();
+        List<StorageRepository.ExpiredDirectory> directories = storageRepository
+                .listExpiredDirectories(earliestCutoff.toString(), separator)
+                .stream()
+                .filter(directory -> {
+                    Path path = Path.of(directory.prefix());
+                    int days = limits.retentionDays(RecordIndexer.parseChannelIdFromPath(path));
+                    if (days <= 0) {
+                        return false;
+                    }
+                    Instant cutoff = now.minus(days, ChronoUnit.DAYS);
+                    return isExpiredDay(roots, path, cutoff, zone)
+                            && !storageRepository.hasRecordFilesUnderSince(directory.prefix(), cutoff.toString());
+                })
+                .toList();
+        if (directories.isEmpty()) {
+            return;
+        }
+        List<StorageRepository.ExpiredDirectory> deleted = Flux.fromIterable(directories)
+                .flatMap(directory -> Mono.fromCallable(() -> deleteTree(Path.of(directory.prefix())))
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .filter(Boolean::booleanValue)
+                                .map(ok -> directory),
+                        config().getDeleteConcurrency())
+                .collectList()
+                .block();
+        for (StorageRepository.ExpiredDirectory directory : deleted) {
+            recordIndexer.onDirectoryDeleted(directory.prefix());
+            tally.directories++;
+            tally.files += directory.fileCount();
+            tally.bytes += directory.totalBytes();
+        }
+    }
+
+    /**
+     * Deletes segments modified before {@code modifiedBefore} of the matching
+     * channels, a batch at a time, while {@code bytesNeeded} stays positive.
+     * Each batch comes from the channel with the lowest priority and, among
+     * equals, the oldest footage, and stops where the next equal channel's
+     * footage starts, so equal channels age out together.
+     *
+     * @param rootPrefix only segments under this record root, or {@code null}
+     *                   for all tiers
+     */
+    private void deleteOldest(Limits limits, Predicate<String> channels, String rootPrefix, String modifiedBefore,
+            LongSupplier bytesNeeded, Tally tally) {
+        int batchSize = config().getBatchSize();
+        Set<String> exhausted = new HashSet<>();
+        Comparator<StorageUsageCounters.ChannelUsage> victimOrder = Comparator
+                .comparingInt((StorageUsageCounters.ChannelUsage channel) -> limits.priority(channel.channelId()))
+                .thenComparing(StorageUsageCounters.ChannelUsage::oldest);
+        while (true) {
+            long needed = bytesNeeded.getAsLong();
+            if (needed <= 0) {
+                return;
+            }
+            List<StorageUsageCounters.ChannelUsage> candidates = usageCounters.byChannel().stream()
+                    .filter(channel -> channels.test(channel.channelId()) && !exhausted.contains(channel.channelId()))
+                    .filter(channel -> channel.oldest() != null && channel.oldest().compareTo(modifiedBefore) < 0)
+                    .sorted(victimOrder)
+                    .toList();
+            if (candidates.isEmpty()) {
+                return;
+            }
+            StorageUsageCounters.ChannelUsage victim = candidates.get(0);
+            String until = candidates.size() > 1
+                    && limits.priority(candidates.get(1).channelId()) == limits.priority(victim.channelId())
+                    ? candidates.get(1).oldest()
+                    : null;
+            List<StorageRepository.IndexedFile> batch = storageRepository.listOldestRecordFilesOfChannel(
+                    victim.channelId(), rootPrefix, modifiedBefore, batchSize);
+            if (batch.isEmpty()) {
+                exhausted.add(victim.channelId());
+                continue;
+            }
+            List<StorageRepository.IndexedFile> chosen = new ArrayList<>();
+            long chosenBytes = 0L;
+            for (StorageRepository.IndexedFile file : batch) {
+                if (chosenBytes >= needed
+                        || (!chosen.isEmpty() && until != null && file.modifiedAt().compareTo(until) > 0)) {
+                    break;
+                }
+                chosen.add(file);
+                chosenBytes += file.fileSizeBytes();
+            }
+            List<StorageRepository.IndexedFile> deleted = Flux.fromIterable(chosen)
+                    .flatMap(file -> Mono.fromCallable(() -> deleteFile(Path.of(file.filePath())))
+                                    .subscribeOn(Schedulers.boundedElastic())
+                                    .filter(Boolean::booleanValue)
+                                    .map(ok -> file),
+                            config().getDeleteConcurrency())
+                    .collectList()
+                    .block();
+            if (deleted.isEmpty()) {
+                // Every candidate failed (permissions, busy files); the next run retries.
+                log.warn("storage cleanup stalled, {} oldest segments of channel {} could not be deleted",
+                        chosen.size(), victim.channelId());
+                exhausted.add(victim.channelId());
+                continue;
+            }
+            recordIndexer.onDeleted(deleted.stream().map(file -> Path.of(file.filePath())).toList());
+            for (StorageRepository.IndexedFile file : deleted) {
+                tally.files++;
+                tally.bytes += file.fileSizeBytes();
+            }
+        }
+    }
+
+    private boolean isExpiredDay(List<Path> roots, Path directory, Instant cutoff, ZoneId zone) {
+        Path name = directory.getFileName();
+        if (name == null || !DAY_DIR_PATTERN.matcher(name.toString()).matches()
+                || roots.stream().noneMatch(root -> directory.startsWith(root) && !directory.equals(root))) {
+            return false;
+        }
+        try {
+            Instant dayEnd = LocalDate.parse(name.toString()).plusDays(1).atStartOfDay(zone).toInstant();
+            return !dayEnd.isAfter(cutoff);
+        } catch (DateTimeParseException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return whether the file is gone, also when it was already missing
+     */
+    private boolean deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+            return true;
+        } catch (IOException ex) {
+            log.warn("删除文件失败: {}, {}", file, ex.getMessage());
+            return false;
+        }
+    }
+
+    private boolean deleteTree(Path directory) {
+        if (Files.notExists(directory)) {
+            return true;
+        }
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                    if (ex != null) {
+                        throw ex;
+                    }
+                    Files.deleteIfExists(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return true;
+        } catch (IOException ex) {
+            log.warn("删除录像目录失败: {}, {}", directory, ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Roots whose free space cleanup looks after: the cold tiers when tiering
+     * is on, then the record path as the last resort (a stalled migration, or
+     * a cold tier on the same disk that has nothing left to give).
+     */
+    private List<Path> spaceManagedRoots() {
+        List<Path> roots = new ArrayList<>(recordTiers.coldRoots());
+        roots.add(recordTiers.hotRoot());
+        return roots;
+    }
+
+    private Limits limits(StoragePolicy policy) {
+        return new Limits(policy, storageRepository.listRetentionPolicies());
+    }
+
+    private DiskSpace diskSpace(Path root) {
+        try {
+            FileStore store = Files.getFileStore(root);
+            return new DiskSpace(store.getTotalSpace(), store.getUsableSpace());
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private static boolean isBelow(DiskSpace disk, int freePercent) {
+        return disk.totalBytes() > 0 && disk.usableBytes() < disk.totalBytes() / 100L * freePercent;
+    }
+
+    private static long maxBytes(StoragePolicy policy) {
+        return policy.maxStorageGb() * 1024L * 1024L * 1024L;
+    }
+
+    private AppProperties.Storage.Cleanup config() {
+        return appProperties.getStorage().getCleanup();
+    }
+
+    private record DiskSpace(long totalBytes, long usableBytes) {
+    }
+
+    /**
+     * The storage policy with the overrides applied: a channel's value comes
+     * from its own row, then its group's row, then the policy.
+     */
+    private static final class Limits {
+        private static final long BYTES_PER_GB = 1024L * 1024L * 1024L;
+
+        private final StoragePolicy policy;
+        private final Map<String, RetentionPolicy> channels = new HashMap<>();
+        private final Map<String, RetentionPolicy> groups = new HashMap<>();
+
+        private Limits(StoragePolicy policy, List<RetentionPolicy> overrides) {
+            this.policy = policy;
+            for (RetentionPolicy override : overrides) {
+                (RetentionPolicy.SCOPE_GROUP.equals(override.scope()) ? groups : channels)
+                        .put(override.scopeId(), override);
+            }
+        }
+
+        /**
+         * @return 0 when the channel's footage is kept regardless of age
+         */
+        private int retentionDays(String channelId) {
+            RetentionPolicy channel = channels.get(channelId);
+            if (channel != null && channel.retentionDays() != null) {
+                return channel.retentionDays();
+            }
+            RetentionPolicy group = groupOf(channel);
+            return group != null && group.retentionDays() != null ? group.retentionDays() : policy.retentionDays();
+        }
+
+        private int priority(String channelId) {
+            RetentionPolicy channel = channels.get(channelId);
+            if (channel != null && channel.priority() != null) {
+                return channel.priority();
+            }
+            RetentionPolicy group = groupOf(channel);
+            return group != null && group.priority() != null ? group.priority() : 0;
+        }
+
+        /** Channel id to its own cap in bytes. */
+        private Map<String, Long> channelQuotas() {
+            Map<String, Long> quotas = new HashMap<>();
+            for (RetentionPolicy channel : channels.values()) {
+                if (channel.maxStorageGb() != null) {
+                    quotas.put(channel.scopeId(), channel.maxStorageGb() * BYTES_PER_GB);
+                }
+            }
+            return quotas;
+        }
+
+        /** Group name to the cap in bytes of its channels together. */
+        private Map<String, Long> groupQuotas() {
+            Map<String, Long> quotas = new HashMap<>();
+            for (RetentionPolicy group : groups.values()) {
+                if (group.maxStorageGb() != null) {
+                    quotas.put(group.scopeId(), group.maxStorageGb() * BYTES_PER_GB);
+                }
+            }
+            return quotas;
+        }
+
+        private Set<String> members(String groupName) {
+            Set<String> members = new HashSet<>();
+            for (RetentionPolicy channel : channels.values()) {
+                if (groupName.equals(channel.groupName())) {
+                    members.add(channel.scopeId());
+                }
+            }
+            return members;
+        }
+
+        private boolean overQuota(Map<String, Long> channelBytes) {
+            for (Map.Entry<String, Long> quota : channelQuotas().entrySet()) {
+                if (channelBytes.getOrDefault(quota.getKey(), 0L) > quota.getValue()) {
+                    return true;
+                }
+            }
+            for (Map.Entry<String, Long> quota : groupQuotas().entrySet()) {
+                if (bytesOf(members(quota.getKey()), channelBytes) > quota.getValue()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private RetentionPolicy groupOf(RetentionPolicy channel) {
+            return channel == null || channel.groupName() == null ? null : groups.get(channel.groupName());
+        }
+
+        private static long bytesOf(Set<String> channelIds, Map<String, Long> channelBytes) {
+            long bytes = 0L;
+            for (String channelId : channelIds) {
+                bytes += channelBytes.getOrDefault(channelId, 0L);
+            }
+            return bytes;
+        }
+    }
+
+    private static final class Tally {
+        private long files;
+        private long directories;
+        private long bytes;
+    }
+
+    public record CleanupReport(
+            String trigger,
+            long deletedFiles,
+            long deletedDirectories,
+            long reclaimedBytes,
+            long elapsedMs,
+            long reclaimedBytesPerSecond,
+            long freeBytesBefore,
+            long freeBytesAfter,
+            String finishedAt) {
+    }
+}
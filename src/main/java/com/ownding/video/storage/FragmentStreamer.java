@@ -0,0 +1,86 @@
+package com.ownding.video.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Streams a remuxed fragment: the in-memory header, then the sample runs read
+ * from the source file in fixed-size chunks. A chunk is only read when the
+ * response asks for more, so a slow client holds at most a few chunks.
+ */
+final class FragmentStreamer {
+
+    private static final Logger log = LoggerFactory.getLogger(FragmentStreamer.class);
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private FragmentStreamer() {
+    }
+
+    static Flux<DataBuffer> stream(Path file, byte[] header, List<FragmentedMp4.Run> runs,
+            DataBufferFactory bufferFactory) {
+        return stream(file, header, runs, bufferFactory, bytes -> Mono.empty());
+    }
+
+    /**
+     * @param pacing completes when a chunk of the given size may be read,
+     *               e.g. after a bandwidth limiter's delay
+     */
+    static Flux<DataBuffer> stream(Path file, byte[] header, List<FragmentedMp4.Run> runs,
+            DataBufferFactory bufferFactory, IntFunction<Mono<Void>> pacing) {
+        Flux<DataBuffer> samples = Flux.using(
+                () -> FileChannel.open(file, StandardOpenOption.READ),
+                channel -> Flux.fromIterable(chunks(runs))
+                        .concatMap(chunk -> pacing.apply((int) chunk.length())
+                                .publishOn(Schedulers.boundedElastic())
+                                .then(Mono.fromCallable(() -> read(channel, chunk, bufferFactory)))),
+                channel -> {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        log.debug("关闭录像文件失败: {}", file, e);
+                    }
+                });
+        return Flux.concat(Mono.fromSupplier(() -> bufferFactory.wrap(header)), samples);
+    }
+
+    private static List<FragmentedMp4.Run> chunks(List<FragmentedMp4.Run> runs) {
+        List<FragmentedMp4.Run> chunks = new ArrayList<>();
+        for (FragmentedMp4.Run run : runs) {
+            for (long offset = 0; offset < run.length(); offset += CHUNK_SIZE) {
+                chunks.add(new FragmentedMp4.Run(run.offset() + offset, Math.min(CHUNK_SIZE, run.length() - offset)));
+            }
+        }
+        return chunks;
+    }
+
+    private static DataBuffer read(FileChannel channel, FragmentedMp4.Run chunk, DataBufferFactory bufferFactory) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) chunk.length());
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, chunk.offset() + buffer.position()) < 0) {
+                    throw new EOFException("录像文件被截断");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        return bufferFactory.wrap(buffer);
+    }
+}
@@ -0,0 +1,372 @@
+package com.ownding.video.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Remuxes a progressive MP4 into fMP4 for HLS and clip export: an init
+ * segment carrying the original sample descriptions, and the file (or a
+ * keyframe-aligned cut of it) as one moof+mdat fragment.
+ * Sample data is not copied here; a fragment lists the byte runs of the
+ * source file that make up its mdat, to be streamed after the header.
+ */
+final class FragmentedMp4 {
+
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    /** depends on others, not a sync sample */
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    private static final int TRUN_FLAGS = 0x000001 | 0x000100 | 0x000200 | 0x000400 | 0x000800;
+
+    private FragmentedMp4() {
+    }
+
+    static byte[] initSegment(Mp4File mp4) {
+        return initSegment(mp4, 0L);
+    }
+
+    /**
+     * The headers are copied with their durations zeroed: the samples live in
+     * the fragments, and players would otherwise take the source file's length
+     * for the whole presentation.
+     *
+     * @param durationMillis total duration announced in mvex/mehd, or 0 to
+     *                       leave it open (HLS, where the playlist has it)
+     */
+    static byte[] initSegment(Mp4File mp4, long durationMillis) {
+        Boxes out = new Boxes();
+        int ftyp = out.begin("ftyp");
+        out.fourCc("iso6");
+        out.u32(0);
+        out.fourCc("iso6");
+        out.fourCc("iso5");
+        out.fourCc("mp41");
+        out.end(ftyp);
+
+        int moov = out.begin("moov");
+        out.bytes(withoutDuration(mp4.mvhd(), 12, 20));
+        for (Mp4File.Track track : mp4.tracks()) {
+            int trak = out.begin("trak");
+            out.bytes(withoutDuration(track.tkhd(), 16, 24));
+            int mdia = out.begin("mdia");
+            out.bytes(withoutDuration(track.mdhd(), 12, 20));
+            out.bytes(track.hdlr());
+            int minf = out.begin("minf");
+            if (track.mediaHeader() != null) {
+                out.bytes(track.mediaHeader());
+            } else {
+                out.end(out.beginFull("nmhd", 0, 0));
+            }
+            if (track.dinf() != null) {
+                out.bytes(track.dinf());
+            } else {
+                int dinf = out.begin("dinf");
+                int dref = out.beginFull("dref", 0, 0);
+                out.u32(1);
+                out.end(out.beginFull("url ", 0, 1));
+                out.end(dref);
+                out.end(dinf);
+            }
+            int stbl = out.begin("stbl");
+            out.bytes(track.stsd());
+            emptyTable(out, "stts");
+            emptyTable(out, "stsc");
+            int stsz = out.beginFull("stsz", 0, 0);
+            out.u32(0);
+            out.u32(0);
+            out.end(stsz);
+            emptyTable(out, "stco");
+            out.end(stbl);
+            out.end(minf);
+            out.end(mdia);
+            out.end(trak);
+        }
+        int mvex = out.begin("mvex");
+        if (durationMillis > 0 && mp4.timescale() > 0) {
+            long duration = durationMillis * mp4.timescale() / 1000L;
+            boolean wide = duration > 0xFFFFFFFFL;
+            int mehd = out.beginFull("mehd", wide ? 1 : 0, 0);
+            if (wide) {
+                out.u64(duration);
+            } else {
+                out.u32((int) duration);
+            }
+            out.end(mehd);
+        }
+        for (Mp4File.Track track : mp4.tracks()) {
+            int trex = out.beginFull("trex", 0, 0);
+            out.u32(track.trackId());
+            out.u32(1);
+            out.u32(0);
+            out.u32(0);
+            out.u32(0);
+            out.end(trex);
+        }
+        out.end(mvex);
+        out.end(moov);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param sequence         fragment sequence number (mfhd)
+     * @param baseDecodeMillis where this file starts on the playlist's
+     *                         continuous timeline
+     */
+    static Fragment fragment(Mp4File mp4, int sequence, long baseDecodeMillis) {
+        return fragment(mp4, sequence, baseDecodeMillis, 0L, Long.MAX_VALUE);
+    }
+
+    /**
+     * Only the samples decoded within {@code [fromMillis, toMillis)} of the
+     * file, the start moved back to the video keyframe at or before
+     * {@code fromMillis} so the fragment decodes on its own.
+     *
+     * @param baseDecodeMillis where that keyframe lands on the output timeline
+     */
+    static Fragment fragment(Mp4File mp4, int sequence, long baseDecodeMillis, long fromMillis, long toMillis) {
+        long cutMillis = keyframeAtOrBefore(mp4, fromMillis);
+        Boxes out = new Boxes();
+        int moof = out.begin("moof");
+        int mfhd = out.beginFull("mfhd", 0, 0);
+        out.u32(sequence);
+        out.end(mfhd);
+
+        List<Integer> dataOffsetFields = new ArrayList<>();
+        List<Long> trackBytes = new ArrayList<>();
+        List<int[]> windows = new ArrayList<>();
+        long durationMillis = 0;
+        for (Mp4File.Track track : mp4.tracks()) {
+            // Sample window [first, end) by decode time, plus the first sample's decode time.
+            int first = -1;
+            int endSample = track.sampleCount();
+            long decodeTime = 0;
+            long firstDecodeTime = 0;
+            long lastEnd = 0;
+            for (int i = 0; i < track.sampleCount(); i++) {
+                long millis = decodeTime * 1000L / track.timescale();
+                if (millis >= toMillis) {
+                    endSample = i;
+                    break;
+                }
+                if (first < 0 && millis >= cutMillis) {
+                    first = i;
+                    firstDecodeTime = decodeTime;
+                }
+                decodeTime += Integer.toUnsignedLong(track.duration(i));
+                lastEnd = decodeTime;
+            }
+            if (first < 0) {
+                first = endSample;
+            }
+            windows.add(new int[]{first, endSample});
+            if (endSample > first) {
+                durationMillis = Math.max(durationMillis, (lastEnd - firstDecodeTime) * 1000L / track.timescale());
+            }
+
+            int traf = out.begin("traf");
+            int tfhd = out.beginFull("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF);
+            out.u32(track.trackId());
+            out.end(tfhd);
+            int tfdt = out.beginFull("tfdt", 1, 0);
+            long cutTicks = cutMillis * track.timescale() / 1000L;
+            out.u64(baseDecodeMillis * track.timescale() / 1000L + Math.max(0L, firstDecodeTime - cutTicks));
+            out.end(tfdt);
+            // Version 1: signed composition offsets.
+            int trun = out.beginFull("trun", 1, TRUN_FLAGS);
+            out.u32(endSample - first);
+            dataOffsetFields.add(out.length());
+            out.u32(0);
+            long bytes = 0;
+            for (int i = first; i < endSample; i++) {
+                out.u32(track.duration(i));
+                out.u32(track.size(i));
+                out.u32(track.isSync(i) ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+                out.u32(track.ctsOffset(i));
+                bytes += Integer.toUnsignedLong(track.size(i));
+            }
+            trackBytes.add(bytes);
+            out.end(trun);
+            out.end(traf);
+        }
+        out.end(moof);
+
+        long dataBytes = trackBytes.stream().mapToLong(Long::longValue).sum();
+        boolean largeMdat = dataBytes + 8 > 0xFFFFFFFFL;
+        int mdatHeader = largeMdat ? 16 : 8;
+        // data_offset is relative to the start of moof (default-base-is-moof).
+        long offset = out.length() + mdatHeader;
+        for (int i = 0; i < dataOffsetFields.size(); i++) {
+            out.putInt(dataOffsetFields.get(i), (int) offset);
+            offset += trackBytes.get(i);
+        }
+        if (largeMdat) {
+            out.u32(1);
+            out.fourCc("mdat");
+            out.u64(dataBytes + 16);
+        } else {
+            out.u32((int) (dataBytes + 8));
+            out.fourCc("mdat");
+        }
+
+        List<Run> runs = new ArrayList<>();
+        for (int t = 0; t < mp4.tracks().size(); t++) {
+            Mp4File.Track track = mp4.tracks().get(t);
+            Run current = null;
+            for (int i = windows.get(t)[0]; i < windows.get(t)[1]; i++) {
+                long start = track.offset(i);
+                long length = Integer.toUnsignedLong(track.size(i));
+                if (current != null && current.offset() + current.length() == start) {
+                    current = new Run(current.offset(), current.length() + length);
+                    runs.set(runs.size() - 1, current);
+                } else {
+                    current = new Run(start, length);
+                    runs.add(current);
+                }
+            }
+        }
+        byte[] header = out.toByteArray();
+        return new Fragment(header, List.copyOf(runs), header.length + dataBytes, durationMillis);
+    }
+
+    /**
+     * Decode time of the last video keyframe at or before {@code millis};
+     * without a video track the cut is exact.
+     */
+    private static long keyframeAtOrBefore(Mp4File mp4, long millis) {
+        if (millis <= 0) {
+            return 0L;
+        }
+        for (Mp4File.Track track : mp4.tracks()) {
+            if (!"vide".equals(track.handler())) {
+                continue;
+            }
+            long cut = 0L;
+            long decodeTime = 0;
+            for (int i = 0; i < track.sampleCount(); i++) {
+                long sampleMillis = decodeTime * 1000L / track.timescale();
+                if (sampleMillis > millis) {
+                    break;
+                }
+                if (track.isSync(i)) {
+                    cut = sampleMillis;
+                }
+                decodeTime += Integer.toUnsignedLong(track.duration(i));
+            }
+            return cut;
+        }
+        return millis;
+    }
+
+    /**
+     * Copy of a full box (mvhd, tkhd, mdhd) with its duration set to 0.
+     *
+     * @param v0Offset offset of the 32-bit duration after version and flags
+     *                 in a version 0 box
+     * @param v1Offset offset of the 64-bit duration in a version 1 box
+     */
+    private static byte[] withoutDuration(byte[] box, int v0Offset, int v1Offset) {
+        byte[] copy = box.clone();
+        int headerSize = (copy[0] | copy[1] | copy[2]) == 0 && copy[3] == 1 ? 16 : 8;
+        if (copy.length < headerSize + 4) {
+            return copy;
+        }
+        boolean wide = copy[headerSize] == 1;
+        int at = headerSize + 4 + (wide ? v1Offset : v0Offset);
+        int width = wide ? 8 : 4;
+        if (at + width <= copy.length) {
+            Arrays.fill(copy, at, at + width, (byte) 0);
+        }
+        return copy;
+    }
+
+    private static void emptyTable(Boxes out, String type) {
+        int box = out.beginFull(type, 0, 0);
+        out.u32(0);
+        out.end(box);
+    }
+
+    /**
+     * @param header         moof and the mdat box header
+     * @param runs           source file byte ranges forming the mdat payload, in order
+     * @param contentLength  header plus payload
+     * @param durationMillis play time of the longest track in the fragment
+     */
+    record Fragment(byte[] header, List<Run> runs, long contentLength, long durationMillis) {
+    }
+
+    record Run(long offset, long length) {
+    }
+
+    /** Growable big-endian buffer with box size back-patching. */
+    private static final class Boxes {
+        private byte[] data = new byte[4096];
+        private int length;
+
+        int begin(String type) {
+            int at = length;
+            u32(0);
+            fourCc(type);
+            return at;
+        }
+
+        int beginFull(String type, int version, int flags) {
+            int at = begin(type);
+            u32((version << 24) | flags);
+            return at;
+        }
+
+        void end(int at) {
+            putInt(at, length - at);
+        }
+
+        int length() {
+            return length;
+        }
+
+        void u32(int value) {
+            ensure(4);
+            putInt(length, value);
+            length += 4;
+        }
+
+        void u64(long value) {
+            u32((int) (value >>> 32));
+            u32((int) value);
+        }
+
+        void fourCc(String type) {
+            ensure(4);
+            for (int i = 0; i < 4; i++) {
+                data[length++] = (byte) type.charAt(i);
+            }
+        }
+
+        void bytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, data, length, bytes.length);
+            length += bytes.length;
+        }
+
+        void putInt(int at, int value) {
+            data[at] = (byte) (value >>> 24);
+            data[at + 1] = (byte) (value >>> 16);
+            data[at + 2] = (byte) (value >>> 8);
+            data[at + 3] = (byte) value;
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[length];
+            System.arraycopy(data, 0, result, 0, length);
+            return result;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > data.length) {
+                byte[] grown = new byte[Math.max(data.length * 2, length + extra)];
+                System.arraycopy(data, 0, grown, 0, length);
+                data = grown;
+            }
+        }
+    }
+}
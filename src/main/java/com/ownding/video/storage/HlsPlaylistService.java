@@ -0,0 +1,196 @@
+package com.ownding.video.storage;
+
+import com.ownding.video.common.ApiException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+
+/**
+ * Virtual HLS playlists over stored MP4 segments. A playlist for any
+ * (channel, from, to) is built from the record index and the cached segment
+ * facts, which give each segment its real duration rather than the nominal
+ * one in the index; each segment is served as one fMP4 fragment remuxed from
+ * its moov, without transcoding.
+ * Every fragment is stamped with its own wall-clock start (tfdt), so its URL
+ * and bytes do not depend on the playlist it appears in and can be cached for
+ * good. Gaps in the recording, and segments whose decoder configuration
+ * differs from the one before (a camera switched resolution or codec), start
+ * a new run behind a discontinuity with its own init segment.
+ */
+@Service
+public class HlsPlaylistService {
+
+    private static final long MAX_RANGE_HOURS = 24L;
+    /** Segments this close together play as one continuous run. */
+    private static final long JOIN_TOLERANCE_MILLIS = 2_000L;
+    private static final DateTimeFormatter PROGRAM_DATE_TIME = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+
+    private final StorageRepository storageRepository;
+    private final StorageService storageService;
+    private final SegmentInfoCache segmentInfoCache;
+
+    public HlsPlaylistService(StorageRepository storageRepository, StorageService storageService,
+            SegmentInfoCache segmentInfoCache) {
+        this.storageRepository = storageRepository;
+        this.storageService = storageService;
+        this.segmentInfoCache = segmentInfoCache;
+    }
+
+    /**
+     * @param to exclusive end; a range reaching into the future yields an
+     *           EVENT playlist the player keeps reloading
+     */
+    public Playlist playlist(String channelId, String from, String to) {
+        if (channelId == null || channelId.isBlank()) {
+            throw new ApiException(400, "通道ID不能为空");
+        }
+        LocalDateTime start = StorageService.parseTimelineTime(from, "开始时间");
+        LocalDateTime end = to == null || to.isBlank()
+                ? start.plusHours(1)
+                : StorageService.parseTimelineTime(to, "结束时间");
+        if (!end.isAfter(start)) {
+            throw new ApiException(400, "结束时间必须晚于开始时间");
+        }
+        if (ChronoUnit.HOURS.between(start, end) > MAX_RANGE_HOURS) {
+            throw new ApiException(400, "时间范围不能超过" + MAX_RANGE_HOURS + "小时");
+        }
+        boolean live = !end.isBefore(LocalDateTime.now());
+        StringBuilder body = new StringBuilder();
+        long targetDuration = 1;
+        long previousEnd = Long.MIN_VALUE;
+        String map = null;
+        String runCodecKey = null;
+        for (RecordFileItem item : storageRepository.findRecordsByChannelAndTimeRange(channelId,
+                start.minusSeconds(RecordIndexer.SEGMENT_DURATION_SECONDS).toString(), end.toString())) {
+            LocalDateTime itemStart = parseTime(item.startTime());
+            LocalDateTime itemEnd = parseTime(item.endTime());
+            Path file = Path.of(item.filePath());
+            String relativePath = storageService.relativeRecordPath(file);
+            if (itemStart == null || !itemStart.isBefore(end) || relativePath == null
+                    || !file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".mp4")) {
+                continue;
+            }
+            if (itemEnd == null || !itemEnd.isAfter(itemStart)) {
+                itemEnd = itemStart.plusSeconds(RecordIndexer.SEGMENT_DURATION_SECONDS);
+            }
+            if (!itemEnd.isAfter(start)) {
+                continue;
+            }
+            long startMillis = toMillis(itemStart);
+            SegmentInfoCache.SegmentInfo info = segmentInfo(file);
+            // A segment cut short, e.g. by a stream drop, must not be announced at the nominal length.
+            long durationMillis = info != null && info.durationMillis() > 0
+                    ? info.durationMillis()
+                    : toMillis(itemEnd) - startMillis;
+            // Relative paths stay valid when the segment migrates to another tier.
+            String path = encode(relativePath);
+
+            // A new run may come from a different stream; give it its own init segment.
+            String codecKey = info == null ? null : info.codecKey();
+            boolean codecChanged = codecKey != null && runCodecKey != null && !codecKey.equals(runCodecKey);
+            if (map == null || codecChanged || Math.abs(startMillis - previousEnd) > JOIN_TOLERANCE_MILLIS) {
+                if (map != null) {
+                    body.append("#EXT-X-DISCONTINUITY\n");
+                }
+                runCodecKey = codecKey;
+                map = "init.mp4?path=" + path;
+                body.append("#EXT-X-MAP:URI=\"").append(map).append("\"\n");
+                body.append("#EXT-X-PROGRAM-DATE-TIME:")
+                        .append(PROGRAM_DATE_TIME.format(itemStart.atZone(ZoneId.systemDefault())))
+                        .append('\n');
+            }
+            body.append(String.format(Locale.ROOT, "#EXTINF:%.3f,%n", durationMillis / 1000d));
+            body.append("fragment.m4s?path=").append(path).append("&t=").append(startMillis).append('\n');
+            targetDuration = Math.max(targetDuration, (durationMillis + 999) / 1000);
+            previousEnd = startMillis + durationMillis;
+            if (runCodecKey == null) {
+                runCodecKey = codecKey;
+            }
+        }
+
+        StringBuilder playlist = new StringBuilder(body.length() + 256)
+                .append("#EXTM3U\n")
+                .append("#EXT-X-VERSION:7\n")
+                .append("#EXT-X-TARGETDURATION:").append(targetDuration).append('\n')
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n")
+                .append("#EXT-X-PLAYLIST-TYPE:").append(live ? "EVENT" : "VOD").append('\n')
+                .append("#EXT-X-INDEPENDENT-SEGMENTS\n")
+                .append(body);
+        if (!live) {
+            playlist.append("#EXT-X-ENDLIST\n");
+        }
+        return new Playlist(playlist.toString(), live);
+    }
+
+    public byte[] initSegment(String path) {
+        return FragmentedMp4.initSegment(read(storageService.resolveRecordFile(path)));
+    }
+
+    /**
+     * @param startMillis the segment's wall-clock start as listed in the
+     *                    playlist, used as its decode time
+     */
+    public Fragment fragment(String path, long startMillis) {
+        Path file = storageService.resolveRecordFile(path);
+        // Only ordering matters for mfhd; minutes since the epoch keep it increasing per channel.
+        int sequence = (int) Math.max(1L, startMillis / 60_000L);
+        return new Fragment(file, FragmentedMp4.fragment(read(file), sequence, startMillis));
+    }
+
+    /**
+     * From the segment info cache, so a reloaded playlist does not parse the
+     * segments again. Null when the file cannot be read; it then joins the run
+     * at its indexed length.
+     */
+    private SegmentInfoCache.SegmentInfo segmentInfo(Path file) {
+        try {
+            return segmentInfoCache.info(file);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private Mp4File read(Path file) {
+        try {
+            return segmentInfoCache.mp4(file);
+        } catch (IOException ex) {
+            throw new ApiException(422, "无法解析录像文件: " + ex.getMessage());
+        }
+    }
+
+    private static LocalDateTime parseTime(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value);
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    /** Local wall-clock time as if it were UTC, like the timeline index. */
+    private static long toMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    public record Playlist(String text, boolean live) {
+    }
+
+    public record Fragment(Path file, FragmentedMp4.Fragment content) {
+    }
+}
@@ -0,0 +1,528 @@
+package com.ownding.video.storage;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Movie header and sample tables of a progressive (non-fragmented) MP4 as
+ * written by ZLMediaKit, read from the memory-mapped moov box only; sample
+ * data stays in the file and is addressed by offset.
+ */
+public final class Mp4File {
+
+    /** Sanity cap on the moov box of a short recording segment. */
+    private static final long MAX_MOOV_BYTES = 64L * 1024 * 1024;
+    /** A uniform stsz lists no sizes; cap its count as if it did, at the moov cap. */
+    private static final int MAX_UNIFORM_SAMPLES = (int) (MAX_MOOV_BYTES / 4);
+
+    private final Path path;
+    private final byte[] mvhd;
+    private final long timescale;
+    private final long duration;
+    private final List<Track> tracks;
+
+    private Mp4File(Path path, byte[] mvhd, long timescale, long duration, List<Track> tracks) {
+        this.path = path;
+        this.mvhd = mvhd;
+        this.timescale = timescale;
+        this.duration = duration;
+        this.tracks = tracks;
+    }
+
+    /**
+     * @throws IOException when the file cannot be read or is not a complete,
+     *                     progressive MP4
+     */
+    public static Mp4File read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(16);
+            while (position + 8 <= fileSize) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                if (header.remaining() < 8) {
+                    break;
+                }
+                long size = Integer.toUnsignedLong(header.getInt(0));
+                String type = fourCc(header, 4);
+                int headerSize = 8;
+                if (size == 1) {
+                    if (header.remaining() < 16) {
+                        throw new IOException("MP4 box 长度无效: " + type);
+                    }
+                    size = header.getLong(8);
+                    headerSize = 16;
+                } else if (size == 0) {
+                    size = fileSize - position;
+                }
+                if (size < headerSize) {
+                    throw new IOException("MP4 box 长度无效: " + type);
+                }
+                if ("moov".equals(type)) {
+                    if (size > MAX_MOOV_BYTES) {
+                        throw new IOException("moov 过大: " + size);
+                    }
+                    if (position + size > fileSize) {
+                        throw new IOException("moov 不完整");
+                    }
+                    // Mapped rather than copied: only the tables actually walked are paged in.
+                    ByteBuffer moov = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                    try {
+                        return parseMoov(path, moov, headerSize);
+                    } catch (IndexOutOfBoundsException | BufferUnderflowException ex) {
+                        // Backstop for a read the box checks below do not cover.
+                        throw new IOException("moov 结构损坏: " + ex.getMessage(), ex);
+                    }
+                }
+                position += size;
+            }
+        }
+        throw new IOException("未找到 moov，录像可能仍在写入或不是 MP4");
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /** Movie timescale from mvhd. */
+    public long timescale() {
+        return timescale;
+    }
+
+    /** Raw mvhd box, header included. */
+    public byte[] mvhd() {
+        return mvhd;
+    }
+
+    public List<Track> tracks() {
+        return tracks;
+    }
+
+    /**
+     * Longest track, falling back to the movie header when the sample tables
+     * are empty.
+     */
+    public double durationSeconds() {
+        double longest = 0d;
+        for (Track track : tracks) {
+            longest = Math.max(longest, track.durationSeconds());
+        }
+        if (longest <= 0d && timescale > 0) {
+            return (double) duration / timescale;
+        }
+        return longest;
+    }
+
+    /**
+     * Identifies the decoder configuration: segments with the same key can
+     * share one fMP4 init segment.
+     */
+    public String codecKey() {
+        int hash = 1;
+        for (Track track : tracks) {
+            hash = 31 * hash + track.trackId;
+            hash = 31 * hash + Long.hashCode(track.timescale);
+            hash = 31 * hash + Arrays.hashCode(track.stsd);
+        }
+        return Integer.toHexString(hash);
+    }
+
+    private static Mp4File parseMoov(Path path, ByteBuffer moov, int headerSize) throws IOException {
+        byte[] mvhd = null;
+        long timescale = 0;
+        long duration = 0;
+        List<Track> tracks = new ArrayList<>();
+        for (Box box : children(moov, headerSize, moov.limit())) {
+            if ("mvhd".equals(box.type)) {
+                mvhd = box.bytes(moov);
+                int version = version(moov, box, 20, 32);
+                int at = box.payload() + 4 + (version == 1 ? 16 : 8);
+                timescale = Integer.toUnsignedLong(moov.getInt(at));
+                duration = version == 1 ? moov.getLong(at + 4) : Integer.toUnsignedLong(moov.getInt(at + 4));
+            } else if ("trak".equals(box.type)) {
+                Track track = parseTrak(moov, box);
+                if (track != null) {
+                    tracks.add(track);
+                }
+            }
+        }
+        if (mvhd == null || tracks.isEmpty()) {
+            throw new IOException("moov 缺少 mvhd 或轨道");
+        }
+        return new Mp4File(path, mvhd, timescale, duration, List.copyOf(tracks));
+    }
+
+    private static Track parseTrak(ByteBuffer buf, Box trak) throws IOException {
+        Track track = new Track();
+        Box mdia = null;
+        for (Box box : children(buf, trak.payload(), trak.end())) {
+            if ("tkhd".equals(box.type)) {
+                track.tkhd = box.bytes(buf);
+                int version = version(buf, box, 16, 24);
+                track.trackId = buf.getInt(box.payload() + 4 + (version == 1 ? 16 : 8));
+            } else if ("mdia".equals(box.type)) {
+                mdia = box;
+            }
+        }
+        if (mdia == null || track.tkhd == null) {
+            return null;
+        }
+        Box minf = null;
+        for (Box box : children(buf, mdia.payload(), mdia.end())) {
+            switch (box.type) {
+                case "mdhd" -> {
+                    track.mdhd = box.bytes(buf);
+                    int version = version(buf, box, 16, 24);
+                    track.timescale = Integer.toUnsignedLong(buf.getInt(box.payload() + 4 + (version == 1 ? 16 : 8)));
+                }
+                case "hdlr" -> {
+                    track.hdlr = box.bytes(buf);
+                    requirePayload(box, 12);
+                    track.handler = fourCc(buf, box.payload() + 8);
+                }
+                case "minf" -> minf = box;
+                default -> {
+                }
+            }
+        }
+        if (minf == null || track.mdhd == null || track.hdlr == null || track.timescale <= 0) {
+            return null;
+        }
+        Box stbl = null;
+        for (Box box : children(buf, minf.payload(), minf.end())) {
+            switch (box.type) {
+                case "vmhd", "smhd", "nmhd", "sthd", "hmhd" -> track.mediaHeader = box.bytes(buf);
+                case "dinf" -> track.dinf = box.bytes(buf);
+                case "stbl" -> stbl = box;
+                default -> {
+                }
+            }
+        }
+        if (stbl == null) {
+            return null;
+        }
+        readSampleTable(buf, stbl, track);
+        return track.stsd == null || track.sizes.length == 0 ? null : track;
+    }
+
+    private static void readSampleTable(ByteBuffer buf, Box stbl, Track track) throws IOException {
+        long[] chunkOffsets = new long[0];
+        int[] stscFirst = new int[0];
+        int[] stscCount = new int[0];
+        int[] sttsCount = new int[0];
+        int[] sttsDelta = new int[0];
+        int[] cttsCount = null;
+        int[] cttsOffset = null;
+        int[] syncSamples = null;
+        for (Box box : children(buf, stbl.payload(), stbl.end())) {
+            int at = box.payload() + 4;
+            switch (box.type) {
+                case "stsd" -> {
+                    track.stsd = box.bytes(buf);
+                    // version/flags, entry_count, then the first entry's size and format
+                    if (box.size() >= box.headerSize() + 16) {
+                        track.codec = fourCc(buf, at + 8).trim();
+                    }
+                }
+                case "stsz" -> {
+                    int count = entryCount(buf, box, at + 4, 0);
+                    int uniform = buf.getInt(at);
+                    if (uniform == 0) {
+                        entryCount(buf, box, at + 4, 4);
+                    } else if (count > MAX_UNIFORM_SAMPLES) {
+                        throw new IOException("MP4 表项数越界: stsz " + count);
+                    }
+                    track.sizes = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        track.sizes[i] = uniform != 0 ? uniform : buf.getInt(at + 8 + i * 4);
+                    }
+                }
+                case "stz2" -> throw new IOException("不支持 stz2 样本表");
+                case "stco", "co64" -> {
+                    boolean wide = "co64".equals(box.type);
+                    int count = entryCount(buf, box, at, wide ? 8 : 4);
+                    chunkOffsets = new long[count];
+                    for (int i = 0; i < count; i++) {
+                        chunkOffsets[i] = wide
+                                ? buf.getLong(at + 4 + i * 8)
+                                : Integer.toUnsignedLong(buf.getInt(at + 4 + i * 4));
+                    }
+                }
+                case "stsc" -> {
+                    int count = entryCount(buf, box, at, 12);
+                    stscFirst = new int[count];
+                    stscCount = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        stscFirst[i] = buf.getInt(at + 4 + i * 12);
+                        stscCount[i] = buf.getInt(at + 8 + i * 12);
+                    }
+                }
+                case "stts" -> {
+                    int count = entryCount(buf, box, at, 8);
+                    sttsCount = new int[count];
+                    sttsDelta = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        sttsCount[i] = buf.getInt(at + 4 + i * 8);
+                        sttsDelta[i] = buf.getInt(at + 8 + i * 8);
+                    }
+                }
+                case "ctts" -> {
+                    int count = entryCount(buf, box, at, 8);
+                    cttsCount = new int[count];
+                    cttsOffset = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        cttsCount[i] = buf.getInt(at + 4 + i * 8);
+                        cttsOffset[i] = buf.getInt(at + 8 + i * 8);
+                    }
+                }
+                case "stss" -> {
+                    int count = entryCount(buf, box, at, 4);
+                    syncSamples = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        syncSamples[i] = buf.getInt(at + 4 + i * 4);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        int sampleCount = track.sizes.length;
+        track.offsets = new long[sampleCount];
+        int sample = 0;
+        for (int i = 0; i < stscFirst.length && sample < sampleCount; i++) {
+            int nextFirst = i + 1 < stscFirst.length ? stscFirst[i + 1] : chunkOffsets.length + 1;
+            for (int chunk = Math.max(1, stscFirst[i]); chunk < nextFirst && chunk <= chunkOffsets.length; chunk++) {
+                long offset = chunkOffsets[chunk - 1];
+                for (int j = 0; j < stscCount[i] && sample < sampleCount; j++) {
+                    track.offsets[sample] = offset;
+                    offset += track.sizes[sample];
+                    sample++;
+                }
+            }
+        }
+        if (sample < sampleCount) {
+            throw new IOException("样本表不完整: track " + track.trackId);
+        }
+
+        track.durations = expand(sttsCount, sttsDelta, sampleCount);
+        track.ctsOffsets = cttsCount == null ? null : expand(cttsCount, cttsOffset, sampleCount);
+        track.sync = new boolean[sampleCount];
+        if (syncSamples == null) {
+            Arrays.fill(track.sync, true);
+        } else {
+            for (int number : syncSamples) {
+                if (number >= 1 && number <= sampleCount) {
+                    track.sync[number - 1] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the version of a full box whose fields up to the last one read
+     * take {@code v0Length} or {@code v1Length} payload bytes, after checking
+     * that the box holds them.
+     */
+    private static int version(ByteBuffer buf, Box box, int v0Length, int v1Length) throws IOException {
+        requirePayload(box, 4);
+        int version = buf.get(box.payload());
+        requirePayload(box, version == 1 ? v1Length : v0Length);
+        return version;
+    }
+
+    private static void requirePayload(Box box, int length) throws IOException {
+        if (box.payload() + length > box.end()) {
+            throw new IOException("MP4 box 过短: " + box.type);
+        }
+    }
+
+    /**
+     * Reads the entry count at {@code countAt} and checks that that many
+     * entries of {@code entrySize} bytes follow it within the box, before
+     * anything is allocated from it.
+     */
+    private static int entryCount(ByteBuffer buf, Box box, int countAt, int entrySize) throws IOException {
+        if (countAt + 4 > box.end()) {
+            throw new IOException("MP4 box 过短: " + box.type);
+        }
+        int count = buf.getInt(countAt);
+        if (count < 0 || countAt + 4 + (long) count * entrySize > box.end()) {
+            throw new IOException("MP4 表项数越界: " + box.type + " " + Integer.toUnsignedLong(count));
+        }
+        return count;
+    }
+
+    private static int[] expand(int[] counts, int[] values, int sampleCount) {
+        int[] result = new int[sampleCount];
+        int sample = 0;
+        for (int i = 0; i < counts.length && sample < sampleCount; i++) {
+            for (int j = 0; j < counts[i] && sample < sampleCount; j++) {
+                result[sample++] = values[i];
+            }
+        }
+        // Tolerate short tables by repeating the last value.
+        int last = values.length == 0 ? 0 : values[values.length - 1];
+        while (sample < sampleCount) {
+            result[sample++] = last;
+        }
+        return result;
+    }
+
+    private static List<Box> children(ByteBuffer buf, int start, int end) throws IOException {
+        List<Box> boxes = new ArrayList<>();
+        int position = start;
+        while (position + 8 <= end) {
+            long size = Integer.toUnsignedLong(buf.getInt(position));
+            String type = fourCc(buf, position + 4);
+            int headerSize = 8;
+            if (size == 1) {
+                if (position + 16 > end) {
+                    throw new IOException("MP4 box 越界: " + type);
+                }
+                size = buf.getLong(position + 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < headerSize || position + size > end) {
+                throw new IOException("MP4 box 越界: " + type);
+            }
+            boxes.add(new Box(type, position, headerSize, (int) size));
+            position += (int) size;
+        }
+        return boxes;
+    }
+
+    private static String fourCc(ByteBuffer buf, int at) {
+        char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            chars[i] = (char) (buf.get(at + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    private record Box(String type, int start, int headerSize, int size) {
+        int payload() {
+            return start + headerSize;
+        }
+
+        int end() {
+            return start + size;
+        }
+
+        byte[] bytes(ByteBuffer buf) {
+            byte[] bytes = new byte[size];
+            buf.get(start, bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * One track: raw boxes needed for an fMP4 init segment and the expanded
+     * per-sample tables.
+     */
+    public static final class Track {
+        private int trackId;
+        private String handler;
+        private long timescale;
+        private byte[] tkhd;
+        private byte[] mdhd;
+        private byte[] hdlr;
+        private byte[] mediaHeader;
+        private byte[] dinf;
+        private byte[] stsd;
+        private String codec;
+        private long[] offsets = new long[0];
+        private int[] sizes = new int[0];
+        private int[] durations = new int[0];
+        private int[] ctsOffsets;
+        private boolean[] sync = new boolean[0];
+
+        public int trackId() {
+            return trackId;
+        }
+
+        /** Handler type, e.g. vide or soun. */
+        public String handler() {
+            return handler;
+        }
+
+        public long timescale() {
+            return timescale;
+        }
+
+        public byte[] tkhd() {
+            return tkhd;
+        }
+
+        public byte[] mdhd() {
+            return mdhd;
+        }
+
+        public byte[] hdlr() {
+            return hdlr;
+        }
+
+        /** vmhd/smhd/nmhd box, or {@code null}. */
+        public byte[] mediaHeader() {
+            return mediaHeader;
+        }
+
+        /** dinf box, or {@code null}. */
+        public byte[] dinf() {
+            return dinf;
+        }
+
+        public byte[] stsd() {
+            return stsd;
+        }
+
+        /** Sample entry format of the first description, e.g. avc1, hvc1, mp4a. */
+        public String codec() {
+            return codec;
+        }
+
+        public int sampleCount() {
+            return sizes.length;
+        }
+
+        public long offset(int sample) {
+            return offsets[sample];
+        }
+
+        public int size(int sample) {
+            return sizes[sample];
+        }
+
+        public int duration(int sample) {
+            return durations[sample];
+        }
+
+        /** Composition offset, 0 without a ctts box. */
+        public int ctsOffset(int sample) {
+            return ctsOffsets == null ? 0 : ctsOffsets[sample];
+        }
+
+        public boolean isSync(int sample) {
+            return sync[sample];
+        }
+
+        public double durationSeconds() {
+            long ticks = 0;
+            for (int value : durations) {
+                ticks += Integer.toUnsignedLong(value);
+            }
+            return (double) ticks / timescale;
+        }
+    }
+}
@@ -1,35 +1,72 @@
 package com.ownding.video.storage;
 
 import com.ownding.video.common.ApiResult;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.ResolvableType;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.http.codec.ResourceRegionHttpMessageWriter;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/playback")
 public class PlaybackController {
 
     private static final Logger log = LoggerFactory.getLogger(PlaybackController.class);
+    private static final MediaType VIDEO_MP4 = MediaType.parseMediaType("video/mp4");
+    private static final MediaType HLS_PLAYLIST = MediaType.parseMediaType("application/vnd.apple.mpegurl");
+    private static final MediaType FMP4_SEGMENT = MediaType.parseMediaType("video/iso.segment");
+    private static final ResourceRegionHttpMessageWriter REGION_WRITER = new ResourceRegionHttpMessageWriter();
+    private static final ResolvableType REGION_TYPE = ResolvableType.forClass(ResourceRegion.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    /** Segments are 60 s long; one untouched for longer than this is closed. */
+    private static final Duration FINISHED_AFTER = Duration.ofMinutes(2);
+    private static final Duration FINISHED_MAX_AGE = Duration.ofDays(365);
+    /** A closed-range playlist only changes when cleanup removes segments. */
+    private static final Duration PLAYLIST_MAX_AGE = Duration.ofMinutes(1);
 
     private final StorageService storageService;
+    private final HlsPlaylistService hlsPlaylistService;
+    private final RecordExportService recordExportService;
 
-    public PlaybackController(StorageService storageService) {
+    public PlaybackController(StorageService storageService, HlsPlaylistService hlsPlaylistService,
+            RecordExportService recordExportService) {
         this.storageService = storageService;
+        this.hlsPlaylistService = hlsPlaylistService;
+        this.recordExportService = recordExportService;
     }
 
     /**
@@ -54,85 +91,258 @@ public class PlaybackController {
     }
 
     /**
-     * Streams an MP4 file for playback. Supports HTTP Range requests for seeking.
+     * Continuous recorded spans and gaps for a channel over any range up to
+     * two months, already merged for the scrubber.
+     *
+     * @param from yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss
+     * @param to   exclusive end in the same format; defaults to one day after from
+     */
+    @GetMapping("/timeline")
+    public ApiResult<RecordTimelineIndex.Timeline> timeline(
+            @RequestParam String channelId,
+            @RequestParam String from,
+            @RequestParam(required = false) String to) {
+        return ApiResult.success(storageService.playbackTimeline(channelId, from, to));
+    }
+
+    /**
+     * The recorded span at a point in time, or where the next recording starts.
+     */
+    @GetMapping("/timeline/locate")
+    public ApiResult<RecordTimelineIndex.Located> locate(
+            @RequestParam String channelId,
+            @RequestParam String time) {
+        return ApiResult.success(storageService.locateRecording(channelId, time));
+    }
+
+    /**
+     * Segment and keyframe at a wall-clock time: open {@code path} through
+     * /video, start at keyframeOffsetSeconds; byteOffset is where that
+     * keyframe's data begins for a ranged prefetch.
+     */
+    @GetMapping("/seek")
+    public Mono<ApiResult<StorageService.SeekTarget>> seek(
+            @RequestParam String channelId,
+            @RequestParam String time) {
+        return Mono.fromCallable(() -> ApiResult.success(storageService.seekRecording(channelId, time)))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Streams an MP4 file for playback. Single ranges are sent zero-copy
+     * (sendfile) from the requested offset, multiple ranges as
+     * multipart/byteranges; ETag/Last-Modified answer revalidation with 304
+     * and finished segments are cacheable as immutable.
      *
      * @param path relative path within the record directory (e.g.
-     *             record/rtp/ch.../2026-02-17/xxx.mp4)
+     *             record/rtp/ch.../2026-02-17/xxx.mp4), found on any tier
      */
     @GetMapping("/video")
-    public ResponseEntity<Resource> video(
+    public Mono<Void> video(
             @RequestParam String path,
             ServerWebExchange exchange) {
-        Path recordRoot = storageService.getRecordPath().toAbsolutePath().normalize();
-        Path filePath = recordRoot.resolve(path).toAbsolutePath().normalize();
-
-        // Security check: file must be within recordRoot
-        log.debug("Video request: recordRoot={}, filePath={}", recordRoot, filePath);
-        if (!filePath.startsWith(recordRoot)) {
-            log.warn("路径越权访问: {} 不在 {} 内", filePath, recordRoot);
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        ServerHttpResponse response = exchange.getResponse();
+        // Security check: file must be within a record root (hot or cold tier)
+        Path filePath = storageService.locateRecordFile(path);
+        log.debug("Video request: path={}, filePath={}", path, filePath);
+        if (filePath == null) {
+            return complete(response, HttpStatus.FORBIDDEN);
         }
 
-        if (!Files.exists(filePath) || !Files.isRegularFile(filePath)) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
             log.warn("文件不存在: {}", filePath);
-            return ResponseEntity.notFound().build();
+            return complete(response, HttpStatus.NOT_FOUND);
+        } catch (IOException e) {
+            log.error("无法读取文件属性: {}", filePath, e);
+            return complete(response, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        if (!attrs.isRegularFile()) {
+            log.warn("文件不存在: {}", filePath);
+            return complete(response, HttpStatus.NOT_FOUND);
+        }
+
+        long fileSize = attrs.size();
+        Instant lastModified = attrs.lastModifiedTime().toInstant();
+        String etag = "\"" + Long.toHexString(fileSize) + "-" + Long.toHexString(lastModified.toEpochMilli()) + "\"";
+        HttpHeaders headers = response.getHeaders();
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setCacheControl(isFinished(filePath, lastModified)
+                ? CacheControl.maxAge(FINISHED_MAX_AGE).cachePrivate().immutable()
+                : CacheControl.noCache());
+        if (exchange.checkNotModified(etag, lastModified)) {
+            return response.setComplete();
         }
+        headers.setETag(etag);
+        headers.setLastModified(lastModified);
 
-        long fileSize;
+        HttpHeaders requestHeaders = exchange.getRequest().getHeaders();
+        List<HttpRange> ranges;
         try {
-            fileSize = Files.size(filePath);
-        } catch (IOException e) {
-            log.error("无法读取文件大小: {}", filePath, e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            ranges = requestHeaders.getRange();
+        } catch (IllegalArgumentException e) {
+            return rangeNotSatisfiable(response, fileSize);
+        }
+        if (!ranges.isEmpty() && !ifRangeMatches(requestHeaders.getFirst(HttpHeaders.IF_RANGE), etag, lastModified)) {
+            ranges = List.of();
         }
 
         Resource resource = new FileSystemResource(filePath);
+        if (ranges.isEmpty()) {
+            response.setStatusCode(HttpStatus.OK);
+            headers.setContentType(VIDEO_MP4);
+            headers.setContentLength(fileSize);
+            if (response instanceof ZeroCopyHttpOutputMessage zeroCopy) {
+                return zeroCopy.writeWith(filePath, 0, fileSize);
+            }
+            return response.writeWith(DataBufferUtils.read(resource, response.bufferFactory(), READ_BUFFER_SIZE));
+        }
 
-        // Handle Range header for seeking
-        String rangeHeader = exchange.getRequest().getHeaders().getFirst(HttpHeaders.RANGE);
-        if (rangeHeader != null && rangeHeader.startsWith("bytes=")) {
-            return handleRangeRequest(rangeHeader, fileSize, resource);
+        List<ResourceRegion> regions;
+        try {
+            regions = HttpRange.toResourceRegions(ranges, resource);
+        } catch (IllegalArgumentException e) {
+            return rangeNotSatisfiable(response, fileSize);
         }
+        response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+        // A Mono is written as one region (Content-Range, zero-copy), a Flux as multipart/byteranges.
+        Publisher<ResourceRegion> body = regions.size() == 1 ? Mono.just(regions.get(0)) : Flux.fromIterable(regions);
+        return REGION_WRITER.write(body, REGION_TYPE, REGION_TYPE, VIDEO_MP4, exchange.getRequest(), response,
+                Map.of());
+    }
 
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType("video/mp4"))
-                .contentLength(fileSize)
-                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                .body(resource);
+    /**
+     * HLS (fMP4) playlist stitching a channel's segments over a range of up to
+     * 24 hours into one continuous stream; gaps become discontinuities. A
+     * range ending in the future is an EVENT playlist that grows as segments
+     * close. Players must send the Authorization header on every request
+     * (e.g. hls.js xhrSetup).
+     *
+     * @param from yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss
+     * @param to   exclusive end in the same format; defaults to one hour after from
+     */
+    @GetMapping("/hls/playlist.m3u8")
+    public Mono<ResponseEntity<String>> hlsPlaylist(
+            @RequestParam String channelId,
+            @RequestParam String from,
+            @RequestParam(required = false) String to) {
+        return Mono.fromCallable(() -> hlsPlaylistService.playlist(channelId, from, to))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(playlist -> ResponseEntity.ok()
+                        .contentType(HLS_PLAYLIST)
+                        .cacheControl(playlist.live()
+                                ? CacheControl.noCache()
+                                : CacheControl.maxAge(PLAYLIST_MAX_AGE).cachePrivate())
+                        .body(playlist.text()));
     }
 
-    private ResponseEntity<Resource> handleRangeRequest(String rangeHeader, long fileSize, Resource resource) {
-        String rangeValue = rangeHeader.substring("bytes=".length()).trim();
-        String[] parts = rangeValue.split("-", 2);
+    /**
+     * fMP4 init segment (ftyp+moov) carrying the segment's codec configuration.
+     */
+    @GetMapping("/hls/init.mp4")
+    public Mono<ResponseEntity<byte[]>> hlsInit(@RequestParam String path) {
+        return Mono.fromCallable(() -> hlsPlaylistService.initSegment(path))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(init -> ResponseEntity.ok()
+                        .contentType(VIDEO_MP4)
+                        .cacheControl(CacheControl.maxAge(FINISHED_MAX_AGE).cachePrivate().immutable())
+                        .body(init));
+    }
 
-        long start = 0;
-        long end = fileSize - 1;
+    /**
+     * One stored segment as a single moof+mdat fragment; the sample data is
+     * streamed from the original file.
+     *
+     * @param t the segment's start on the playlist timeline, in milliseconds
+     */
+    @GetMapping("/hls/fragment.m4s")
+    public Mono<Void> hlsFragment(
+            @RequestParam String path,
+            @RequestParam long t,
+            ServerWebExchange exchange) {
+        ServerHttpResponse response = exchange.getResponse();
+        return Mono.fromCallable(() -> hlsPlaylistService.fragment(path, t))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(fragment -> {
+                    HttpHeaders headers = response.getHeaders();
+                    headers.setContentType(FMP4_SEGMENT);
+                    headers.setContentLength(fragment.content().contentLength());
+                    headers.setCacheControl(CacheControl.maxAge(FINISHED_MAX_AGE).cachePrivate().immutable());
+                    FragmentedMp4.Fragment content = fragment.content();
+                    return response.writeWith(FragmentStreamer.stream(fragment.file(), content.header(),
+                            content.runs(), response.bufferFactory()));
+                });
+    }
 
-        try {
-            if (!parts[0].isEmpty()) {
-                start = Long.parseLong(parts[0]);
-            }
-            if (parts.length > 1 && !parts[1].isEmpty()) {
-                end = Long.parseLong(parts[1]);
-            }
-        } catch (NumberFormatException e) {
-            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).build();
-        }
+    /**
+     * Downloads a channel's recordings over {@code [from, to)} as a single
+     * fragmented MP4, cut at keyframes, streamed without temporary files.
+     * Fails with 503 while app.storage.export.max-concurrent exports run.
+     */
+    @GetMapping("/export")
+    public Mono<Void> export(
+            @RequestParam String channelId,
+            @RequestParam String from,
+            @RequestParam String to,
+            ServerWebExchange exchange) {
+        ServerHttpResponse response = exchange.getResponse();
+        return Mono.fromCallable(() -> recordExportService.open(channelId, from, to))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(export -> {
+                    HttpHeaders headers = response.getHeaders();
+                    headers.setContentType(VIDEO_MP4);
+                    headers.setContentDisposition(ContentDisposition.attachment().filename(export.fileName()).build());
+                    headers.setCacheControl(CacheControl.noStore());
+                    return response.writeWith(export.body(response.bufferFactory()));
+                });
+    }
+
+    /**
+     * Running and recently finished exports with their throughput.
+     */
+    @GetMapping("/exports")
+    public ApiResult<List<RecordExportService.ExportStatus>> exports() {
+        return ApiResult.success(recordExportService.listExports());
+    }
+
+    /**
+     * ZLMediaKit writes a segment under a dot-prefixed name and renames it when
+     * closed; a closed segment that has not changed for a while is final.
+     */
+    private boolean isFinished(Path filePath, Instant lastModified) {
+        return !filePath.getFileName().toString().startsWith(".")
+                && lastModified.isBefore(Instant.now().minus(FINISHED_AFTER));
+    }
 
-        if (start > end || start >= fileSize) {
-            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
-                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize)
-                    .build();
+    /**
+     * A range request carrying If-Range is only honoured while the validator
+     * still matches; otherwise the whole file is sent.
+     */
+    private boolean ifRangeMatches(String ifRange, String etag, Instant lastModified) {
+        if (ifRange == null || ifRange.isBlank()) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(etag);
         }
+        try {
+            Instant date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return date.getEpochSecond() == lastModified.getEpochSecond();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
 
-        end = Math.min(end, fileSize - 1);
-        long contentLength = end - start + 1;
+    private Mono<Void> rangeNotSatisfiable(ServerHttpResponse response, long fileSize) {
+        response.getHeaders().set(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
+        return complete(response, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+    }
 
-        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                .contentType(MediaType.parseMediaType("video/mp4"))
-                .contentLength(contentLength)
-                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileSize)
-                .body(resource);
+    private Mono<Void> complete(ServerHttpResponse response, HttpStatus status) {
+        response.setStatusCode(status);
+        return response.setComplete();
     }
 }
@@ -0,0 +1,336 @@
+package com.ownding.video.storage;
+
+import com.ownding.video.common.ApiException;
+import com.ownding.video.config.AppProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports a channel's recordings over a time range as one fragmented MP4,
+ * streamed straight into the response: each segment is remuxed on the fly
+ * into a fragment (the first and last cut at keyframes) and its samples are
+ * read from the original file only as the client takes them, so nothing is
+ * staged on disk. Concurrent exports are capped, share one bandwidth budget
+ * per node and report their throughput.
+ */
+@Service
+public class RecordExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(RecordExportService.class);
+    private static final int MAX_RECENT = 20;
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    /** Same shape as record_file.start_time. */
+    private static final DateTimeFormatter INDEX_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    private final StorageRepository storageRepository;
+    private final StorageService storageService;
+    private final SegmentInfoCache segmentInfoCache;
+    private final AppProperties appProperties;
+    private final Semaphore permits;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, Progress> active = new ConcurrentHashMap<>();
+    private final Deque<ExportStatus> recent = new ArrayDeque<>();
+    /** Token bucket of the node-wide bandwidth limit: when the next byte may be sent. */
+    private long nextFreeNanos;
+
+    public RecordExportService(StorageRepository storageRepository, StorageService storageService,
+            SegmentInfoCache segmentInfoCache, AppProperties appProperties) {
+        this.storageRepository = storageRepository;
+        this.storageService = storageService;
+        this.segmentInfoCache = segmentInfoCache;
+        this.appProperties = appProperties;
+        this.permits = new Semaphore(config().getMaxConcurrent());
+    }
+
+    /**
+     * Checks the request. The export slot is only taken when the body is
+     * subscribed, so an export whose body is never written holds none.
+     *
+     * @param to exclusive end
+     */
+    public Export open(String channelId, String from, String to) {
+        if (channelId == null || channelId.isBlank()) {
+            throw new ApiException(400, "通道ID不能为空");
+        }
+        LocalDateTime start = StorageService.parseTimelineTime(from, "开始时间");
+        LocalDateTime end = StorageService.parseTimelineTime(to, "结束时间");
+        if (!end.isAfter(start)) {
+            throw new ApiException(400, "结束时间必须晚于开始时间");
+        }
+        if (ChronoUnit.HOURS.between(start, end) >= config().getMaxRangeHours()) {
+            throw new ApiException(400, "导出时间范围不能超过" + config().getMaxRangeHours() + "小时");
+        }
+        List<Segment> segments = segments(channelId, start, end);
+        if (segments.isEmpty()) {
+            throw new ApiException(404, "该时间段没有录像");
+        }
+        Progress progress = new Progress(ids.incrementAndGet(), channelId, start.toString(), end.toString(),
+                segments.size());
+        String fileName = "%s_%s_%s.mp4".formatted(channelId, FILE_TIME.format(start), FILE_TIME.format(end));
+        return new Export(fileName, segments, toMillis(start), toMillis(end), progress);
+    }
+
+    /**
+     * Running exports first, then the most recent finished ones.
+     */
+    public List<ExportStatus> listExports() {
+        List<ExportStatus> result = new ArrayList<>();
+        for (Progress progress : active.values()) {
+            result.add(progress.status("running"));
+        }
+        synchronized (recent) {
+            result.addAll(recent);
+        }
+        return result;
+    }
+
+    private List<Segment> segments(String channelId, LocalDateTime start, LocalDateTime end) {
+        List<Segment> segments = new ArrayList<>();
+        for (RecordFileItem item : storageRepository.findRecordsByChannelAndTimeRange(channelId,
+                INDEX_TIME_FORMAT.format(start.minusSeconds(RecordIndexer.SEGMENT_DURATION_SECONDS)),
+                INDEX_TIME_FORMAT.format(end))) {
+            Path file = Path.of(item.filePath());
+            LocalDateTime itemStart;
+            LocalDateTime itemEnd;
+            try {
+                itemStart = LocalDateTime.parse(item.startTime());
+                itemEnd = LocalDateTime.parse(item.endTime());
+            } catch (DateTimeParseException | NullPointerException ex) {
+                continue;
+            }
+            if (!itemStart.isBefore(end) || !itemEnd.isAfter(start) || storageService.relativeRecordPath(file) == null
+                    || !file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".mp4")) {
+                continue;
+            }
+            segments.add(new Segment(file, toMillis(itemStart), toMillis(itemEnd)));
+        }
+        return segments;
+    }
+
+    /**
+     * Reserves {@code bytes} of the node-wide budget.
+     *
+     * @return nanoseconds to wait before sending them
+     */
+    private synchronized long reserve(long bytes) {
+        long bytesPerSecond = config().getMaxBytesPerSecond();
+        if (bytesPerSecond <= 0) {
+            return 0L;
+        }
+        long now = System.nanoTime();
+        long start = Math.max(now, nextFreeNanos);
+        nextFreeNanos = start + bytes * 1_000_000_000L / bytesPerSecond;
+        return start - now;
+    }
+
+    private Mono<Void> pace(int bytes) {
+        long waitNanos = reserve(bytes);
+        return waitNanos <= 0 ? Mono.empty() : Mono.delay(Duration.ofNanos(waitNanos)).then();
+    }
+
+    private void finish(Progress progress, SignalType signal) {
+        permits.release();
+        active.remove(progress.id);
+        String state = switch (signal) {
+            case ON_COMPLETE -> "done";
+            case CANCEL -> "cancelled";
+            default -> "failed";
+        };
+        ExportStatus status = progress.status(state);
+        synchronized (recent) {
+            recent.addFirst(status);
+            while (recent.size() > MAX_RECENT) {
+                recent.removeLast();
+            }
+        }
+        log.info("record export {}. channelId={}, from={}, to={}, segments={}, skipped={}, mb={}, mbPerSec={}, "
+                        + "elapsedMs={}", state, status.channelId(), status.from(), status.to(),
+                status.segmentsSent(), status.segmentsSkipped(), status.bytesSent() / 1024 / 1024,
+                String.format(Locale.ROOT, "%.2f", status.bytesPerSecond() / 1024d / 1024d), status.elapsedMs());
+    }
+
+    private AppProperties.Storage.Export config() {
+        return appProperties.getStorage().getExport();
+    }
+
+    /** Local wall-clock time as if it were UTC, like the timeline index. */
+    private static long toMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private record Segment(Path file, long startMillis, long endMillis) {
+    }
+
+    private record Piece(Path file, byte[] header, List<FragmentedMp4.Run> runs) {
+    }
+
+    /**
+     * One export in progress. {@link #body} must be subscribed exactly once.
+     */
+    public final class Export {
+        private final String fileName;
+        private final List<Segment> segments;
+        private final long fromMillis;
+        private final long toMillis;
+        private final Progress progress;
+        // Touched only from the sequential concatMap below.
+        private String codecKey;
+        private long outputMillis;
+        private int sequence;
+
+        private Export(String fileName, List<Segment> segments, long fromMillis, long toMillis, Progress progress) {
+            this.fileName = fileName;
+            this.segments = segments;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            this.progress = progress;
+        }
+
+        public String fileName() {
+            return fileName;
+        }
+
+        /**
+         * Takes an export slot on subscription and releases it when the body
+         * completes, fails or is cancelled.
+         *
+         * @throws ApiException 503 (as the error signal) when all slots are taken
+         */
+        public Flux<DataBuffer> body(DataBufferFactory bufferFactory) {
+            return Flux.defer(() -> {
+                if (!permits.tryAcquire()) {
+                    return Flux.error(new ApiException(503, "导出任务过多，请稍后再试"));
+                }
+                active.put(progress.id, progress);
+                return Flux.fromIterable(segments)
+                        .concatMap(segment -> Mono.fromCallable(() -> piece(segment))
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .flatMapMany(piece -> FragmentStreamer.stream(piece.file(), piece.header(),
+                                        piece.runs(), bufferFactory, RecordExportService.this::pace)))
+                        .doOnNext(buffer -> progress.bytesSent.addAndGet(buffer.readableByteCount()))
+                        .doFinally(signal -> finish(progress, signal));
+            });
+        }
+
+        /**
+         * Recorded time within the range, announced in the init segment
+         * (mehd); gaps do not count, keyframe alignment may add a little.
+         */
+        private long plannedMillis() {
+            long total = 0;
+            for (Segment segment : segments) {
+                total += Math.max(0L, Math.min(toMillis, segment.endMillis())
+                        - Math.max(fromMillis, segment.startMillis()));
+            }
+            return total;
+        }
+
+        /**
+         * The segment as a fragment, preceded by the init segment for the first
+         * one; {@code null} (skipped) when unreadable or when its codec
+         * configuration differs from the first segment's.
+         */
+        private Piece piece(Segment segment) {
+            // The segment may have moved to another tier since the export started.
+            Path file = storageService.locateRecordFile(segment.file().toString());
+            Mp4File mp4;
+            try {
+                mp4 = segmentInfoCache.mp4(file);
+            } catch (IOException ex) {
+                log.warn("导出跳过无法解析的录像: {}, {}", file, ex.getMessage());
+                progress.segmentsSkipped.incrementAndGet();
+                return null;
+            }
+            byte[] init = null;
+            if (codecKey == null) {
+                codecKey = mp4.codecKey();
+                init = FragmentedMp4.initSegment(mp4, plannedMillis());
+            } else if (!codecKey.equals(mp4.codecKey())) {
+                log.warn("导出跳过编码参数不同的录像: {}", segment.file());
+                progress.segmentsSkipped.incrementAndGet();
+                return null;
+            }
+            FragmentedMp4.Fragment fragment = FragmentedMp4.fragment(mp4, ++sequence, outputMillis,
+                    Math.max(0L, fromMillis - segment.startMillis()), toMillis - segment.startMillis());
+            outputMillis += fragment.durationMillis();
+            progress.segmentsSent.incrementAndGet();
+            byte[] header = fragment.header();
+            if (init != null) {
+                byte[] joined = new byte[init.length + header.length];
+                System.arraycopy(init, 0, joined, 0, init.length);
+                System.arraycopy(header, 0, joined, init.length, header.length);
+                header = joined;
+            }
+            return new Piece(file, header, fragment.runs());
+        }
+    }
+
+    private static final class Progress {
+        private final long id;
+        private final String channelId;
+        private final String from;
+        private final String to;
+        private final int segments;
+        private final long startedNanos = System.nanoTime();
+        private final String startedAt = Instant.now().toString();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong segmentsSent = new AtomicLong();
+        private final AtomicLong segmentsSkipped = new AtomicLong();
+
+        private Progress(long id, String channelId, String from, String to, int segments) {
+            this.id = id;
+            this.channelId = channelId;
+            this.from = from;
+            this.to = to;
+            this.segments = segments;
+        }
+
+        private ExportStatus status(String state) {
+            long elapsedMs = (System.nanoTime() - startedNanos) / 1_000_000L;
+            long bytes = bytesSent.get();
+            return new ExportStatus(id, channelId, from, to, state, segments, segmentsSent.get(),
+                    segmentsSkipped.get(), bytes, startedAt, elapsedMs, bytes * 1000L / Math.max(1L, elapsedMs));
+        }
+    }
+
+    public record ExportStatus(
+            long id,
+            String channelId,
+            String from,
+            String to,
+            String state,
+            int segments,
+            long segmentsSent,
+            long segmentsSkipped,
+            long bytesSent,
+            String startedAt,
+            long elapsedMs,
+            long bytesPerSecond) {
+    }
+}
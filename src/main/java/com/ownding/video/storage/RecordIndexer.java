@@ -0,0 +1,679 @@
+package com.ownding.video.storage;
+
+import com.ownding.video.config.AppProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps record_file in step with the record tree without walking it per
+ * request: one parallel scan when the indexer starts (or the record path
+ * changes), then deltas from a directory watch and ZLMediaKit's on_record_mp4
+ * hook, and a low-frequency reconciliation that repairs anything both missed
+ * (watch overflow, inotify limits, files changed while the service was down).
+ * Every index write also adjusts {@link StorageUsageCounters} and
+ * {@link RecordTimelineIndex}.
+ */
+@Component
+public class RecordIndexer {
+
+    private static final Logger log = LoggerFactory.getLogger(RecordIndexer.class);
+    private static final Set<String> VIDEO_EXTENSIONS = Set.of(
+            "mp4", "mkv", "ts", "flv", "ps", "h264", "h265", "hevc");
+
+    /** Matches ZLM filename pattern: 2026-02-17-17-31-13-0.mp4 */
+    private static final Pattern FILENAME_TIME_PATTERN = Pattern.compile(
+            "(\\d{4})-(\\d{2})-(\\d{2})-(\\d{2})-(\\d{2})-(\\d{2}).*\\.mp4$");
+
+    /** Matches channel directory: ch34020000001320000001 */
+    private static final Pattern CHANNEL_DIR_PATTERN = Pattern.compile("^ch(\\d+)$");
+
+    /** Nominal MP4 segment length, until the real one is read from the file */
+    static final int SEGMENT_DURATION_SECONDS = 60;
+
+    private static final long WATCH_POLL_MS = 1000L;
+    /** Minimum spacing of reconciliations requested by the usage cross-check. */
+    private static final long REQUESTED_RECONCILE_SPACING_MS = 600_000L;
+    /** Failed flushes in a row before a batch is left to a reconciliation. */
+    private static final int MAX_FLUSH_ATTEMPTS = 5;
+
+    private final StorageRepository storageRepository;
+    private final StorageUsageCounters usageCounters;
+    private final RecordTimelineIndex timelineIndex;
+    private final SegmentInfoCache segmentInfoCache;
+    private final RecordTiers recordTiers;
+    private final AppProperties appProperties;
+    /** Files reported by the watch or the hook since the last flush. */
+    private final Set<Path> pendingPaths = ConcurrentHashMap.newKeySet();
+    /** Directories registered with the watch, to tell a deleted directory from a deleted file. */
+    private final Set<Path> watchedDirs = ConcurrentHashMap.newKeySet();
+    private final Object reconcileLock = new Object();
+    private volatile boolean rootChanged = true;
+    private volatile boolean reconcileRequested;
+    private volatile long lastReconciledAtMs;
+    private volatile boolean running;
+    private volatile boolean ready;
+    private volatile Path indexedRoot;
+    private WatchService watchService;
+    private boolean watchLimitLogged;
+    private int failedFlushes;
+    private Thread worker;
+
+    public RecordIndexer(StorageRepository storageRepository, StorageUsageCounters usageCounters,
+            RecordTimelineIndex timelineIndex, SegmentInfoCache segmentInfoCache, RecordTiers recordTiers,
+            AppProperties appProperties) {
+        this.storageRepository = storageRepository;
+        this.usageCounters = usageCounters;
+        this.timelineIndex = timelineIndex;
+        this.segmentInfoCache = segmentInfoCache;
+        this.recordTiers = recordTiers;
+        this.appProperties = appProperties;
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        worker = new Thread(this::runLoop, "record-indexer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+        closeWatchService();
+    }
+
+    /**
+     * Whether the initial scan of the current record path has finished.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Re-scans and re-watches from the current policy's record path.
+     */
+    public void recordPathChanged() {
+        ready = false;
+        rootChanged = true;
+    }
+
+    /**
+     * Segment finished by ZLMediaKit; the path is as ZLMediaKit sees it and is
+     * mapped onto the local record path when app.storage.zlm-record-path is set.
+     */
+    public void onRecordMp4(String zlmFilePath) {
+        Path local = toLocalPath(zlmFilePath);
+        if (local != null) {
+            pendingPaths.add(local);
+        }
+    }
+
+    /**
+     * Drops segments deleted by the application itself, without waiting for
+     * the watch to report them.
+     */
+    public void onDeleted(List<Path> files) {
+        if (!files.isEmpty()) {
+            deleteRows(files.stream().map(Path::toString).toList());
+        }
+    }
+
+    /**
+     * Drops the rows of a directory the application removed as a whole.
+     */
+    public void onDirectoryDeleted(String directoryPrefix) {
+        synchronized (usageCounters) {
+            applied(storageRepository.deleteRecordFilesUnder(directoryPrefix), List.of());
+        }
+    }
+
+    /**
+     * Re-points the rows of a directory moved to another tier as a whole.
+     */
+    public void onDirectoryMoved(String fromPrefix, String toPrefix) {
+        synchronized (usageCounters) {
+            storageRepository.relocateRecordFiles(fromPrefix, toPrefix);
+            // Sizes and times are unchanged, but a row replaced at the target would be counted twice.
+            usageCounters.reseed();
+        }
+    }
+
+    /**
+     * Asks the worker for a reconciliation soon, unless one ran recently.
+     */
+    public void requestReconcile(String reason) {
+        if (ready && System.currentTimeMillis() - lastReconciledAtMs >= REQUESTED_RECONCILE_SPACING_MS
+                && !reconcileRequested) {
+            log.info("record index reconcile requested: {}", reason);
+            reconcileRequested = true;
+        }
+    }
+
+    /**
+     * Only flags the walk; the worker runs it, so the shared {@code @Scheduled}
+     * thread is not held for the length of a full scan.
+     */
+    @Scheduled(initialDelayString = "${app.storage.record-index.reconcile-interval-ms:3600000}",
+            fixedDelayString = "${app.storage.record-index.reconcile-interval-ms:3600000}")
+    public void reconcileTask() {
+        if (ready) {
+            reconcileRequested = true;
+        }
+    }
+
+    private void runLoop() {
+        while (running) {
+            try {
+                if (rootChanged) {
+                    rootChanged = false;
+                    Path root = currentRoot();
+                    closeWatchService();
+                    openWatchService(root);
+                    reconcile(root);
+                    indexedRoot = root;
+                    ready = true;
+                }
+                pollWatch();
+                if (reconcileRequested) {
+                    reconcileRequested = false;
+                    reconcile(indexedRoot);
+                }
+                flushPending();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException ex) {
+                if (running) {
+                    rootChanged = true;
+                }
+            } catch (Exception ex) {
+                log.warn("record indexer iteration failed: {}", ex.getMessage());
+                sleepQuietly();
+            }
+        }
+    }
+
+    private void pollWatch() throws InterruptedException {
+        WatchService service = watchService;
+        if (service == null) {
+            Thread.sleep(WATCH_POLL_MS);
+            return;
+        }
+        WatchKey key = service.poll(WATCH_POLL_MS, TimeUnit.MILLISECONDS);
+        while (key != null) {
+            handleEvents(key);
+            key = service.poll();
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                reconcileRequested = true;
+                continue;
+            }
+            Path name = (Path) event.context();
+            if (name.toString().startsWith(".")) {
+                // ZLMediaKit's in-progress segments and editor/rsync temp files.
+                continue;
+            }
+            Path child = dir.resolve(name);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                if (forgetWatchedTree(child)) {
+                    onDirectoryDeleted(child + child.getFileSystem().getSeparator());
+                } else if (isVideoFile(child)) {
+                    pendingPaths.add(child);
+                }
+            } else if (Files.isDirectory(child)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    // Segments may land before the new directory is registered.
+                    registerTree(child);
+                    pendingPaths.addAll(listVideoFiles(child));
+                }
+            } else if (isVideoFile(child)) {
+                pendingPaths.add(child);
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * @return whether {@code dir} was a watched directory; its watched
+     * subdirectories are forgotten with it
+     */
+    private boolean forgetWatchedTree(Path dir) {
+        if (!watchedDirs.remove(dir)) {
+            return false;
+        }
+        watchedDirs.removeIf(path -> path.startsWith(dir));
+        return true;
+    }
+
+    private void flushPending() {
+        if (pendingPaths.isEmpty()) {
+            return;
+        }
+        List<Path> batch = new ArrayList<>(pendingPaths);
+        pendingPaths.removeAll(batch);
+        List<StorageRepository.RecordSnapshot> upserts = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (Path path : batch) {
+            StorageRepository.RecordSnapshot snapshot = isVideoFile(path) ? snapshot(path) : null;
+            if (snapshot != null) {
+                upserts.add(snapshot);
+            } else if (Files.notExists(path)) {
+                removed.add(path.toString());
+            }
+        }
+        try {
+            upsertRows(withRealEndTimes(upserts));
+            deleteRows(removed);
+        } catch (RuntimeException ex) {
+            // Re-queued, or the paths would stay unindexed until the next full walk.
+            if (++failedFlushes < MAX_FLUSH_ATTEMPTS) {
+                pendingPaths.addAll(batch);
+            } else {
+                log.warn("record index delta dropped after {} attempts, reconciling instead", failedFlushes);
+                failedFlushes = 0;
+                reconcileRequested = true;
+            }
+            throw ex;
+        }
+        failedFlushes = 0;
+        log.debug("record index delta applied. upserted={}, removed={}", upserts.size(), removed.size());
+    }
+
+    /**
+     * Full walk of the record tree, diffed against the index so that only new,
+     * changed and vanished segments are written.
+     */
+    private void reconcile(Path root) throws InterruptedException {
+        synchronized (reconcileLock) {
+            long startedNanos = System.nanoTime();
+            Map<String, StorageRepository.RecordSnapshot> onDisk = new HashMap<>(scan(root));
+            // Cold tiers are not watched; only the migrator writes there and it updates the index itself.
+            for (Path coldRoot : recordTiers.coldRoots()) {
+                onDisk.putAll(scan(coldRoot));
+            }
+            Map<String, StorageRepository.IndexedFile> indexed = new HashMap<>();
+            for (StorageRepository.IndexedFile file : storageRepository.listIndexedFiles()) {
+                indexed.put(file.filePath(), file);
+            }
+
+            List<StorageRepository.RecordSnapshot> upserts = new ArrayList<>();
+            for (StorageRepository.RecordSnapshot snapshot : onDisk.values()) {
+                StorageRepository.IndexedFile known = indexed.get(snapshot.filePath());
+                if (known == null || known.fileSizeBytes() != snapshot.fileSizeBytes()
+                        || !snapshot.createdAt().equals(known.modifiedAt())) {
+                    upserts.add(snapshot);
+                }
+            }
+            // Re-checked so a segment indexed by the watch during the walk is kept.
+            List<String> removed = indexed.keySet().stream()
+                    .filter(path -> !onDisk.containsKey(path))
+                    .filter(path -> Files.notExists(Path.of(path)))
+                    .toList();
+
+            synchronized (usageCounters) {
+                storageRepository.upsertRecordFiles(upserts);
+                storageRepository.deleteRecordFilesByPath(removed);
+                usageCounters.reseed();
+                timelineIndex.invalidateAll();
+            }
+            lastReconciledAtMs = System.currentTimeMillis();
+            log.info("record index reconciled. root={}, files={}, upserted={}, removed={}, elapsedMs={}",
+                    root, onDisk.size(), upserts.size(), removed.size(),
+                    (System.nanoTime() - startedNanos) / 1_000_000L);
+        }
+    }
+
+    /**
+     * Segment facts for playback and seeking. A row still carrying the
+     * nominal segment length (indexed by a scan) is corrected on the way.
+     */
+    public SegmentInfoCache.SegmentInfo probe(RecordFileItem item) throws IOException {
+        Path file = Path.of(item.filePath());
+        SegmentInfoCache.SegmentInfo info = segmentInfoCache.info(file);
+        String endTime = realEndTime(file, item.startTime());
+        if (endTime != null && !endTime.equals(item.endTime())) {
+            storageRepository.updateRecordEndTime(item.filePath(), endTime);
+            timelineIndex.invalidate(item.channelId(), LocalDateTime.parse(item.startTime()).toLocalDate());
+        }
+        return info;
+    }
+
+    /**
+     * Replaces the nominal length of segments just closed by ZLMediaKit with
+     * the one in their moov; scans leave it to {@link #probe} so that a full
+     * walk never has to open every file.
+     */
+    private List<StorageRepository.RecordSnapshot> withRealEndTimes(List<StorageRepository.RecordSnapshot> snapshots) {
+        List<StorageRepository.RecordSnapshot> result = new ArrayList<>(snapshots.size());
+        for (StorageRepository.RecordSnapshot snapshot : snapshots) {
+            String endTime = realEndTime(Path.of(snapshot.filePath()), snapshot.startTime());
+            result.add(endTime == null ? snapshot : new StorageRepository.RecordSnapshot(
+                    snapshot.deviceId(),
+                    snapshot.channelId(),
+                    snapshot.filePath(),
+                    snapshot.fileSizeBytes(),
+                    snapshot.startTime(),
+                    endTime,
+                    snapshot.createdAt()));
+        }
+        return result;
+    }
+
+    /**
+     * @return start plus the duration in the MP4, or {@code null} when the
+     * start is not from the file name or the file cannot be parsed
+     */
+    private String realEndTime(Path file, String startTime) {
+        if (!file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".mp4")) {
+            return null;
+        }
+        LocalDateTime start;
+        try {
+            start = LocalDateTime.parse(startTime);
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+        try {
+            long durationMillis = segmentInfoCache.info(file).durationMillis();
+            return durationMillis > 0 ? start.plus(durationMillis, ChronoUnit.MILLIS).toString() : null;
+        } catch (IOException ex) {
+            log.debug("cannot read segment duration: {}, {}", file, ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes and counts under the counters' lock, so that a re-seed sees each
+     * change either in the index or in its own delta, never both.
+     */
+    private void upsertRows(List<StorageRepository.RecordSnapshot> snapshots) {
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        synchronized (usageCounters) {
+            applied(storageRepository.upsertRecordFiles(snapshots), snapshots);
+        }
+    }
+
+    private void deleteRows(List<String> filePaths) {
+        if (filePaths.isEmpty()) {
+            return;
+        }
+        synchronized (usageCounters) {
+            applied(storageRepository.deleteRecordFilesByPath(filePaths), List.of());
+        }
+    }
+
+    private void applied(List<StorageRepository.IndexedFile> before, List<StorageRepository.RecordSnapshot> after) {
+        usageCounters.apply(before, after);
+        timelineIndex.apply(before, after);
+    }
+
+    /**
+     * Walks the top-level directories (one per device) in parallel.
+     */
+    private Map<String, StorageRepository.RecordSnapshot> scan(Path root) throws InterruptedException {
+        if (!Files.isDirectory(root)) {
+            return Map.of();
+        }
+        List<Path> entries;
+        try (Stream<Path> stream = Files.list(root)) {
+            entries = stream.toList();
+        } catch (IOException ex) {
+            throw new IllegalStateException("扫描录像目录失败: " + ex.getMessage(), ex);
+        }
+        ForkJoinPool pool = new ForkJoinPool(appProperties.getStorage().getRecordIndex().getScanParallelism());
+        try {
+            return pool.submit(() -> entries.parallelStream()
+                            .flatMap(entry -> listVideoFiles(entry).stream())
+                            .map(this::snapshot)
+                            .filter(snapshot -> snapshot != null)
+                            .collect(Collectors.toMap(StorageRepository.RecordSnapshot::filePath,
+                                    snapshot -> snapshot, (left, right) -> left)))
+                    .get();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("扫描录像目录失败: " + ex.getCause().getMessage(), ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private List<Path> listVideoFiles(Path path) {
+        if (Files.isRegularFile(path)) {
+            return isVideoFile(path) ? List.of(path.toAbsolutePath().normalize()) : List.of();
+        }
+        try (Stream<Path> stream = Files.walk(path)) {
+            return stream.filter(Files::isRegularFile)
+                    .filter(this::isVideoFile)
+                    .map(file -> file.toAbsolutePath().normalize())
+                    .toList();
+        } catch (IOException | RuntimeException ex) {
+            log.warn("扫描录像目录失败: {}, {}", path, ex.getMessage());
+            return List.of();
+        }
+    }
+
+    private void openWatchService(Path root) throws IOException {
+        if (!appProperties.getStorage().getRecordIndex().isWatchEnabled()) {
+            return;
+        }
+        Files.createDirectories(root);
+        watchService = FileSystems.getDefault().newWatchService();
+        watchLimitLogged = false;
+        registerTree(root);
+    }
+
+    private void registerTree(Path dir) {
+        WatchService service = watchService;
+        if (service == null) {
+            return;
+        }
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+                    try {
+                        path.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                        watchedDirs.add(path);
+                    } catch (IOException ex) {
+                        // Typically the inotify watch limit; reconciliation covers these directories.
+                        if (!watchLimitLogged) {
+                            watchLimitLogged = true;
+                            log.warn("cannot watch record directory {}: {}", path, ex.getMessage());
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path path, IOException ex) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            log.warn("register record watch failed: {}, {}", dir, ex.getMessage());
+        }
+    }
+
+    private void closeWatchService() {
+        WatchService service = watchService;
+        watchService = null;
+        watchedDirs.clear();
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException ex) {
+                log.debug("close record watch failed: {}", ex.getMessage());
+            }
+        }
+    }
+
+    private Path currentRoot() {
+        return recordTiers.hotRoot();
+    }
+
+    private Path toLocalPath(String zlmFilePath) {
+        if (zlmFilePath == null || zlmFilePath.isBlank()) {
+            return null;
+        }
+        Path root = indexedRoot != null ? indexedRoot : currentRoot();
+        String normalized = zlmFilePath.trim().replace('\\', '/');
+        String configured = appProperties.getStorage().getZlmRecordPath();
+        if (configured != null && !configured.isBlank()) {
+            String base = configured.trim().replace('\\', '/').replaceAll("/+$", "");
+            if (!base.isBlank() && normalized.startsWith(base + "/")) {
+                return root.resolve(normalized.substring(base.length() + 1)).normalize();
+            }
+        }
+        Path local = Path.of(normalized).toAbsolutePath().normalize();
+        if (!local.startsWith(root)) {
+            log.debug("on_record_mp4 file outside record path ignored: {}", zlmFilePath);
+            return null;
+        }
+        return local;
+    }
+
+    /**
+     * In-progress ZLMediaKit segments are hidden (dot-prefixed) and renamed on
+     * completion, so they are only indexed once finished.
+     */
+    private boolean isVideoFile(Path file) {
+        Path fileName = file.getFileName();
+        if (fileName == null) {
+            return false;
+        }
+        String name = fileName.toString();
+        int dotIndex = name.lastIndexOf('.');
+        if (name.startsWith(".") || dotIndex < 0 || dotIndex == name.length() - 1) {
+            return false;
+        }
+        String ext = name.substring(dotIndex + 1).toLowerCase();
+        return VIDEO_EXTENSIONS.contains(ext);
+    }
+
+    private StorageRepository.RecordSnapshot snapshot(Path file) {
+        long size;
+        Instant modifiedAt;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            size = attrs.size();
+            modifiedAt = attrs.lastModifiedTime().toInstant();
+        } catch (IOException ex) {
+            return null;
+        }
+        String channelId = parseChannelIdFromPath(file);
+        String startTime = parseStartTimeFromFilename(file);
+        String endTime = null;
+        if (startTime != null) {
+            try {
+                LocalDateTime start = LocalDateTime.parse(startTime);
+                endTime = start.plusSeconds(SEGMENT_DURATION_SECONDS).toString();
+            } catch (DateTimeParseException ex) {
+                endTime = startTime;
+            }
+        }
+        if (startTime == null) {
+            startTime = modifiedAt.toString();
+        }
+        if (endTime == null) {
+            endTime = modifiedAt.toString();
+        }
+        return new StorageRepository.RecordSnapshot(
+                null,
+                channelId,
+                file.toString(),
+                size,
+                startTime,
+                endTime,
+                modifiedAt.toString());
+    }
+
+    /**
+     * Parses channelId from file path. Looks for a parent directory matching
+     * "ch{channelId}".
+     * Example path: .../record/rtp/ch34020000001320000001/2026-02-17/xxx.mp4
+     */
+    static String parseChannelIdFromPath(Path filePath) {
+        Path parent = filePath.getParent();
+        while (parent != null) {
+            String dirName = parent.getFileName() != null ? parent.getFileName().toString() : "";
+            Matcher matcher = CHANNEL_DIR_PATTERN.matcher(dirName);
+            if (matcher.matches()) {
+                return matcher.group(1);
+            }
+            parent = parent.getParent();
+        }
+        return null;
+    }
+
+    /**
+     * Parses start time from filename. Expected format: 2026-02-17-17-31-13-0.mp4
+     * Returns ISO LocalDateTime string: 2026-02-17T17:31:13
+     */
+    private String parseStartTimeFromFilename(Path filePath) {
+        String filename = filePath.getFileName().toString();
+        Matcher matcher = FILENAME_TIME_PATTERN.matcher(filename);
+        if (matcher.matches()) {
+            return "%s-%s-%sT%s:%s:%s".formatted(matcher.group(1), matcher.group(2), matcher.group(3),
+                    matcher.group(4), matcher.group(5), matcher.group(6));
+        }
+        return null;
+    }
+
+    private void sleepQuietly() {
+        try {
+            Thread.sleep(WATCH_POLL_MS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.ownding.video.storage;
+
+import com.ownding.video.config.AppProperties;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The record roots: the policy's record path (hot tier, where ZLMediaKit
+ * writes) and, with app.storage.tiering enabled, the cold tiers that closed
+ * day directories migrate to. A segment keeps its path relative to its root
+ * on every tier, so a relative path finds it wherever it currently is.
+ */
+@Component
+public class RecordTiers {
+
+    private final StorageRepository storageRepository;
+    private final AppProperties appProperties;
+
+    public RecordTiers(StorageRepository storageRepository, AppProperties appProperties) {
+        this.storageRepository = storageRepository;
+        this.appProperties = appProperties;
+    }
+
+    public Path hotRoot() {
+        return normalize(storageRepository.getPolicy().recordPath());
+    }
+
+    public List<Path> coldRoots() {
+        AppProperties.Storage.Tiering tiering = appProperties.getStorage().getTiering();
+        if (!tiering.isEnabled() || tiering.getColdPaths() == null) {
+            return List.of();
+        }
+        Path hot = hotRoot();
+        List<Path> roots = new ArrayList<>();
+        for (String coldPath : tiering.getColdPaths()) {
+            if (coldPath == null || coldPath.isBlank()) {
+                continue;
+            }
+            Path root = normalize(coldPath);
+            // Nested roots would make a segment belong to two tiers.
+            if (!root.startsWith(hot) && !hot.startsWith(root) && !roots.contains(root)) {
+                roots.add(root);
+            }
+        }
+        return roots;
+    }
+
+    /** Hot root first. */
+    public List<Path> allRoots() {
+        List<Path> roots = new ArrayList<>();
+        roots.add(hotRoot());
+        roots.addAll(coldRoots());
+        return roots;
+    }
+
+    /**
+     * @return the root {@code path} lies under, or {@code null}
+     */
+    public Path rootOf(Path path) {
+        Path normalized = path.toAbsolutePath().normalize();
+        for (Path root : allRoots()) {
+            if (normalized.startsWith(root)) {
+                return root;
+            }
+        }
+        return null;
+    }
+
+    private static Path normalize(String path) {
+        return Path.of(path.trim()).toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,265 @@
+package com.ownding.video.storage;
+
+import com.ownding.video.common.ApiException;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Recorded spans per channel and day, coalesced and kept in a sorted map so
+ * that a timeline for any range and the span at a given instant are
+ * O(log n) lookups instead of row scans. Days are loaded lazily from
+ * record_file and kept up to date by {@link RecordIndexer}: new segments are
+ * merged in, removed ones drop the day so it is reloaded on next use.
+ */
+@Component
+public class RecordTimelineIndex {
+
+    /** Segments this close together count as continuous. */
+    private static final long JOIN_TOLERANCE_SECONDS = 2L;
+    private static final int MAX_CACHED_DAYS = 8192;
+    private static final long MAX_RANGE_DAYS = 62L;
+    /** How far ahead {@link #locate} looks for the next recording. */
+    private static final int LOCATE_LOOKAHEAD_DAYS = 31;
+    /** Same shape as record_file.start_time. */
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    private final StorageRepository storageRepository;
+    /** (channel, day) -> span start -> span end, in local wall-clock epoch seconds */
+    private final Map<DayKey, TreeMap<Long, Long>> spansByDay = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<DayKey, TreeMap<Long, Long>> eldest) {
+            return size() > MAX_CACHED_DAYS;
+        }
+    };
+
+    public RecordTimelineIndex(StorageRepository storageRepository) {
+        this.storageRepository = storageRepository;
+    }
+
+    /**
+     * Continuous recorded spans and the gaps between them within
+     * {@code [from, to)}.
+     */
+    public synchronized Timeline timeline(String channelId, LocalDateTime from, LocalDateTime to) {
+        if (!to.isAfter(from)) {
+            throw new ApiException(400, "结束时间必须晚于开始时间");
+        }
+        if (ChronoUnit.DAYS.between(from, to) > MAX_RANGE_DAYS) {
+            throw new ApiException(400, "时间范围不能超过" + MAX_RANGE_DAYS + "天");
+        }
+        long fromSec = toSeconds(from);
+        long toSec = toSeconds(to);
+        List<long[]> merged = new ArrayList<>();
+        // A segment starting the day before may run past midnight into the range.
+        for (LocalDate day = from.toLocalDate().minusDays(1); day.isBefore(to.toLocalDate().plusDays(1));
+                day = day.plusDays(1)) {
+            TreeMap<Long, Long> daySpans = spans(channelId, day);
+            Long floor = daySpans.floorKey(fromSec);
+            for (Map.Entry<Long, Long> span : daySpans.subMap(floor != null ? floor : fromSec, true, toSec, false)
+                    .entrySet()) {
+                long start = Math.max(span.getKey(), fromSec);
+                long end = Math.min(span.getValue(), toSec);
+                if (end <= start) {
+                    continue;
+                }
+                long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                if (last != null && start <= last[1] + JOIN_TOLERANCE_SECONDS) {
+                    last[1] = Math.max(last[1], end);
+                } else {
+                    merged.add(new long[]{start, end});
+                }
+            }
+        }
+
+        List<Span> spans = new ArrayList<>(merged.size());
+        List<Span> gaps = new ArrayList<>(merged.size() + 1);
+        long cursor = fromSec;
+        long recordedSeconds = 0L;
+        for (long[] span : merged) {
+            if (span[0] > cursor) {
+                gaps.add(span(cursor, span[0]));
+            }
+            spans.add(span(span[0], span[1]));
+            recordedSeconds += span[1] - span[0];
+            cursor = span[1];
+        }
+        if (cursor < toSec) {
+            gaps.add(span(cursor, toSec));
+        }
+        return new Timeline(channelId, toTime(fromSec), toTime(toSec), recordedSeconds, spans, gaps);
+    }
+
+    /**
+     * The span covering {@code time}, or else where the next recording starts.
+     */
+    public synchronized Located locate(String channelId, LocalDateTime time) {
+        long at = toSeconds(time);
+        LocalDate day = time.toLocalDate();
+        for (LocalDate probe = day.minusDays(1); !probe.isAfter(day); probe = probe.plusDays(1)) {
+            Map.Entry<Long, Long> floor = spans(channelId, probe).floorEntry(at);
+            if (floor != null && floor.getValue() > at) {
+                return new Located(span(floor.getKey(), floor.getValue()), null);
+            }
+        }
+        for (int offset = 0; offset <= LOCATE_LOOKAHEAD_DAYS; offset++) {
+            Long next = spans(channelId, day.plusDays(offset)).higherKey(at);
+            if (next != null) {
+                return new Located(null, toTime(next));
+            }
+        }
+        return new Located(null, null);
+    }
+
+    /**
+     * Applies one committed index change to the days already loaded.
+     */
+    public synchronized void apply(List<StorageRepository.IndexedFile> before,
+            List<StorageRepository.RecordSnapshot> after) {
+        Set<String> rewritten = new HashSet<>();
+        for (StorageRepository.RecordSnapshot snapshot : after) {
+            rewritten.add(snapshot.filePath());
+        }
+        for (StorageRepository.IndexedFile file : before) {
+            // A rewritten segment keeps its span (times come from the file name).
+            if (file.channelId() != null && !rewritten.contains(file.filePath())) {
+                LocalDate day = dayOfModified(file.modifiedAt());
+                if (day != null) {
+                    // The row may sit in the day before or after by start time; drop all three.
+                    spansByDay.remove(new DayKey(file.channelId(), day.minusDays(1)));
+                    spansByDay.remove(new DayKey(file.channelId(), day));
+                    spansByDay.remove(new DayKey(file.channelId(), day.plusDays(1)));
+                }
+            }
+        }
+        for (StorageRepository.RecordSnapshot snapshot : after) {
+            LocalDateTime start = parseTime(snapshot.startTime());
+            LocalDateTime end = parseTime(snapshot.endTime());
+            if (snapshot.channelId() == null || start == null || end == null) {
+                continue;
+            }
+            TreeMap<Long, Long> daySpans = spansByDay.get(new DayKey(snapshot.channelId(), start.toLocalDate()));
+            if (daySpans != null) {
+                insert(daySpans, toSeconds(start), Math.max(toSeconds(start), toSeconds(end)));
+            }
+        }
+    }
+
+    /**
+     * Drops one loaded day, e.g. after a segment's end time was corrected.
+     */
+    public synchronized void invalidate(String channelId, LocalDate day) {
+        spansByDay.remove(new DayKey(channelId, day));
+    }
+
+    public synchronized void invalidateAll() {
+        spansByDay.clear();
+    }
+
+    private TreeMap<Long, Long> spans(String channelId, LocalDate day) {
+        DayKey key = new DayKey(channelId, day);
+        TreeMap<Long, Long> daySpans = spansByDay.get(key);
+        if (daySpans != null) {
+            return daySpans;
+        }
+        daySpans = new TreeMap<>();
+        for (RecordFileItem item : storageRepository.findRecordsByChannelAndTimeRange(channelId,
+                day + "T00:00:00", day + "T23:59:59")) {
+            LocalDateTime start = parseTime(item.startTime());
+            LocalDateTime end = parseTime(item.endTime());
+            if (start != null && end != null) {
+                insert(daySpans, toSeconds(start), Math.max(toSeconds(start), toSeconds(end)));
+            }
+        }
+        spansByDay.put(key, daySpans);
+        return daySpans;
+    }
+
+    private static void insert(TreeMap<Long, Long> spans, long start, long end) {
+        Map.Entry<Long, Long> lower = spans.floorEntry(start);
+        if (lower != null && lower.getValue() >= start - JOIN_TOLERANCE_SECONDS) {
+            start = lower.getKey();
+            end = Math.max(end, lower.getValue());
+            spans.remove(lower.getKey());
+        }
+        Map.Entry<Long, Long> higher = spans.ceilingEntry(start);
+        while (higher != null && higher.getKey() <= end + JOIN_TOLERANCE_SECONDS) {
+            end = Math.max(end, higher.getValue());
+            spans.remove(higher.getKey());
+            higher = spans.ceilingEntry(start);
+        }
+        spans.put(start, end);
+    }
+
+    /**
+     * start_time/end_time hold the local time from the file name, or the
+     * file's modification instant when the name carries none.
+     */
+    private static LocalDateTime parseTime(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value);
+        } catch (DateTimeParseException ex) {
+            try {
+                return LocalDateTime.ofInstant(Instant.parse(value), ZoneId.systemDefault());
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+
+    private static LocalDate dayOfModified(String modifiedAt) {
+        LocalDateTime time = parseTime(modifiedAt);
+        return time == null ? null : time.toLocalDate();
+    }
+
+    private static long toSeconds(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static String toTime(long seconds) {
+        return TIME_FORMAT.format(LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC));
+    }
+
+    private static Span span(long start, long end) {
+        return new Span(toTime(start), toTime(end), end - start);
+    }
+
+    private record DayKey(String channelId, LocalDate day) {
+    }
+
+    public record Span(String start, String end, long seconds) {
+    }
+
+    public record Timeline(
+            String channelId,
+            String from,
+            String to,
+            long recordedSeconds,
+            List<Span> spans,
+            List<Span> gaps) {
+    }
+
+    /**
+     * @param span      the recording covering the requested time, if any
+     * @param nextStart otherwise the start of the next recording, if any
+     */
+    public record Located(Span span, String nextStart) {
+    }
+}
@@ -0,0 +1,26 @@
+package com.ownding.video.storage;
+
+/**
+ * A per-channel or per-group override of the storage policy; {@code null}
+ * fields inherit from the channel's group, then from the storage policy.
+ *
+ * @param scope     {@link #SCOPE_CHANNEL} or {@link #SCOPE_GROUP}
+ * @param scopeId   channel id or group name
+ * @param groupName group of a CHANNEL row, {@code null} for none
+ * @param priority  higher keeps its footage longer when the global cap or
+ *                  free space forces deletions; inherited, default 0
+ */
+public record RetentionPolicy(
+        long id,
+        String scope,
+        String scopeId,
+        String groupName,
+        Integer retentionDays,
+        Integer maxStorageGb,
+        Integer priority,
+        String updatedAt
+) {
+
+    public static final String SCOPE_CHANNEL = "CHANNEL";
+    public static final String SCOPE_GROUP = "GROUP";
+}
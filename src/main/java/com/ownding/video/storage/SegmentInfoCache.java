@@ -0,0 +1,141 @@
+package com.ownding.video.storage;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-segment facts read from the MP4 box structure on first use: the real
+ * duration, codecs and a keyframe time-to-byte-offset table. Entries are
+ * keyed by path and revalidated against size and modification time, so a
+ * rewritten file is parsed again. The parsed sample tables of the most
+ * recently remuxed files are kept in a much smaller cache of their own.
+ */
+@Component
+public class SegmentInfoCache {
+
+    private static final int MAX_INFOS = 16384;
+    private static final int MAX_PARSED_FILES = 32;
+
+    private final Map<Path, Entry<SegmentInfo>> infos = lru(MAX_INFOS);
+    private final Map<Path, Entry<Mp4File>> parsedFiles = lru(MAX_PARSED_FILES);
+
+    public SegmentInfo info(Path file) throws IOException {
+        Version version = version(file);
+        synchronized (infos) {
+            Entry<SegmentInfo> cached = infos.get(file);
+            if (cached != null && cached.version.equals(version)) {
+                return cached.value;
+            }
+        }
+        SegmentInfo info = SegmentInfo.of(mp4(file, version));
+        synchronized (infos) {
+            infos.put(file, new Entry<>(version, info));
+        }
+        return info;
+    }
+
+    public Mp4File mp4(Path file) throws IOException {
+        return mp4(file, version(file));
+    }
+
+    private Mp4File mp4(Path file, Version version) throws IOException {
+        synchronized (parsedFiles) {
+            Entry<Mp4File> cached = parsedFiles.get(file);
+            if (cached != null && cached.version.equals(version)) {
+                return cached.value;
+            }
+        }
+        Mp4File mp4 = Mp4File.read(file);
+        synchronized (parsedFiles) {
+            parsedFiles.put(file, new Entry<>(version, mp4));
+        }
+        return mp4;
+    }
+
+    private static Version version(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return new Version(attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    private static <V> Map<Path, Entry<V>> lru(int maxEntries) {
+        return new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    private record Version(long size, long modifiedMillis) {
+    }
+
+    private record Entry<V>(Version version, V value) {
+    }
+
+    /**
+     * @param keyframeMillis presentation time of each keyframe from the start
+     *                       of the segment, ascending
+     * @param keyframeOffsets byte offset of each keyframe's sample in the file
+     * @param codecKey {@link Mp4File#codecKey()}
+     */
+    public record SegmentInfo(long durationMillis, List<String> codecs, long[] keyframeMillis,
+            long[] keyframeOffsets, String codecKey) {
+
+        static SegmentInfo of(Mp4File mp4) {
+            List<String> codecs = new ArrayList<>();
+            Mp4File.Track video = null;
+            for (Mp4File.Track track : mp4.tracks()) {
+                if (track.codec() != null) {
+                    codecs.add(track.codec());
+                }
+                if (video == null && "vide".equals(track.handler())) {
+                    video = track;
+                }
+            }
+            long[] times = new long[0];
+            long[] offsets = new long[0];
+            if (video != null) {
+                times = new long[video.sampleCount()];
+                offsets = new long[video.sampleCount()];
+                int count = 0;
+                long decodeTime = 0;
+                for (int i = 0; i < video.sampleCount(); i++) {
+                    if (video.isSync(i)) {
+                        times[count] = Math.max(0L, (decodeTime + video.ctsOffset(i)) * 1000L / video.timescale());
+                        offsets[count] = video.offset(i);
+                        count++;
+                    }
+                    decodeTime += Integer.toUnsignedLong(video.duration(i));
+                }
+                times = Arrays.copyOf(times, count);
+                offsets = Arrays.copyOf(offsets, count);
+            }
+            return new SegmentInfo(Math.round(mp4.durationSeconds() * 1000d), List.copyOf(codecs), times, offsets,
+                    mp4.codecKey());
+        }
+
+        /**
+         * Index of the last keyframe at or before {@code millis} into the
+         * segment, or -1 when the segment has no keyframe table.
+         */
+        public int keyframeAtOrBefore(long millis) {
+            if (keyframeMillis.length == 0) {
+                return -1;
+            }
+            int index = Arrays.binarySearch(keyframeMillis, millis);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            return Math.max(0, index);
+        }
+    }
+}
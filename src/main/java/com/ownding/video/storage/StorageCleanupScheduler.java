@@ -1,27 +1,87 @@
 package com.ownding.video.storage;
 
+import com.ownding.video.config.AppProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs cleanup on a thread of its own: the free-space watermark is the
+ * disk-full safety net and must keep its cadence while the shared
+ * {@code @Scheduled} thread is busy with slow jobs, which is exactly when
+ * disk I/O is heavy. The timer run is queued on the same thread, so the two
+ * never contend for {@link CleanupEngine}.
+ */
 @Component
 public class StorageCleanupScheduler {
 
     private static final Logger log = LoggerFactory.getLogger(StorageCleanupScheduler.class);
-    private final StorageService storageService;
+    private final CleanupEngine cleanupEngine;
+    private final AppProperties appProperties;
+    /** A timer run is queued or running on {@link #executor}. */
+    private final AtomicBoolean timerQueued = new AtomicBoolean();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "storage-cleanup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StorageCleanupScheduler(CleanupEngine cleanupEngine, AppProperties appProperties) {
+        this.cleanupEngine = cleanupEngine;
+        this.appProperties = appProperties;
+    }
+
+    @PostConstruct
+    public void start() {
+        long intervalMs = appProperties.getStorage().getCleanup().getWatermarkCheckIntervalMs();
+        executor.scheduleWithFixedDelay(this::watermarkTask, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
 
-    public StorageCleanupScheduler(StorageService storageService) {
-        this.storageService = storageService;
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
     }
 
     @Scheduled(fixedDelayString = "${app.storage.cleanup-interval-ms:180000}")
     public void cleanupTask() {
+        if (!timerQueued.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                CleanupEngine.CleanupReport report = cleanupEngine.run("timer");
+                if (report != null) {
+                    log.debug("storage cleanup done, files={}, reclaimedBytes={}", report.deletedFiles(),
+                            report.reclaimedBytes());
+                }
+            } catch (Exception ex) {
+                log.warn("storage cleanup failed: {}", ex.getMessage());
+            } finally {
+                timerQueued.set(false);
+            }
+        });
+    }
+
+    /**
+     * Starts a cleanup between timer runs once the size cap is exceeded or free
+     * space falls below the low watermark.
+     */
+    void watermarkTask() {
         try {
-            StorageUsage usage = storageService.executeCleanup();
-            log.info("storage cleanup done, files={}, usedGb={}", usage.fileCount(), String.format("%.2f", usage.usedGb()));
+            if (cleanupEngine.watermarkBreached()) {
+                cleanupEngine.run("watermark");
+            }
         } catch (Exception ex) {
-            log.warn("storage cleanup failed: {}", ex.getMessage());
+            // Thrown out of a scheduleWithFixedDelay task, it would cancel every later check.
+            log.warn("storage watermark cleanup failed: {}", ex.getMessage());
         }
     }
 }
@@ -13,6 +13,8 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.List;
 
@@ -47,19 +49,71 @@ public class StorageController {
         return ApiResult.success("存储策略更新成功", policy);
     }
 
+    @GetMapping("/storage/retention-policies")
+    public ApiResult<List<RetentionPolicy>> listRetentionPolicies() {
+        return ApiResult.success(storageService.listRetentionPolicies());
+    }
+
+    /**
+     * Creates or replaces the override keyed by scope and scopeId.
+     */
+    @PutMapping("/storage/retention-policies")
+    public ApiResult<RetentionPolicy> saveRetentionPolicy(@Valid @RequestBody SaveRetentionPolicyRequest request) {
+        RetentionPolicy policy = storageService.saveRetentionPolicy(new StorageService.SaveRetentionPolicyCommand(
+                request.scope(),
+                request.scopeId(),
+                request.groupName(),
+                request.retentionDays(),
+                request.maxStorageGb(),
+                request.priority()
+        ));
+        return ApiResult.success("保留策略已保存", policy);
+    }
+
+    @DeleteMapping("/storage/retention-policies/{id}")
+    public ApiResult<Void> deleteRetentionPolicy(@PathVariable long id) {
+        storageService.deleteRetentionPolicy(id);
+        return ApiResult.successMessage("保留策略已删除");
+    }
+
     @GetMapping("/storage/usage")
     public ApiResult<StorageUsage> usage() {
         return ApiResult.success(storageService.getUsage());
     }
 
+    @GetMapping("/storage/usage/channels")
+    public ApiResult<List<StorageUsageCounters.ChannelUsage>> channelUsage() {
+        return ApiResult.success(storageService.getChannelUsage());
+    }
+
+    @GetMapping("/storage/usage/days")
+    public ApiResult<List<StorageUsageCounters.DayUsage>> dailyUsage() {
+        return ApiResult.success(storageService.getDailyUsage());
+    }
+
     @PostMapping("/storage/cleanup")
-    public ApiResult<StorageUsage> cleanupNow() {
-        return ApiResult.success("清理完成", storageService.executeCleanup());
+    public Mono<ApiResult<StorageUsage>> cleanupNow() {
+        return Mono.fromCallable(() -> ApiResult.success("清理完成", storageService.executeCleanup()))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @GetMapping("/storage/cleanup/report")
+    public ApiResult<CleanupEngine.CleanupReport> lastCleanupReport() {
+        return ApiResult.success(storageService.getLastCleanupReport());
+    }
+
+    /**
+     * Last run of the hot-to-cold tier migrator; null before the first move.
+     */
+    @GetMapping("/storage/migration/report")
+    public ApiResult<TierMigrator.MigrationReport> lastMigrationReport() {
+        return ApiResult.success(storageService.getLastMigrationReport());
     }
 
     @GetMapping("/storage/background-recording/status")
-    public ApiResult<List<BackgroundRecordingScheduler.BackgroundRecordingStatus>> backgroundRecordingStatus() {
-        return ApiResult.success(backgroundRecordingScheduler.listStatuses());
+    public Mono<ApiResult<List<BackgroundRecordingScheduler.BackgroundRecordingStatus>>> backgroundRecordingStatus() {
+        return Mono.fromSupplier(() -> ApiResult.success(backgroundRecordingScheduler.listStatuses()))
+                .subscribeOn(Schedulers.boundedElastic());
     }
 
     @GetMapping("/records")
@@ -81,4 +135,14 @@ public class StorageController {
             @NotBlank(message = "不能为空") String recordPath
     ) {
     }
+
+    public record SaveRetentionPolicyRequest(
+            @NotBlank(message = "不能为空") String scope,
+            @NotBlank(message = "不能为空") String scopeId,
+            String groupName,
+            @Min(value = 0, message = "不能小于0") Integer retentionDays,
+            @Min(value = 1, message = "必须大于0") Integer maxStorageGb,
+            Integer priority
+    ) {
+    }
 }
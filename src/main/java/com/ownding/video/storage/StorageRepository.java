@@ -4,7 +4,11 @@ import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,12 +16,26 @@ import java.util.Optional;
 public class StorageRepository {
 
     private final JdbcClient jdbcClient;
+    /** The single policy row, written only through {@link #updatePolicy}. */
+    private volatile StoragePolicy cachedPolicy;
+    /** Every retention override, written only through this class. */
+    private volatile List<RetentionPolicy> cachedRetentionPolicies;
 
     public StorageRepository(JdbcClient jdbcClient) {
         this.jdbcClient = jdbcClient;
     }
 
     public StoragePolicy getPolicy() {
+        StoragePolicy cached = cachedPolicy;
+        if (cached != null) {
+            return cached;
+        }
+        cached = loadPolicy();
+        cachedPolicy = cached;
+        return cached;
+    }
+
+    private StoragePolicy loadPolicy() {
         Optional<StoragePolicy> policy = jdbcClient.sql("""
                 SELECT retention_days, max_storage_gb, auto_overwrite, record_enabled, record_path, updated_at
                 FROM storage_policy
@@ -54,9 +72,73 @@ public class StorageRepository {
                 .param("recordPath", recordPath)
                 .param("updatedAt", now)
                 .update();
+        cachedPolicy = null;
         return getPolicy();
     }
 
+    public List<RetentionPolicy> listRetentionPolicies() {
+        List<RetentionPolicy> cached = cachedRetentionPolicies;
+        if (cached != null) {
+            return cached;
+        }
+        cached = List.copyOf(jdbcClient.sql("""
+                SELECT id, scope, scope_id, group_name, retention_days, max_storage_gb, priority, updated_at
+                FROM storage_retention_policy
+                ORDER BY scope, scope_id
+                """)
+                .query((rs, rowNum) -> new RetentionPolicy(
+                        rs.getLong("id"),
+                        rs.getString("scope"),
+                        rs.getString("scope_id"),
+                        rs.getString("group_name"),
+                        rs.getObject("retention_days", Integer.class),
+                        rs.getObject("max_storage_gb", Integer.class),
+                        rs.getObject("priority", Integer.class),
+                        rs.getString("updated_at")))
+                .list());
+        cachedRetentionPolicies = cached;
+        return cached;
+    }
+
+    /**
+     * Creates or replaces the override of one channel or group.
+     */
+    public RetentionPolicy saveRetentionPolicy(String scope, String scopeId, String groupName, Integer retentionDays,
+            Integer maxStorageGb, Integer priority) {
+        jdbcClient.sql("""
+                INSERT INTO storage_retention_policy (
+                    scope, scope_id, group_name, retention_days, max_storage_gb, priority, updated_at
+                ) VALUES (:scope, :scopeId, :groupName, :retentionDays, :maxStorageGb, :priority, :updatedAt)
+                ON CONFLICT(scope, scope_id) DO UPDATE SET
+                    group_name = excluded.group_name,
+                    retention_days = excluded.retention_days,
+                    max_storage_gb = excluded.max_storage_gb,
+                    priority = excluded.priority,
+                    updated_at = excluded.updated_at
+                """)
+                .param("scope", scope)
+                .param("scopeId", scopeId)
+                .param("groupName", groupName)
+                .param("retentionDays", retentionDays)
+                .param("maxStorageGb", maxStorageGb)
+                .param("priority", priority)
+                .param("updatedAt", Instant.now().toString())
+                .update();
+        cachedRetentionPolicies = null;
+        return listRetentionPolicies().stream()
+                .filter(policy -> policy.scope().equals(scope) && policy.scopeId().equals(scopeId))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    public boolean deleteRetentionPolicy(long id) {
+        int deleted = jdbcClient.sql("DELETE FROM storage_retention_policy WHERE id = :id")
+                .param("id", id)
+                .update();
+        cachedRetentionPolicies = null;
+        return deleted > 0;
+    }
+
     public List<RecordFileItem> listRecordFiles() {
         return jdbcClient.sql("""
                 SELECT id, device_id, channel_id, file_path, file_size_bytes, start_time, end_time, created_at
@@ -95,20 +177,27 @@ public class StorageRepository {
                 .optional();
     }
 
-    public void deleteRecordById(long id) {
-        jdbcClient.sql("DELETE FROM record_file WHERE id = :id")
-                .param("id", id)
-                .update();
-    }
-
+    /**
+     * Inserts new segments and updates the size and times of known ones, keyed
+     * by file path.
+     *
+     * @return the rows that were replaced, as they were before the update
+     */
     @Transactional
-    public void refreshRecordFiles(List<RecordSnapshot> snapshots) {
-        jdbcClient.sql("DELETE FROM record_file").update();
+    public List<IndexedFile> upsertRecordFiles(List<RecordSnapshot> snapshots) {
+        List<IndexedFile> replaced = new ArrayList<>();
         for (RecordSnapshot snapshot : snapshots) {
+            findIndexedFile(snapshot.filePath()).ifPresent(replaced::add);
             jdbcClient
                     .sql("""
                             INSERT INTO record_file (device_id, channel_id, file_path, file_size_bytes, start_time, end_time, created_at)
                             VALUES (:deviceId, :channelId, :filePath, :fileSizeBytes, :startTime, :endTime, :createdAt)
+                            ON CONFLICT(file_path) DO UPDATE SET
+                                channel_id = excluded.channel_id,
+                                file_size_bytes = excluded.file_size_bytes,
+                                start_time = excluded.start_time,
+                                end_time = excluded.end_time,
+                                created_at = excluded.created_at
                             """)
                     .param("deviceId", snapshot.deviceId())
                     .param("channelId", snapshot.channelId())
@@ -119,6 +208,263 @@ public class StorageRepository {
                     .param("createdAt", snapshot.createdAt())
                     .update();
         }
+        return replaced;
+    }
+
+    /**
+     * @return the rows that were deleted
+     */
+    @Transactional
+    public List<IndexedFile> deleteRecordFilesByPath(Collection<String> filePaths) {
+        List<IndexedFile> removed = new ArrayList<>();
+        for (String filePath : filePaths) {
+            Optional<IndexedFile> existing = findIndexedFile(filePath);
+            if (existing.isEmpty()) {
+                continue;
+            }
+            jdbcClient.sql("DELETE FROM record_file WHERE file_path = :filePath")
+                    .param("filePath", filePath)
+                    .update();
+            removed.add(existing.get());
+        }
+        return removed;
+    }
+
+    public void updateRecordEndTime(String filePath, String endTime) {
+        jdbcClient.sql("UPDATE record_file SET end_time = :endTime WHERE file_path = :filePath")
+                .param("endTime", endTime)
+                .param("filePath", filePath)
+                .update();
+    }
+
+    /**
+     * Drops every segment below a directory that was removed as a whole. The
+     * prefix ends with the path separator; the range keeps it on the file_path
+     * index.
+     *
+     * @return the rows that were deleted
+     */
+    @Transactional
+    public List<IndexedFile> deleteRecordFilesUnder(String directoryPrefix) {
+        String upper = prefixUpperBound(directoryPrefix);
+        List<IndexedFile> removed = jdbcClient.sql("""
+                SELECT file_path, channel_id, file_size_bytes, created_at
+                FROM record_file
+                WHERE file_path >= :prefix AND file_path < :upper
+                """)
+                .param("prefix", directoryPrefix)
+                .param("upper", upper)
+                .query((rs, rowNum) -> mapIndexedFile(rs))
+                .list();
+        if (!removed.isEmpty()) {
+            jdbcClient.sql("DELETE FROM record_file WHERE file_path >= :prefix AND file_path < :upper")
+                    .param("prefix", directoryPrefix)
+                    .param("upper", upper)
+                    .update();
+        }
+        return removed;
+    }
+
+    /**
+     * Path, channel, size and modification time of every indexed segment, for
+     * reconciling the index against the record tree.
+     */
+    public List<IndexedFile> listIndexedFiles() {
+        return jdbcClient.sql("SELECT file_path, channel_id, file_size_bytes, created_at FROM record_file")
+                .query((rs, rowNum) -> mapIndexedFile(rs))
+                .list();
+    }
+
+    /**
+     * One channel's oldest segments first, straight off the
+     * (channel_id, created_at) index, so cleanup never sorts the archive.
+     *
+     * @param channelId  {@code null} for segments whose channel is unknown
+     * @param rootPrefix only segments under this record root, or {@code null}
+     *                   for all tiers
+     */
+    public List<IndexedFile> listOldestRecordFilesOfChannel(String channelId, String rootPrefix,
+            String modifiedBefore, int limit) {
+        return jdbcClient.sql("""
+                SELECT file_path, channel_id, file_size_bytes, created_at
+                FROM record_file
+                WHERE channel_id IS :channelId
+                  AND created_at < :modifiedBefore
+                  AND (:prefix IS NULL OR (file_path >= :prefix AND file_path < :upper))
+                ORDER BY created_at ASC
+                LIMIT :limit
+                """)
+                .param("channelId", channelId)
+                .param("modifiedBefore", modifiedBefore)
+                .param("prefix", rootPrefix)
+                .param("upper", rootPrefix == null ? null : prefixUpperBound(rootPrefix))
+                .param("limit", limit)
+                .query((rs, rowNum) -> mapIndexedFile(rs))
+                .list();
+    }
+
+    /**
+     * Points every segment below {@code fromPrefix} at the same relative path
+     * below {@code toPrefix}, in one statement. A row already indexed at the
+     * new path (picked up by a scan mid-move) is replaced.
+     *
+     * @return the number of rows moved
+     */
+    @Transactional
+    public int relocateRecordFiles(String fromPrefix, String toPrefix) {
+        return jdbcClient.sql("""
+                UPDATE OR REPLACE record_file
+                SET file_path = :toPrefix || substr(file_path, :fromLength + 1)
+                WHERE file_path >= :prefix AND file_path < :upper
+                """)
+                .param("toPrefix", toPrefix)
+                .param("fromLength", fromPrefix.length())
+                .param("prefix", fromPrefix)
+                .param("upper", prefixUpperBound(fromPrefix))
+                .update();
+    }
+
+    /**
+     * Directories holding segments modified before the cutoff, with their
+     * expired file count and bytes. The parent is cut from file_path by
+     * trimming the file name characters up to the last separator.
+     */
+    public List<ExpiredDirectory> listExpiredDirectories(String modifiedBefore, String separator) {
+        return jdbcClient.sql("""
+                SELECT parent, COUNT(*) AS file_count, SUM(file_size_bytes) AS total_bytes
+                FROM (
+                    SELECT rtrim(file_path, replace(file_path, :separator, '')) AS parent, file_size_bytes
+                    FROM record_file
+                    WHERE created_at < :modifiedBefore
+                )
+                GROUP BY parent
+                """)
+                .param("separator", separator)
+                .param("modifiedBefore", modifiedBefore)
+                .query((rs, rowNum) -> new ExpiredDirectory(
+                        rs.getString("parent"),
+                        rs.getLong("file_count"),
+                        rs.getLong("total_bytes")))
+                .list();
+    }
+
+    /**
+     * Like {@link #listExpiredDirectories}, limited to one record root (tier)
+     * so that only that tier's part of the file_path index is read.
+     */
+    public List<ExpiredDirectory> listDirectoriesUnder(String rootPrefix, String modifiedBefore, String separator) {
+        return jdbcClient.sql("""
+                SELECT parent, COUNT(*) AS file_count, SUM(file_size_bytes) AS total_bytes
+                FROM (
+                    SELECT rtrim(file_path, replace(file_path, :separator, '')) AS parent, file_size_bytes
+                    FROM record_file
+                    WHERE file_path >= :prefix AND file_path < :upper AND created_at < :modifiedBefore
+                )
+                GROUP BY parent
+                """)
+                .param("separator", separator)
+                .param("prefix", rootPrefix)
+                .param("upper", prefixUpperBound(rootPrefix))
+                .param("modifiedBefore", modifiedBefore)
+                .query((rs, rowNum) -> new ExpiredDirectory(
+                        rs.getString("parent"),
+                        rs.getLong("file_count"),
+                        rs.getLong("total_bytes")))
+                .list();
+    }
+
+    public boolean hasRecordFilesUnderSince(String directoryPrefix, String modifiedSince) {
+        String upper = prefixUpperBound(directoryPrefix);
+        return jdbcClient.sql("""
+                SELECT 1 FROM record_file
+                WHERE file_path >= :prefix AND file_path < :upper AND created_at >= :modifiedSince
+                LIMIT 1
+                """)
+                .param("prefix", directoryPrefix)
+                .param("upper", upper)
+                .param("modifiedSince", modifiedSince)
+                .query(Integer.class)
+                .optional()
+                .isPresent();
+    }
+
+    /** Smallest string above every string starting with {@code prefix}. */
+    private static String prefixUpperBound(String prefix) {
+        char last = prefix.charAt(prefix.length() - 1);
+        return prefix.substring(0, prefix.length() - 1) + (char) (last + 1);
+    }
+
+    private Optional<IndexedFile> findIndexedFile(String filePath) {
+        return jdbcClient.sql("""
+                SELECT file_path, channel_id, file_size_bytes, created_at
+                FROM record_file
+                WHERE file_path = :filePath
+                """)
+                .param("filePath", filePath)
+                .query((rs, rowNum) -> mapIndexedFile(rs))
+                .optional();
+    }
+
+    private IndexedFile mapIndexedFile(ResultSet rs) throws SQLException {
+        return new IndexedFile(
+                rs.getString("file_path"),
+                rs.getString("channel_id"),
+                rs.getLong("file_size_bytes"),
+                rs.getString("created_at"));
+    }
+
+    /**
+     * File count, bytes and oldest/newest modification time per channel and
+     * UTC day (the first ten characters of created_at), to seed the running
+     * usage counters.
+     */
+    public List<UsageBucket> aggregateUsageBuckets() {
+        return jdbcClient.sql("""
+                SELECT channel_id,
+                       substr(created_at, 1, 10) AS day,
+                       COUNT(*) AS file_count,
+                       SUM(file_size_bytes) AS total_bytes,
+                       MIN(created_at) AS oldest,
+                       MAX(created_at) AS newest
+                FROM record_file
+                GROUP BY channel_id, substr(created_at, 1, 10)
+                """)
+                .query((rs, rowNum) -> new UsageBucket(
+                        rs.getString("channel_id"),
+                        rs.getString("day"),
+                        rs.getLong("file_count"),
+                        rs.getLong("total_bytes"),
+                        rs.getString("oldest"),
+                        rs.getString("newest")))
+                .list();
+    }
+
+    /**
+     * Oldest and newest modification time of one channel on one UTC day, read
+     * from the (channel_id, created_at) index.
+     */
+    public UsageBucket findUsageBounds(String channelId, String day) {
+        return jdbcClient.sql("""
+                SELECT COUNT(*) AS file_count,
+                       COALESCE(SUM(file_size_bytes), 0) AS total_bytes,
+                       MIN(created_at) AS oldest,
+                       MAX(created_at) AS newest
+                FROM record_file
+                WHERE channel_id IS :channelId
+                  AND created_at >= :dayStart
+                  AND created_at < :dayEnd
+                """)
+                .param("channelId", channelId)
+                .param("dayStart", day)
+                .param("dayEnd", day + "~")
+                .query((rs, rowNum) -> new UsageBucket(
+                        channelId,
+                        day,
+                        rs.getLong("file_count"),
+                        rs.getLong("total_bytes"),
+                        rs.getString("oldest"),
+                        rs.getString("newest")))
+                .single();
     }
 
     // ── Playback queries ──────────────────────────────────────────
@@ -137,6 +483,33 @@ public class StorageRepository {
                 .list();
     }
 
+    /**
+     * The channel's last segment starting at or before {@code time}; whether
+     * it still covers that time is up to the caller.
+     */
+    public Optional<RecordFileItem> findLastRecordStartingBy(String channelId, String time) {
+        return jdbcClient.sql("""
+                SELECT id, device_id, channel_id, file_path, file_size_bytes, start_time, end_time, created_at
+                FROM record_file
+                WHERE channel_id = :channelId
+                  AND start_time <= :time
+                ORDER BY start_time DESC
+                LIMIT 1
+                """)
+                .param("channelId", channelId)
+                .param("time", time)
+                .query((rs, rowNum) -> new RecordFileItem(
+                        rs.getLong("id"),
+                        rs.getString("device_id"),
+                        rs.getString("channel_id"),
+                        rs.getString("file_path"),
+                        rs.getLong("file_size_bytes"),
+                        rs.getString("start_time"),
+                        rs.getString("end_time"),
+                        rs.getString("created_at")))
+                .optional();
+    }
+
     public List<RecordFileItem> findRecordsByChannelAndTimeRange(String channelId, String startTime, String endTime) {
         return jdbcClient.sql("""
                 SELECT id, device_id, channel_id, file_path, file_size_bytes, start_time, end_time, created_at
@@ -170,7 +543,7 @@ public class StorageRepository {
                 """)
                 .param("now", now)
                 .update();
-        return getPolicy();
+        return loadPolicy();
     }
 
     public record RecordSnapshot(
@@ -182,4 +555,22 @@ public class StorageRepository {
             String endTime,
             String createdAt) {
     }
+
+    public record IndexedFile(String filePath, String channelId, long fileSizeBytes, String modifiedAt) {
+    }
+
+    /**
+     * @param prefix directory path ending with the separator
+     */
+    public record ExpiredDirectory(String prefix, long fileCount, long totalBytes) {
+    }
+
+    public record UsageBucket(
+            String channelId,
+            String day,
+            long fileCount,
+            long totalBytes,
+            String oldest,
+            String newest) {
+    }
 }
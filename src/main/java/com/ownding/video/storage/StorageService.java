@@ -6,42 +6,50 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.Instant;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 @Service
 public class StorageService {
 
     private static final Logger log = LoggerFactory.getLogger(StorageService.class);
-    private static final Set<String> VIDEO_EXTENSIONS = Set.of(
-            "mp4", "mkv", "ts", "flv", "ps", "h264", "h265", "hevc");
 
-    /** Matches ZLM filename pattern: 2026-02-17-17-31-13-0.mp4 */
-    private static final Pattern FILENAME_TIME_PATTERN = Pattern.compile(
-            "(\\d{4})-(\\d{2})-(\\d{2})-(\\d{2})-(\\d{2})-(\\d{2}).*\\.mp4$");
-
-    /** Matches channel directory: ch34020000001320000001 */
-    private static final Pattern CHANNEL_DIR_PATTERN = Pattern.compile("^ch(\\d+)$");
-
-    /** Each MP4 segment is 60 seconds */
-    private static final int SEGMENT_DURATION_SECONDS = 60;
+    /** Indexed bytes may exceed the file system's used bytes by this share of its size before a re-scan. */
+    private static final double USAGE_DRIFT_TOLERANCE = 0.01d;
+    /** Same shape as record_file.start_time. */
+    private static final DateTimeFormatter INDEX_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
 
     private final StorageRepository storageRepository;
-
-    public StorageService(StorageRepository storageRepository) {
+    private final RecordIndexer recordIndexer;
+    private final StorageUsageCounters usageCounters;
+    private final CleanupEngine cleanupEngine;
+    private final RecordTimelineIndex timelineIndex;
+    private final RecordTiers recordTiers;
+    private final TierMigrator tierMigrator;
+    /** Resolved and created record directory, reset when the policy changes. */
+    private volatile Path recordPath;
+
+    public StorageService(StorageRepository storageRepository, RecordIndexer recordIndexer,
+            StorageUsageCounters usageCounters, CleanupEngine cleanupEngine, RecordTimelineIndex timelineIndex,
+            RecordTiers recordTiers, TierMigrator tierMigrator) {
         this.storageRepository = storageRepository;
+        this.recordIndexer = recordIndexer;
+        this.usageCounters = usageCounters;
+        this.cleanupEngine = cleanupEngine;
+        this.timelineIndex = timelineIndex;
+        this.recordTiers = recordTiers;
+        this.tierMigrator = tierMigrator;
     }
 
     public StoragePolicy getPolicy() {
@@ -59,6 +67,7 @@ public class StorageService {
             throw new ApiException(400, "录像路径不能为空");
         }
 
+        String previousPath = getPolicy().recordPath();
         StoragePolicy policy = storageRepository.updatePolicy(
                 command.retentionDays(),
                 command.maxStorageGb(),
@@ -66,20 +75,93 @@ public class StorageService {
                 command.recordEnabled(),
                 command.recordPath());
         ensureRecordPath(policy.recordPath());
+        recordPath = null;
+        if (!policy.recordPath().trim().equals(previousPath == null ? null : previousPath.trim())) {
+            recordIndexer.recordPathChanged();
+        }
         return policy;
     }
 
+    /**
+     * Served from the running counters, cross-checked against the file
+     * systems holding the record tiers: recordings cannot take more space than
+     * those have in use, so a larger total means the index drifted.
+     */
     public StorageUsage getUsage() {
         StoragePolicy policy = getPolicy();
-        List<RecordFile> files = listVideoFiles(ensureRecordPath(policy.recordPath()));
-        refreshRecordIndex(files);
-        return buildUsage(files, policy.maxStorageGb());
+        StorageUsageCounters.Totals totals = usageCounters.totals();
+        long diskTotal = 0L;
+        long diskUsable = 0L;
+        long diskUsed = 0L;
+        Set<FileStore> stores = new HashSet<>();
+        try {
+            for (Path root : recordTiers.allRoots()) {
+                FileStore store = Files.getFileStore(Files.exists(root) ? root : getRecordPath());
+                if (stores.add(store)) {
+                    diskTotal += store.getTotalSpace();
+                    diskUsable += store.getUsableSpace();
+                    diskUsed += store.getTotalSpace() - store.getUnallocatedSpace();
+                }
+            }
+            if (totals.totalBytes() > diskUsed + (long) (diskTotal * USAGE_DRIFT_TOLERANCE)) {
+                recordIndexer.requestReconcile("indexed %d bytes, file system uses %d".formatted(
+                        totals.totalBytes(), diskUsed));
+            }
+        } catch (IOException ex) {
+            log.debug("读取磁盘空间失败: {}", ex.getMessage());
+            diskTotal = -1L;
+            diskUsable = -1L;
+        }
+        return buildUsage(totals, policy.maxStorageGb(), diskTotal, diskUsable);
+    }
+
+    public List<RetentionPolicy> listRetentionPolicies() {
+        return storageRepository.listRetentionPolicies();
+    }
+
+    /**
+     * Creates or replaces a channel's or group's override; the cleanup engine
+     * picks it up on its next watermark check.
+     */
+    public RetentionPolicy saveRetentionPolicy(SaveRetentionPolicyCommand command) {
+        String scope = command.scope() == null ? "" : command.scope().trim().toUpperCase(Locale.ROOT);
+        if (!RetentionPolicy.SCOPE_CHANNEL.equals(scope) && !RetentionPolicy.SCOPE_GROUP.equals(scope)) {
+            throw new ApiException(400, "范围必须是CHANNEL或GROUP");
+        }
+        if (command.scopeId() == null || command.scopeId().isBlank()) {
+            throw new ApiException(400, "通道ID或分组名称不能为空");
+        }
+        if (command.retentionDays() != null && command.retentionDays() < 0) {
+            throw new ApiException(400, "保留天数不能小于0");
+        }
+        if (command.maxStorageGb() != null && command.maxStorageGb() < 1) {
+            throw new ApiException(400, "存储上限必须大于0");
+        }
+        String groupName = command.groupName() == null || command.groupName().isBlank()
+                ? null
+                : command.groupName().trim();
+        if (RetentionPolicy.SCOPE_GROUP.equals(scope) && groupName != null) {
+            throw new ApiException(400, "分组策略不能再指定分组");
+        }
+        return storageRepository.saveRetentionPolicy(scope, command.scopeId().trim(), groupName,
+                command.retentionDays(), command.maxStorageGb(), command.priority());
+    }
+
+    public void deleteRetentionPolicy(long id) {
+        if (!storageRepository.deleteRetentionPolicy(id)) {
+            throw new ApiException(404, "保留策略不存在");
+        }
+    }
+
+    public List<StorageUsageCounters.ChannelUsage> getChannelUsage() {
+        return usageCounters.byChannel();
+    }
+
+    public List<StorageUsageCounters.DayUsage> getDailyUsage() {
+        return usageCounters.byDay();
     }
 
     public List<RecordFileItem> listRecords() {
-        StoragePolicy policy = getPolicy();
-        List<RecordFile> files = listVideoFiles(ensureRecordPath(policy.recordPath()));
-        refreshRecordIndex(files);
         return storageRepository.listRecordFiles();
     }
 
@@ -91,60 +173,99 @@ public class StorageService {
         } catch (IOException ex) {
             throw new ApiException(500, "删除文件失败: " + ex.getMessage());
         }
-        storageRepository.deleteRecordById(id);
+        recordIndexer.onDeleted(List.of(Path.of(item.filePath())));
     }
 
+    /**
+     * Runs the cleanup engine now.
+     *
+     * @throws ApiException 409 while a timer or watermark run is in progress
+     */
     public StorageUsage executeCleanup() {
-        StoragePolicy policy = getPolicy();
-        Path recordPath = ensureRecordPath(policy.recordPath());
-        List<RecordFile> files = listVideoFiles(recordPath);
-
-        if (policy.retentionDays() > 0) {
-            Instant expireBefore = Instant.now().minus(policy.retentionDays(), ChronoUnit.DAYS);
-            for (RecordFile file : files) {
-                if (file.modifiedAt().isBefore(expireBefore)) {
-                    safeDelete(file.path());
-                }
-            }
+        if (cleanupEngine.run("manual") == null) {
+            throw new ApiException(409, "清理正在进行中");
         }
+        return getUsage();
+    }
 
-        files = listVideoFiles(recordPath);
-        if (policy.autoOverwrite()) {
-            long maxBytes = policy.maxStorageGb() * 1024L * 1024L * 1024L;
-            long totalBytes = files.stream().mapToLong(RecordFile::size).sum();
-            if (totalBytes > maxBytes) {
-                List<RecordFile> sorted = new ArrayList<>(files);
-                sorted.sort(Comparator.comparing(RecordFile::modifiedAt));
-                for (RecordFile file : sorted) {
-                    if (totalBytes <= maxBytes) {
-                        break;
-                    }
-                    if (safeDelete(file.path())) {
-                        totalBytes -= file.size();
-                    }
-                }
-            }
-        }
+    public CleanupEngine.CleanupReport getLastCleanupReport() {
+        return cleanupEngine.lastReport();
+    }
 
-        files = listVideoFiles(recordPath);
-        refreshRecordIndex(files);
-        return buildUsage(files, policy.maxStorageGb());
+    public TierMigrator.MigrationReport getLastMigrationReport() {
+        return tierMigrator.lastReport();
     }
 
     // ── Playback API support ──────────────────────────────────────
 
     /** Returns the resolved record path for serving files. */
     public Path getRecordPath() {
-        return ensureRecordPath(getPolicy().recordPath());
+        Path cached = recordPath;
+        if (cached == null) {
+            cached = ensureRecordPath(getPolicy().recordPath()).toAbsolutePath().normalize();
+            recordPath = cached;
+        }
+        return cached;
     }
 
     /**
-     * Lists distinct channel IDs that have recordings. Triggers a refresh first.
+     * Resolves a path relative to the record directory, or an indexed
+     * absolute path, to an existing file on whichever tier holds it.
+     */
+    public Path resolveRecordFile(String path) {
+        if (path == null || path.isBlank()) {
+            throw new ApiException(400, "路径不能为空");
+        }
+        Path filePath = locateRecordFile(path);
+        if (filePath == null) {
+            throw new ApiException(403, "路径越权访问");
+        }
+        if (!Files.isRegularFile(filePath)) {
+            throw new ApiException(404, "录像文件不存在");
+        }
+        return filePath;
+    }
+
+    /**
+     * Like {@link #resolveRecordFile} without the existence check; a path
+     * that was migrated to another tier since it was handed out is followed
+     * to its new place.
+     *
+     * @return {@code null} when the path lies outside every record root
+     */
+    public Path locateRecordFile(String path) {
+        Path filePath = getRecordPath().resolve(path).toAbsolutePath().normalize();
+        Path root = recordTiers.rootOf(filePath);
+        if (root == null) {
+            log.warn("路径越权访问: {} 不在录像目录内", filePath);
+            return null;
+        }
+        if (Files.exists(filePath)) {
+            return filePath;
+        }
+        Path relative = root.relativize(filePath);
+        for (Path tierRoot : recordTiers.allRoots()) {
+            Path moved = tierRoot.resolve(relative);
+            if (Files.exists(moved)) {
+                return moved;
+            }
+        }
+        return filePath;
+    }
+
+    /**
+     * The tier-independent path of a record file, relative to its root with
+     * '/' separators, or {@code null} when it is outside every root.
+     */
+    public String relativeRecordPath(Path file) {
+        Path root = recordTiers.rootOf(file);
+        return root == null ? null : root.relativize(file.toAbsolutePath().normalize()).toString().replace('\\', '/');
+    }
+
+    /**
+     * Lists distinct channel IDs that have recordings.
      */
     public List<PlaybackChannel> listPlaybackChannels() {
-        StoragePolicy policy = getPolicy();
-        List<RecordFile> files = listVideoFiles(ensureRecordPath(policy.recordPath()));
-        refreshRecordIndex(files);
         return storageRepository.listDistinctChannels();
     }
 
@@ -156,168 +277,122 @@ public class StorageService {
         if (date == null || date.isBlank()) {
             throw new ApiException(400, "日期不能为空");
         }
-        // Refresh index first
-        StoragePolicy policy = getPolicy();
-        List<RecordFile> files = listVideoFiles(ensureRecordPath(policy.recordPath()));
-        refreshRecordIndex(files);
-
         // date is yyyy-MM-dd, construct start/end of day as ISO instants
         String startTime = date + "T00:00:00";
         String endTime = date + "T23:59:59";
         return storageRepository.findRecordsByChannelAndTimeRange(channelId, startTime, endTime);
     }
 
-    // ── Private helpers ───────────────────────────────────────────
+    /**
+     * Coalesced recorded spans and gaps of a channel within {@code [from, to)}.
+     * Both accept yyyy-MM-dd (start of that day) or yyyy-MM-ddTHH:mm:ss; without
+     * {@code to} the range is the day starting at {@code from}.
+     */
+    public RecordTimelineIndex.Timeline playbackTimeline(String channelId, String from, String to) {
+        if (channelId == null || channelId.isBlank()) {
+            throw new ApiException(400, "通道ID不能为空");
+        }
+        LocalDateTime start = parseTimelineTime(from, "开始时间");
+        LocalDateTime end = to == null || to.isBlank() ? start.plusDays(1) : parseTimelineTime(to, "结束时间");
+        return timelineIndex.timeline(channelId, start, end);
+    }
 
-    private Path ensureRecordPath(String rawPath) {
-        try {
-            Path path = Path.of(rawPath);
-            if (!Files.exists(path)) {
-                Files.createDirectories(path);
-            }
-            return path;
-        } catch (IOException ex) {
-            throw new ApiException(500, "无法创建录像目录: " + ex.getMessage());
+    public RecordTimelineIndex.Located locateRecording(String channelId, String time) {
+        if (channelId == null || channelId.isBlank()) {
+            throw new ApiException(400, "通道ID不能为空");
         }
+        return timelineIndex.locate(channelId, parseTimelineTime(time, "时间"));
     }
 
-    private List<RecordFile> listVideoFiles(Path path) {
-        List<RecordFile> result = new ArrayList<>();
-        if (!Files.exists(path)) {
-            return result;
+    /**
+     * Maps a wall-clock time to the segment covering it and the keyframe at
+     * or before it, so a player can start there with a single range request.
+     */
+    public SeekTarget seekRecording(String channelId, String time) {
+        if (channelId == null || channelId.isBlank()) {
+            throw new ApiException(400, "通道ID不能为空");
         }
-        try (var stream = Files.walk(path)) {
-            stream.filter(Files::isRegularFile).forEach(file -> {
-                if (!isVideoFile(file)) {
-                    return;
-                }
-                try {
-                    long size = Files.size(file);
-                    Instant modifiedAt = Files.getLastModifiedTime(file).toInstant();
-                    result.add(new RecordFile(file.toAbsolutePath().normalize(), size, modifiedAt));
-                } catch (IOException ex) {
-                    log.warn("读取文件失败: {}", file);
-                }
-            });
+        LocalDateTime at = parseTimelineTime(time, "时间");
+        RecordFileItem item = storageRepository.findLastRecordStartingBy(channelId, INDEX_TIME_FORMAT.format(at))
+                .orElseThrow(() -> new ApiException(404, "该时间点没有录像"));
+        Path file = Path.of(item.filePath());
+        String relativePath = relativeRecordPath(file);
+        LocalDateTime start;
+        try {
+            start = LocalDateTime.parse(item.startTime());
+        } catch (DateTimeParseException ex) {
+            throw new ApiException(404, "该时间点没有录像");
+        }
+        if (relativePath == null) {
+            throw new ApiException(404, "该时间点没有录像");
+        }
+        SegmentInfoCache.SegmentInfo info;
+        try {
+            info = recordIndexer.probe(item);
         } catch (IOException ex) {
-            throw new ApiException(500, "扫描录像目录失败: " + ex.getMessage());
+            throw new ApiException(422, "无法解析录像文件: " + ex.getMessage());
         }
-        return result;
-    }
-
-    private boolean isVideoFile(Path file) {
-        String name = file.getFileName().toString();
-        int dotIndex = name.lastIndexOf('.');
-        if (dotIndex < 0 || dotIndex == name.length() - 1) {
-            return false;
+        long intoSegmentMillis = Duration.between(start, at).toMillis();
+        if (intoSegmentMillis >= info.durationMillis()) {
+            throw new ApiException(404, "该时间点没有录像");
         }
-        String ext = name.substring(dotIndex + 1).toLowerCase();
-        return VIDEO_EXTENSIONS.contains(ext);
+        int keyframe = info.keyframeAtOrBefore(intoSegmentMillis);
+        long keyframeMillis = keyframe < 0 ? 0L : info.keyframeMillis()[keyframe];
+        long byteOffset = keyframe < 0 ? 0L : info.keyframeOffsets()[keyframe];
+        return new SeekTarget(
+                relativePath,
+                item.startTime(),
+                start.plus(info.durationMillis(), ChronoUnit.MILLIS).toString(),
+                info.codecs(),
+                keyframeMillis / 1000d,
+                start.plus(keyframeMillis, ChronoUnit.MILLIS).toString(),
+                byteOffset,
+                item.fileSizeBytes());
     }
 
-    private void refreshRecordIndex(List<RecordFile> files) {
-        List<StorageRepository.RecordSnapshot> snapshots = files.stream()
-                .map(file -> {
-                    String channelId = parseChannelIdFromPath(file.path());
-                    String startTime = parseStartTimeFromFilename(file.path());
-                    String endTime = null;
-                    if (startTime != null) {
-                        try {
-                            LocalDateTime start = LocalDateTime.parse(startTime);
-                            endTime = start.plusSeconds(SEGMENT_DURATION_SECONDS).toString();
-                        } catch (DateTimeParseException ex) {
-                            endTime = startTime;
-                        }
-                    }
-                    if (startTime == null) {
-                        startTime = file.modifiedAt().toString();
-                    }
-                    if (endTime == null) {
-                        endTime = file.modifiedAt().toString();
-                    }
-                    return new StorageRepository.RecordSnapshot(
-                            null,
-                            channelId,
-                            file.path().toString(),
-                            file.size(),
-                            startTime,
-                            endTime,
-                            file.modifiedAt().toString());
-                })
-                .toList();
-        storageRepository.refreshRecordFiles(snapshots);
-    }
+    // ── Private helpers ───────────────────────────────────────────
 
-    /**
-     * Parses channelId from file path. Looks for a parent directory matching
-     * "ch{channelId}".
-     * Example path: .../record/rtp/ch34020000001320000001/2026-02-17/xxx.mp4
-     */
-    private String parseChannelIdFromPath(Path filePath) {
-        Path parent = filePath.getParent();
-        while (parent != null) {
-            String dirName = parent.getFileName() != null ? parent.getFileName().toString() : "";
-            Matcher matcher = CHANNEL_DIR_PATTERN.matcher(dirName);
-            if (matcher.matches()) {
-                return matcher.group(1);
-            }
-            parent = parent.getParent();
+    static LocalDateTime parseTimelineTime(String value, String field) {
+        if (value == null || value.isBlank()) {
+            throw new ApiException(400, field + "不能为空");
+        }
+        try {
+            return value.length() == 10
+                    ? LocalDate.parse(value).atStartOfDay()
+                    : LocalDateTime.parse(value);
+        } catch (DateTimeParseException ex) {
+            throw new ApiException(400, field + "格式错误，应为 yyyy-MM-dd 或 yyyy-MM-ddTHH:mm:ss");
         }
-        return null;
     }
 
-    /**
-     * Parses start time from filename. Expected format: 2026-02-17-17-31-13-0.mp4
-     * Returns ISO LocalDateTime string: 2026-02-17T17:31:13
-     */
-    private String parseStartTimeFromFilename(Path filePath) {
-        String filename = filePath.getFileName().toString();
-        Matcher matcher = FILENAME_TIME_PATTERN.matcher(filename);
-        if (matcher.matches()) {
-            String year = matcher.group(1);
-            String month = matcher.group(2);
-            String day = matcher.group(3);
-            String hour = matcher.group(4);
-            String minute = matcher.group(5);
-            String second = matcher.group(6);
-            return "%s-%s-%sT%s:%s:%s".formatted(year, month, day, hour, minute, second);
-        }
-        return null;
+    private Path ensureRecordPath(String rawPath) {
+        try {
+            Path path = Path.of(rawPath);
+            if (!Files.exists(path)) {
+                Files.createDirectories(path);
+            }
+            return path;
+        } catch (IOException ex) {
+            throw new ApiException(500, "无法创建录像目录: " + ex.getMessage());
+        }
     }
 
-    private StorageUsage buildUsage(List<RecordFile> files, int maxStorageGb) {
-        long totalBytes = files.stream().mapToLong(RecordFile::size).sum();
+    private StorageUsage buildUsage(StorageUsageCounters.Totals totals, int maxStorageGb, long diskTotalBytes,
+            long diskUsableBytes) {
+        long totalBytes = totals.totalBytes();
         double usedGb = totalBytes / 1024d / 1024d / 1024d;
         double usagePercent = maxStorageGb <= 0 ? 0d : Math.min(100d, usedGb * 100d / maxStorageGb);
 
-        String oldest = files.stream()
-                .map(RecordFile::modifiedAt)
-                .min(Comparator.naturalOrder())
-                .map(Instant::toString)
-                .orElse(null);
-        String newest = files.stream()
-                .map(RecordFile::modifiedAt)
-                .max(Comparator.naturalOrder())
-                .map(Instant::toString)
-                .orElse(null);
-
         return new StorageUsage(
-                files.size(),
+                totals.fileCount(),
                 totalBytes,
                 usedGb,
                 maxStorageGb,
                 usagePercent,
-                oldest,
-                newest);
-    }
-
-    private boolean safeDelete(Path path) {
-        try {
-            return Files.deleteIfExists(path);
-        } catch (IOException ex) {
-            log.warn("删除文件失败: {}, {}", path, ex.getMessage());
-            return false;
-        }
+                totals.oldest(),
+                totals.newest(),
+                diskTotalBytes,
+                diskUsableBytes);
     }
 
     public record UpdatePolicyCommand(
@@ -328,9 +403,35 @@ public class StorageService {
             String recordPath) {
     }
 
+    /**
+     * @param retentionDays 0 keeps footage regardless of age; {@code null}
+     *                      fields inherit
+     */
+    public record SaveRetentionPolicyCommand(
+            String scope,
+            String scopeId,
+            String groupName,
+            Integer retentionDays,
+            Integer maxStorageGb,
+            Integer priority) {
+    }
+
     public record PlaybackChannel(String channelId, int fileCount) {
     }
 
-    private record RecordFile(Path path, long size, Instant modifiedAt) {
+    /**
+     * @param path                  relative path for /api/playback/video
+     * @param keyframeOffsetSeconds where to start within the segment
+     * @param byteOffset            file offset of that keyframe's sample
+     */
+    public record SeekTarget(
+            String path,
+            String segmentStart,
+            String segmentEnd,
+            List<String> codecs,
+            double keyframeOffsetSeconds,
+            String keyframeTime,
+            long byteOffset,
+            long fileSizeBytes) {
     }
 }
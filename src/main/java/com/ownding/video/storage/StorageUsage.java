@@ -7,6 +7,8 @@ public record StorageUsage(
         int maxStorageGb,
         double usagePercent,
         String oldestFileTime,
-        String newestFileTime
+        String newestFileTime,
+        long diskTotalBytes,
+        long diskUsableBytes
 ) {
 }
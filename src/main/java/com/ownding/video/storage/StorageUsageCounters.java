@@ -0,0 +1,226 @@
+package com.ownding.video.storage;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Running totals of the record index per channel and UTC day, plus the grand
+ * total, adjusted by {@link RecordIndexer} for every row it inserts, replaces
+ * or deletes so that usage never has to scan record_file. Seeded from one
+ * aggregate query and re-seeded after every reconciliation, which also
+ * repairs any drift.
+ */
+@Component
+public class StorageUsageCounters {
+
+    private final StorageRepository storageRepository;
+    /** UTC day -> channel (null when not parsed from the path) -> bucket */
+    private final TreeMap<String, Map<String, Bucket>> bucketsByDay = new TreeMap<>();
+    private long totalFiles;
+    private long totalBytes;
+    private boolean seeded;
+
+    public StorageUsageCounters(StorageRepository storageRepository) {
+        this.storageRepository = storageRepository;
+    }
+
+    public synchronized void reseed() {
+        bucketsByDay.clear();
+        totalFiles = 0;
+        totalBytes = 0;
+        for (StorageRepository.UsageBucket row : storageRepository.aggregateUsageBuckets()) {
+            Bucket bucket = new Bucket();
+            bucket.fileCount = row.fileCount();
+            bucket.totalBytes = row.totalBytes();
+            bucket.oldest = row.oldest();
+            bucket.newest = row.newest();
+            bucketsByDay.computeIfAbsent(row.day(), day -> new HashMap<>()).put(row.channelId(), bucket);
+            totalFiles += row.fileCount();
+            totalBytes += row.totalBytes();
+        }
+        seeded = true;
+    }
+
+    /**
+     * Applies one committed index change: rows as they were before (replaced
+     * or deleted) and rows as they are now (inserted or updated).
+     */
+    public synchronized void apply(List<StorageRepository.IndexedFile> before,
+            List<StorageRepository.RecordSnapshot> after) {
+        if (!seeded) {
+            // The seed reads the committed index, which already contains this change.
+            reseed();
+            return;
+        }
+        for (StorageRepository.IndexedFile file : before) {
+            remove(file.channelId(), file.fileSizeBytes(), file.modifiedAt());
+        }
+        for (StorageRepository.RecordSnapshot snapshot : after) {
+            add(snapshot.channelId(), snapshot.fileSizeBytes(), snapshot.createdAt());
+        }
+    }
+
+    public synchronized Totals totals() {
+        ensureSeeded();
+        String oldest = bucketsByDay.isEmpty() ? null : bound(bucketsByDay.firstEntry(), true);
+        String newest = bucketsByDay.isEmpty() ? null : bound(bucketsByDay.lastEntry(), false);
+        return new Totals(totalFiles, totalBytes, oldest, newest);
+    }
+
+    public synchronized List<ChannelUsage> byChannel() {
+        ensureSeeded();
+        Map<String, ChannelUsage> byChannel = new HashMap<>();
+        for (Map.Entry<String, Map<String, Bucket>> day : bucketsByDay.entrySet()) {
+            for (Map.Entry<String, Bucket> entry : day.getValue().entrySet()) {
+                Bucket bucket = refreshed(day.getKey(), entry.getKey(), entry.getValue());
+                byChannel.merge(entry.getKey(),
+                        new ChannelUsage(entry.getKey(), bucket.fileCount, bucket.totalBytes, bucket.oldest,
+                                bucket.newest),
+                        (left, right) -> new ChannelUsage(left.channelId(),
+                                left.fileCount() + right.fileCount(),
+                                left.totalBytes() + right.totalBytes(),
+                                min(left.oldest(), right.oldest()),
+                                max(left.newest(), right.newest())));
+            }
+        }
+        List<ChannelUsage> result = new ArrayList<>(byChannel.values());
+        result.sort((left, right) -> Long.compare(right.totalBytes(), left.totalBytes()));
+        return result;
+    }
+
+    /**
+     * Bytes per channel (null key: channel unknown), without refreshing
+     * oldest/newest, for quota checks on every watermark poll.
+     */
+    public synchronized Map<String, Long> channelBytes() {
+        ensureSeeded();
+        Map<String, Long> result = new HashMap<>();
+        for (Map<String, Bucket> channels : bucketsByDay.values()) {
+            for (Map.Entry<String, Bucket> entry : channels.entrySet()) {
+                result.merge(entry.getKey(), entry.getValue().totalBytes, Long::sum);
+            }
+        }
+        return result;
+    }
+
+    public synchronized List<DayUsage> byDay() {
+        ensureSeeded();
+        List<DayUsage> result = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Bucket>> day : bucketsByDay.entrySet()) {
+            long files = 0;
+            long bytes = 0;
+            for (Bucket bucket : day.getValue().values()) {
+                files += bucket.fileCount;
+                bytes += bucket.totalBytes;
+            }
+            result.add(new DayUsage(day.getKey(), day.getValue().size(), files, bytes));
+        }
+        return result;
+    }
+
+    private void ensureSeeded() {
+        if (!seeded) {
+            reseed();
+        }
+    }
+
+    private void add(String channelId, long size, String modifiedAt) {
+        Bucket bucket = bucketsByDay.computeIfAbsent(dayOf(modifiedAt), day -> new HashMap<>())
+                .computeIfAbsent(channelId, key -> new Bucket());
+        bucket.fileCount++;
+        bucket.totalBytes += size;
+        if (!bucket.boundsStale) {
+            bucket.oldest = min(bucket.oldest, modifiedAt);
+            bucket.newest = max(bucket.newest, modifiedAt);
+        }
+        totalFiles++;
+        totalBytes += size;
+    }
+
+    private void remove(String channelId, long size, String modifiedAt) {
+        String day = dayOf(modifiedAt);
+        Map<String, Bucket> channels = bucketsByDay.get(day);
+        Bucket bucket = channels == null ? null : channels.get(channelId);
+        if (bucket == null) {
+            return;
+        }
+        bucket.fileCount--;
+        bucket.totalBytes -= size;
+        totalFiles--;
+        totalBytes -= size;
+        if (bucket.fileCount <= 0) {
+            channels.remove(channelId);
+            if (channels.isEmpty()) {
+                bucketsByDay.remove(day);
+            }
+        } else if (Objects.equals(modifiedAt, bucket.oldest) || Objects.equals(modifiedAt, bucket.newest)) {
+            // Next oldest/newest is only known to the index; looked up when asked for.
+            bucket.boundsStale = true;
+        }
+    }
+
+    private String bound(Map.Entry<String, Map<String, Bucket>> day, boolean oldest) {
+        String result = null;
+        for (Map.Entry<String, Bucket> entry : day.getValue().entrySet()) {
+            Bucket bucket = refreshed(day.getKey(), entry.getKey(), entry.getValue());
+            result = oldest ? min(result, bucket.oldest) : max(result, bucket.newest);
+        }
+        return result;
+    }
+
+    private Bucket refreshed(String day, String channelId, Bucket bucket) {
+        if (!bucket.boundsStale) {
+            return bucket;
+        }
+        StorageRepository.UsageBucket row = storageRepository.findUsageBounds(channelId, day);
+        totalFiles += row.fileCount() - bucket.fileCount;
+        totalBytes += row.totalBytes() - bucket.totalBytes;
+        bucket.fileCount = row.fileCount();
+        bucket.totalBytes = row.totalBytes();
+        bucket.oldest = row.oldest();
+        bucket.newest = row.newest();
+        bucket.boundsStale = false;
+        return bucket;
+    }
+
+    private static String dayOf(String modifiedAt) {
+        return modifiedAt != null && modifiedAt.length() >= 10 ? modifiedAt.substring(0, 10) : "";
+    }
+
+    private static String min(String left, String right) {
+        if (left == null) {
+            return right;
+        }
+        return right == null || left.compareTo(right) <= 0 ? left : right;
+    }
+
+    private static String max(String left, String right) {
+        if (left == null) {
+            return right;
+        }
+        return right == null || left.compareTo(right) >= 0 ? left : right;
+    }
+
+    private static final class Bucket {
+        private long fileCount;
+        private long totalBytes;
+        private String oldest;
+        private String newest;
+        private boolean boundsStale;
+    }
+
+    public record Totals(long fileCount, long totalBytes, String oldest, String newest) {
+    }
+
+    public record ChannelUsage(String channelId, long fileCount, long totalBytes, String oldest, String newest) {
+    }
+
+    public record DayUsage(String day, int channelCount, long fileCount, long totalBytes) {
+    }
+}
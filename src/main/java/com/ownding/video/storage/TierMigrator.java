@@ -0,0 +1,371 @@
+package com.ownding.video.storage;
+
+import com.ownding.video.config.AppProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Moves closed day directories ({@code .../yyyy-MM-dd}) from the hot record
+ * path to the cold tier with most free space once they are older than
+ * app.storage.tiering.hot-days, or earlier (oldest first) while the hot file
+ * system is below the cleanup low watermark. Each file is copied at a capped
+ * rate under a hidden temporary name, keeps its modification time and is
+ * renamed into place. The directory's rows are then re-pointed in one
+ * statement, and only after that are the hot copies deleted. An interrupted
+ * move leaves the hot directory intact and is retried on the next run.
+ * A throttled pass can take hours, so runs go to a thread of their own
+ * instead of holding the shared {@code @Scheduled} thread.
+ */
+@Component
+public class TierMigrator {
+
+    private static final Logger log = LoggerFactory.getLogger(TierMigrator.class);
+    private static final Pattern DAY_DIR_PATTERN = Pattern.compile("^\\d{4}-\\d{2}-\\d{2}$");
+    private static final long COPY_CHUNK_BYTES = 1024L * 1024L;
+    /** A directory written to within this window is not closed yet. */
+    private static final long QUIET_MINUTES = 10L;
+
+    private final StorageRepository storageRepository;
+    private final RecordIndexer recordIndexer;
+    private final RecordTiers recordTiers;
+    private final AppProperties appProperties;
+    private final AtomicBoolean running = new AtomicBoolean();
+    /** A timer run is queued or running on {@link #executor}. */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "tier-migrator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile MigrationReport lastReport;
+
+    public TierMigrator(StorageRepository storageRepository, RecordIndexer recordIndexer, RecordTiers recordTiers,
+            AppProperties appProperties) {
+        this.storageRepository = storageRepository;
+        this.recordIndexer = recordIndexer;
+        this.recordTiers = recordTiers;
+        this.appProperties = appProperties;
+    }
+
+    public MigrationReport lastReport() {
+        return lastReport;
+    }
+
+    @Scheduled(initialDelayString = "${app.storage.tiering.migrate-interval-ms:600000}",
+            fixedDelayString = "${app.storage.tiering.migrate-interval-ms:600000}")
+    public void migrateTask() {
+        if (!config().isEnabled() || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                run();
+            } catch (Exception ex) {
+                log.warn("record tier migration failed: {}", ex.getMessage());
+            } finally {
+                scheduled.set(false);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        // Interrupts the throttle; the hot directory being copied stays intact.
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return {@code null} when tiering is off or a run is in progress
+     */
+    public MigrationReport run() {
+        if (!config().isEnabled() || recordTiers.coldRoots().isEmpty() || !running.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            MigrationReport report = doRun();
+            lastReport = report;
+            if (report.movedDirectories() > 0) {
+                log.info("record tier migration done. dirs={}, files={}, mb={}, mbPerSec={}, elapsedMs={}",
+                        report.movedDirectories(), report.movedFiles(), report.movedBytes() / 1024 / 1024,
+                        report.bytesPerSecond() / 1024 / 1024, report.elapsedMs());
+            }
+            return report;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private MigrationReport doRun() {
+        long startedNanos = System.nanoTime();
+        Path hot = recordTiers.hotRoot();
+        String separator = hot.getFileSystem().getSeparator();
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate today = LocalDate.now(zone);
+        // hot-days counts today; days before this one are due.
+        LocalDate due = today.minusDays(Math.max(0, config().getHotDays() - 1));
+        Instant quietSince = Instant.now().minus(QUIET_MINUTES, ChronoUnit.MINUTES);
+
+        List<StorageRepository.ExpiredDirectory> directories = new ArrayList<>(storageRepository
+                .listDirectoriesUnder(prefixOf(hot), quietSince.toString(), separator)
+                .stream()
+                .filter(directory -> dayOf(hot, Path.of(directory.prefix())) != null)
+                .filter(directory -> dayOf(hot, Path.of(directory.prefix())).isBefore(today))
+                .toList());
+        directories.sort(Comparator.comparing(directory -> dayOf(hot, Path.of(directory.prefix()))));
+
+        Tally tally = new Tally(startedNanos);
+        for (StorageRepository.ExpiredDirectory directory : directories) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            if (!dayOf(hot, Path.of(directory.prefix())).isBefore(due) && !hotUnderPressure(hot)) {
+                break;
+            }
+            if (storageRepository.hasRecordFilesUnderSince(directory.prefix(), quietSince.toString())) {
+                continue;
+            }
+            if (!migrate(hot, Path.of(directory.prefix()), directory.totalBytes(), tally)) {
+                break;
+            }
+        }
+
+        long elapsedMs = (System.nanoTime() - startedNanos) / 1_000_000L;
+        return new MigrationReport(
+                tally.directories,
+                tally.files,
+                tally.bytes,
+                elapsedMs,
+                tally.bytes * 1000L / Math.max(1L, elapsedMs),
+                Instant.now().toString());
+    }
+
+    /**
+     * @return false when no cold tier can take the directory, which ends the run
+     */
+    private boolean migrate(Path hot, Path source, long bytes, Tally tally) {
+        Path coldRoot = pickColdRoot(bytes);
+        if (coldRoot == null) {
+            log.warn("no cold tier has room for {} ({} bytes)", source, bytes);
+            return false;
+        }
+        Path target = coldRoot.resolve(hot.relativize(source));
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(source)) {
+            files = stream.filter(Files::isRegularFile).toList();
+        } catch (IOException ex) {
+            log.warn("读取待迁移目录失败: {}, {}", source, ex.getMessage());
+            return true;
+        }
+        if (files.stream().anyMatch(file -> file.getFileName().toString().startsWith("."))) {
+            // ZLMediaKit is still writing a segment here.
+            return true;
+        }
+
+        List<Path> copied = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                Path destination = target.resolve(source.relativize(file));
+                copy(file, destination, tally);
+                copied.add(destination);
+            }
+        } catch (IOException ex) {
+            log.warn("迁移录像目录失败: {} -> {}, {}", source, target, ex.getMessage());
+            for (Path destination : copied) {
+                deleteQuietly(destination);
+            }
+            return true;
+        }
+
+        String separator = hot.getFileSystem().getSeparator();
+        recordIndexer.onDirectoryMoved(source + separator, target + separator);
+        deleteTree(source);
+        tally.directories++;
+        tally.files += files.size();
+        return true;
+    }
+
+    private void copy(Path source, Path destination, Tally tally) throws IOException {
+        Files.createDirectories(destination.getParent());
+        // Hidden until complete, so neither the indexer nor a player sees a partial file.
+        Path temp = destination.resolveSibling("." + destination.getFileName() + ".migrating");
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, Math.min(COPY_CHUNK_BYTES, size - position), out);
+                if (transferred <= 0) {
+                    throw new EOFException("源文件被截断: " + source);
+                }
+                position += transferred;
+                tally.bytes += transferred;
+                throttle(tally);
+            }
+            out.force(true);
+        } catch (IOException ex) {
+            deleteQuietly(temp);
+            throw ex;
+        }
+        // created_at (mtime) drives retention and reconciliation; keep it.
+        Files.setLastModifiedTime(temp, Files.getLastModifiedTime(source));
+        Files.move(temp, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Sleeps while the run is ahead of app.storage.tiering.migrate-bytes-per-second.
+     */
+    private void throttle(Tally tally) throws IOException {
+        long bytesPerSecond = config().getMigrateBytesPerSecond();
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long dueNanos = tally.startedNanos + tally.bytes * 1_000_000_000L / bytesPerSecond;
+        long aheadNanos = dueNanos - System.nanoTime();
+        if (aheadNanos > 0) {
+            try {
+                Thread.sleep(aheadNanos / 1_000_000L, (int) (aheadNanos % 1_000_000L));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("迁移被中断");
+            }
+        }
+    }
+
+    /**
+     * The cold tier with most usable space that stays above the cleanup low
+     * watermark after taking {@code bytes}.
+     */
+    private Path pickColdRoot(long bytes) {
+        Path best = null;
+        long bestUsable = -1L;
+        for (Path root : recordTiers.coldRoots()) {
+            try {
+                Files.createDirectories(root);
+                FileStore store = Files.getFileStore(root);
+                long usable = store.getUsableSpace();
+                long reserve = store.getTotalSpace() / 100L
+                        * appProperties.getStorage().getCleanup().getLowFreePercent();
+                if (usable - bytes > reserve && usable > bestUsable) {
+                    best = root;
+                    bestUsable = usable;
+                }
+            } catch (IOException ex) {
+                log.warn("cold tier unavailable: {}, {}", root, ex.getMessage());
+            }
+        }
+        return best;
+    }
+
+    private boolean hotUnderPressure(Path hot) {
+        try {
+            FileStore store = Files.getFileStore(hot);
+            return store.getTotalSpace() > 0 && store.getUsableSpace()
+                    < store.getTotalSpace() / 100L * appProperties.getStorage().getCleanup().getHighFreePercent();
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private static LocalDate dayOf(Path hot, Path directory) {
+        Path name = directory.getFileName();
+        if (name == null || !directory.startsWith(hot) || directory.equals(hot)
+                || !DAY_DIR_PATTERN.matcher(name.toString()).matches()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(name.toString());
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    private static String prefixOf(Path root) {
+        String separator = root.getFileSystem().getSeparator();
+        return root.toString().endsWith(separator) ? root.toString() : root + separator;
+    }
+
+    private void deleteTree(Path directory) {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                    if (ex != null) {
+                        throw ex;
+                    }
+                    Files.deleteIfExists(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            // Rows already point at the cold copy; leftovers are only wasted space.
+            log.warn("删除已迁移的热层目录失败: {}, {}", directory, ex.getMessage());
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // best effort
+        }
+    }
+
+    private AppProperties.Storage.Tiering config() {
+        return appProperties.getStorage().getTiering();
+    }
+
+    private static final class Tally {
+        private final long startedNanos;
+        private long directories;
+        private long files;
+        private long bytes;
+
+        private Tally(long startedNanos) {
+            this.startedNanos = startedNanos;
+        }
+    }
+
+    public record MigrationReport(
+            long movedDirectories,
+            long movedFiles,
+            long movedBytes,
+            long elapsedMs,
+            long bytesPerSecond,
+            String finishedAt) {
+    }
+}
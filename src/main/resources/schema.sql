@@ -164,11 +164,68 @@ CREATE TABLE IF NOT EXISTS gb_playback_session (
     updated_at TEXT NOT NULL
 );
 
+-- Retention and quota overrides on top of storage_policy. CHANNEL rows: scope_id is a channel id,
+-- group_name the group it belongs to; GROUP rows: scope_id is a group name and max_storage_gb caps
+-- the group's channels together. NULL columns inherit (channel -> group -> storage_policy).
+CREATE TABLE IF NOT EXISTS storage_retention_policy (
+    id INTEGER PRIMARY KEY AUTOINCREMENT,
+    scope TEXT NOT NULL,
+    scope_id TEXT NOT NULL,
+    group_name TEXT,
+    retention_days INTEGER,
+    max_storage_gb INTEGER,
+    priority INTEGER,
+    updated_at TEXT NOT NULL,
+    UNIQUE (scope, scope_id)
+);
+
+-- Established INVITE dialogs, so streams survive a platform restart and can still be torn down.
+CREATE TABLE IF NOT EXISTS sip_dialog (
+    call_id TEXT PRIMARY KEY,
+    device_id TEXT NOT NULL,
+    channel_id TEXT NOT NULL,
+    host TEXT NOT NULL,
+    port INTEGER NOT NULL,
+    transport TEXT NOT NULL,
+    local_tag TEXT,
+    remote_tag TEXT,
+    remote_target TEXT,
+    local_cseq INTEGER NOT NULL DEFAULT 1,
+    created_at TEXT NOT NULL
+);
+
+-- Live preview sessions, reconciled with ZLMediaKit's media list on startup.
+CREATE TABLE IF NOT EXISTS preview_session (
+    session_key TEXT PRIMARY KEY,
+    session_id TEXT NOT NULL,
+    device_pk INTEGER NOT NULL,
+    device_id TEXT NOT NULL,
+    channel_id TEXT NOT NULL,
+    codec TEXT NOT NULL,
+    app TEXT NOT NULL,
+    stream_id TEXT NOT NULL,
+    stream_profile TEXT NOT NULL,
+    protocol TEXT NOT NULL,
+    ssrc TEXT,
+    sip_call_id TEXT,
+    rtp_port INTEGER,
+    node_id TEXT,
+    shared_port INTEGER NOT NULL DEFAULT 0,
+    recording_enabled INTEGER NOT NULL DEFAULT 0,
+    record_path TEXT,
+    background_pinned INTEGER NOT NULL DEFAULT 0,
+    warm_pinned INTEGER NOT NULL DEFAULT 0,
+    started_at TEXT NOT NULL,
+    updated_at TEXT NOT NULL
+);
+
 CREATE INDEX IF NOT EXISTS idx_auth_token_token ON auth_token(token);
 CREATE INDEX IF NOT EXISTS idx_auth_token_expires ON auth_token(expires_at);
 CREATE INDEX IF NOT EXISTS idx_gb_device_device_id ON gb_device(device_id);
 CREATE INDEX IF NOT EXISTS idx_gb_channel_device_pk ON gb_channel(device_pk);
 CREATE INDEX IF NOT EXISTS idx_record_file_created_at ON record_file(created_at);
+CREATE INDEX IF NOT EXISTS idx_record_file_channel_start ON record_file(channel_id, start_time);
+CREATE INDEX IF NOT EXISTS idx_record_file_channel_created ON record_file(channel_id, created_at);
 CREATE INDEX IF NOT EXISTS idx_gb_record_item_device ON gb_record_item(device_id);
 CREATE INDEX IF NOT EXISTS idx_gb_alarm_event_device ON gb_alarm_event(device_id);
 CREATE INDEX IF NOT EXISTS idx_gb_mobile_position_device ON gb_mobile_position(device_id);
@@ -0,0 +1,26 @@
+package com.ownding.video;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.nio.file.Path;
+
+/**
+ * A fresh SQLite database with the application schema, for repository-backed
+ * tests that do not need the whole context.
+ */
+public final class TestDatabase {
+
+    private TestDatabase() {
+    }
+
+    public static JdbcClient create(Path directory) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:sqlite:" + directory.resolve("video-test.db"));
+        dataSource.setDriverClassName("org.sqlite.JDBC");
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(dataSource);
+        return JdbcClient.create(dataSource);
+    }
+}
@@ -0,0 +1,122 @@
+package com.ownding.video.common;
+
+import com.ownding.video.config.AppProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTests {
+
+    @Test
+    void breakerShouldOpenAfterConsecutiveFailures() {
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry(config(2, 10_000L, 10_000L));
+        String name = CircuitBreakerRegistry.deviceKey("34020000001320000001");
+        CircuitBreaker breaker = registry.breaker(name);
+
+        breaker.onFailure("invite timeout");
+        assertTrue(breaker.tryAcquire());
+        assertDoesNotThrow(() -> registry.ensureNotRejecting(name));
+
+        breaker.onFailure("invite timeout");
+        assertFalse(breaker.tryAcquire());
+        assertTrue(breaker.isRejecting());
+        assertEquals("OPEN", breaker.status().state());
+        assertNotNull(breaker.status().openUntil());
+        ApiException ex = assertThrows(ApiException.class, () -> registry.ensureNotRejecting(name));
+        assertEquals(503, ex.getStatus());
+        assertTrue(ex.getMessage().contains("invite timeout"), ex.getMessage());
+        assertEquals(1, registry.status().size());
+    }
+
+    @Test
+    void successShouldResetTheFailureRun() {
+        CircuitBreaker breaker = new CircuitBreaker("zlm:zlm-a", config(2, 10_000L, 10_000L).getResilience());
+
+        breaker.onFailure("connect refused");
+        breaker.onSuccess();
+        breaker.onFailure("connect refused");
+
+        assertTrue(breaker.tryAcquire());
+        assertEquals("CLOSED", breaker.status().state());
+        assertEquals(1, breaker.status().consecutiveFailures());
+    }
+
+    @Test
+    void halfOpenShouldLetOneTrialThroughAndCloseOnSuccess() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("device:a", config(1, 100L, 10_000L).getResilience());
+        breaker.onFailure("busy");
+        assertFalse(breaker.tryAcquire());
+
+        Thread.sleep(150);
+        assertFalse(breaker.isRejecting());
+        assertTrue(breaker.tryAcquire());
+        assertEquals("HALF_OPEN", breaker.status().state());
+        // Only the trial goes through until it reports back.
+        assertFalse(breaker.tryAcquire());
+        assertTrue(breaker.isRejecting());
+
+        breaker.onSuccess();
+        assertEquals("CLOSED", breaker.status().state());
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void releasedTrialShouldLetTheNextCallTryWithoutClosing() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("device:d", config(1, 100L, 10_000L).getResilience());
+        breaker.onFailure("busy");
+        Thread.sleep(150);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.isRejecting());
+
+        breaker.releaseTrial();
+        assertFalse(breaker.isRejecting());
+        assertEquals("HALF_OPEN", breaker.status().state());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void failedTrialShouldReopenWithDoubledCooldown() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("device:b", config(1, 200L, 10_000L).getResilience());
+        breaker.onFailure("busy");
+        Thread.sleep(250);
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onFailure("still busy");
+        assertEquals("OPEN", breaker.status().state());
+        // The second cool-down is 400 ms: still open where the first one had ended.
+        Thread.sleep(250);
+        assertTrue(breaker.isRejecting());
+        assertFalse(breaker.tryAcquire());
+        Thread.sleep(250);
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void trialThatNeverReportsShouldBeReplacedAfterTheTrialTimeout() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("device:c", config(1, 100L, 100L).getResilience());
+        breaker.onFailure("busy");
+        Thread.sleep(150);
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+
+        Thread.sleep(150);
+        assertTrue(breaker.tryAcquire());
+    }
+
+    private static AppProperties config(int failureThreshold, long baseCooldownMs, long trialTimeoutMs) {
+        AppProperties properties = new AppProperties();
+        AppProperties.Resilience resilience = properties.getResilience();
+        resilience.setFailureThreshold(failureThreshold);
+        resilience.setBaseCooldownMs(baseCooldownMs);
+        resilience.setMaxCooldownMs(60_000L);
+        resilience.setTrialTimeoutMs(trialTimeoutMs);
+        return properties;
+    }
+}
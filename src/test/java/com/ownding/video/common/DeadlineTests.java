@@ -0,0 +1,60 @@
+package com.ownding.video.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadlineTests {
+
+    @Test
+    void noneShouldKeepEveryPhaseTimeout() {
+        Deadline deadline = Deadline.none();
+
+        assertFalse(deadline.isBounded());
+        assertFalse(deadline.isExpired());
+        assertEquals(Long.MAX_VALUE, deadline.remainingMs());
+        assertEquals(Duration.ofSeconds(30), deadline.cap(Duration.ofSeconds(30)));
+        assertDoesNotThrow(() -> deadline.check("invite"));
+    }
+
+    @Test
+    void boundedDeadlineShouldShortenLongerPhaseTimeouts() {
+        Deadline deadline = Deadline.after(Duration.ofSeconds(10));
+
+        assertTrue(deadline.isBounded());
+        assertFalse(deadline.isExpired());
+        long capped = deadline.capMs(30_000L);
+        assertTrue(capped <= 10_000L && capped > 9_000L, "capped=" + capped);
+        // A phase timeout shorter than the budget is kept as it is.
+        assertEquals(Duration.ofSeconds(1), deadline.cap(Duration.ofSeconds(1)));
+    }
+
+    @Test
+    void expiredDeadlineShouldAbortWith504NamingThePhase() throws Exception {
+        Deadline deadline = Deadline.after(Duration.ofMillis(20));
+        Thread.sleep(40);
+
+        assertTrue(deadline.isExpired());
+        assertEquals(0L, deadline.remainingMs());
+        assertEquals(0L, deadline.capMs(5_000L));
+        ApiException ex = assertThrows(ApiException.class, () -> deadline.check("等待推流"));
+        assertEquals(504, ex.getStatus());
+        assertTrue(ex.getMessage().contains("20ms"), ex.getMessage());
+        assertTrue(ex.getMessage().contains("等待推流"), ex.getMessage());
+    }
+
+    @Test
+    void negativeBudgetShouldBeExpiredRightAway() {
+        Deadline deadline = Deadline.after(Duration.ofMillis(-500));
+
+        assertTrue(deadline.isBounded());
+        assertTrue(deadline.isExpired());
+        assertEquals(0L, deadline.remainingMs());
+    }
+}
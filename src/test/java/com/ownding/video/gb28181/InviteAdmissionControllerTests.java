@@ -0,0 +1,186 @@
+package com.ownding.video.gb28181;
+
+import com.ownding.video.common.ApiException;
+import com.ownding.video.common.Deadline;
+import com.ownding.video.config.AppProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InviteAdmissionControllerTests {
+
+    private static final InviteAdmissionController.Priority INTERACTIVE =
+            InviteAdmissionController.Priority.INTERACTIVE;
+    private static final InviteAdmissionController.Priority BACKGROUND =
+            InviteAdmissionController.Priority.BACKGROUND;
+
+    @Test
+    void globalLimitShouldRejectOnceTheWaitRunsOut() {
+        InviteAdmissionController admission = new InviteAdmissionController(properties(2, 4));
+
+        InviteAdmissionController.Permit first = admission.acquire("dev-a", INTERACTIVE);
+        admission.acquire("dev-b", INTERACTIVE);
+        ApiException ex = assertThrows(ApiException.class, () -> admission.acquire("dev-c", INTERACTIVE));
+        assertEquals(503, ex.getStatus());
+        assertEquals(1L, admission.status().rejected().get("INTERACTIVE"));
+
+        first.close();
+        // Closing twice must not hand out a second slot.
+        first.close();
+        assertNotNull(admission.acquire("dev-c", INTERACTIVE));
+        assertEquals(2, admission.status().inFlight());
+    }
+
+    @Test
+    void fullDeviceShouldNotHoldBackOtherDevices() throws Exception {
+        AppProperties properties = properties(8, 1);
+        properties.getGb28181().getAdmission().setInteractiveMaxWaitMs(5_000L);
+        InviteAdmissionController admission = new InviteAdmissionController(properties);
+        InviteAdmissionController.Permit busy = admission.acquire("dev-a", INTERACTIVE);
+
+        CompletableFuture<InviteAdmissionController.Permit> queued =
+                CompletableFuture.supplyAsync(() -> admission.acquire("dev-a", INTERACTIVE));
+        awaitWaiting(admission, 1);
+
+        // dev-a's waiter is ahead but cannot use the free slot, so dev-b goes.
+        assertNotNull(admission.acquire("dev-b", INTERACTIVE));
+        assertFalse(queued.isDone());
+
+        busy.close();
+        assertNotNull(queued.get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void higherPriorityShouldBeAdmittedFirst() throws Exception {
+        AppProperties properties = properties(1, 4);
+        properties.getGb28181().getAdmission().setInteractiveMaxWaitMs(5_000L);
+        properties.getGb28181().getAdmission().setBackgroundMaxWaitMs(5_000L);
+        InviteAdmissionController admission = new InviteAdmissionController(properties);
+        InviteAdmissionController.Permit holder = admission.acquire("dev-a", INTERACTIVE);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<Void> background = CompletableFuture.runAsync(() -> {
+            try (InviteAdmissionController.Permit ignored = admission.acquire("dev-b", BACKGROUND)) {
+                order.add("background");
+            }
+        });
+        awaitWaiting(admission, 1);
+        CompletableFuture<Void> interactive = CompletableFuture.runAsync(() -> {
+            try (InviteAdmissionController.Permit ignored = admission.acquire("dev-c", INTERACTIVE)) {
+                order.add("interactive");
+            }
+        });
+        awaitWaiting(admission, 2);
+        assertEquals(1, admission.status().waitingByPriority().get("BACKGROUND"));
+
+        holder.close();
+        CompletableFuture.allOf(background, interactive).get(2, TimeUnit.SECONDS);
+        assertEquals(List.of("interactive", "background"), order);
+    }
+
+    @Test
+    void busyAnswerShouldLowerTheDeviceLimit() {
+        AppProperties properties = properties(8, 4);
+        properties.getGb28181().getAdmission().setBackgroundMaxWaitMs(100L);
+        InviteAdmissionController admission = new InviteAdmissionController(properties);
+        admission.acquire("dev-a", BACKGROUND);
+        InviteAdmissionController.Permit second = admission.acquire("dev-a", BACKGROUND);
+
+        assertTrue(InviteAdmissionController.isBusyResponse(486));
+        assertFalse(InviteAdmissionController.isBusyResponse(404));
+        admission.recordDeviceBusy("dev-a");
+
+        InviteAdmissionController.DeviceAdmission device = admission.status().devices().get(0);
+        assertEquals(1, device.limit());
+        second.close();
+        assertThrows(ApiException.class, () -> admission.acquire("dev-a", BACKGROUND));
+        assertNotNull(admission.acquire("dev-b", BACKGROUND));
+    }
+
+    @Test
+    void answeredInviteShouldFreeTheSetupSlotForTheNextCaller() {
+        InviteAdmissionController admission = new InviteAdmissionController(properties(1, 1));
+        InviteAdmissionController.Permit first = admission.acquire("dev-a", INTERACTIVE);
+        assertThrows(ApiException.class, () -> admission.acquire("dev-b", INTERACTIVE));
+
+        first.signallingDone();
+
+        InviteAdmissionController.Permit second = admission.acquire("dev-b", INTERACTIVE);
+        assertEquals(1, admission.status().inFlight());
+        second.close();
+        first.close();
+        assertEquals(0, admission.status().inFlight());
+        assertTrue(admission.status().devices().isEmpty());
+    }
+
+    @Test
+    void establishedSessionsShouldCountAgainstTheDeviceUntilTheyEnd() {
+        AppProperties properties = properties(8, 4);
+        properties.getGb28181().getAdmission().setMaxSessionsPerDevice(8);
+        properties.getGb28181().getAdmission().getDeviceSessionLimits().put("nvr-a", 2);
+        InviteAdmissionController admission = new InviteAdmissionController(properties);
+        try (InviteAdmissionController.Permit permit = admission.acquire("nvr-a", INTERACTIVE)) {
+            permit.established("session-1");
+        }
+        admission.sessionRestored("nvr-a", "session-2");
+
+        assertThrows(ApiException.class, () -> admission.acquire("nvr-a", INTERACTIVE));
+        assertNotNull(admission.acquire("dev-b", INTERACTIVE));
+        InviteAdmissionController.DeviceAdmission nvr = admission.status().devices().stream()
+                .filter(device -> device.deviceId().equals("nvr-a"))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(2, nvr.sessions());
+        assertEquals(2, nvr.sessionLimit());
+        assertEquals(0, nvr.inFlight());
+
+        admission.sessionEnded("session-1");
+        admission.sessionEnded("session-1");
+        try (InviteAdmissionController.Permit permit = admission.acquire("nvr-a", INTERACTIVE)) {
+            assertNotNull(permit);
+        }
+        assertEquals(1, admission.status().sessions());
+    }
+
+    @Test
+    void requestBudgetShouldEndTheWaitWith504() {
+        AppProperties properties = properties(1, 4);
+        properties.getGb28181().getAdmission().setInteractiveMaxWaitMs(5_000L);
+        InviteAdmissionController admission = new InviteAdmissionController(properties);
+        admission.acquire("dev-a", INTERACTIVE);
+
+        long startedNanos = System.nanoTime();
+        ApiException ex = assertThrows(ApiException.class,
+                () -> admission.acquire("dev-b", INTERACTIVE, Deadline.after(Duration.ofMillis(100))));
+        assertEquals(504, ex.getStatus());
+        assertTrue((System.nanoTime() - startedNanos) / 1_000_000L < 2_000L);
+        assertEquals(0, admission.status().waiting());
+    }
+
+    private static AppProperties properties(int maxConcurrent, int maxPerDevice) {
+        AppProperties properties = new AppProperties();
+        AppProperties.Gb28181.Admission admission = properties.getGb28181().getAdmission();
+        admission.setMaxConcurrent(maxConcurrent);
+        admission.setMaxConcurrentPerDevice(maxPerDevice);
+        admission.setInteractiveMaxWaitMs(100L);
+        return properties;
+    }
+
+    private static void awaitWaiting(InviteAdmissionController admission, int waiting) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2_000L;
+        while (admission.status().waiting() < waiting && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(waiting, admission.status().waiting());
+    }
+}
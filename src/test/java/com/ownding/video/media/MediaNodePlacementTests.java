@@ -0,0 +1,246 @@
+package com.ownding.video.media;
+
+import com.ownding.video.common.ApiException;
+import com.ownding.video.common.CircuitBreakerRegistry;
+import com.ownding.video.common.Deadline;
+import com.ownding.video.config.AppProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MediaNodePlacementTests {
+
+    private final List<StubZlmNode> stubs = new ArrayList<>();
+
+    @AfterEach
+    void stopStubs() {
+        stubs.forEach(StubZlmNode::stop);
+    }
+
+    @Test
+    void newStreamShouldGoToLeastLoadedNodeAndStayThere() throws Exception {
+        StubZlmNode busy = start("zlm-a", 85, 3);
+        StubZlmNode idle = start("zlm-b", 5, 0);
+        AppProperties properties = properties(busy, idle);
+        MediaNodeRegistry registry = new MediaNodeRegistry(properties);
+        ZlmClient client = client(registry, properties);
+
+        for (MediaNode node : registry.nodes()) {
+            client.probeNodeAsync(node).block(Duration.ofSeconds(5));
+        }
+
+        String key = MediaNodeRegistry.channelKey("34020000001320000001", "34020000001320000002");
+        ZlmClient.RtpBinding first = client.bindRtp(key, "stream_1", 0, "0100000001");
+        assertNotNull(first);
+        assertEquals("zlm-b", first.nodeId());
+        assertEquals(1, idle.hits("openRtpServer"));
+        assertEquals(0, busy.hits("openRtpServer"));
+
+        // The busy node frees up, but the channel keeps its node while it is healthy.
+        busy.threadLoad = 0;
+        busy.streams = 0;
+        client.probeNodeAsync(registry.findNode("zlm-a").orElseThrow()).block(Duration.ofSeconds(5));
+        client.closeRtpServer("stream_1");
+        ZlmClient.RtpBinding again = client.bindRtp(key, "stream_1", 0, "0100000001");
+        assertEquals("zlm-b", again.nodeId());
+        assertEquals(1, idle.hits("closeRtpServer"));
+        assertEquals(0, busy.hits("closeRtpServer"));
+    }
+
+    @Test
+    void callsForStreamShouldBeRoutedToOwningNode() throws Exception {
+        StubZlmNode nodeA = start("zlm-a", 10, 0);
+        StubZlmNode nodeB = start("zlm-b", 90, 0);
+        AppProperties properties = properties(nodeA, nodeB);
+        MediaNodeRegistry registry = new MediaNodeRegistry(properties);
+        ZlmClient client = client(registry, properties);
+        for (MediaNode node : registry.nodes()) {
+            client.probeNodeAsync(node).block(Duration.ofSeconds(5));
+        }
+
+        ZlmClient.RtpBinding binding = client.bindRtp("dev:ch", "stream_2", 0, "0100000002");
+        assertEquals("zlm-a", binding.nodeId());
+
+        client.startMp4Record("rtp", "stream_2", null);
+        PreviewService.PlayUrls urls = client.buildPlayUrls("rtp", "stream_2");
+        client.closeRtpServer("stream_2");
+
+        assertEquals(1, nodeA.hits("startRecord"));
+        assertEquals(0, nodeB.hits("startRecord"));
+        assertTrue(urls.hlsUrl().startsWith(nodeA.baseUrl()));
+        assertEquals(1, nodeA.hits("closeRtpServer"));
+        assertTrue(registry.ownerOf("stream_2").isEmpty());
+    }
+
+    @Test
+    void streamHookShouldOnlyRefreshTheReportingNode() throws Exception {
+        StubZlmNode nodeA = start("zlm-a", 10, 1);
+        StubZlmNode nodeB = start("zlm-b", 10, 1);
+        AppProperties properties = properties(nodeA, nodeB);
+        properties.getZlm().setMediaSnapshotTtlMs(60_000);
+        MediaStateRegistry mediaState = new MediaStateRegistry(properties);
+        ZlmClient client = client(new MediaNodeRegistry(properties), properties, mediaState);
+
+        assertEquals(2000L, client.totalBytesSpeedAsync().block(Duration.ofSeconds(5)));
+        mediaState.onStreamChanged("zlm-a", "rtp", "stream_4", "rtsp", true, null);
+        client.totalBytesSpeedAsync().block(Duration.ofSeconds(5));
+
+        assertEquals(2, nodeA.hits("getMediaList"));
+        assertEquals(1, nodeB.hits("getMediaList"));
+    }
+
+    @Test
+    void spentDeadlineShouldFailFastWithoutCallingTheNode() throws Exception {
+        StubZlmNode node = start("zlm-a", 10, 0);
+        AppProperties properties = properties(node);
+        ZlmClient client = client(new MediaNodeRegistry(properties), properties);
+        Deadline spent = Deadline.after(Duration.ZERO);
+
+        ApiException ex = assertThrows(ApiException.class,
+                () -> client.bindRtp("dev:ch", "stream_3", 0, "0100000003", spent));
+        assertEquals(504, ex.getStatus());
+        assertFalse(client.startMp4Record("rtp", "stream_3", null, spent));
+
+        assertEquals(0, node.hits("openRtpServer"));
+        assertEquals(0, node.hits("startRecord"));
+    }
+
+    @Test
+    void unreachableNodeShouldBeSkipped() throws Exception {
+        StubZlmNode alive = start("zlm-a", 70, 2);
+        StubZlmNode dead = start("zlm-b", 0, 0);
+        AppProperties properties = properties(alive, dead);
+        dead.stop();
+        MediaNodeRegistry registry = new MediaNodeRegistry(properties);
+        ZlmClient client = client(registry, properties);
+        for (MediaNode node : registry.nodes()) {
+            client.probeNodeAsync(node).onErrorResume(ex -> Mono.empty())
+                    .block(Duration.ofSeconds(5));
+        }
+
+        assertEquals("zlm-a", registry.place("dev:ch").id());
+    }
+
+    private StubZlmNode start(String id, int threadLoad, int streams) throws IOException {
+        StubZlmNode stub = new StubZlmNode(id, threadLoad, streams);
+        stubs.add(stub);
+        return stub;
+    }
+
+    private static AppProperties properties(StubZlmNode... stubs) {
+        AppProperties properties = new AppProperties();
+        List<AppProperties.Zlm.Node> nodes = new ArrayList<>();
+        for (StubZlmNode stub : stubs) {
+            AppProperties.Zlm.Node node = new AppProperties.Zlm.Node();
+            node.setId(stub.id);
+            node.setBaseUrl(stub.baseUrl());
+            node.setSecret("secret");
+            node.setMaxStreams(10);
+            nodes.add(node);
+        }
+        properties.getZlm().setNodes(nodes);
+        properties.getZlm().setMediaSnapshotTtlMs(100);
+        return properties;
+    }
+
+    private static ZlmClient client(MediaNodeRegistry registry, AppProperties properties) {
+        return client(registry, properties, new MediaStateRegistry(properties));
+    }
+
+    private static ZlmClient client(MediaNodeRegistry registry, AppProperties properties,
+            MediaStateRegistry mediaState) {
+        return new ZlmClient(WebClient.create(), properties, mediaState,
+                new SimpleMeterRegistry(), new RtpPortPool(properties), registry,
+                new CircuitBreakerRegistry(properties));
+    }
+
+    /**
+     * Minimal stand-in for the ZLMediaKit HTTP API endpoints used by placement.
+     */
+    private static final class StubZlmNode {
+        private final String id;
+        private final HttpServer server;
+        private final Map<String, AtomicInteger> hitsByEndpoint = new ConcurrentHashMap<>();
+        private volatile int threadLoad;
+        private volatile int streams;
+        private boolean stopped;
+
+        private StubZlmNode(String id, int threadLoad, int streams) throws IOException {
+            this.id = id;
+            this.threadLoad = threadLoad;
+            this.streams = streams;
+            this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/index/api/", exchange -> {
+                String path = exchange.getRequestURI().getPath();
+                String endpoint = path.substring(path.lastIndexOf('/') + 1);
+                hitsByEndpoint.computeIfAbsent(endpoint, key -> new AtomicInteger()).incrementAndGet();
+                byte[] body = respond(endpoint, exchange.getRequestURI().getQuery()).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+        }
+
+        private String respond(String endpoint, String query) {
+            return switch (endpoint) {
+                case "getThreadsLoad" -> "{\"code\":0,\"data\":[{\"delay\":0,\"load\":%d},{\"delay\":0,\"load\":%d}]}"
+                        .formatted(threadLoad, threadLoad);
+                case "getMediaList" -> {
+                    StringBuilder data = new StringBuilder();
+                    for (int i = 0; i < streams; i++) {
+                        if (i > 0) {
+                            data.append(',');
+                        }
+                        data.append("{\"app\":\"rtp\",\"stream\":\"busy_%d\",\"schema\":\"rtsp\",\"bytesSpeed\":1000}"
+                                .formatted(i));
+                    }
+                    yield "{\"code\":0,\"data\":[" + data + "]}";
+                }
+                case "openRtpServer" -> {
+                    String port = query.replaceAll(".*(?:^|&)port=(\\d+).*", "$1");
+                    yield "{\"code\":0,\"port\":" + port + "}";
+                }
+                default -> "{\"code\":0,\"result\":true}";
+            };
+        }
+
+        private int hits(String endpoint) {
+            AtomicInteger count = hitsByEndpoint.get(endpoint);
+            return count == null ? 0 : count.get();
+        }
+
+        private String baseUrl() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        private void stop() {
+            if (!stopped) {
+                stopped = true;
+                server.stop(0);
+            }
+        }
+    }
+}
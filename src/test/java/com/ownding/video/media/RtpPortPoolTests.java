@@ -0,0 +1,189 @@
+package com.ownding.video.media;
+
+import com.ownding.video.common.ApiException;
+import com.ownding.video.common.CircuitBreakerRegistry;
+import com.ownding.video.config.AppProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RtpPortPoolTests {
+
+    private HttpServer zlm;
+    private final Map<String, AtomicInteger> hitsByEndpoint = new ConcurrentHashMap<>();
+    private final Map<String, String> responseByEndpoint = new ConcurrentHashMap<>();
+
+    @AfterEach
+    void stopZlm() {
+        if (zlm != null) {
+            zlm.stop(0);
+        }
+    }
+
+    @Test
+    void allocationShouldWalkTheRangeAndWrapAround() {
+        RtpPortPool pool = new RtpPortPool(properties(30000, 30002));
+
+        assertEquals(30000, pool.allocate("zlm-a", "stream_a", Set.of()));
+        assertEquals(30001, pool.allocate("zlm-a", "stream_b", Set.of()));
+        pool.release("stream_a");
+
+        // A just-released port is not handed out again while the range has others.
+        assertEquals(30002, pool.allocate("zlm-a", "stream_c", Set.of()));
+        assertEquals(30000, pool.allocate("zlm-a", "stream_d", Set.of()));
+        assertEquals(30001, pool.allocate("zlm-a", "stream_b", Set.of()));
+        assertEquals(0, pool.available("zlm-a"));
+    }
+
+    @Test
+    void excludedPortShouldMoveTheStreamToAnotherPort() {
+        RtpPortPool pool = new RtpPortPool(properties(30000, 30003));
+        int first = pool.allocate("zlm-a", "stream_a", Set.of());
+
+        int second = pool.allocate("zlm-a", "stream_a", Set.of(first));
+
+        assertTrue(second != first);
+        assertEquals(1, pool.status("zlm-a").inUse());
+        assertEquals(second, pool.status("zlm-a").allocations().get(0).port());
+    }
+
+    @Test
+    void exhaustedRangeShouldRejectWith503UntilAPortIsReleased() {
+        RtpPortPool pool = new RtpPortPool(properties(30000, 30001));
+        pool.allocate("zlm-a", "stream_a", Set.of());
+        pool.allocate("zlm-a", "stream_b", Set.of());
+
+        ApiException ex = assertThrows(ApiException.class, () -> pool.allocate("zlm-a", "stream_c", Set.of()));
+        assertEquals(503, ex.getStatus());
+        assertEquals(1L, pool.status("zlm-a").exhaustedCount());
+        // Every node has its own copy of the range.
+        assertEquals(30000, pool.allocate("zlm-b", "stream_c", Set.of()));
+
+        pool.release("stream_b");
+        assertEquals(30001, pool.allocate("zlm-a", "stream_d", Set.of()));
+    }
+
+    @Test
+    void failedOpenShouldGiveThePortBack() throws IOException {
+        startZlm();
+        responseByEndpoint.put("openRtpServer", "{\"code\":-1,\"msg\":\"bind port failed\"}");
+        AppProperties properties = properties(30000, 30009);
+        RtpPortPool pool = new RtpPortPool(properties);
+        ZlmClient client = client(properties, pool);
+
+        ZlmClient.RtpBinding binding = client.bindRtp(
+                MediaNodeRegistry.channelKey("34020000001320000001", "34020000001320000002"),
+                "stream_1", 0, "0100000001");
+
+        assertNull(binding);
+        assertTrue(hits("openRtpServer") > 1);
+        assertEquals(0, pool.status("zlm-a").inUse());
+        assertEquals(10, pool.available("zlm-a"));
+    }
+
+    @Test
+    void reconcileShouldReclaimLeaksAndAdoptUnknownServers() {
+        RtpPortPool pool = new RtpPortPool(properties(30000, 30009));
+        pool.allocate("zlm-a", "leaked", Set.of());
+        pool.allocate("zlm-a", "live", Set.of());
+        pool.allocate("zlm-b", "other_node", Set.of());
+
+        // Allocations younger than the grace period may still be opening.
+        assertEquals(0, pool.reconcile("zlm-a", Map.of(), Duration.ofMinutes(1)));
+
+        int reclaimed = pool.reconcile("zlm-a",
+                Map.of("live", 30001, "opened_before_restart", 30005, "outside_range", 40000), Duration.ZERO);
+
+        assertEquals(1, reclaimed);
+        RtpPortPool.PoolStatus status = pool.status("zlm-a");
+        assertEquals(List.of("live", "opened_before_restart"),
+                status.allocations().stream().map(RtpPortPool.Allocation::streamId).toList());
+        assertTrue(status.allocations().get(1).adopted());
+        assertEquals(1L, status.reclaimedCount());
+        assertEquals(1L, status.adoptedCount());
+        assertEquals(1, pool.status("zlm-b").inUse());
+    }
+
+    @Test
+    void reclaimerShouldFreePortsWhoseServerIsGone() throws IOException {
+        startZlm();
+        responseByEndpoint.put("listRtpServer", "{\"code\":0,\"data\":[{\"stream_id\":\"live\",\"port\":30001}]}");
+        AppProperties properties = properties(30000, 30009);
+        properties.getZlm().getRtp().setLeakGraceSeconds(0);
+        RtpPortPool pool = new RtpPortPool(properties);
+        MediaNodeRegistry registry = new MediaNodeRegistry(properties);
+        ZlmClient client = new ZlmClient(WebClient.create(), properties, new MediaStateRegistry(properties),
+                new SimpleMeterRegistry(), pool, registry, new CircuitBreakerRegistry(properties));
+        assertEquals(30000, pool.allocate("zlm-a", "leaked", Set.of()));
+        assertEquals(30001, pool.allocate("zlm-a", "live", Set.of()));
+
+        new RtpPortReclaimer(client, pool, registry, properties).reclaimTask();
+
+        assertEquals(1, hits("listRtpServer"));
+        assertEquals(List.of("live"), pool.status("zlm-a").allocations().stream()
+                .map(RtpPortPool.Allocation::streamId)
+                .toList());
+        assertEquals(9, pool.available("zlm-a"));
+    }
+
+    private void startZlm() throws IOException {
+        zlm = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        zlm.createContext("/index/api/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            String endpoint = path.substring(path.lastIndexOf('/') + 1);
+            hitsByEndpoint.computeIfAbsent(endpoint, key -> new AtomicInteger()).incrementAndGet();
+            byte[] body = responseByEndpoint.getOrDefault(endpoint, "{\"code\":0,\"result\":true}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        zlm.start();
+    }
+
+    private ZlmClient client(AppProperties properties, RtpPortPool pool) {
+        return new ZlmClient(WebClient.create(), properties, new MediaStateRegistry(properties),
+                new SimpleMeterRegistry(), pool, new MediaNodeRegistry(properties),
+                new CircuitBreakerRegistry(properties));
+    }
+
+    private AppProperties properties(int rangeStart, int rangeEnd) {
+        AppProperties properties = new AppProperties();
+        properties.getZlm().getRtp().setPortRangeStart(rangeStart);
+        properties.getZlm().getRtp().setPortRangeEnd(rangeEnd);
+        if (zlm != null) {
+            AppProperties.Zlm.Node node = new AppProperties.Zlm.Node();
+            node.setId("zlm-a");
+            node.setBaseUrl("http://127.0.0.1:" + zlm.getAddress().getPort());
+            node.setSecret("secret");
+            node.setMaxStreams(10);
+            properties.getZlm().setNodes(List.of(node));
+        }
+        return properties;
+    }
+
+    private int hits(String endpoint) {
+        AtomicInteger count = hitsByEndpoint.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+}
@@ -0,0 +1,240 @@
+package com.ownding.video.media;
+
+import com.ownding.video.TestDatabase;
+import com.ownding.video.common.CircuitBreakerRegistry;
+import com.ownding.video.common.Deadline;
+import com.ownding.video.config.AppProperties;
+import com.ownding.video.gb28181.Gb28181Repository;
+import com.ownding.video.gb28181.Gb28181Service;
+import com.ownding.video.gb28181.GbSipDialog;
+import com.ownding.video.gb28181.InviteAdmissionController;
+import com.ownding.video.gb28181.SipSignalService;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionRecoveryTests {
+
+    private static final String STARTED_AT = "2026-03-01T08:00:00Z";
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer zlm;
+    private final Map<String, AtomicInteger> hitsByEndpoint = new ConcurrentHashMap<>();
+    private final Set<String> liveStreams = ConcurrentHashMap.newKeySet();
+    private JdbcClient jdbcClient;
+    private PreviewSessionRepository journal;
+    private Gb28181Repository gb28181Repository;
+    private InviteAdmissionController admission;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        zlm = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        zlm.createContext("/index/api/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            String endpoint = path.substring(path.lastIndexOf('/') + 1);
+            hitsByEndpoint.computeIfAbsent(endpoint, key -> new AtomicInteger()).incrementAndGet();
+            byte[] body = respond(endpoint).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        zlm.start();
+        jdbcClient = TestDatabase.create(tempDir);
+        journal = new PreviewSessionRepository(jdbcClient);
+        gb28181Repository = new Gb28181Repository(jdbcClient);
+        admission = new InviteAdmissionController(new AppProperties());
+    }
+
+    @AfterEach
+    void tearDown() {
+        zlm.stop(0);
+    }
+
+    @Test
+    void recoveryShouldAdoptLiveStreamsAndCleanUpTheRest() {
+        liveStreams.add("live_1");
+        liveStreams.add("live_2");
+        journal.save(session(1L, "live_1", null, false));
+        // Stream gone while the service was down.
+        journal.save(session(2L, "gone_1", null, true));
+        // Stream still up, but its dialog did not survive: nobody can hang it up later.
+        journal.save(session(3L, "live_2", "call-lost", false));
+        PreviewService previewService = previewService();
+
+        PreviewService.RecoveredSessions recovered = previewService.recoverSessions(Deadline.none());
+
+        assertEquals(1, recovered.adopted());
+        assertEquals(2, recovered.discarded());
+        assertTrue(recovered.claimedCallIds().isEmpty());
+        assertEquals(List.of("1:34020000001320000001"),
+                journal.list().stream().map(PreviewSessionRepository.JournaledSession::sessionKey).toList());
+        PreviewService.ChannelRuntime adopted = previewService.findChannelRuntimeLocal(1L, "34020000001320000001");
+        assertNotNull(adopted);
+        assertEquals("live_1", adopted.streamId());
+        assertTrue(adopted.backgroundPinned());
+        assertNull(previewService.findChannelRuntimeLocal(2L, "34020000001320000001"));
+        assertEquals(0, previewService.countDeviceSessions(3L));
+        assertEquals(1, admission.status().sessions());
+        assertEquals(2, hits("closeRtpServer"));
+        assertEquals(1, hits("stopRecord"));
+    }
+
+    @Test
+    void spentRecoveryDeadlineShouldDropTheJournalWithoutNetworkCalls() {
+        liveStreams.add("live_1");
+        journal.save(session(1L, "live_1", null, true));
+        PreviewService previewService = previewService();
+
+        PreviewService.RecoveredSessions recovered = previewService.recoverSessions(Deadline.after(Duration.ZERO));
+
+        assertEquals(0, recovered.adopted());
+        assertEquals(1, recovered.discarded());
+        assertTrue(journal.list().isEmpty());
+        assertNull(previewService.findChannelRuntimeLocal(1L, "34020000001320000001"));
+        assertTrue(hitsByEndpoint.isEmpty());
+    }
+
+    @Test
+    void recoverShouldSurviveAnEmptyJournal() {
+        SessionRecovery recovery = new SessionRecovery(previewService(), gb28181Service(), sipSignalService(),
+                properties());
+
+        recovery.recover();
+
+        assertEquals(0, hits("closeRtpServer"));
+        assertTrue(journal.list().isEmpty());
+    }
+
+    @Test
+    void sessionJournalShouldKeepTheReplacementOfAStaleSession() {
+        journal.save(session(1L, "live_1", null, false));
+        PreviewSessionRepository.JournaledSession replacement = new PreviewSessionRepository.JournaledSession(
+                "1:34020000001320000001", "session-new", 1L, "34020000001320000000", "34020000001320000001",
+                "H264", "rtp", "live_9", "MAIN", "HLS", "0100000009", "call-9", 30010, "zlm-a", false,
+                false, null, false, true, STARTED_AT, STARTED_AT);
+        journal.save(replacement);
+
+        // The old session closing late must not drop the row of the one that replaced it.
+        journal.delete("1:34020000001320000001", "session-1");
+        PreviewSessionRepository.JournaledSession row = journal.find("1:34020000001320000001").orElseThrow();
+        assertEquals("live_9", row.streamId());
+        assertEquals("call-9", row.sipCallId());
+        assertEquals(Integer.valueOf(30010), row.rtpPort());
+        assertTrue(row.warmPinned());
+
+        journal.delete("1:34020000001320000001", "session-new");
+        assertTrue(journal.find("1:34020000001320000001").isEmpty());
+    }
+
+    @Test
+    void dialogJournalShouldRoundTripAndAdvanceTheCseq() {
+        gb28181Repository.saveSipDialog(new GbSipDialog("call-1", "34020000001320000000", "34020000001320000001",
+                "192.168.1.64", 5060, "UDP", "local-1", "remote-1", "sip:34020000001320000001@192.168.1.64:5060",
+                2L, STARTED_AT));
+        gb28181Repository.saveSipDialog(new GbSipDialog("call-1", "34020000001320000000", "34020000001320000001",
+                "192.168.1.64", 5060, "UDP", "local-1", "remote-1", "sip:34020000001320000001@192.168.1.64:5060",
+                5L, "2026-03-01T09:00:00Z"));
+
+        List<GbSipDialog> dialogs = gb28181Repository.listSipDialogs();
+        assertEquals(1, dialogs.size());
+        GbSipDialog dialog = dialogs.get(0);
+        assertEquals(5L, dialog.localCseq());
+        assertEquals("local-1", dialog.localTag());
+        assertEquals(STARTED_AT, dialog.createdAt());
+
+        gb28181Repository.deleteSipDialog("call-1");
+        assertTrue(gb28181Repository.listSipDialogs().isEmpty());
+    }
+
+    private PreviewSessionRepository.JournaledSession session(long devicePk, String streamId, String callId,
+            boolean recording) {
+        return new PreviewSessionRepository.JournaledSession(
+                devicePk + ":34020000001320000001", "session-" + devicePk, devicePk, "34020000001320000000",
+                "34020000001320000001", "H264", "rtp", streamId, "MAIN", "HLS", "010000000" + devicePk,
+                callId, 30000 + (int) devicePk, "zlm-a", false, recording, null, true, false, STARTED_AT,
+                STARTED_AT);
+    }
+
+    private PreviewService previewService() {
+        AppProperties properties = properties();
+        MediaStateRegistry mediaStateRegistry = new MediaStateRegistry(properties);
+        return new PreviewService(null, zlmClient(properties, mediaStateRegistry), sipSignalService(), null,
+                properties, mediaStateRegistry, null, admission, null, journal);
+    }
+
+    private Gb28181Service gb28181Service() {
+        AppProperties properties = properties();
+        return new Gb28181Service(null, gb28181Repository, sipSignalService(),
+                zlmClient(properties, new MediaStateRegistry(properties)), properties, admission, null);
+    }
+
+    /** SIP disabled: no stack, BYE is a no-op and only journaled state matters. */
+    private SipSignalService sipSignalService() {
+        AppProperties properties = properties();
+        return new SipSignalService(properties, null, gb28181Repository, new CircuitBreakerRegistry(properties));
+    }
+
+    private ZlmClient zlmClient(AppProperties properties, MediaStateRegistry mediaStateRegistry) {
+        return new ZlmClient(WebClient.create(), properties, mediaStateRegistry, new SimpleMeterRegistry(),
+                new RtpPortPool(properties), new MediaNodeRegistry(properties),
+                new CircuitBreakerRegistry(properties));
+    }
+
+    private AppProperties properties() {
+        AppProperties properties = new AppProperties();
+        properties.getGb28181().setEnabled(false);
+        AppProperties.Zlm.Node node = new AppProperties.Zlm.Node();
+        node.setId("zlm-a");
+        node.setBaseUrl("http://127.0.0.1:" + zlm.getAddress().getPort());
+        node.setSecret("secret");
+        node.setMaxStreams(10);
+        properties.getZlm().setNodes(List.of(node));
+        properties.getZlm().setMediaSnapshotTtlMs(100);
+        return properties;
+    }
+
+    private String respond(String endpoint) {
+        if (!"getMediaList".equals(endpoint)) {
+            return "{\"code\":0,\"result\":true}";
+        }
+        StringBuilder data = new StringBuilder();
+        for (String stream : liveStreams) {
+            if (!data.isEmpty()) {
+                data.append(',');
+            }
+            data.append("{\"app\":\"rtp\",\"stream\":\"%s\",\"schema\":\"rtsp\",\"bytesSpeed\":1000}".formatted(stream));
+        }
+        return "{\"code\":0,\"data\":[" + data + "]}";
+    }
+
+    private int hits(String endpoint) {
+        AtomicInteger count = hitsByEndpoint.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+}
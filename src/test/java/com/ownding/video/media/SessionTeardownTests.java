@@ -0,0 +1,148 @@
+package com.ownding.video.media;
+
+import com.ownding.video.common.ApiException;
+import com.ownding.video.common.Deadline;
+import com.ownding.video.config.AppProperties;
+import com.ownding.video.gb28181.Gb28181Service;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionTeardownTests {
+
+    private final List<SessionTeardown.Task> previews = new ArrayList<>();
+    private final List<SessionTeardown.Task> playbacks = new ArrayList<>();
+    private final AtomicInteger detachCalls = new AtomicInteger();
+
+    @Test
+    void stopAllShouldCloseEverySessionAndReportFailures() {
+        AtomicInteger closed = new AtomicInteger();
+        for (int i = 0; i < 6; i++) {
+            previews.add(new SessionTeardown.Task("preview-" + i, closed::incrementAndGet));
+        }
+        playbacks.add(new SessionTeardown.Task("playback-1", () -> {
+            throw new IllegalStateException("BYE failed");
+        }));
+        SessionTeardown teardown = teardown(properties(2));
+
+        SessionTeardown.BulkStopResult result = teardown.stopAll("test", Deadline.after(Duration.ofSeconds(5)));
+
+        assertEquals(7, result.total());
+        assertEquals(6, result.stopped());
+        assertEquals(1, result.failed());
+        assertEquals(0, result.timedOut());
+        assertEquals(List.of("playback-1: 失败"), result.failures());
+        assertEquals(6, closed.get());
+        assertFalse(teardown.status().running());
+        assertEquals(7, teardown.status().done());
+    }
+
+    @Test
+    void sessionsStillClosingAtTheDeadlineShouldFinishInTheBackground() throws Exception {
+        CountDownLatch slowBye = new CountDownLatch(1);
+        AtomicInteger closed = new AtomicInteger();
+        previews.add(new SessionTeardown.Task("fast", closed::incrementAndGet));
+        previews.add(new SessionTeardown.Task("slow", () -> {
+            try {
+                slowBye.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            closed.incrementAndGet();
+        }));
+        SessionTeardown teardown = teardown(properties(4));
+
+        SessionTeardown.BulkStopResult result = teardown.stopAll("test", Deadline.after(Duration.ofMillis(150)));
+
+        assertEquals(2, result.total());
+        assertEquals(1, result.stopped());
+        assertEquals(1, result.timedOut());
+        assertEquals(List.of("slow: 超时，后台继续关闭"), result.failures());
+        assertTrue(teardown.status().running());
+        // Until the last session is closed, a second bulk stop is refused.
+        ApiException busy = assertThrows(ApiException.class,
+                () -> teardown.stopAll("again", Deadline.after(Duration.ofSeconds(1))));
+        assertEquals(409, busy.getStatus());
+
+        slowBye.countDown();
+        long deadline = System.currentTimeMillis() + 2_000L;
+        while (teardown.status().running() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(teardown.status().running());
+        assertEquals(2, teardown.status().done());
+        assertEquals(0, teardown.status().timedOut());
+        assertEquals(2, closed.get());
+    }
+
+    @Test
+    void unboundedStopShouldWaitForEverySession() {
+        AtomicInteger closed = new AtomicInteger();
+        previews.add(new SessionTeardown.Task("slow", () -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            closed.incrementAndGet();
+        }));
+        SessionTeardown teardown = teardown(properties(4));
+
+        SessionTeardown.BulkStopResult result = teardown.stopAll("test", Deadline.none());
+
+        assertEquals(1, result.stopped());
+        assertEquals(0, result.timedOut());
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    void retainOnShutdownShouldLeaveSessionsRunning() {
+        previews.add(new SessionTeardown.Task("preview", () -> {
+        }));
+        AppProperties properties = properties(4);
+        properties.getPreview().getTeardown().setOnShutdown("RETAIN");
+        SessionTeardown teardown = teardown(properties);
+        teardown.start();
+
+        teardown.stop();
+
+        assertFalse(teardown.isRunning());
+        assertEquals(0, detachCalls.get());
+        assertNull(teardown.status());
+    }
+
+    private SessionTeardown teardown(AppProperties properties) {
+        PreviewService previewService = new PreviewService(null, null, null, null, properties, null, null, null,
+                null, null) {
+            @Override
+            public List<SessionTeardown.Task> detachAllSessions() {
+                detachCalls.incrementAndGet();
+                return List.copyOf(previews);
+            }
+        };
+        Gb28181Service gb28181Service = new Gb28181Service(null, null, null, null, properties, null, null) {
+            @Override
+            public List<SessionTeardown.Task> detachPlaybackSessions() {
+                return List.copyOf(playbacks);
+            }
+        };
+        return new SessionTeardown(previewService, gb28181Service, properties);
+    }
+
+    private static AppProperties properties(int concurrency) {
+        AppProperties properties = new AppProperties();
+        properties.getPreview().getTeardown().setConcurrency(concurrency);
+        return properties;
+    }
+}
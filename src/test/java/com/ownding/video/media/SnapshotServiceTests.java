@@ -0,0 +1,147 @@
+package com.ownding.video.media;
+
+import com.ownding.video.common.CircuitBreakerRegistry;
+import com.ownding.video.config.AppProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotServiceTests {
+
+    private static final String CHANNEL_ID = "34020000001320000001";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void freshFrameShouldBeServedFromTheCache() {
+        StubSnap snap = new StubSnap();
+        SnapshotService service = service(properties(60), snap);
+
+        SnapshotService.Frame first = service.getThumbnail(1L, CHANNEL_ID, false);
+        SnapshotService.Frame second = service.getThumbnail(1L, CHANNEL_ID, false);
+
+        assertEquals(1, snap.calls.get());
+        assertEquals("LIVE", second.source());
+        assertArrayEquals(first.jpeg(), second.jpeg());
+        SnapshotService.SnapshotStats stats = service.stats();
+        assertEquals(1, stats.memoryEntries());
+        assertEquals(1L, stats.memoryHits());
+        assertEquals(1L, stats.liveCaptures());
+    }
+
+    @Test
+    void expiredFrameShouldBeGrabbedAgainAndServedStaleWhenThatFails() {
+        StubSnap snap = new StubSnap();
+        SnapshotService service = service(properties(0), snap);
+
+        service.getThumbnail(1L, CHANNEL_ID, false);
+        SnapshotService.Frame regrabbed = service.getThumbnail(1L, CHANNEL_ID, false);
+        assertEquals(2, snap.calls.get());
+        assertFalse(regrabbed.stale());
+        assertArrayEquals(new byte[] {2}, regrabbed.jpeg());
+
+        snap.failing = true;
+        SnapshotService.Frame stale = service.getThumbnail(1L, CHANNEL_ID, false);
+        assertEquals(3, snap.calls.get());
+        assertTrue(stale.stale());
+        assertArrayEquals(new byte[] {2}, stale.jpeg());
+        assertEquals(1L, service.stats().failedCaptures());
+    }
+
+    @Test
+    void concurrentRequestsForAChannelShouldShareOneGrab() throws Exception {
+        StubSnap snap = new StubSnap();
+        snap.release = new CountDownLatch(1);
+        SnapshotService service = service(properties(60), snap);
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<CompletableFuture<SnapshotService.Frame>> requests = new ArrayList<>();
+            requests.add(CompletableFuture.supplyAsync(() -> service.getThumbnail(1L, CHANNEL_ID, false), executor));
+            assertTrue(snap.entered.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 4; i++) {
+                requests.add(CompletableFuture.supplyAsync(() -> service.getThumbnail(1L, CHANNEL_ID, false),
+                        executor));
+            }
+            // Long enough for the others to find the grab in flight and wait on it.
+            Thread.sleep(200L);
+            snap.release.countDown();
+
+            for (CompletableFuture<SnapshotService.Frame> request : requests) {
+                assertArrayEquals(new byte[] {1}, request.get(5, TimeUnit.SECONDS).jpeg());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, snap.calls.get());
+        assertEquals(1L, service.stats().liveCaptures());
+    }
+
+    private SnapshotService service(AppProperties properties, StubSnap snap) {
+        PreviewService previewService = new PreviewService(null, null, null, null, properties, null, null, null,
+                null, null) {
+            @Override
+            public ChannelRuntime findChannelRuntimeLocal(long devicePk, String channelId, String streamProfile) {
+                return new ChannelRuntime(devicePk, "34020000001320000000", channelId, "rtp",
+                        "live_" + channelId, false, false, true, false, 1, null, null);
+            }
+        };
+        ZlmClient zlmClient = new ZlmClient(WebClient.create(), properties, new MediaStateRegistry(properties),
+                new SimpleMeterRegistry(), new RtpPortPool(properties), new MediaNodeRegistry(properties),
+                new CircuitBreakerRegistry(properties)) {
+            @Override
+            public byte[] getSnap(String app, String streamId) {
+                return snap.grab();
+            }
+        };
+        return new SnapshotService(previewService, null, zlmClient, properties);
+    }
+
+    private AppProperties properties(int liveTtlSeconds) {
+        AppProperties properties = new AppProperties();
+        AppProperties.Preview.Snapshot snapshot = properties.getPreview().getSnapshot();
+        snapshot.setLiveTtlSeconds(liveTtlSeconds);
+        snapshot.setSpillDir(tempDir.toString());
+        return properties;
+    }
+
+    /**
+     * getSnap returning a one-byte frame numbered by call, optionally held
+     * until released.
+     */
+    private static final class StubSnap {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private volatile CountDownLatch release;
+        private volatile boolean failing;
+
+        private byte[] grab() {
+            int call = calls.incrementAndGet();
+            entered.countDown();
+            if (release != null) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return failing ? null : new byte[] {(byte) call};
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.ownding.video.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CleanupEngineTests {
+
+    private static final long GB = 1024L * 1024L * 1024L;
+    private static final String CHANNEL_A = "34020000001320000001";
+    private static final String CHANNEL_B = "34020000001320000002";
+    private static final String CHANNEL_C = "34020000001320000003";
+    private static final String CHANNEL_D = "34020000001320000004";
+
+    @TempDir
+    Path tempDir;
+
+    private RecordStore store;
+    private CleanupEngine engine;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new RecordStore(tempDir);
+        store.properties.getStorage().getCleanup().setBatchSize(2);
+        engine = new CleanupEngine(store.repository, store.indexer, store.counters, store.tiers, store.properties);
+    }
+
+    @Test
+    void lowestPriorityShouldLoseFootageFirstEvenWhenNewer() throws IOException {
+        store.policy(0, 3, true);
+        // B inherits its priority from its group.
+        store.repository.saveRetentionPolicy(RetentionPolicy.SCOPE_GROUP, "vip", null, null, null, 5);
+        store.repository.saveRetentionPolicy(RetentionPolicy.SCOPE_CHANNEL, CHANNEL_B, "vip", null, null, null);
+        Path a1 = store.segment(CHANNEL_A, "2026-03-02T10:00:00Z", GB);
+        Path a2 = store.segment(CHANNEL_A, "2026-03-03T10:00:00Z", GB);
+        Path b1 = store.segment(CHANNEL_B, "2026-03-01T10:00:00Z", GB);
+        Path b2 = store.segment(CHANNEL_B, "2026-03-01T11:00:00Z", GB);
+
+        CleanupEngine.CleanupReport report = engine.run("test");
+
+        assertEquals(1, report.deletedFiles());
+        assertEquals(GB, report.reclaimedBytes());
+        assertFalse(Files.exists(a1));
+        assertTrue(Files.exists(a2));
+        assertTrue(Files.exists(b1));
+        assertTrue(Files.exists(b2));
+        assertEquals(3 * GB, store.counters.totals().totalBytes());
+    }
+
+    @Test
+    void equalPrioritiesShouldAgeOutTogether() throws IOException {
+        store.policy(0, 2, true);
+        Path a1 = store.segment(CHANNEL_A, "2026-03-01T10:00:00Z", GB);
+        Path b1 = store.segment(CHANNEL_B, "2026-03-02T10:00:00Z", GB);
+        Path a2 = store.segment(CHANNEL_A, "2026-03-03T10:00:00Z", GB);
+        Path b2 = store.segment(CHANNEL_B, "2026-03-04T10:00:00Z", GB);
+
+        CleanupEngine.CleanupReport report = engine.run("test");
+
+        // A's batch stops where B's footage starts, so the two oldest go, not both of A's.
+        assertEquals(2, report.deletedFiles());
+        assertFalse(Files.exists(a1));
+        assertFalse(Files.exists(b1));
+        assertTrue(Files.exists(a2));
+        assertTrue(Files.exists(b2));
+        assertEquals(2 * GB, store.counters.totals().totalBytes());
+    }
+
+    @Test
+    void retentionShouldResolveFromChannelThenGroupThenPolicy() throws IOException {
+        store.policy(30, 0, false);
+        store.repository.saveRetentionPolicy(RetentionPolicy.SCOPE_GROUP, "lobby", null, 7, null, null);
+        store.repository.saveRetentionPolicy(RetentionPolicy.SCOPE_CHANNEL, CHANNEL_A, "lobby", null, null, null);
+        store.repository.saveRetentionPolicy(RetentionPolicy.SCOPE_CHANNEL, CHANNEL_B, "lobby", 60, null, null);
+        Instant now = Instant.now();
+        Path aOld = store.segment(CHANNEL_A, now.minus(10, ChronoUnit.DAYS).toString(), 1024);
+        Path aNew = store.segment(CHANNEL_A, now.minus(2, ChronoUnit.DAYS).toString(), 1024);
+        Path bKept = store.segment(CHANNEL_B, now.minus(40, ChronoUnit.DAYS).toString(), 1024);
+        Path bOld = store.segment(CHANNEL_B, now.minus(70, ChronoUnit.DAYS).toString(), 1024);
+        Path cKept = store.segment(CHANNEL_C, now.minus(10, ChronoUnit.DAYS).toString(), 1024);
+        Path cOld = store.segment(CHANNEL_C, now.minus(40, ChronoUnit.DAYS).toString(), 1024);
+
+        CleanupEngine.CleanupReport report = engine.run("test");
+
+        assertFalse(Files.exists(aOld));
+        assertTrue(Files.exists(aNew));
+        assertTrue(Files.exists(bKept));
+        assertFalse(Files.exists(bOld));
+        assertTrue(Files.exists(cKept));
+        assertFalse(Files.exists(cOld));
+        // Each expired day held nothing newer, so the directories went as a whole.
+        assertEquals(3, report.deletedDirectories());
+        assertFalse(Files.exists(aOld.getParent()));
+        assertEquals(3, store.counters.totals().fileCount());
+    }
+
+    @Test
+    void channelAndGroupQuotasShouldBeEnforcedWithoutTheGlobalCap() throws IOException {
+        store.policy(0, 0, false);
+        store.repository.saveRetentionPolicy(RetentionPolicy.SCOPE_CHANNEL, CHANNEL_A, null, null, 1, null);
+        store.repository.saveRetentionPolicy(RetentionPolicy.SCOPE_GROUP, "yard", null, null, 2, null);
+        store.repository.saveRetentionPolicy(RetentionPolicy.SCOPE_CHANNEL, CHANNEL_B, "yard", null, null, null);
+        store.repository.saveRetentionPolicy(RetentionPolicy.SCOPE_CHANNEL, CHANNEL_C, "yard", null, null, null);
+        List<Path> a = List.of(
+                store.segment(CHANNEL_A, "2026-03-01T10:00:00Z", GB),
+                store.segment(CHANNEL_A, "2026-03-02T10:00:00Z", GB),
+                store.segment(CHANNEL_A, "2026-03-03T10:00:00Z", GB));
+        Path b1 = store.segment(CHANNEL_B, "2026-03-01T10:00:00Z", GB);
+        Path c1 = store.segment(CHANNEL_C, "2026-03-02T10:00:00Z", GB);
+        Path b2 = store.segment(CHANNEL_B, "2026-03-03T10:00:00Z", GB);
+        Path c2 = store.segment(CHANNEL_C, "2026-03-04T10:00:00Z", GB);
+        List<Path> d = List.of(
+                store.segment(CHANNEL_D, "2026-03-01T10:00:00Z", GB),
+                store.segment(CHANNEL_D, "2026-03-02T10:00:00Z", GB));
+        assertTrue(engine.watermarkBreached());
+
+        CleanupEngine.CleanupReport report = engine.run("test");
+
+        assertEquals(4, report.deletedFiles());
+        assertFalse(Files.exists(a.get(0)));
+        assertFalse(Files.exists(a.get(1)));
+        assertTrue(Files.exists(a.get(2)));
+        assertFalse(Files.exists(b1));
+        assertFalse(Files.exists(c1));
+        assertTrue(Files.exists(b2));
+        assertTrue(Files.exists(c2));
+        assertTrue(d.stream().allMatch(Files::exists));
+        assertFalse(engine.watermarkBreached());
+    }
+
+    @Test
+    void lowFreeSpaceShouldOnlyDeleteUnderTheRecordRoots() throws IOException {
+        store.policy(0, 1000, true);
+        // Every file system is "short" of space at 100%.
+        store.properties.getStorage().getCleanup().setLowFreePercent(100);
+        store.properties.getStorage().getCleanup().setHighFreePercent(100);
+        Path inside = store.segment(CHANNEL_A, "2026-03-01T10:00:00Z", 1024);
+        Path outside = store.segment(tempDir.resolve("elsewhere"), CHANNEL_A, Instant.parse("2026-02-01T10:00:00Z"),
+                new byte[0], 1024);
+        assertTrue(engine.watermarkBreached());
+
+        CleanupEngine.CleanupReport report = engine.run("test");
+
+        assertEquals(1, report.deletedFiles());
+        assertFalse(Files.exists(inside));
+        assertTrue(Files.exists(outside));
+    }
+}
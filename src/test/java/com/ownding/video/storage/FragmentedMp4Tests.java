@@ -0,0 +1,112 @@
+package com.ownding.video.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FragmentedMp4Tests {
+
+    private static final int SYNC = 0x02000000;
+    private static final int NON_SYNC = 0x01010000;
+
+    @TempDir
+    Path tempDir;
+
+    private Path file;
+    private Mp4File mp4;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = new Mp4Fixture().write(tempDir.resolve("a.mp4"));
+        mp4 = Mp4File.read(file);
+    }
+
+    @Test
+    void fragmentShouldRoundTripEverySample() throws IOException {
+        FragmentedMp4.Fragment fragment = FragmentedMp4.fragment(mp4, 7, 10_000L);
+        byte[] header = fragment.header();
+
+        int moofSize = Mp4Fixture.u32(header, 0);
+        assertEquals("moof", Mp4Fixture.type(header, 0));
+        assertEquals(7, Mp4Fixture.u32(header, Mp4Fixture.find(header, "moof", "mfhd") + 12));
+        assertEquals(Mp4Fixture.TRACK_ID, Mp4Fixture.u32(header, Mp4Fixture.find(header, "moof", "traf", "tfhd") + 12));
+        assertEquals(10_000L, Mp4Fixture.u64(header, Mp4Fixture.find(header, "moof", "traf", "tfdt") + 12));
+
+        int trun = Mp4Fixture.find(header, "moof", "traf", "trun");
+        assertEquals(6, Mp4Fixture.u32(header, trun + 12));
+        // data_offset points just past the mdat header, relative to moof.
+        assertEquals(moofSize + 8, Mp4Fixture.u32(header, trun + 16));
+        for (int i = 0; i < 6; i++) {
+            int entry = trun + 20 + i * 16;
+            assertEquals(Mp4Fixture.SAMPLE_DURATION, Mp4Fixture.u32(header, entry));
+            assertEquals(Mp4Fixture.SIZES[i], Mp4Fixture.u32(header, entry + 4));
+            assertEquals(i == 0 || i == 3 ? SYNC : NON_SYNC, Mp4Fixture.u32(header, entry + 8));
+        }
+
+        byte[] samples = Mp4Fixture.sampleData();
+        assertEquals("mdat", Mp4Fixture.type(header, moofSize));
+        assertEquals(samples.length + 8, Mp4Fixture.u32(header, moofSize));
+        assertEquals(moofSize + 8, header.length);
+        // Both chunks are adjacent in the source, so they stream as one run.
+        assertEquals(List.of(new FragmentedMp4.Run(Mp4Fixture.DATA_START, samples.length)), fragment.runs());
+        assertArrayEquals(samples, payload(fragment));
+        assertEquals(header.length + samples.length, fragment.contentLength());
+        assertEquals(3000L, fragment.durationMillis());
+    }
+
+    @Test
+    void cutShouldStartAtTheKeyframeBeforeTheRequestedTime() throws IOException {
+        FragmentedMp4.Fragment fragment = FragmentedMp4.fragment(mp4, 1, 0L, 2000L, 2500L);
+        byte[] header = fragment.header();
+
+        int trun = Mp4Fixture.find(header, "moof", "traf", "trun");
+        assertEquals(2, Mp4Fixture.u32(header, trun + 12));
+        assertEquals(SYNC, Mp4Fixture.u32(header, trun + 20 + 8));
+        assertEquals(0L, Mp4Fixture.u64(header, Mp4Fixture.find(header, "moof", "traf", "tfdt") + 12));
+        assertEquals(List.of(new FragmentedMp4.Run(Mp4Fixture.SECOND_CHUNK, 160)), fragment.runs());
+        byte[] samples = Mp4Fixture.sampleData();
+        assertArrayEquals(Arrays.copyOfRange(samples, 180, 340), payload(fragment));
+        assertEquals(1000L, fragment.durationMillis());
+    }
+
+    @Test
+    void initSegmentShouldZeroDurationsAndAnnounceTheTotal() {
+        byte[] init = FragmentedMp4.initSegment(mp4, 3000L);
+
+        assertEquals("ftyp", Mp4Fixture.type(init, 0));
+        assertEquals(0, Mp4Fixture.u32(init, Mp4Fixture.find(init, "moov", "mvhd") + 24));
+        assertEquals(0, Mp4Fixture.u32(init, Mp4Fixture.find(init, "moov", "trak", "tkhd") + 28));
+        assertEquals(0, Mp4Fixture.u32(init, Mp4Fixture.find(init, "moov", "trak", "mdia", "mdhd") + 24));
+        int stsd = Mp4Fixture.find(init, "moov", "trak", "mdia", "minf", "stbl", "stsd");
+        assertEquals("avc1", Mp4Fixture.type(init, stsd + 16));
+
+        int mvex = Mp4Fixture.find(init, "moov", "mvex");
+        assertEquals("mehd", Mp4Fixture.type(init, mvex + 8));
+        assertEquals(3000, Mp4Fixture.u32(init, mvex + 8 + 12));
+        assertEquals(Mp4Fixture.TRACK_ID, Mp4Fixture.u32(init, Mp4Fixture.find(init, "moov", "mvex", "trex") + 12));
+
+        byte[] open = FragmentedMp4.initSegment(mp4);
+        assertEquals(-1, Mp4Fixture.find(open, "moov", "mvex", "mehd"));
+        assertTrue(Mp4Fixture.find(open, "moov", "mvex", "trex") > 0);
+    }
+
+    private byte[] payload(FragmentedMp4.Fragment fragment) throws IOException {
+        byte[] source = Files.readAllBytes(file);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (FragmentedMp4.Run run : fragment.runs()) {
+            out.write(source, (int) run.offset(), (int) run.length());
+        }
+        return out.toByteArray();
+    }
+}
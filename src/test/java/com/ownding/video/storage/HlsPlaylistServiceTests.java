@@ -0,0 +1,106 @@
+package com.ownding.video.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HlsPlaylistServiceTests {
+
+    private static final String CHANNEL = "34020000001320000001";
+    private static final LocalDateTime BASE = LocalDateTime.parse("2026-03-01T10:00:00");
+
+    @TempDir
+    Path tempDir;
+
+    private RecordStore store;
+    private HlsPlaylistService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new RecordStore(tempDir);
+        StorageService storageService = new StorageService(store.repository, null, store.counters, null,
+                store.timelineIndex, store.tiers, null);
+        service = new HlsPlaylistService(store.repository, storageService, new SegmentInfoCache());
+    }
+
+    @Test
+    void playlistShouldAnnounceTheRealSegmentDurations() throws IOException {
+        segment(0, new Mp4Fixture().bytes());
+        segment(3, new Mp4Fixture().bytes());
+
+        HlsPlaylistService.Playlist playlist = playlist();
+
+        assertFalse(playlist.live());
+        List<String> lines = playlist.text().lines().toList();
+        // The index says 60 s per segment; the files hold 3 s each.
+        assertEquals(List.of("#EXTINF:3.000,", "#EXTINF:3.000,"), matching(lines, "#EXTINF:"));
+        assertTrue(lines.contains("#EXT-X-TARGETDURATION:3"), playlist.text());
+        assertEquals(1, matching(lines, "#EXT-X-MAP:").size());
+        assertEquals(List.of(), matching(lines, "#EXT-X-DISCONTINUITY"));
+        assertTrue(lines.contains("#EXT-X-PLAYLIST-TYPE:VOD"));
+        assertEquals("#EXT-X-ENDLIST", lines.get(lines.size() - 1));
+    }
+
+    @Test
+    void codecChangeShouldStartARunWithItsOwnInitSegment() throws IOException {
+        segment(0, new Mp4Fixture().bytes());
+        Path hevc = segment(3, new Mp4Fixture().codec("hvc1").bytes());
+        segment(6, new Mp4Fixture().codec("hvc1").bytes());
+
+        List<String> lines = playlist().text().lines().toList();
+
+        assertEquals(1, matching(lines, "#EXT-X-DISCONTINUITY").size());
+        List<String> maps = matching(lines, "#EXT-X-MAP:");
+        assertEquals(2, maps.size());
+        assertTrue(maps.get(1).contains(hevc.getFileName().toString()), maps.get(1));
+        int discontinuity = lines.indexOf("#EXT-X-DISCONTINUITY");
+        assertEquals(maps.get(1), lines.get(discontinuity + 1));
+    }
+
+    @Test
+    void gapAfterAShortSegmentShouldStartANewRun() throws IOException {
+        // Contiguous by the nominal 60 s in the index, 27 s apart by the real durations.
+        segment(0, new Mp4Fixture().bytes());
+        segment(30, new Mp4Fixture().bytes());
+
+        List<String> lines = playlist().text().lines().toList();
+
+        assertEquals(1, matching(lines, "#EXT-X-DISCONTINUITY").size());
+        assertEquals(2, matching(lines, "#EXT-X-PROGRAM-DATE-TIME:").size());
+    }
+
+    @Test
+    void unreadableSegmentShouldKeepItsIndexedLength() throws IOException {
+        segment(0, "not an mp4".getBytes(StandardCharsets.US_ASCII));
+
+        List<String> lines = playlist().text().lines().toList();
+
+        assertEquals(List.of("#EXTINF:60.000,"), matching(lines, "#EXTINF:"));
+        assertTrue(lines.contains("#EXT-X-TARGETDURATION:60"));
+    }
+
+    private HlsPlaylistService.Playlist playlist() {
+        return service.playlist(CHANNEL, BASE.toString(), BASE.plusHours(1).toString());
+    }
+
+    private Path segment(int offsetSeconds, byte[] content) throws IOException {
+        LocalDateTime start = BASE.plusSeconds(offsetSeconds);
+        return store.segment(store.recordRoot, CHANNEL, start.atZone(ZoneId.systemDefault()).toInstant(), content,
+                content.length);
+    }
+
+    private static List<String> matching(List<String> lines, String prefix) {
+        return lines.stream().filter(line -> line.startsWith(prefix)).toList();
+    }
+}
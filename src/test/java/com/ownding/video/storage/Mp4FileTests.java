@@ -0,0 +1,118 @@
+package com.ownding.video.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Mp4FileTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readShouldExpandTheSampleTables() throws IOException {
+        Mp4File mp4 = Mp4File.read(new Mp4Fixture().write(tempDir.resolve("a.mp4")));
+
+        assertEquals(1000, mp4.timescale());
+        assertEquals(3.0d, mp4.durationSeconds());
+        assertEquals(1, mp4.tracks().size());
+        Mp4File.Track track = mp4.tracks().get(0);
+        assertEquals(Mp4Fixture.TRACK_ID, track.trackId());
+        assertEquals("vide", track.handler());
+        assertEquals("avc1", track.codec());
+        assertEquals(6, track.sampleCount());
+        // Three samples per chunk, laid out back to back within each chunk.
+        long[] offsets = new long[track.sampleCount()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = track.offset(i);
+            assertEquals(Mp4Fixture.SIZES[i], track.size(i));
+            assertEquals(Mp4Fixture.SAMPLE_DURATION, track.duration(i));
+            assertEquals(0, track.ctsOffset(i));
+        }
+        assertArrayEquals(new long[]{32, 132, 172, 212, 332, 372}, offsets);
+        assertTrue(track.isSync(0));
+        assertFalse(track.isSync(1));
+        assertTrue(track.isSync(3));
+    }
+
+    @Test
+    void segmentInfoShouldListKeyframeTimesAndOffsets() throws IOException {
+        Mp4File mp4 = Mp4File.read(new Mp4Fixture().write(tempDir.resolve("a.mp4")));
+
+        SegmentInfoCache.SegmentInfo info = SegmentInfoCache.SegmentInfo.of(mp4);
+
+        assertEquals(3000L, info.durationMillis());
+        assertEquals(List.of("avc1"), info.codecs());
+        assertArrayEquals(new long[]{0, 1500}, info.keyframeMillis());
+        assertArrayEquals(new long[]{Mp4Fixture.DATA_START, Mp4Fixture.SECOND_CHUNK}, info.keyframeOffsets());
+        assertEquals(mp4.codecKey(), info.codecKey());
+        assertEquals(0, info.keyframeAtOrBefore(1499));
+        assertEquals(1, info.keyframeAtOrBefore(2000));
+    }
+
+    @Test
+    void codecKeyShouldFollowTheSampleDescription() throws IOException {
+        Mp4File first = Mp4File.read(new Mp4Fixture().write(tempDir.resolve("a.mp4")));
+        Mp4File second = Mp4File.read(new Mp4Fixture().write(tempDir.resolve("b.mp4")));
+        Mp4File hevc = Mp4File.read(new Mp4Fixture().codec("hvc1").write(tempDir.resolve("c.mp4")));
+
+        assertEquals(first.codecKey(), second.codecKey());
+        assertNotEquals(first.codecKey(), hevc.codecKey());
+        assertEquals("hvc1", hevc.tracks().get(0).codec());
+    }
+
+    @Test
+    void entryCountsBeyondTheBoxShouldBeRejected() throws IOException {
+        Path sizeTable = new Mp4Fixture().stszCount(Integer.MAX_VALUE).write(tempDir.resolve("a.mp4"));
+        IOException tooMany = assertThrows(IOException.class, () -> Mp4File.read(sizeTable));
+        assertTrue(tooMany.getMessage().contains("表项数越界"), tooMany.getMessage());
+
+        Path negative = new Mp4Fixture().stszCount(-1).write(tempDir.resolve("b.mp4"));
+        assertThrows(IOException.class, () -> Mp4File.read(negative));
+
+        // A uniform stsz carries no table, so only the cap bounds its count.
+        Path uniform = new Mp4Fixture().uniformSize(40).stszCount(16 * 1024 * 1024 + 1)
+                .write(tempDir.resolve("c.mp4"));
+        IOException uniformTooMany = assertThrows(IOException.class, () -> Mp4File.read(uniform));
+        assertTrue(uniformTooMany.getMessage().contains("表项数越界"), uniformTooMany.getMessage());
+    }
+
+    @Test
+    void headerBoxesTooShortForTheirFieldsShouldBeRejected() throws IOException {
+        // Each cut ends before the field read from the box, which would otherwise come from the next box.
+        Map<String, Integer> cuts = Map.of("mvhd", 12, "tkhd", 12, "mdhd", 12, "hdlr", 8);
+        for (Map.Entry<String, Integer> cut : cuts.entrySet()) {
+            Path file = new Mp4Fixture().shortBox(cut.getKey(), cut.getValue())
+                    .write(tempDir.resolve(cut.getKey() + ".mp4"));
+            IOException ex = assertThrows(IOException.class, () -> Mp4File.read(file), cut.getKey());
+            assertEquals("MP4 box 过短: " + cut.getKey(), ex.getMessage());
+        }
+    }
+
+    @Test
+    void incompleteFilesShouldBeRejected() throws IOException {
+        byte[] bytes = new Mp4Fixture().bytes();
+        int moovAt = Mp4Fixture.find(bytes, "moov");
+
+        Path withoutMoov = Files.write(tempDir.resolve("a.mp4"), Arrays.copyOf(bytes, moovAt));
+        IOException missing = assertThrows(IOException.class, () -> Mp4File.read(withoutMoov));
+        assertTrue(missing.getMessage().contains("未找到 moov"), missing.getMessage());
+
+        Path truncated = Files.write(tempDir.resolve("b.mp4"), Arrays.copyOf(bytes, bytes.length - 10));
+        IOException partial = assertThrows(IOException.class, () -> Mp4File.read(truncated));
+        assertTrue(partial.getMessage().contains("moov 不完整"), partial.getMessage());
+    }
+}
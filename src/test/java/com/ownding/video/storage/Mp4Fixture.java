@@ -0,0 +1,203 @@
+package com.ownding.video.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Builds a small progressive MP4 (ftyp, mdat, moov) with one video track of
+ * six 500 ms samples in two chunks, keyframes at samples 1 and 4, and reads
+ * boxes back out of generated bytes.
+ */
+final class Mp4Fixture {
+
+    static final int TIMESCALE = 1000;
+    static final int SAMPLE_DURATION = 500;
+    static final int[] SIZES = {100, 40, 40, 120, 40, 40};
+    static final int TRACK_ID = 1;
+    /** ftyp (24 bytes) plus the mdat header. */
+    static final int DATA_START = 32;
+    static final int SECOND_CHUNK = DATA_START + 180;
+
+    private String codec = "avc1";
+    private Integer stszCount;
+    private int uniformSize;
+    private String shortBox;
+    private int shortPayload;
+
+    Mp4Fixture codec(String codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /** Overrides the stsz sample count without changing the table. */
+    Mp4Fixture stszCount(int stszCount) {
+        this.stszCount = stszCount;
+        return this;
+    }
+
+    /** Writes a uniform stsz with this sample size and no size table. */
+    Mp4Fixture uniformSize(int uniformSize) {
+        this.uniformSize = uniformSize;
+        return this;
+    }
+
+    /**
+     * Cuts the payload of one header box (mvhd, tkhd, mdhd or hdlr) to this
+     * many bytes; the boxes around it stay consistent.
+     */
+    Mp4Fixture shortBox(String type, int payloadLength) {
+        this.shortBox = type;
+        this.shortPayload = payloadLength;
+        return this;
+    }
+
+    Path write(Path file) throws IOException {
+        Files.write(file, bytes());
+        return file;
+    }
+
+    byte[] bytes() {
+        byte[] ftyp = box("ftyp", ascii("isom"), u32(0x200), ascii("isom"), ascii("mp41"));
+        byte[] mdat = box("mdat", sampleData());
+        return concat(ftyp, mdat, moov());
+    }
+
+    /** Sample i is filled with the byte value i + 1. */
+    static byte[] sampleData() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < SIZES.length; i++) {
+            byte[] sample = new byte[SIZES[i]];
+            Arrays.fill(sample, (byte) (i + 1));
+            out.writeBytes(sample);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] moov() {
+        long duration = (long) SIZES.length * SAMPLE_DURATION;
+        byte[] mvhd = cut(full("mvhd", 0, 0, u32(0), u32(0), u32(TIMESCALE), u32((int) duration), u32(0x00010000),
+                new byte[]{0x01, 0x00}, new byte[10], matrix(), new byte[24], u32(TRACK_ID + 1)));
+        byte[] tkhd = cut(full("tkhd", 0, 3, u32(0), u32(0), u32(TRACK_ID), u32(0), u32((int) duration), new byte[8],
+                new byte[8], matrix(), u32(640 << 16), u32(480 << 16)));
+        byte[] mdhd = cut(full("mdhd", 0, 0, u32(0), u32(0), u32(TIMESCALE), u32((int) duration), new byte[4]));
+        byte[] hdlr = cut(full("hdlr", 0, 0, u32(0), ascii("vide"), new byte[12], new byte[]{0}));
+        byte[] vmhd = full("vmhd", 0, 1, new byte[8]);
+        byte[] dinf = box("dinf", full("dref", 0, 0, u32(1), full("url ", 0, 1)));
+        byte[] stbl = box("stbl", stsd(), stts(), stsc(), stsz(), stco(), stss());
+        byte[] minf = box("minf", vmhd, dinf, stbl);
+        byte[] trak = box("trak", tkhd, box("mdia", mdhd, hdlr, minf));
+        return box("moov", mvhd, trak);
+    }
+
+    private byte[] cut(byte[] box) {
+        if (!type(box, 0).equals(shortBox)) {
+            return box;
+        }
+        return box(shortBox, Arrays.copyOfRange(box, 8, 8 + shortPayload));
+    }
+
+    private byte[] stsd() {
+        byte[] entryBody = concat(new byte[6], new byte[]{0, 1}, new byte[70]);
+        return full("stsd", 0, 0, u32(1), box(codec, entryBody));
+    }
+
+    private static byte[] stts() {
+        return full("stts", 0, 0, u32(1), u32(SIZES.length), u32(SAMPLE_DURATION));
+    }
+
+    private static byte[] stsc() {
+        return full("stsc", 0, 0, u32(1), u32(1), u32(3), u32(1));
+    }
+
+    private byte[] stsz() {
+        int count = stszCount != null ? stszCount : SIZES.length;
+        if (uniformSize != 0) {
+            return full("stsz", 0, 0, u32(uniformSize), u32(count));
+        }
+        ByteArrayOutputStream sizes = new ByteArrayOutputStream();
+        for (int size : SIZES) {
+            sizes.writeBytes(u32(size));
+        }
+        return full("stsz", 0, 0, u32(0), u32(count), sizes.toByteArray());
+    }
+
+    private static byte[] stco() {
+        return full("stco", 0, 0, u32(2), u32(DATA_START), u32(SECOND_CHUNK));
+    }
+
+    private static byte[] stss() {
+        return full("stss", 0, 0, u32(2), u32(1), u32(4));
+    }
+
+    private static byte[] matrix() {
+        return concat(u32(0x00010000), u32(0), u32(0), u32(0), u32(0x00010000), u32(0), u32(0), u32(0),
+                u32(0x40000000));
+    }
+
+    /**
+     * Offset of the box reached by following {@code path} from the top
+     * level, or -1.
+     */
+    static int find(byte[] data, String... path) {
+        int start = 0;
+        int end = data.length;
+        int found = -1;
+        for (String type : path) {
+            found = -1;
+            for (int at = start; at + 8 <= end; at += u32(data, at)) {
+                if (type.equals(type(data, at))) {
+                    found = at;
+                    break;
+                }
+            }
+            if (found < 0) {
+                return -1;
+            }
+            start = found + 8;
+            end = found + u32(data, found);
+        }
+        return found;
+    }
+
+    static String type(byte[] data, int at) {
+        return new String(data, at + 4, 4, StandardCharsets.US_ASCII);
+    }
+
+    static int u32(byte[] data, int at) {
+        return ByteBuffer.wrap(data).getInt(at);
+    }
+
+    static long u64(byte[] data, int at) {
+        return ByteBuffer.wrap(data).getLong(at);
+    }
+
+    private static byte[] box(String type, byte[]... payload) {
+        byte[] body = concat(payload);
+        return concat(u32(body.length + 8), ascii(type), body);
+    }
+
+    private static byte[] full(String type, int version, int flags, byte[]... payload) {
+        return box(type, concat(u32((version << 24) | flags), concat(payload)));
+    }
+
+    private static byte[] u32(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,155 @@
+package com.ownding.video.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlaybackControllerTests {
+
+    private static final String CONTENT = "0123456789abcdef";
+    private static final String SEGMENT = "ch1/2026-03-01/10-00-00.mp4";
+    private static final Instant MODIFIED = Instant.parse("2026-03-01T10:01:00Z");
+
+    @TempDir
+    Path tempDir;
+
+    private PlaybackController controller;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path file = tempDir.resolve(SEGMENT);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, CONTENT, StandardCharsets.US_ASCII);
+        Files.setLastModifiedTime(file, FileTime.from(MODIFIED));
+        StorageService storageService = new StorageService(null, null, null, null, null, null, null) {
+            @Override
+            public Path locateRecordFile(String path) {
+                Path resolved = tempDir.resolve(path).normalize();
+                return resolved.startsWith(tempDir) ? resolved : null;
+            }
+        };
+        controller = new PlaybackController(storageService, null, null);
+    }
+
+    @Test
+    void requestWithoutRangeShouldReturnTheWholeFile() {
+        MockServerHttpResponse response = video(MockServerHttpRequest.get("/api/playback/video"));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("bytes", response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
+        assertEquals(CONTENT.length(), response.getHeaders().getContentLength());
+        assertEquals(CONTENT, response.getBodyAsString().block());
+        // Closed long ago, so the segment will not change again.
+        assertTrue(response.getHeaders().getCacheControl().contains("immutable"));
+    }
+
+    @Test
+    void singleRangeShouldReturnPartialContent() {
+        MockServerHttpResponse response = video(MockServerHttpRequest.get("/api/playback/video")
+                .header(HttpHeaders.RANGE, "bytes=2-5"));
+
+        assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals("bytes 2-5/16", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals("2345", response.getBodyAsString().block());
+    }
+
+    @Test
+    void suffixRangeShouldReturnTheTail() {
+        MockServerHttpResponse response = video(MockServerHttpRequest.get("/api/playback/video")
+                .header(HttpHeaders.RANGE, "bytes=-3"));
+
+        assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertEquals("bytes 13-15/16", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals("def", response.getBodyAsString().block());
+    }
+
+    @Test
+    void multipleRangesShouldReturnByteranges() {
+        MockServerHttpResponse response = video(MockServerHttpRequest.get("/api/playback/video")
+                .header(HttpHeaders.RANGE, "bytes=0-1,14-15"));
+
+        assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        assertTrue(response.getHeaders().getContentType().toString().startsWith("multipart/byteranges"));
+        String body = response.getBodyAsString().block();
+        assertTrue(body.contains("Content-Range: bytes 0-1/16"));
+        assertTrue(body.contains("Content-Range: bytes 14-15/16"));
+    }
+
+    @Test
+    void unsatisfiableRangeShouldReturn416WithTheLength() {
+        MockServerHttpResponse beyond = video(MockServerHttpRequest.get("/api/playback/video")
+                .header(HttpHeaders.RANGE, "bytes=16-20"));
+        assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, beyond.getStatusCode());
+        assertEquals("bytes */16", beyond.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+
+        MockServerHttpResponse malformed = video(MockServerHttpRequest.get("/api/playback/video")
+                .header(HttpHeaders.RANGE, "bytes=abc"));
+        assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, malformed.getStatusCode());
+        assertEquals("bytes */16", malformed.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void ifRangeShouldOnlyHonourTheRangeWhileTheValidatorMatches() {
+        String etag = video(MockServerHttpRequest.get("/api/playback/video")).getHeaders().getETag();
+        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(MODIFIED,
+                ZoneOffset.UTC));
+
+        MockServerHttpResponse sameEtag = video(MockServerHttpRequest.get("/api/playback/video")
+                .header(HttpHeaders.RANGE, "bytes=2-5")
+                .header(HttpHeaders.IF_RANGE, etag));
+        assertEquals(HttpStatus.PARTIAL_CONTENT, sameEtag.getStatusCode());
+
+        MockServerHttpResponse sameDate = video(MockServerHttpRequest.get("/api/playback/video")
+                .header(HttpHeaders.RANGE, "bytes=2-5")
+                .header(HttpHeaders.IF_RANGE, lastModified));
+        assertEquals(HttpStatus.PARTIAL_CONTENT, sameDate.getStatusCode());
+
+        MockServerHttpResponse staleEtag = video(MockServerHttpRequest.get("/api/playback/video")
+                .header(HttpHeaders.RANGE, "bytes=2-5")
+                .header(HttpHeaders.IF_RANGE, "\"10-0\""));
+        assertEquals(HttpStatus.OK, staleEtag.getStatusCode());
+        assertEquals(CONTENT, staleEtag.getBodyAsString().block());
+    }
+
+    @Test
+    void matchingEtagShouldReturnNotModified() {
+        String etag = video(MockServerHttpRequest.get("/api/playback/video")).getHeaders().getETag();
+
+        MockServerHttpResponse response = video(MockServerHttpRequest.get("/api/playback/video")
+                .header(HttpHeaders.IF_NONE_MATCH, etag));
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+    }
+
+    @Test
+    void pathsOutsideTheRecordRootShouldBeForbidden() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/api/playback/video"));
+
+        controller.video("../outside.mp4", exchange).block();
+
+        assertEquals(HttpStatus.FORBIDDEN, exchange.getResponse().getStatusCode());
+    }
+
+    private MockServerHttpResponse video(MockServerHttpRequest.BaseBuilder<?> request) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(request);
+        controller.video(SEGMENT, exchange).block();
+        return exchange.getResponse();
+    }
+}
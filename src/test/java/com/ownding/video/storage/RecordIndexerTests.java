@@ -0,0 +1,152 @@
+package com.ownding.video.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class RecordIndexerTests {
+
+    private static final String CHANNEL = "34020000001320000001";
+
+    @TempDir
+    Path tempDir;
+
+    private RecordStore store;
+    private Path channelDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new RecordStore(tempDir);
+        channelDir = store.recordRoot.resolve("rtp").resolve("ch" + CHANNEL);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.indexer.stop();
+    }
+
+    @Test
+    void startupScanShouldIndexExistingSegments() throws IOException {
+        Path file = write(channelDir.resolve("2026-03-01/2026-03-01-10-00-00-0.mp4"), 2048);
+        write(channelDir.resolve("2026-03-01/notes.txt"), 10);
+
+        start();
+
+        List<RecordFileItem> rows = store.repository.listRecordFiles();
+        assertEquals(1, rows.size());
+        RecordFileItem row = rows.get(0);
+        assertEquals(file.toString(), row.filePath());
+        assertEquals(CHANNEL, row.channelId());
+        assertEquals(2048, row.fileSizeBytes());
+        assertEquals("2026-03-01T10:00:00", row.startTime());
+        assertEquals(1, store.counters.totals().fileCount());
+    }
+
+    @Test
+    void watchShouldIndexSegmentsInNewDirectoriesAndDropDeletedOnes() throws IOException {
+        start();
+
+        // The channel and day directories do not exist yet and must be registered on the fly.
+        Path first = write(channelDir.resolve("2026-03-02/2026-03-02-10-00-00-0.mp4"), 100);
+        awaitIndexed(Set.of(first));
+        Path second = write(channelDir.resolve("2026-03-02/2026-03-02-10-01-00-0.mp4"), 200);
+        awaitIndexed(Set.of(first, second));
+
+        Files.delete(first);
+        awaitIndexed(Set.of(second));
+        assertEquals(200, store.counters.totals().totalBytes());
+    }
+
+    @Test
+    void segmentsShouldOnlyBeIndexedOnceRenamedFromTheirHiddenName() throws IOException {
+        Path dayDir = Files.createDirectories(channelDir.resolve("2026-03-03"));
+        start();
+
+        Path writing = write(dayDir.resolve(".2026-03-03-10-00-00-0.mp4"), 100);
+        Path other = write(dayDir.resolve("2026-03-03-09-59-00-0.mp4"), 100);
+        awaitIndexed(Set.of(other));
+
+        Path closed = Files.move(writing, dayDir.resolve("2026-03-03-10-00-00-0.mp4"));
+        awaitIndexed(Set.of(other, closed));
+    }
+
+    @Test
+    void directoryMovedOutOfTheRootShouldDropItsRows() throws IOException {
+        Path dayDir = channelDir.resolve("2026-03-04");
+        Path first = write(dayDir.resolve("2026-03-04-10-00-00-0.mp4"), 100);
+        Path second = write(dayDir.resolve("2026-03-04-10-01-00-0.mp4"), 100);
+        Path kept = write(channelDir.resolve("2026-03-05/2026-03-05-10-00-00-0.mp4"), 100);
+        start();
+        awaitIndexed(Set.of(first, second, kept));
+
+        // A rename reports only the directory, never the files inside it.
+        Files.move(dayDir, tempDir.resolve("moved"));
+
+        awaitIndexed(Set.of(kept));
+        assertEquals(1, store.counters.totals().fileCount());
+    }
+
+    @Test
+    void reconcileShouldRepairChangesTheWatchMissed() throws IOException {
+        store.properties.getStorage().getRecordIndex().setWatchEnabled(false);
+        Path removed = write(channelDir.resolve("2026-03-06/2026-03-06-10-00-00-0.mp4"), 100);
+        start();
+
+        Files.delete(removed);
+        Path added = write(channelDir.resolve("2026-03-06/2026-03-06-10-01-00-0.mp4"), 300);
+        store.indexer.reconcileTask();
+
+        awaitIndexed(Set.of(added));
+        assertEquals(300, store.counters.totals().totalBytes());
+    }
+
+    private void start() {
+        store.indexer.start();
+        await(store.indexer::isReady, "initial scan");
+    }
+
+    private void awaitIndexed(Set<Path> expected) {
+        Set<String> paths = expected.stream().map(Path::toString).collect(Collectors.toSet());
+        await(() -> paths.equals(indexedPaths()), "index to hold " + paths);
+    }
+
+    private Set<String> indexedPaths() {
+        return store.repository.listIndexedFiles().stream()
+                .map(StorageRepository.IndexedFile::filePath)
+                .collect(Collectors.toSet());
+    }
+
+    private static void await(BooleanSupplier condition, String what) {
+        long deadline = System.currentTimeMillis() + 10_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("timed out waiting for " + what);
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail("interrupted waiting for " + what);
+            }
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static Path write(Path file, int size) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.write(file, new byte[size]);
+    }
+}
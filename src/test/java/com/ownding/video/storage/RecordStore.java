@@ -0,0 +1,76 @@
+package com.ownding.video.storage;
+
+import com.ownding.video.TestDatabase;
+import com.ownding.video.config.AppProperties;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * The storage components wired as in the application over a fresh database
+ * and a record root in a temp directory, with free-space watermarks off.
+ * The indexer is not started; {@link #segment} writes a file and indexes it
+ * the way the indexer would.
+ */
+final class RecordStore {
+
+    static final String DEVICE_ID = "34020000001110000001";
+    private static final DateTimeFormatter FILE_NAME = DateTimeFormatter.ofPattern("HH-mm-ss");
+    private static final DateTimeFormatter LOCAL_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    final Path recordRoot;
+    final AppProperties properties = new AppProperties();
+    final StorageRepository repository;
+    final StorageUsageCounters counters;
+    final RecordTimelineIndex timelineIndex;
+    final RecordTiers tiers;
+    final RecordIndexer indexer;
+
+    RecordStore(Path tempDir) throws IOException {
+        recordRoot = tempDir.resolve("records");
+        repository = new StorageRepository(TestDatabase.create(Files.createDirectories(tempDir.resolve("db"))));
+        repository.updatePolicy(0, 0, false, true, recordRoot.toString());
+        properties.getStorage().getCleanup().setLowFreePercent(0);
+        properties.getStorage().getCleanup().setHighFreePercent(0);
+        counters = new StorageUsageCounters(repository);
+        timelineIndex = new RecordTimelineIndex(repository);
+        tiers = new RecordTiers(repository, properties);
+        indexer = new RecordIndexer(repository, counters, timelineIndex, new SegmentInfoCache(), tiers, properties);
+    }
+
+    void policy(int retentionDays, int maxStorageGb, boolean autoOverwrite) {
+        repository.updatePolicy(retentionDays, maxStorageGb, autoOverwrite, true, recordRoot.toString());
+    }
+
+    /** An empty segment under the record root. */
+    Path segment(String channelId, String createdAt, long indexedBytes) throws IOException {
+        return segment(recordRoot, channelId, Instant.parse(createdAt), new byte[0], indexedBytes);
+    }
+
+    /**
+     * Writes {@code content} to {root}/rtp/ch{id}/{day}/{HH-mm-ss}.mp4 with
+     * {@code created} as its modification time and indexes it as
+     * {@code indexedBytes} long, which is the size cleanup and migration go by.
+     */
+    Path segment(Path root, String channelId, Instant created, byte[] content, long indexedBytes)
+            throws IOException {
+        LocalDateTime local = LocalDateTime.ofInstant(created, ZoneId.systemDefault());
+        Path file = root.resolve("rtp").resolve("ch" + channelId).resolve(local.toLocalDate().toString())
+                .resolve(FILE_NAME.format(local) + ".mp4");
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+        Files.setLastModifiedTime(file, FileTime.from(created));
+        List<StorageRepository.RecordSnapshot> rows = List.of(new StorageRepository.RecordSnapshot(DEVICE_ID,
+                channelId, file.toString(), indexedBytes, LOCAL_TIME.format(local),
+                LOCAL_TIME.format(local.plusSeconds(60)), created.toString()));
+        counters.apply(repository.upsertRecordFiles(rows), rows);
+        return file;
+    }
+}
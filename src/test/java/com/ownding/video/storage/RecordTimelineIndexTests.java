@@ -0,0 +1,118 @@
+package com.ownding.video.storage;
+
+import com.ownding.video.TestDatabase;
+import com.ownding.video.common.ApiException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RecordTimelineIndexTests {
+
+    private static final String CHANNEL = "34020000001320000001";
+
+    @TempDir
+    Path tempDir;
+
+    private StorageRepository repository;
+    private RecordTimelineIndex index;
+
+    @BeforeEach
+    void setUp() {
+        repository = new StorageRepository(TestDatabase.create(tempDir));
+        index = new RecordTimelineIndex(repository);
+        repository.upsertRecordFiles(List.of(
+                segment("2026-03-01T23:58:00", "2026-03-01T23:59:00"),
+                // Starts before midnight and runs into the next day.
+                segment("2026-03-01T23:59:00", "2026-03-02T00:00:30"),
+                // Within the join tolerance of the segment before.
+                segment("2026-03-02T00:00:31", "2026-03-02T00:02:00"),
+                segment("2026-03-02T00:10:00", "2026-03-02T00:11:00")));
+    }
+
+    @Test
+    void spansShouldMergeAcrossMidnight() {
+        RecordTimelineIndex.Timeline timeline = index.timeline(CHANNEL,
+                LocalDateTime.parse("2026-03-01T23:30:00"), LocalDateTime.parse("2026-03-02T00:30:00"));
+
+        assertEquals(List.of(
+                new RecordTimelineIndex.Span("2026-03-01T23:58:00", "2026-03-02T00:02:00", 240),
+                new RecordTimelineIndex.Span("2026-03-02T00:10:00", "2026-03-02T00:11:00", 60)), timeline.spans());
+        assertEquals(List.of(
+                new RecordTimelineIndex.Span("2026-03-01T23:30:00", "2026-03-01T23:58:00", 1680),
+                new RecordTimelineIndex.Span("2026-03-02T00:02:00", "2026-03-02T00:10:00", 480),
+                new RecordTimelineIndex.Span("2026-03-02T00:11:00", "2026-03-02T00:30:00", 1140)), timeline.gaps());
+        assertEquals(300, timeline.recordedSeconds());
+    }
+
+    @Test
+    void rangeStartingAtMidnightShouldIncludeTheSegmentFromTheDayBefore() {
+        RecordTimelineIndex.Timeline timeline = index.timeline(CHANNEL,
+                LocalDateTime.parse("2026-03-02T00:00:00"), LocalDateTime.parse("2026-03-02T00:05:00"));
+
+        assertEquals(List.of(new RecordTimelineIndex.Span("2026-03-02T00:00:00", "2026-03-02T00:02:00", 120)),
+                timeline.spans());
+        assertEquals(List.of(new RecordTimelineIndex.Span("2026-03-02T00:02:00", "2026-03-02T00:05:00", 180)),
+                timeline.gaps());
+    }
+
+    @Test
+    void locateShouldFindTheCoveringSpanOrTheNextStart() {
+        RecordTimelineIndex.Located inside = index.locate(CHANNEL, LocalDateTime.parse("2026-03-02T00:00:10"));
+        assertEquals("2026-03-01T23:58:00", inside.span().start());
+        assertNull(inside.nextStart());
+
+        RecordTimelineIndex.Located inGap = index.locate(CHANNEL, LocalDateTime.parse("2026-03-02T00:05:00"));
+        assertNull(inGap.span());
+        assertEquals("2026-03-02T00:10:00", inGap.nextStart());
+
+        RecordTimelineIndex.Located after = index.locate(CHANNEL, LocalDateTime.parse("2026-03-02T12:00:00"));
+        assertNull(after.span());
+        assertNull(after.nextStart());
+    }
+
+    @Test
+    void indexChangesShouldReachLoadedDays() {
+        LocalDateTime from = LocalDateTime.parse("2026-03-02T00:00:00");
+        LocalDateTime to = LocalDateTime.parse("2026-03-02T01:00:00");
+        assertEquals(2, index.timeline(CHANNEL, from, to).spans().size());
+
+        // A new segment bridges the gap.
+        List<StorageRepository.RecordSnapshot> bridge = List.of(
+                segment("2026-03-02T00:02:00", "2026-03-02T00:10:00"));
+        index.apply(repository.upsertRecordFiles(bridge), bridge);
+        assertEquals(List.of(new RecordTimelineIndex.Span("2026-03-02T00:00:00", "2026-03-02T00:11:00", 660)),
+                index.timeline(CHANNEL, from, to).spans());
+
+        // Deleting one drops the loaded days, which are read again from the index.
+        index.apply(repository.deleteRecordFilesByPath(List.of(path("2026-03-02T00:10:00"))), List.of());
+        assertEquals(List.of(new RecordTimelineIndex.Span("2026-03-02T00:00:00", "2026-03-02T00:10:00", 600)),
+                index.timeline(CHANNEL, from, to).spans());
+    }
+
+    @Test
+    void invalidRangesShouldBeRejected() {
+        LocalDateTime from = LocalDateTime.parse("2026-03-02T00:00:00");
+
+        assertEquals(400, assertThrows(ApiException.class,
+                () -> index.timeline(CHANNEL, from, from)).getStatus());
+        assertEquals(400, assertThrows(ApiException.class,
+                () -> index.timeline(CHANNEL, from, from.plusDays(63))).getStatus());
+    }
+
+    private static StorageRepository.RecordSnapshot segment(String start, String end) {
+        return new StorageRepository.RecordSnapshot("34020000001110000001", CHANNEL, path(start), 1024, start, end,
+                end + "Z");
+    }
+
+    private static String path(String start) {
+        return "/data/records/ch" + CHANNEL + "/" + start.substring(0, 10) + "/" + start.replace(':', '-') + ".mp4";
+    }
+}
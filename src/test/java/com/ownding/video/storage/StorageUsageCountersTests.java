@@ -0,0 +1,122 @@
+package com.ownding.video.storage;
+
+import com.ownding.video.TestDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class StorageUsageCountersTests {
+
+    private static final String CH_A = "34020000001320000001";
+    private static final String CH_B = "34020000001320000002";
+
+    @TempDir
+    Path tempDir;
+
+    private StorageRepository repository;
+    private StorageUsageCounters counters;
+
+    @BeforeEach
+    void setUp() {
+        repository = new StorageRepository(TestDatabase.create(tempDir));
+        counters = new StorageUsageCounters(repository);
+    }
+
+    @Test
+    void seedShouldAggregatePerChannelAndDay() {
+        repository.upsertRecordFiles(List.of(
+                segment(CH_A, "a1", 100, "2026-03-01T23:59:00Z"),
+                segment(CH_A, "a2", 200, "2026-03-02T00:01:00Z"),
+                segment(CH_B, "b1", 50, "2026-03-02T08:00:00Z")));
+
+        counters.reseed();
+
+        StorageUsageCounters.Totals totals = counters.totals();
+        assertEquals(3, totals.fileCount());
+        assertEquals(350, totals.totalBytes());
+        assertEquals("2026-03-01T23:59:00Z", totals.oldest());
+        assertEquals("2026-03-02T08:00:00Z", totals.newest());
+
+        List<StorageUsageCounters.ChannelUsage> channels = counters.byChannel();
+        assertEquals(List.of(CH_A, CH_B), channels.stream().map(StorageUsageCounters.ChannelUsage::channelId).toList());
+        assertEquals(new StorageUsageCounters.ChannelUsage(CH_A, 2, 300, "2026-03-01T23:59:00Z",
+                "2026-03-02T00:01:00Z"), channels.get(0));
+
+        List<StorageUsageCounters.DayUsage> days = counters.byDay();
+        assertEquals(List.of(
+                new StorageUsageCounters.DayUsage("2026-03-01", 1, 1, 100),
+                new StorageUsageCounters.DayUsage("2026-03-02", 2, 2, 250)), days);
+    }
+
+    @Test
+    void deltasShouldTrackInsertsReplacementsAndDeletes() {
+        counters.reseed();
+        write(segment(CH_A, "a1", 100, "2026-03-01T08:00:00Z"),
+                segment(CH_A, "a2", 100, "2026-03-01T08:01:00Z"),
+                segment(CH_B, "b1", 40, "2026-03-01T08:00:00Z"));
+        assertEquals(240, counters.totals().totalBytes());
+
+        // A segment still being written grows; its row is replaced, not added.
+        write(segment(CH_A, "a2", 160, "2026-03-01T08:02:00Z"));
+        assertEquals(3, counters.totals().fileCount());
+        assertEquals(Map.of(CH_A, 260L, CH_B, 40L), counters.channelBytes());
+
+        // Deleting the oldest leaves the bucket's bounds to be looked up again.
+        counters.apply(repository.deleteRecordFilesByPath(List.of(path(CH_A, "a1"))), List.of());
+        StorageUsageCounters.ChannelUsage channelA = counters.byChannel().get(0);
+        assertEquals(CH_A, channelA.channelId());
+        assertEquals(1, channelA.fileCount());
+        assertEquals("2026-03-01T08:02:00Z", channelA.oldest());
+
+        counters.apply(repository.deleteRecordFilesByPath(List.of(path(CH_B, "b1"))), List.of());
+        assertEquals(Map.of(CH_A, 160L), counters.channelBytes());
+        assertEquals(1, counters.byDay().get(0).channelCount());
+    }
+
+    @Test
+    void runningTotalsShouldMatchAFreshSeed() {
+        counters.reseed();
+        write(segment(CH_A, "a1", 100, "2026-03-01T08:00:00Z"),
+                segment(CH_B, "b1", 70, "2026-03-02T08:00:00Z"));
+        write(segment(CH_A, "a1", 130, "2026-03-01T08:00:30Z"));
+        counters.apply(repository.deleteRecordFilesByPath(List.of(path(CH_B, "b1"))), List.of());
+
+        StorageUsageCounters seeded = new StorageUsageCounters(repository);
+        seeded.reseed();
+        assertEquals(seeded.totals(), counters.totals());
+        assertEquals(seeded.channelBytes(), counters.channelBytes());
+        assertEquals(seeded.byDay(), counters.byDay());
+    }
+
+    @Test
+    void emptyIndexShouldHaveNoBounds() {
+        StorageUsageCounters.Totals totals = counters.totals();
+
+        assertEquals(0, totals.fileCount());
+        assertNull(totals.oldest());
+        assertEquals(List.of(), counters.byChannel());
+    }
+
+    /** Index write plus counter delta, as {@link RecordIndexer} does it. */
+    private void write(StorageRepository.RecordSnapshot... snapshots) {
+        List<StorageRepository.RecordSnapshot> rows = List.of(snapshots);
+        counters.apply(repository.upsertRecordFiles(rows), rows);
+    }
+
+    private static StorageRepository.RecordSnapshot segment(String channelId, String name, long size,
+            String modifiedAt) {
+        return new StorageRepository.RecordSnapshot("34020000001110000001", channelId, path(channelId, name), size,
+                modifiedAt.substring(0, 19), null, modifiedAt);
+    }
+
+    private static String path(String channelId, String name) {
+        return "/data/records/ch" + channelId + "/" + name + ".mp4";
+    }
+}
@@ -0,0 +1,115 @@
+package com.ownding.video.storage;
+
+import com.ownding.video.config.AppProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TierMigratorTests {
+
+    private static final String CHANNEL = "34020000001320000001";
+
+    @TempDir
+    Path tempDir;
+
+    private RecordStore store;
+    private Path hot;
+    private Path cold;
+    private TierMigrator migrator;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new RecordStore(tempDir);
+        hot = store.recordRoot;
+        cold = tempDir.resolve("cold");
+        AppProperties.Storage.Tiering tiering = store.properties.getStorage().getTiering();
+        tiering.setEnabled(true);
+        tiering.setHotDays(1);
+        tiering.setColdPaths(List.of(cold.toString()));
+        tiering.setMigrateBytesPerSecond(0);
+        migrator = new TierMigrator(store.repository, store.indexer, store.tiers, store.properties);
+    }
+
+    @Test
+    void closedDayShouldMoveToTheColdTierWithItsRows() throws IOException {
+        Instant created = daysAgo(3);
+        Path first = segment(created, "first", 1);
+        Path second = segment(created.plusSeconds(60), "second", 1);
+
+        TierMigrator.MigrationReport report = migrator.run();
+
+        assertEquals(1, report.movedDirectories());
+        assertEquals(2, report.movedFiles());
+        assertFalse(Files.exists(first.getParent()));
+        Path moved = cold.resolve(hot.relativize(first));
+        assertEquals("first", Files.readString(moved));
+        // Retention runs off the modification time, so the copy keeps it.
+        assertEquals(created.getEpochSecond(), Files.getLastModifiedTime(moved).toInstant().getEpochSecond());
+        assertEquals("second", Files.readString(cold.resolve(hot.relativize(second))));
+        assertTrue(store.repository.listIndexedFiles().stream()
+                .allMatch(file -> file.filePath().startsWith(cold.toString())));
+        assertEquals(2, store.counters.totals().fileCount());
+    }
+
+    @Test
+    void openDirectoriesShouldStayHot() throws IOException {
+        // Today's directory, still written to.
+        Path today = segment(Instant.now(), "today", 1);
+        // A past day holding a segment ZLMediaKit has not closed yet.
+        Path writing = segment(daysAgo(4), "closed", 1);
+        Files.writeString(writing.resolveSibling(".23-59-00.mp4"), "open");
+
+        TierMigrator.MigrationReport report = migrator.run();
+
+        assertEquals(0, report.movedDirectories());
+        assertTrue(Files.exists(today));
+        assertTrue(Files.exists(writing));
+        assertFalse(Files.exists(cold.resolve(hot.relativize(writing))));
+    }
+
+    @Test
+    void directoryNoColdTierHasRoomForShouldStayHot() throws IOException {
+        Path file = segment(daysAgo(3), "big", 1L << 60);
+
+        TierMigrator.MigrationReport report = migrator.run();
+
+        assertEquals(0, report.movedDirectories());
+        assertTrue(Files.exists(file));
+        assertEquals(file.toString(), store.repository.listIndexedFiles().get(0).filePath());
+    }
+
+    @Test
+    void runShouldBeSkippedWithTieringOff() throws IOException {
+        segment(daysAgo(3), "first", 1);
+        store.properties.getStorage().getTiering().setEnabled(false);
+
+        assertNull(migrator.run());
+    }
+
+    /** 10:00 local time, so a segment and the next minute share a day directory. */
+    private static Instant daysAgo(int days) {
+        return LocalDate.now().minusDays(days).atTime(10, 0).atZone(ZoneId.systemDefault()).toInstant();
+    }
+
+    /**
+     * A segment of the test channel holding {@code content}, indexed as
+     * {@code indexedBytes}, which is what the migrator checks free space against.
+     */
+    private Path segment(Instant created, String content, long indexedBytes) throws IOException {
+        return store.segment(hot, CHANNEL, created, content.getBytes(StandardCharsets.US_ASCII), indexedBytes);
+    }
+}